@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.compute;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Drains a fresh pool with allocations of ten instances, then deletes them all.
+ * <p/>
+ * Each shot covers the whole pool, split evenly between the benchmark threads, so
+ * the contended variant shows how allocation scales across cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(1)
+public class AllocationCycleBenchmark {
+
+  static final int BATCH = 10;
+
+  @Param({"10", "100", "1000", "10000", "100000"})
+  public int poolSize;
+
+  private BYONComputeProvider provider;
+  private BYONComputeInstanceTemplate template;
+
+  @Setup(Level.Iteration)
+  public void setUp() {
+    provider = BenchmarkProviders.newProvider("node-[1-" + poolSize + "].example.com",
+        BenchmarkProviders.newResolver());
+    template = BenchmarkProviders.newTemplate(provider, null);
+  }
+
+  @Benchmark
+  public void allocateAndDelete(ThreadParams threads) throws InterruptedException {
+    cycle(threads);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void allocateAndDeleteContended(ThreadParams threads) throws InterruptedException {
+    cycle(threads);
+  }
+
+  private void cycle(ThreadParams threads) throws InterruptedException {
+    int share = poolSize / threads.getThreadCount();
+    List<String> instanceIds =
+        BenchmarkProviders.instanceIds("t" + threads.getThreadIndex() + "-", share);
+
+    for (int i = 0; i < share; i += BATCH) {
+      List<String> batch = instanceIds.subList(i, Math.min(i + BATCH, share));
+      provider.allocate(template, batch, batch.size());
+    }
+    for (int i = 0; i < share; i += BATCH) {
+      provider.delete(template, instanceIds.subList(i, Math.min(i + BATCH, share)));
+    }
+  }
+}
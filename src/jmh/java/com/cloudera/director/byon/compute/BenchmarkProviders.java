@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.compute;
+
+import static com.cloudera.director.byon.compute.BYONComputeInstanceTemplateConfigurationPropertyToken.PLACEMENT;
+import static com.cloudera.director.byon.compute.BYONComputeInstanceTemplateConfigurationPropertyToken.PREFERRED_HOSTS;
+import static com.cloudera.director.byon.compute.BYONComputeProviderConfigurationPropertyToken.HOSTS;
+
+import com.cloudera.director.byon.BYONLauncher;
+import com.cloudera.director.byon.net.CachingHostResolver;
+import com.cloudera.director.byon.net.HostResolver;
+import com.cloudera.director.byon.util.DaemonThreadFactory;
+import com.cloudera.director.spi.v2.model.util.SimpleConfiguration;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds providers for benchmarks without touching DNS.
+ */
+final class BenchmarkProviders {
+
+  private static final byte[] LOOPBACK = new byte[]{127, 0, 0, 1};
+
+  /**
+   * Resolves every host to the loopback address without any I/O.
+   */
+  private static final HostResolver LOOPBACK_RESOLVER = new HostResolver() {
+    @Override
+    public InetAddress resolve(String host) throws UnknownHostException {
+      return InetAddress.getByAddress(host, LOOPBACK);
+    }
+  };
+
+  private BenchmarkProviders() {
+  }
+
+  static CachingHostResolver newResolver() {
+    return new CachingHostResolver(LOOPBACK_RESOLVER,
+        Executors.newFixedThreadPool(4, new DaemonThreadFactory("benchmark-resolver")),
+        1 << 20, TimeUnit.HOURS.toNanos(1), TimeUnit.HOURS.toNanos(1));
+  }
+
+  /**
+   * Builds a provider over a pool of its own, unaffected by earlier iterations.
+   */
+  static BYONComputeProvider newProvider(String hosts, CachingHostResolver resolver) {
+    return newProvider(hosts, resolver, new HostPoolRegistry());
+  }
+
+  static BYONComputeProvider newProvider(String hosts, CachingHostResolver resolver,
+      HostPoolRegistry registry) {
+    Map<String, String> configs = new HashMap<String, String>();
+    configs.put(HOSTS.unwrap().getConfigKey(), hosts);
+
+    return new BYONComputeProvider(new SimpleConfiguration(configs),
+        new BYONLauncher().getLocalizationContext(Locale.getDefault()), resolver, registry);
+  }
+
+  static BYONComputeInstanceTemplate newTemplate(BYONComputeProvider provider,
+      String preferredHosts) {
+    return newTemplate(provider, preferredHosts, null);
+  }
+
+  static BYONComputeInstanceTemplate newTemplate(BYONComputeProvider provider,
+      String preferredHosts, String placement) {
+    Map<String, String> configs = new HashMap<String, String>();
+    if (preferredHosts != null) {
+      configs.put(PREFERRED_HOSTS.unwrap().getConfigKey(), preferredHosts);
+    }
+    if (placement != null) {
+      configs.put(PLACEMENT.unwrap().getConfigKey(), placement);
+    }
+    return provider.createResourceTemplate("benchmark", new SimpleConfiguration(configs),
+        Collections.<String, String>emptyMap());
+  }
+
+  static List<String> instanceIds(String prefix, int count) {
+    List<String> result = new ArrayList<String>(count);
+    for (int i = 0; i < count; i++) {
+      result.add(prefix + i);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.compute;
+
+import com.cloudera.director.byon.net.CachingHostResolver;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A single request for 1000 instances against a fresh pool of 2000 hosts in 20 racks,
+ * with none or half of them on preferred hosts, packed or spread across racks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BulkAllocationBenchmark {
+
+  static final int POOL_SIZE = 2000;
+  static final int REQUEST_SIZE = 1000;
+  static final int RACK_SIZE = 100;
+
+  private static final String POOL = racks();
+
+  @Param({"0", "500"})
+  public int preferred;
+
+  @Param({"pack", "spread"})
+  public String placement;
+
+  private CachingHostResolver resolver;
+  private List<String> instanceIds;
+
+  private BYONComputeProvider provider;
+  private BYONComputeInstanceTemplate template;
+
+  @Setup
+  public void setUpTrial() {
+    resolver = BenchmarkProviders.newResolver();
+    instanceIds = BenchmarkProviders.instanceIds("i-", REQUEST_SIZE);
+  }
+
+  /**
+   * A request takes milliseconds, so setting up per invocation does not skew results.
+   */
+  @Setup(Level.Invocation)
+  public void setUp() {
+    provider = BenchmarkProviders.newProvider(POOL, resolver);
+    template = BenchmarkProviders.newTemplate(provider,
+        preferred == 0 ? null : "node-[" + (POOL_SIZE - preferred + 1) + "-" + POOL_SIZE
+            + "].example.com", placement);
+  }
+
+  @Benchmark
+  public Collection<BYONComputeInstance> allocate() throws InterruptedException {
+    return provider.allocate(template, instanceIds, REQUEST_SIZE);
+  }
+
+  private static String racks() {
+    StringBuilder result = new StringBuilder();
+    for (int first = 1; first <= POOL_SIZE; first += RACK_SIZE) {
+      if (result.length() > 0) {
+        result.append(',');
+      }
+      result.append("node-[").append(first).append('-').append(first + RACK_SIZE - 1)
+          .append("].example.com{rack=r").append(first / RACK_SIZE).append('}');
+    }
+    return result.toString();
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cloudera.director.byon.compute;
+
+import com.cloudera.director.byon.util.HostGroups;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to allocate a host from a pool with fewer hosts than threads. Each thread
+ * holds its host for a while, gives it back and idles for a random time before
+ * asking again; only the allocation itself is measured.
+ * <p/>
+ * The retry variant fails and backs off exponentially from {@value #FIRST_BACKOFF_MICROS}
+ * microseconds, the way callers retry failed allocations but scaled down, while the
+ * waiting variant queues for capacity. The sample mode reports the percentiles of the
+ * time to allocate. Without idle time the retry variant keeps the hosts with the
+ * threads that just gave them back and starves the others, which few samples show.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+@Threads(12)
+public class CapacityWaitBenchmark {
+
+  static final int POOL_SIZE = 8;
+  static final long FIRST_BACKOFF_MICROS = 500;
+  static final long MAX_BACKOFF_MICROS = 50000;
+
+  @State(Scope.Benchmark)
+  public static class Pools {
+
+    @Param({"1000", "10000"})
+    public long holdMicros;
+
+    @Param({"0", "500"})
+    public long idleMicros;
+
+    HostPool retryPool;
+    HostPool waitingPool;
+    final AtomicLong sequence = new AtomicLong();
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+      retryPool = new HostPool(HostGroups.parse("node-[1-" + POOL_SIZE + "]"));
+      final HostPool pool = new HostPool(HostGroups.parse("node-[1-" + POOL_SIZE + "]"));
+      pool.attachCapacityWaiters(new CapacityWaiters(1, TimeUnit.HOURS,
+          CapacityWaiters.DEFAULT_MAX_WAITING, new IntSupplier() {
+            @Override
+            public int getAsInt() {
+              return pool.getUnreservedCount();
+            }
+          }));
+      waitingPool = pool;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws Exception {
+      waitingPool.close();
+    }
+  }
+
+  /**
+   * The host a thread allocated, held and given back after each invocation.
+   */
+  @State(Scope.Thread)
+  public static class Allocation {
+    HostPool pool;
+    String instanceId;
+    String host;
+
+    @TearDown(Level.Invocation)
+    public void giveBack(Pools pools) {
+      LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(pools.holdMicros));
+      pool.release(instanceId);
+      pool.returnHost(host);
+      if (pools.idleMicros > 0) {
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(
+            ThreadLocalRandom.current().nextLong(2 * pools.idleMicros)));
+      }
+    }
+  }
+
+  @Benchmark
+  public String allocateWithRetries(Pools pools, Allocation allocation) {
+    long backoff = FIRST_BACKOFF_MICROS;
+    while (true) {
+      try {
+        return allocate(pools, pools.retryPool, allocation);
+      } catch (IllegalStateException e) {
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(backoff));
+        backoff = Math.min(backoff * 2, MAX_BACKOFF_MICROS);
+      }
+    }
+  }
+
+  @Benchmark
+  public String allocateWaitingForCapacity(Pools pools, Allocation allocation) {
+    return allocate(pools, pools.waitingPool, allocation);
+  }
+
+  private static String allocate(Pools pools, HostPool pool, Allocation allocation) {
+    String instanceId = "i-" + pools.sequence.incrementAndGet();
+    HostPool.Reservation reservation = pool.reserveBatch(1, 1, HostRequirements.NONE, null);
+    allocation.host = reservation.claimAny(instanceId);
+    reservation.commit();
+    allocation.pool = pool;
+    allocation.instanceId = instanceId;
+    return allocation.host;
+  }
+}
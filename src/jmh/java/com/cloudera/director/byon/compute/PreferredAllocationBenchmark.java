@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.compute;
+
+import com.cloudera.director.byon.net.CachingHostResolver;
+import com.cloudera.director.byon.util.HostGroups;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Allocates 5k preferred hosts out of a 50k host pool.
+ * <p/>
+ * Each iteration runs against a fresh pool since allocations consume it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 20)
+@Measurement(iterations = 20)
+@Fork(1)
+public class PreferredAllocationBenchmark {
+
+  static final String POOL = "node-[1-50000].example.com";
+  static final String PREFERRED = "node-[20001-25000].example.com";
+  static final int PREFERRED_COUNT = 5000;
+
+  private final CachingHostResolver resolver = BenchmarkProviders.newResolver();
+  private final List<String> instanceIds = BenchmarkProviders.instanceIds("id-", PREFERRED_COUNT);
+  private final String[] preferredHosts = HostGroups.expand(PREFERRED);
+
+  private HostPool pool;
+  private BYONComputeProvider provider;
+  private BYONComputeInstanceTemplate template;
+
+  @Setup(Level.Iteration)
+  public void setUp() {
+    pool = new HostPool(HostGroups.parse(POOL));
+
+    provider = BenchmarkProviders.newProvider(POOL, resolver);
+    template = BenchmarkProviders.newTemplate(provider, PREFERRED);
+  }
+
+  /**
+   * Claims the preferred hosts directly on the pool.
+   */
+  @Benchmark
+  public int claimPreferred() {
+    int count = pool.reserve(PREFERRED_COUNT, PREFERRED_COUNT);
+    for (String host : preferredHosts) {
+      if (pool.claim(host)) {
+        count--;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Full provider allocation, including instance creation with cached lookups.
+   */
+  @Benchmark
+  public Collection<BYONComputeInstance> allocatePreferred() throws InterruptedException {
+    return provider.allocate(template, instanceIds, PREFERRED_COUNT);
+  }
+}
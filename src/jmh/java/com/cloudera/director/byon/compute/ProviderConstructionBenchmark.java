@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.compute;
+
+import com.cloudera.director.byon.net.CachingHostResolver;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Creating and closing a provider, as the cloud provider does for every request.
+ * One provider stays open for the whole run, so the shared pool is only built once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ProviderConstructionBenchmark {
+
+  @Param({"1000", "100000"})
+  public int poolSize;
+
+  private String hosts;
+  private CachingHostResolver resolver;
+  private HostPoolRegistry registry;
+
+  @Setup
+  public void setUp() {
+    hosts = "node-[1-" + poolSize + "].example.com";
+    resolver = BenchmarkProviders.newResolver();
+    registry = new HostPoolRegistry();
+    BenchmarkProviders.newProvider(hosts, resolver, registry);
+  }
+
+  @TearDown
+  public void tearDown() {
+    registry.close();
+  }
+
+  /**
+   * A provider over a pool that is already registered.
+   */
+  @Benchmark
+  public BYONComputeProvider shared() {
+    return BenchmarkProviders.newProvider(hosts, resolver, registry);
+  }
+
+  /**
+   * A provider that builds its pool from scratch, as every provider used to.
+   */
+  @Benchmark
+  public BYONComputeProvider unshared() {
+    return BenchmarkProviders.newProvider(hosts, resolver);
+  }
+}
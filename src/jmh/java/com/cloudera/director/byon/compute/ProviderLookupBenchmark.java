@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.compute;
+
+import com.cloudera.director.spi.v2.model.InstanceState;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Status polls against a fully allocated pool, one thread at a time and from many
+ * threads at once. Each operation looks up a batch of ten instances, walking the
+ * allocations round-robin, except for {@code findAll} which looks up every instance
+ * at once the way a cluster bootstrap polls. Run with {@code -prof gc} to see the
+ * allocation rate: cached instances are handed back as they are.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ProviderLookupBenchmark {
+
+  static final int BATCH = 10;
+
+  @Param({"10", "100", "1000", "10000", "100000"})
+  public int poolSize;
+
+  private BYONComputeProvider provider;
+  private BYONComputeInstanceTemplate template;
+  private List<String> instanceIds;
+
+  @State(Scope.Thread)
+  public static class Cursor {
+    private int next;
+
+    List<String> nextBatch(List<String> ids) {
+      if (next + BATCH > ids.size()) {
+        next = 0;
+      }
+      List<String> batch = ids.subList(next, Math.min(next + BATCH, ids.size()));
+      next += BATCH;
+      return batch;
+    }
+  }
+
+  @Setup
+  public void setUp() throws InterruptedException {
+    provider = BenchmarkProviders.newProvider("node-[1-" + poolSize + "].example.com",
+        BenchmarkProviders.newResolver());
+    template = BenchmarkProviders.newTemplate(provider, null);
+    instanceIds = BenchmarkProviders.instanceIds("id-", poolSize);
+
+    for (int i = 0; i < poolSize; i += 1000) {
+      List<String> batch = instanceIds.subList(i, Math.min(i + 1000, poolSize));
+      provider.allocate(template, batch, batch.size());
+    }
+  }
+
+  @Benchmark
+  public Collection<BYONComputeInstance> find(Cursor cursor) throws InterruptedException {
+    return provider.find(template, cursor.nextBatch(instanceIds));
+  }
+
+  @Benchmark
+  public Collection<BYONComputeInstance> findAll() throws InterruptedException {
+    return provider.find(template, instanceIds);
+  }
+
+  @Benchmark
+  public Map<String, InstanceState> getInstanceState(Cursor cursor) {
+    return provider.getInstanceState(template, cursor.nextBatch(instanceIds));
+  }
+
+  @Benchmark
+  @Threads(8)
+  public Collection<BYONComputeInstance> findContended(Cursor cursor)
+      throws InterruptedException {
+    return provider.find(template, cursor.nextBatch(instanceIds));
+  }
+
+  @Benchmark
+  @Threads(8)
+  public Map<String, InstanceState> getInstanceStateContended(Cursor cursor) {
+    return provider.getInstanceState(template, cursor.nextBatch(instanceIds));
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parses and expands host group expressions.
+ * <p/>
+ * The million host benchmarks compare full expansion and lazy iteration with
+ * {@link #legacyFormat}, which keeps the per-host {@code String.format} and
+ * {@code String.replace} approach used before range templates were precompiled.
+ * The shape benchmarks cover the kinds of expressions found in configurations.
+ * {@link #indexOfLiteralHost} looks up the last of a long list of literal hosts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class HostGroupsBenchmark {
+
+  static final String MILLION_HOSTS = "node-[0000001-1000000].dc1.example.com";
+
+  @State(Scope.Benchmark)
+  public static class Shape {
+
+    @Param({
+        "single-host.example.com",
+        "10.0.1.[1-254]",
+        "node-[00001-10000].dc1.example.com",
+        "a.example.com, b.example.com, c.example.com, d.example.com, e.example.com",
+        "10.0.1.[1-254], node-{001..500}.example.com, gateway.example.com",
+        "dc[1-3]-rack{01..20}-n[1-800,!13].example.com"
+    })
+    public String expression;
+  }
+
+  /**
+   * A hundred thousand literal hosts, as read from a hosts file, packed into a table.
+   */
+  @State(Scope.Benchmark)
+  public static class LiteralHosts {
+
+    HostGroupList hosts;
+    String last;
+
+    @Setup
+    public void setUp() {
+      StringBuilder expression = new StringBuilder();
+      for (int i = 0; i < 100000; i++) {
+        last = "wrk-" + Integer.toHexString(i * 7919) + ".dc1.example.com";
+        expression.append(last).append(", ");
+      }
+      hosts = HostGroups.parse(expression.toString());
+    }
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public int indexOfLiteralHost(LiteralHosts literals) {
+    return literals.hosts.indexOf(literals.last);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public HostGroupList parseShape(Shape shape) {
+    return HostGroups.parse(shape.expression);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public String[] expandShape(Shape shape) {
+    return HostGroups.expand(shape.expression);
+  }
+
+  @Benchmark
+  public void legacyFormat(Blackhole blackhole) {
+    String block = "[0000001-1000000]";
+    int paddingSize = 7;
+    for (int i = 1; i <= 1000000; i++) {
+      blackhole.consume(MILLION_HOSTS.replace(block, String.format("%0" + paddingSize + "d", i)));
+    }
+  }
+
+  @Benchmark
+  public String[] expand() {
+    return HostGroups.expand(MILLION_HOSTS);
+  }
+
+  @Benchmark
+  public void iterate(Blackhole blackhole) {
+    for (String host : HostGroups.parse(MILLION_HOSTS)) {
+      blackhole.consume(host);
+    }
+  }
+}
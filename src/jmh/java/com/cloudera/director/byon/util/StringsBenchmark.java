@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.util;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Splits comma separated host lists of increasing length, as generated from
+ * inventory exports.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StringsBenchmark {
+
+  @Param({"10", "1000", "100000"})
+  public int hosts;
+
+  private String input;
+
+  @Setup
+  public void setUp() {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < hosts; i++) {
+      builder.append(i % 3 == 0 ? " " : "").append("host-").append(i).append(".example.com,");
+    }
+    input = builder.append(",,").toString();
+  }
+
+  @Benchmark
+  public List<String> splitTrimOmitEmpty() {
+    return Strings.splitTrimOmitEmpty(input, ",");
+  }
+
+  @Benchmark
+  public int forEachPart() {
+    return Strings.forEachPart(input, ',', new Strings.PartConsumer() {
+      @Override
+      public void accept(CharSequence text, int start, int end) {
+      }
+    });
+  }
+
+  @Benchmark
+  public int countOccurrencesOf() {
+    return Strings.countOccurrencesOf(input, ',');
+  }
+
+  @Benchmark
+  public boolean bracketStats() {
+    return Strings.bracketStats(input).isBalanced();
+  }
+}
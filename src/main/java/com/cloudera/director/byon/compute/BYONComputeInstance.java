@@ -19,17 +19,59 @@ package com.cloudera.director.byon.compute;
 import com.cloudera.director.spi.v2.compute.util.AbstractComputeInstance;
 
 import java.net.InetAddress;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
+/**
+ * An allocated host.
+ * <p/>
+ * Instances are immutable and shared: the pool keeps one per allocation and hands
+ * the same object to every lookup until the allocation changes. The properties are
+ * the attributes the host was listed with, such as its rack, along with the
+ * {@value #HOST} it runs on, when it was allocated and, with leases, the state of
+ * its lease. Once gathered, the {@link HostFacts} of the host are added under the
+ * keys the host was not listed with.
+ */
 public class BYONComputeInstance
     extends AbstractComputeInstance<BYONComputeInstanceTemplate, Void> {
 
   public static final Type TYPE = new ResourceType("BYONComputeInstance");
 
+  /**
+   * The property holding the name of the host.
+   */
+  public static final String HOST = "host";
+
+  /**
+   * The property holding the time the host was allocated, in ISO-8601 format. Only
+   * known for instances allocated since the pool was created.
+   */
+  public static final String ALLOCATED_AT = "allocatedAt";
+
+  /**
+   * The property holding the state of the lease of the instance, either
+   * {@code unconfirmed} or {@code confirmed}. Only set when leases are enabled.
+   */
+  public static final String LEASE_STATE = "leaseState";
+
+  private final Map<String, String> properties;
+  private final HostFacts facts;
+
   protected BYONComputeInstance(BYONComputeInstanceTemplate template,
       String identifier, InetAddress privateIpAddress) {
+    this(template, identifier, privateIpAddress, Collections.<String, String>emptyMap(), null);
+  }
+
+  /**
+   * @param properties the properties of the instance, copied
+   * @param facts      the facts of the host the properties include, or null if none
+   */
+  BYONComputeInstance(BYONComputeInstanceTemplate template, String identifier,
+      InetAddress privateIpAddress, Map<String, String> properties, HostFacts facts) {
     super(template, identifier, privateIpAddress);
+    this.properties = Collections.unmodifiableMap(new LinkedHashMap<String, String>(properties));
+    this.facts = facts;
   }
 
   @Override
@@ -37,8 +79,25 @@ public class BYONComputeInstance
     return TYPE;
   }
 
+  /**
+   * @return the properties of the instance, the same unmodifiable map on every call
+   */
   @Override
   public Map<String, String> getProperties() {
-    return new HashMap<String, String>();
+    return properties;
+  }
+
+  /**
+   * @return the host of the instance, or null if unknown
+   */
+  String getHost() {
+    return properties.get(HOST);
+  }
+
+  /**
+   * @return the facts of the host included in the properties, or null if none
+   */
+  HostFacts getFacts() {
+    return facts;
   }
 }
@@ -16,6 +16,7 @@
 
 package com.cloudera.director.byon.compute;
 
+import com.cloudera.director.byon.util.HostGroupList;
 import com.cloudera.director.byon.util.HostGroups;
 import com.cloudera.director.spi.v2.compute.ComputeInstanceTemplate;
 import com.cloudera.director.spi.v2.model.ConfigurationProperty;
@@ -23,8 +24,6 @@ import com.cloudera.director.spi.v2.model.Configured;
 import com.cloudera.director.spi.v2.model.LocalizationContext;
 import com.cloudera.director.spi.v2.util.ConfigurationPropertiesUtil;
 
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -40,11 +39,19 @@ public class BYONComputeInstanceTemplate extends ComputeInstanceTemplate {
               BYONComputeInstanceTemplateConfigurationPropertyToken.values())
       );
 
+  /**
+   * The tag naming the quota group of a template, unless configured explicitly.
+   */
+  static final String QUOTA_GROUP_TAG = "quotaGroup";
+
   public static List<ConfigurationProperty> getConfigurationProperties() {
     return CONFIGURATION_PROPERTIES;
   }
 
-  private final List<String> preferredHosts;
+  private final HostGroupList preferredHosts;
+  private final HostRequirements requirements;
+  private final PlacementStrategy placementStrategy;
+  private final String quotaGroup;
 
   public BYONComputeInstanceTemplate(String name,
       Configured configuration, Map<String, String> tags,
@@ -56,14 +63,68 @@ public class BYONComputeInstanceTemplate extends ComputeInstanceTemplate {
         BYONComputeInstanceTemplateConfigurationPropertyToken.PREFERRED_HOSTS, localizationContext);
 
     if (hostGroupExpressions != null) {
-      preferredHosts = Collections.unmodifiableList(
-          Arrays.asList(HostGroups.expand(hostGroupExpressions)));
+      preferredHosts = HostGroups.parse(hostGroupExpressions);
     } else {
-      preferredHosts = Collections.emptyList();
+      preferredHosts = HostGroupList.empty();
+    }
+
+    requirements = HostRequirements.parse(configuration.getConfigurationValue(
+        BYONComputeInstanceTemplateConfigurationPropertyToken.REQUIREMENTS, localizationContext));
+
+    placementStrategy = parsePlacementStrategy(
+        configuration.getConfigurationValue(
+            BYONComputeInstanceTemplateConfigurationPropertyToken.PLACEMENT, localizationContext),
+        configuration.getConfigurationValue(
+            BYONComputeInstanceTemplateConfigurationPropertyToken.FAULT_DOMAIN_ATTRIBUTE,
+            localizationContext));
+
+    String group = configuration.getConfigurationValue(
+        BYONComputeInstanceTemplateConfigurationPropertyToken.QUOTA_GROUP, localizationContext);
+    if (group == null || group.trim().isEmpty()) {
+      group = tags == null ? null : tags.get(QUOTA_GROUP_TAG);
     }
+    quotaGroup = (group == null || group.trim().isEmpty()) ? name : group.trim();
   }
 
+  /**
+   * @throws IllegalArgumentException if the placement is unknown
+   */
+  static PlacementStrategy parsePlacementStrategy(String name, String faultDomainAttribute) {
+    if (name == null || name.equals("pack")) {
+      return PlacementStrategy.PACK;
+    } else if (name.equals("spread")) {
+      return new FaultDomainPlacementStrategy(faultDomainAttribute);
+    } else if (name.equals("roundRobinByPrefix")) {
+      return new FaultDomainPlacementStrategy(null);
+    }
+    throw new IllegalArgumentException("Unknown placement: " + name);
+  }
+
+  /**
+   * @return the preferred hosts, expanded lazily as the list is traversed
+   */
   public List<String> getPreferredHosts() {
     return preferredHosts;
   }
+
+  /**
+   * @return the requirements on the attributes of the hosts for new instances
+   */
+  HostRequirements getRequirements() {
+    return requirements;
+  }
+
+  /**
+   * @return how hosts are picked for new instances
+   */
+  PlacementStrategy getPlacementStrategy() {
+    return placementStrategy;
+  }
+
+  /**
+   * @return the quota group new instances are charged to
+   */
+  String getQuotaGroup() {
+    return quotaGroup;
+  }
 }
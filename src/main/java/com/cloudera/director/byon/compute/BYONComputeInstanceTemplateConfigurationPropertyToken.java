@@ -28,6 +28,39 @@ public enum BYONComputeInstanceTemplateConfigurationPropertyToken
       .name("Preferred hosts")
       .defaultDescription("A comma separated subset of host group " +
           "expressions that should be preferred for new instances of this template (best effort)")
+      .build()),
+
+  REQUIREMENTS(new SimpleConfigurationPropertyBuilder()
+      .configKey("requirements")
+      .name("Host requirements")
+      .defaultDescription("A comma separated list of comparisons on host attributes, " +
+          "such as rack=r1,cores>=32, that all hosts of new instances of this template must meet")
+      .build()),
+
+  PLACEMENT(new SimpleConfigurationPropertyBuilder()
+      .configKey("placement")
+      .name("Placement")
+      .defaultValue("pack")
+      .defaultDescription("How hosts are picked for new instances of this template: pack " +
+          "takes hosts in pool order, spread takes one host from each fault domain in turn " +
+          "and roundRobinByPrefix takes one host from each group of hosts sharing a name " +
+          "prefix in turn")
+      .build()),
+
+  FAULT_DOMAIN_ATTRIBUTE(new SimpleConfigurationPropertyBuilder()
+      .configKey("faultDomainAttribute")
+      .name("Fault domain attribute")
+      .defaultValue("rack")
+      .defaultDescription("The host attribute naming the fault domain of a host for the " +
+          "spread placement. Hosts are grouped by name prefix if no host has the attribute")
+      .build()),
+
+  QUOTA_GROUP(new SimpleConfigurationPropertyBuilder()
+      .configKey("quotaGroup")
+      .name("Quota group")
+      .defaultDescription("The quota group the hosts of this template are charged to. " +
+          "Defaults to the value of the quotaGroup tag of the template, then to the " +
+          "template name")
       .build());
 
   private final ConfigurationProperty configurationProperty;
@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2015 Cloudera, Inc.
+ * Copyright (c) 2018 Cloudera, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,18 +16,60 @@
 
 package com.cloudera.director.byon.compute;
 
+import static com.cloudera.director.byon.compute.BYONComputeInstanceTemplateConfigurationPropertyToken.FAULT_DOMAIN_ATTRIBUTE;
+import static com.cloudera.director.byon.compute.BYONComputeInstanceTemplateConfigurationPropertyToken.PLACEMENT;
+import static com.cloudera.director.byon.compute.BYONComputeInstanceTemplateConfigurationPropertyToken.PREFERRED_HOSTS;
+import static com.cloudera.director.byon.compute.BYONComputeInstanceTemplateConfigurationPropertyToken.QUOTA_GROUP;
+import static com.cloudera.director.byon.compute.BYONComputeInstanceTemplateConfigurationPropertyToken.REQUIREMENTS;
+
+import com.cloudera.director.byon.net.CachingHostResolver;
+import com.cloudera.director.byon.util.HostGroup;
+import com.cloudera.director.byon.util.HostGroupList;
+import com.cloudera.director.byon.util.HostGroups;
 import com.cloudera.director.spi.v2.model.ConfigurationValidator;
 import com.cloudera.director.spi.v2.model.Configured;
 import com.cloudera.director.spi.v2.model.LocalizationContext;
 import com.cloudera.director.spi.v2.model.exception.PluginExceptionConditionAccumulator;
 import com.cloudera.director.spi.v2.util.Preconditions;
 
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 /**
  * Validates BYON compute instance template configuration.
+ * <p/>
+ * Requirements and placement are parsed the way templates parse them, so templates
+ * that pass validation can be created. A quota group set explicitly must be one of
+ * the quotas of the pool, if it has any, since it is most likely misspelled otherwise.
+ * <p/>
+ * Preferred hosts are checked against the pool of the provider up front rather
+ * than when allocating. Hosts that are not in the pool are errors, as are free
+ * hosts that can't be resolved, since they would fail every allocation that picks
+ * them. Hosts that are already allocated only get a warning: allocations skip them.
+ * <p/>
+ * Groups of hosts are compared with the groups of the pool symbolically, and free
+ * hosts are resolved in parallel, up to {@link BYONComputeProvider#PREFETCH_LIMIT}
+ * of them in allocation order.
  */
-@SuppressWarnings({"unused", "FieldCanBeLocal" })
 public class BYONComputeInstanceTemplateConfigurationValidator implements ConfigurationValidator {
 
+  /**
+   * How many problem hosts each message lists.
+   */
+  static final int MAX_LISTED_HOSTS = 10;
+
+  /**
+   * How long to wait for lookups. Hosts not resolved by then are left to allocations.
+   */
+  static final long RESOLVE_TIMEOUT_SECONDS = 10;
+
   /**
    * The BYON compute provider.
    */
@@ -47,6 +89,114 @@ public class BYONComputeInstanceTemplateConfigurationValidator implements Config
   public void validate(String name, Configured configuration, PluginExceptionConditionAccumulator accumulator,
       LocalizationContext localizationContext) {
 
-    // TODO add validations
+    validatePreferredHosts(configuration, accumulator, localizationContext);
+
+    try {
+      HostRequirements.parse(
+          configuration.getConfigurationValue(REQUIREMENTS, localizationContext));
+    } catch (IllegalArgumentException e) {
+      accumulator.addError(REQUIREMENTS.unwrap().getConfigKey(), e.getMessage());
+    }
+
+    try {
+      BYONComputeInstanceTemplate.parsePlacementStrategy(
+          configuration.getConfigurationValue(PLACEMENT, localizationContext),
+          configuration.getConfigurationValue(FAULT_DOMAIN_ATTRIBUTE, localizationContext));
+    } catch (IllegalArgumentException e) {
+      accumulator.addError(PLACEMENT.unwrap().getConfigKey(), e.getMessage());
+    }
+
+    String quotaGroup = configuration.getConfigurationValue(QUOTA_GROUP, localizationContext);
+    HostQuotas quotas = provider.getPool().getQuotas();
+    if (quotaGroup != null && !quotaGroup.trim().isEmpty() && quotas != null
+        && !quotas.getConfigured().containsKey(quotaGroup.trim())) {
+      accumulator.addError(QUOTA_GROUP.unwrap().getConfigKey(), "Unknown quota group: " +
+          quotaGroup.trim() + ". Configured quota groups: " + quotas.getConfigured().keySet());
+    }
+  }
+
+  private void validatePreferredHosts(Configured configuration,
+      PluginExceptionConditionAccumulator accumulator, LocalizationContext localizationContext) {
+    String hostGroupExpressions =
+        configuration.getConfigurationValue(PREFERRED_HOSTS, localizationContext);
+    if (hostGroupExpressions == null) {
+      return;
+    }
+    String key = PREFERRED_HOSTS.unwrap().getConfigKey();
+    HostGroupList preferredHosts;
+    try {
+      preferredHosts = HostGroups.parse(hostGroupExpressions);
+    } catch (IllegalArgumentException e) {
+      accumulator.addError(key, e.getMessage());
+      return;
+    }
+
+    List<HostGroup> missing = new ArrayList<HostGroup>();
+    List<String> unavailable = new ArrayList<String>();
+    List<String> available = new ArrayList<String>();
+    provider.getPool().lookUp(preferredHosts, missing, unavailable, available);
+
+    if (!missing.isEmpty()) {
+      accumulator.addError(key, "Preferred hosts not in the pool: " + describe(missing));
+    }
+    if (!unavailable.isEmpty()) {
+      accumulator.addWarning(key, "Preferred hosts already allocated: " +
+          describe(unavailable));
+    }
+    List<String> unresolved = findUnresolved(
+        available.subList(0, Math.min(available.size(), BYONComputeProvider.PREFETCH_LIMIT)));
+    if (!unresolved.isEmpty()) {
+      accumulator.addError(key, "Preferred hosts that can't be resolved: " +
+          describe(unresolved));
+    }
+  }
+
+  /**
+   * Resolves hosts in parallel.
+   *
+   * @return the hosts that can't be resolved
+   */
+  private List<String> findUnresolved(List<String> hosts) {
+    CachingHostResolver resolver = provider.getResolver();
+    Map<String, CompletableFuture<InetAddress>> lookups =
+        new LinkedHashMap<String, CompletableFuture<InetAddress>>();
+    for (String host : hosts) {
+      lookups.put(host, resolver.resolveAsync(host));
+    }
+
+    List<String> result = new ArrayList<String>();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(RESOLVE_TIMEOUT_SECONDS);
+    try {
+      for (Map.Entry<String, CompletableFuture<InetAddress>> lookup : lookups.entrySet()) {
+        try {
+          lookup.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+          result.add(lookup.getKey());
+        } catch (TimeoutException e) {
+          // still resolving, the allocation will tell
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return result;
+  }
+
+  /**
+   * @return the first {@value #MAX_LISTED_HOSTS} entries of a list and how many more
+   * there are
+   */
+  private static String describe(List<?> hosts) {
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < Math.min(hosts.size(), MAX_LISTED_HOSTS); i++) {
+      if (i > 0) {
+        result.append(", ");
+      }
+      result.append(hosts.get(i));
+    }
+    if (hosts.size() > MAX_LISTED_HOSTS) {
+      result.append(" and ").append(hosts.size() - MAX_LISTED_HOSTS).append(" more");
+    }
+    return result.toString();
   }
 }
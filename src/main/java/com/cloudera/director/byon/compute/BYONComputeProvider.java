@@ -16,7 +16,12 @@
 
 package com.cloudera.director.byon.compute;
 
-import com.cloudera.director.byon.util.HostGroups;
+import com.cloudera.director.byon.metrics.LatencyHistogram;
+import com.cloudera.director.byon.metrics.MetricsRegistry;
+import com.cloudera.director.byon.net.CachingHostResolver;
+import com.cloudera.director.byon.net.HostLiveness;
+import com.cloudera.director.byon.net.SshHostKeyScanner;
+import com.cloudera.director.byon.util.HostGroupList;
 import com.cloudera.director.spi.v2.compute.util.AbstractComputeInstance;
 import com.cloudera.director.spi.v2.compute.util.AbstractComputeProvider;
 import com.cloudera.director.spi.v2.model.ConfigurationProperty;
@@ -34,20 +39,42 @@ import com.cloudera.director.spi.v2.util.ConfigurationPropertiesUtil;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.ArrayDeque;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * A provider for compute resources that works with a predefined list of hosts.
+ * <p/>
+ * None of the entry points lock the provider: the host pool is a concurrent structure
+ * so status polls and lookups are never stuck behind an allocation in progress.
+ * <p/>
+ * Providers configured with the same hosts share one pool through the
+ * {@link HostPoolRegistry}, so they see each other's allocations and never hand
+ * out the same host twice.
+ * <p/>
+ * Instances are built once per allocation and shared through the pool: repeated
+ * lookups return the same immutable instance for as long as its host, lease state,
+ * host facts and address stay the same, without going through the resolver's
+ * executor. Only a cached address is compared, so a changed address shows once some
+ * other lookup of the host has refreshed the resolver's cache.
+ * <p/>
+ * With leases enabled, finding an instance or getting its state confirms its
+ * allocation, see {@link HostLeases}.
+ * <p/>
+ * Every entry point records its latency, and allocations, deletions and failed
+ * allocations are counted, in the metrics of the shared pool.
  */
 public class BYONComputeProvider
     extends AbstractComputeProvider<BYONComputeInstance, BYONComputeInstanceTemplate> {
@@ -60,6 +87,16 @@ public class BYONComputeProvider
 
   public static final String ID = "compute";
 
+  /**
+   * How many hosts, in allocation order, to resolve ahead of time.
+   */
+  static final int PREFETCH_LIMIT = 1024;
+
+  /**
+   * How long to wait for host key fingerprints.
+   */
+  static final long HOST_KEY_TIMEOUT_SECONDS = 60;
+
   public static final ResourceProviderMetadata METADATA = SimpleResourceProviderMetadata.builder()
       .id(ID)
       .name("BYON Compute Provider")
@@ -70,36 +107,98 @@ public class BYONComputeProvider
           BYONComputeInstanceTemplate.getConfigurationProperties())
       .build();
 
-  private final Deque<String> availableHosts = new ArrayDeque<String>();
-  private final Map<String, String> allocations = new HashMap<String, String>();
+  private final HostPoolRegistry registry;
+  private final HostPool pool;
+  private final CachingHostResolver resolver;
 
   private final ConfigurationValidator resourceTemplateConfigurationValidator;
 
+  private final LongAdder allocatedInstances;
+  private final LongAdder deletedInstances;
+  private final LongAdder allocationFailures;
+  private final LatencyHistogram allocateLatency;
+  private final LatencyHistogram findLatency;
+  private final LatencyHistogram getInstanceStateLatency;
+  private final LatencyHistogram deleteLatency;
+
   public BYONComputeProvider(Configured configuration,
       LocalizationContext cloudLocalizationContext) {
+    this(configuration, cloudLocalizationContext, CachingHostResolver.getDefault(),
+        HostPoolRegistry.getDefault());
+  }
+
+  BYONComputeProvider(Configured configuration,
+      LocalizationContext cloudLocalizationContext, CachingHostResolver resolver) {
+    this(configuration, cloudLocalizationContext, resolver, HostPoolRegistry.getDefault());
+  }
+
+  BYONComputeProvider(Configured configuration, LocalizationContext cloudLocalizationContext,
+      CachingHostResolver resolver, HostPoolRegistry registry) {
     super(configuration, METADATA, cloudLocalizationContext);
     LocalizationContext localizationContext = getLocalizationContext();
 
     String hostGroupExpressions = configuration.getConfigurationValue(
         BYONComputeProviderConfigurationPropertyToken.HOSTS, localizationContext);
 
-    Collections.addAll(availableHosts, HostGroups.expand(hostGroupExpressions));
-    if (availableHosts.isEmpty()) {
-      throw new IllegalArgumentException("Host group expressions expands " +
-          "to an empty list: " + hostGroupExpressions);
-    }
+    this.registry = registry;
+    this.pool = registry.get(hostGroupExpressions,
+        HostPoolSettings.from(configuration, localizationContext));
+    HostGroupList hosts = pool.getHosts();
+
+    this.resolver = resolver;
+    resolver.prefetch(hosts.subList(0, Math.min(hosts.size(), PREFETCH_LIMIT)));
 
     this.resourceTemplateConfigurationValidator =
         new CompositeConfigurationValidator(METADATA.getResourceTemplateConfigurationValidator(),
             new BYONComputeInstanceTemplateConfigurationValidator(this));
+
+    MetricsRegistry metrics = pool.getMetrics();
+    this.allocatedInstances = metrics.counter("allocatedInstances");
+    this.deletedInstances = metrics.counter("deletedInstances");
+    this.allocationFailures = metrics.counter("allocationFailures");
+    this.allocateLatency = metrics.histogram("allocate");
+    this.findLatency = metrics.histogram("find");
+    this.getInstanceStateLatency = metrics.histogram("getInstanceState");
+    this.deleteLatency = metrics.histogram("delete");
+  }
+
+  /**
+   * Change the hosts in the pool, without disturbing allocations. New hosts become
+   * available, free hosts no longer listed are dropped, and allocated hosts no longer
+   * listed stay allocated but are not returned to the pool. The change is seen by all
+   * the providers sharing the pool.
+   * <p/>
+   * With a hosts file the next change to the file replaces the hosts again.
+   * <p/>
+   * Providers configured with the new hosts share the pool from then on.
+   *
+   * @param hostGroupExpressions all the hosts that should be in the pool
+   * @throws IllegalArgumentException if the expressions are not valid or their hosts
+   *                                  are already used by another pool
+   */
+  public void updateHosts(String hostGroupExpressions) {
+    HostPool.Update update = registry.updateHosts(pool, hostGroupExpressions);
+    LOG.info(String.format("Updated hosts: %s", update));
   }
 
-  synchronized Deque<String> getAvailableHosts() {
-    return availableHosts;
+  Collection<String> getAvailableHosts() {
+    return pool.getAvailableHosts();
   }
 
-  synchronized Map<String, String> getAllocations() {
-    return allocations;
+  Map<String, String> getAllocations() {
+    return pool.getAllocations();
+  }
+
+  MetricsRegistry getMetrics() {
+    return pool.getMetrics();
+  }
+
+  HostPool getPool() {
+    return pool;
+  }
+
+  CachingHostResolver getResolver() {
+    return resolver;
   }
 
   @Override
@@ -119,118 +218,338 @@ public class BYONComputeProvider
   }
 
   @Override
-  public synchronized Collection<BYONComputeInstance> allocate(BYONComputeInstanceTemplate template,
+  public Collection<BYONComputeInstance> allocate(BYONComputeInstanceTemplate template,
       Collection<String> instanceIds, int minCount) throws InterruptedException {
 
-    if (availableHosts.size() < minCount) {
-      throw new IllegalStateException(String.format("Not enough capacity. Requested at " +
-          "least %d, only have %d available", minCount, availableHosts.size()));
+    long start = System.nanoTime();
+    boolean allocated = false;
+    try {
+      Collection<BYONComputeInstance> instances = allocateFromPool(template, instanceIds, minCount);
+      allocatedInstances.add(instances.size());
+      allocated = true;
+      return instances;
+    } finally {
+      allocateLatency.recordSince(start);
+      if (!allocated) {
+        allocationFailures.increment();
+      }
     }
+  }
 
-    Iterator<String> instanceIdsIter = instanceIds.iterator();
-    int limit = Math.min(availableHosts.size(), instanceIds.size());
-
-    List<BYONComputeInstance> result = new ArrayList<>();
+  private Collection<BYONComputeInstance> allocateFromPool(BYONComputeInstanceTemplate template,
+      Collection<String> instanceIds, int minCount) throws InterruptedException {
 
-    // Try to allocate as many preferred hosts as possible first
+    HostRequirements requirements = template.getRequirements();
+    HostPool.Reservation reservation = pool.reserveBatch(minCount, instanceIds.size(),
+        requirements, template.getQuotaGroup());
+    try {
+      Iterator<String> instanceIdsIter = instanceIds.iterator();
 
-    for (String host : template.getPreferredHosts()) {
-      try {
-        //noinspection ResultOfMethodCallIgnored
-        InetAddress hostAddress = InetAddress.getByName(host);
-        if (availableHosts.remove(host)) {
-          String id = instanceIdsIter.next();
+      // Try to allocate as many preferred hosts as possible first
 
-          allocations.put(id, host);
-          LOG.info(String.format("New preferred allocation: %s -> %s", host, id));
+      int preferred = 0;
+      String id = null;
+      for (String host : template.getPreferredHosts()) {
+        if (reservation.remaining() == 0) {
+          break;
+        }
+        if (id == null) {
+          id = instanceIdsIter.next();
+        }
+        if (reservation.claim(id, host)) {
+          preferred++;
+          id = null;
+        }
+      }
 
-          result.add(new BYONComputeInstance(template, id, hostAddress));
+      // Place the other instances if more are needed
 
-          limit--;
-          if (limit == 0) {
-            break;
-          }
+      PlacementStrategy.Placement placement =
+          template.getPlacementStrategy().begin(pool, reservation);
+      while (reservation.remaining() > 0) {
+        if (placement.claim(id != null ? id : instanceIdsIter.next()) == null) {
+          break;  // matching hosts taken by concurrent requests since the reservation
         }
-
-      } catch (UnknownHostException e) {
-        throw new IllegalArgumentException(e);
+        id = null;
+      }
+      if (reservation.getClaimed().size() < minCount) {
+        throw new IllegalStateException(String.format("Not enough capacity matching %s. " +
+            "Requested at least %d, only found %d", requirements, minCount,
+            reservation.getClaimed().size()));
       }
-    }
 
-    // Pick any other instance if more are needed
+      // Resolve all the hosts at once and only publish the allocations if that worked
 
-    while (limit > 0) {
-      String id = instanceIdsIter.next();
-      String host = availableHosts.peekFirst();
+      Map<String, String> allocated = reservation.getClaimed();
+      Map<String, InetAddress> addresses = resolver.resolveAll(allocated.values());
+      reservation.commit();
+      List<BYONComputeInstance> instances = createInstances(template, allocated, addresses,
+          System.currentTimeMillis());
 
-      availableHosts.removeFirst();
-      allocations.put(id, host);
+      SshHostKeyScanner scanner = pool.getHostKeyScanner();
+      if (scanner != null) {
+        scanner.prefetch(allocated.values());
+      }
 
-      try {
-        result.add(new BYONComputeInstance(template, id, InetAddress.getByName(host)));
-      } catch (UnknownHostException e) {
-        throw new IllegalArgumentException(e);
+      if (LOG.isLoggable(Level.FINE)) {
+        for (Map.Entry<String, String> entry : allocated.entrySet()) {
+          LOG.fine(String.format("New allocation: %s -> %s", entry.getValue(), entry.getKey()));
+        }
       }
+      LOG.info(String.format("Allocated %d instances, %d on preferred hosts",
+          instances.size(), preferred));
+      return instances;
 
-      LOG.info(String.format("New allocation: %s -> %s", host, id));
+    } catch (UnknownHostException e) {
+      throw new IllegalArgumentException(e);
 
-      limit--;
+    } finally {
+      reservation.rollback();
     }
-
-    return result;
   }
 
   @Override
-  public synchronized Collection<BYONComputeInstance> find(
+  public Collection<BYONComputeInstance> find(
       BYONComputeInstanceTemplate template, Collection<String> instanceIds)
       throws InterruptedException {
 
-    List<BYONComputeInstance> result = new ArrayList<>();
+    long start = System.nanoTime();
+    List<BYONComputeInstance> result = new ArrayList<BYONComputeInstance>(instanceIds.size());
+    Map<String, String> missing = null;
     for (String currentId : instanceIds) {
-      String host = allocations.get(currentId);
-      if (host != null) {
-        try {
-          result.add(new BYONComputeInstance(template, currentId, InetAddress.getByName(host)));
-
-        } catch (UnknownHostException e) {
-          throw new RuntimeException(e);
+      if (pool.getHost(currentId) == null) {
+        continue;
+      }
+      pool.confirm(currentId);
+      String host = pool.getHost(currentId);  // the lease may have expired before confirm
+      if (host == null) {
+        continue;
+      }
+      BYONComputeInstance cached = pool.getInstance(currentId);
+      if (cached != null && isCurrent(cached, template, host)) {
+        result.add(cached);
+      } else {
+        if (missing == null) {
+          missing = new LinkedHashMap<String, String>();
         }
+        missing.put(currentId, host);
+        result.add(null);
       }
     }
 
-    return result;
+    try {
+      if (missing != null) {
+        fillIn(result, template, missing);
+      }
+      return result;
+    } catch (UnknownHostException e) {
+      throw new RuntimeException(e);
+    } finally {
+      findLatency.recordSince(start);
+    }
+  }
+
+  /**
+   * Builds the instances missing from a lookup, in place of their null entries.
+   *
+   * @param missing host names keyed by instance ID, in lookup order
+   */
+  private void fillIn(List<BYONComputeInstance> result, BYONComputeInstanceTemplate template,
+      Map<String, String> missing) throws UnknownHostException, InterruptedException {
+
+    Map<String, InetAddress> addresses = resolver.resolveAll(missing.values());
+    Map<String, String> allocationTimes = new HashMap<String, String>();
+    for (String instanceId : missing.keySet()) {
+      BYONComputeInstance stale = pool.getInstance(instanceId);
+      if (stale != null) {
+        allocationTimes.put(instanceId,
+            stale.getProperties().get(BYONComputeInstance.ALLOCATED_AT));
+      }
+    }
+
+    Iterator<Map.Entry<String, String>> entries = missing.entrySet().iterator();
+    for (int i = 0; i < result.size(); i++) {
+      if (result.get(i) == null) {
+        Map.Entry<String, String> entry = entries.next();
+        result.set(i, createInstance(template, entry.getKey(), entry.getValue(),
+            addresses.get(entry.getValue()), allocationTimes.get(entry.getKey())));
+      }
+    }
+  }
+
+  /**
+   * @return true if a cached instance still describes the allocation of a host, as
+   * found through a template of the same name
+   */
+  private boolean isCurrent(BYONComputeInstance instance, BYONComputeInstanceTemplate template,
+      String host) {
+    if (!host.equals(instance.getHost())) {
+      return false;
+    }
+    if (instance.getTemplate() != template
+        && !instance.getTemplate().getName().equals(template.getName())) {
+      return false;
+    }
+    String leaseState = pool.getLeaseState(instance.getId());
+    if (leaseState != null
+        && !leaseState.equals(instance.getProperties().get(BYONComputeInstance.LEASE_STATE))) {
+      return false;
+    }
+    if (pool.getHostFacts(host) != instance.getFacts()) {
+      return false;  // gathered since the instance was built
+    }
+
+    // only a fresh, successful answer different from the cached one rebuilds the instance
+    InetAddress address = resolver.peek(host);
+    return address == null || address.equals(instance.getPrivateIpAddress());
   }
 
   @Override
-  public synchronized Map<String, InstanceState> getInstanceState(
+  public Map<String, InstanceState> getInstanceState(
       BYONComputeInstanceTemplate template, Collection<String> instanceIds) {
 
+    long start = System.nanoTime();
     Map<String, InstanceState> result = new HashMap<String, InstanceState>();
     for (String currentId : instanceIds) {
-      if (allocations.containsKey(currentId)) {
-        result.put(currentId, new SimpleInstanceState(InstanceStatus.RUNNING));
-      } else {
-        result.put(currentId, new SimpleInstanceState(InstanceStatus.DELETED));
+      InstanceStatus status = InstanceStatus.DELETED;
+      if (pool.getHost(currentId) != null) {
+        pool.confirm(currentId);
+        String host = pool.getHost(currentId);  // the lease may have expired before confirm
+        if (host != null) {
+          status = getStatus(pool.getLiveness(host));
+        }
       }
+      result.put(currentId, new SimpleInstanceState(status));
     }
 
+    getInstanceStateLatency.recordSince(start);
     return result;
   }
 
   @Override
-  public synchronized void delete(BYONComputeInstanceTemplate template,
+  public void delete(BYONComputeInstanceTemplate template,
       Collection<String> instanceIds) throws InterruptedException {
 
+    long start = System.nanoTime();
+    int deleted = 0;
     for (String currentId : instanceIds) {
-      String host = allocations.remove(currentId);
-      LOG.info(String.format("Deleted allocation: %s -> %s", host, currentId));
+      String host = pool.release(currentId);
+      if (host != null) {
+        deleted++;
+      }
+      if (LOG.isLoggable(Level.FINE)) {
+        LOG.fine(String.format("Deleted allocation: %s -> %s", host, currentId));
+      }
+    }
+    try {
+      pool.commit();
+    } finally {
+      deletedInstances.add(deleted);
+      deleteLatency.recordSince(start);
     }
+    LOG.info(String.format("Deleted %d instances", deleted));
   }
 
   @Override
   public Map<String, Set<String>> getHostKeyFingerprints(BYONComputeInstanceTemplate template,
-      Collection<String> instanceIds) {
-    return Collections.emptyMap();
+      Collection<String> instanceIds) throws InterruptedException {
+
+    SshHostKeyScanner scanner = pool.getHostKeyScanner();
+    if (scanner == null) {
+      return Collections.emptyMap();
+    }
+
+    Map<String, String> allocated = new LinkedHashMap<String, String>();
+    for (String currentId : instanceIds) {
+      String host = pool.getHost(currentId);
+      if (host != null) {
+        allocated.put(currentId, host);
+      }
+    }
+
+    Map<String, Set<String>> fingerprints = scanner.getFingerprints(allocated.values(),
+        HOST_KEY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+    Map<String, Set<String>> result = new HashMap<String, Set<String>>();
+    for (Map.Entry<String, String> entry : allocated.entrySet()) {
+      Set<String> hostFingerprints = fingerprints.get(entry.getValue());
+      if (hostFingerprints != null) {
+        result.put(entry.getKey(), hostFingerprints);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Maps the outcome of the latest probe of an allocated host to an instance status.
+   * Hosts are reported as running when they are not probed.
+   */
+  static InstanceStatus getStatus(HostLiveness liveness) {
+    if (liveness == null) {
+      return InstanceStatus.RUNNING;
+    }
+    switch (liveness) {
+      case REACHABLE:
+        return InstanceStatus.RUNNING;
+      case UNREACHABLE:
+        return InstanceStatus.STOPPED;
+      case REFUSED:
+      case UNRESOLVABLE:
+        return InstanceStatus.FAILED;
+      default:
+        return InstanceStatus.UNKNOWN;
+    }
   }
 
+  /**
+   * Creates and caches the instances of new allocations.
+   *
+   * @param allocated   host names keyed by instance ID
+   * @param addresses   the resolved addresses of the hosts
+   * @param allocatedAt when the hosts were allocated, in milliseconds since the epoch
+   */
+  private List<BYONComputeInstance> createInstances(BYONComputeInstanceTemplate template,
+      Map<String, String> allocated, Map<String, InetAddress> addresses, long allocatedAt) {
+
+    String allocationTime = Instant.ofEpochMilli(allocatedAt).toString();
+    List<BYONComputeInstance> result = new ArrayList<>(allocated.size());
+    for (Map.Entry<String, String> entry : allocated.entrySet()) {
+      result.add(createInstance(template, entry.getKey(), entry.getValue(),
+          addresses.get(entry.getValue()), allocationTime));
+    }
+    return result;
+  }
+
+  /**
+   * Creates the instance of an allocation and caches it in the pool.
+   *
+   * @param allocationTime when the host was allocated, or null if unknown
+   */
+  private BYONComputeInstance createInstance(BYONComputeInstanceTemplate template,
+      String instanceId, String host, InetAddress address, String allocationTime) {
+
+    Map<String, String> attributes = pool.getHostAttributes(host);
+    Map<String, String> properties = new LinkedHashMap<String, String>(attributes);
+    HostFacts facts = pool.getHostFacts(host);
+    if (facts != null) {
+      for (Map.Entry<String, String> fact : facts.asMap().entrySet()) {
+        if (!attributes.containsKey(fact.getKey())) {
+          properties.put(fact.getKey(), fact.getValue());
+        }
+      }
+    }
+    properties.put(BYONComputeInstance.HOST, host);
+    if (allocationTime != null) {
+      properties.put(BYONComputeInstance.ALLOCATED_AT, allocationTime);
+    }
+    String leaseState = pool.getLeaseState(instanceId);
+    if (leaseState != null) {
+      properties.put(BYONComputeInstance.LEASE_STATE, leaseState);
+    }
+
+    BYONComputeInstance instance =
+        new BYONComputeInstance(template, instanceId, address, properties, facts);
+    pool.cacheInstance(instance);
+    return instance;
+  }
 }
@@ -17,6 +17,8 @@
 package com.cloudera.director.byon.compute;
 
 import com.cloudera.director.spi.v2.model.ConfigurationProperty;
+import com.cloudera.director.spi.v2.model.ConfigurationProperty.Type;
+import com.cloudera.director.spi.v2.model.ConfigurationProperty.Widget;
 import com.cloudera.director.spi.v2.model.util.SimpleConfigurationPropertyBuilder;
 
 // Fully qualifying class name due to compiler bug
@@ -29,9 +31,163 @@ public enum BYONComputeProviderConfigurationPropertyToken
   HOSTS(new SimpleConfigurationPropertyBuilder()
       .configKey("hosts")
       .name("Hosts")
-      .required(true)
+      .required(false)
       .defaultDescription("A comma separated list of host group patterns to be " +
-          "used for allocations. On termination allocated hosts are not returned to the pool.")
+          "used for allocations. On termination allocated hosts are not returned to the pool " +
+          "unless reclamation is enabled. Each pattern can end with attributes shared by " +
+          "its hosts, such as node-[1-50].example.com{rack=r1,cores=32}. Required unless " +
+          "a hosts file is given.")
+      .build()),
+
+  /**
+   * @see HostsFileWatcher
+   */
+  HOSTS_FILE(new SimpleConfigurationPropertyBuilder()
+      .configKey("hostsFile")
+      .name("Hosts file")
+      .required(false)
+      .defaultDescription("A local file listing more host group patterns, one or more " +
+          "per line. The file is watched and hosts added to or removed from it are added " +
+          "to or removed from the pool without restarting. Removed hosts that are allocated " +
+          "stay allocated but are not returned to the pool.")
+      .build()),
+
+  /**
+   * @see com.cloudera.director.byon.journal.AllocationJournal
+   */
+  JOURNAL_DIRECTORY(new SimpleConfigurationPropertyBuilder()
+      .configKey("journalDirectory")
+      .name("Journal directory")
+      .required(false)
+      .defaultDescription("A local directory where allocations are journaled so they " +
+          "survive restarts. Leave empty to keep allocations in memory only.")
+      .build()),
+
+  /**
+   * @see HostReclaimer
+   */
+  RECLAIM_DELETED_HOSTS(new SimpleConfigurationPropertyBuilder()
+      .configKey("reclaimDeletedHosts")
+      .name("Reclaim deleted hosts")
+      .defaultValue("false")
+      .type(Type.BOOLEAN)
+      .widget(Widget.CHECKBOX)
+      .defaultDescription("Whether hosts of deleted instances go back to the pool " +
+          "after the quarantine period and the cleanup command.")
+      .build()),
+
+  RECLAMATION_QUARANTINE_SECONDS(new SimpleConfigurationPropertyBuilder()
+      .configKey("reclamationQuarantineSeconds")
+      .name("Reclamation quarantine (seconds)")
+      .defaultValue("300")
+      .type(Type.INTEGER)
+      .widget(Widget.NUMBER)
+      .defaultDescription("How long a deleted host is kept out of the pool before " +
+          "it is cleaned up and reused.")
+      .build()),
+
+  RECLAMATION_COMMAND(new SimpleConfigurationPropertyBuilder()
+      .configKey("reclamationCommand")
+      .name("Reclamation command")
+      .defaultDescription("A command run with the host name as its last argument to " +
+          "clean up a deleted host. The host is reused only if it exits with status 0.")
+      .build()),
+
+  /**
+   * @see HostFactsGatherer
+   */
+  HOST_FACTS_COMMAND(new SimpleConfigurationPropertyBuilder()
+      .configKey("hostFactsCommand")
+      .name("Host facts command")
+      .defaultDescription("A command run in the background with the host name as its " +
+          "last argument for every host entering the pool. It prints facts such as " +
+          "cpus=16 or memoryMb=65536, one per line, which become instance properties " +
+          "and can be used in host requirements.")
+      .build()),
+
+  /**
+   * @see CapacityWaiters
+   */
+  CAPACITY_WAIT_SECONDS(new SimpleConfigurationPropertyBuilder()
+      .configKey("capacityWaitSeconds")
+      .name("Capacity wait (seconds)")
+      .defaultValue("0")
+      .type(Type.INTEGER)
+      .widget(Widget.NUMBER)
+      .defaultDescription("How long an allocation that finds too few available hosts " +
+          "waits for hosts to be deleted, reclaimed or added before failing. Use 0 to " +
+          "fail right away.")
+      .build()),
+
+  /**
+   * @see HostLeases
+   */
+  LEASE_SECONDS(new SimpleConfigurationPropertyBuilder()
+      .configKey("leaseSeconds")
+      .name("Allocation lease (seconds)")
+      .defaultValue("0")
+      .type(Type.INTEGER)
+      .widget(Widget.NUMBER)
+      .defaultDescription("How long a new instance can go without being looked up " +
+          "before its host goes back to the pool, for allocations whose request failed " +
+          "or timed out. Use 0 to keep allocations until they are deleted.")
+      .build()),
+
+  /**
+   * @see HostQuotas
+   */
+  QUOTAS(new SimpleConfigurationPropertyBuilder()
+      .configKey("quotas")
+      .name("Quotas")
+      .required(false)
+      .defaultDescription("Quotas of the groups of templates sharing the hosts, such as " +
+          "analytics{guaranteed=20,max=100,weight=2}, adhoc{max=10}. Guaranteed hosts are " +
+          "kept for their group, a group never holds more than its maximum, and hosts " +
+          "requested at the same time are split between groups by weight. Groups not " +
+          "listed have no guarantee, no maximum and a weight of 1.")
+      .build()),
+
+  /**
+   * @see com.cloudera.director.byon.net.TcpProbeScheduler
+   */
+  PROBE_PORT(new SimpleConfigurationPropertyBuilder()
+      .configKey("probePort")
+      .name("Probe port")
+      .type(Type.INTEGER)
+      .widget(Widget.NUMBER)
+      .defaultDescription("A TCP port, such as 22, checked on every allocated host to " +
+          "report its actual state. Leave empty to report allocated hosts as running.")
+      .build()),
+
+  PROBE_INTERVAL_SECONDS(new SimpleConfigurationPropertyBuilder()
+      .configKey("probeIntervalSeconds")
+      .name("Probe interval (seconds)")
+      .defaultValue("30")
+      .type(Type.INTEGER)
+      .widget(Widget.NUMBER)
+      .defaultDescription("Average time between two probes of an allocated host.")
+      .build()),
+
+  /**
+   * @see com.cloudera.director.byon.net.SshHostKeyScanner
+   */
+  COLLECT_HOST_KEY_FINGERPRINTS(new SimpleConfigurationPropertyBuilder()
+      .configKey("collectHostKeyFingerprints")
+      .name("Collect host key fingerprints")
+      .defaultValue("false")
+      .type(Type.BOOLEAN)
+      .widget(Widget.CHECKBOX)
+      .defaultDescription("Whether to read the SSH host keys of allocated hosts so " +
+          "their fingerprints can be pinned.")
+      .build()),
+
+  SSH_PORT(new SimpleConfigurationPropertyBuilder()
+      .configKey("sshPort")
+      .name("SSH port")
+      .defaultValue("22")
+      .type(Type.INTEGER)
+      .widget(Widget.NUMBER)
+      .defaultDescription("The port SSH servers listen on, used to collect host keys.")
       .build());
 
   /**
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cloudera.director.byon.compute;
+
+import com.cloudera.director.byon.metrics.LatencyHistogram;
+import com.cloudera.director.byon.metrics.MetricsRegistry;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Lets allocation requests wait for capacity instead of failing as soon as the pool
+ * runs short.
+ * <p/>
+ * A request that can not be served right away joins a bounded queue ordered by
+ * deadline, so the requests closest to giving up come first, and parks on a
+ * condition of its own. Whenever hosts become available the pool
+ * {@linkplain #signal() signals} the waiters, which wakes the queued requests in
+ * order for as long as the available hosts cover their minimum. Requests skip the
+ * queue only while it is empty: hosts handed back while others wait go to the
+ * waiters, not to whoever asks next.
+ * <p/>
+ * A woken request that still can not be served, because its hosts must meet
+ * requirements or fit a quota, passes the wake-up on to the requests queued behind
+ * it and goes back to waiting with whatever time it has left. Requests still short
+ * of capacity at their deadline fail with the error of their last attempt.
+ * <p/>
+ * Signalling costs a single read while nobody waits, so the pool can signal on every
+ * host it frees.
+ */
+class CapacityWaiters {
+
+  /**
+   * How many requests can wait at once by default.
+   */
+  static final int DEFAULT_MAX_WAITING = 256;
+
+  private static final class Waiter {
+    final int minCount;
+    final long deadline;
+    final long sequence;
+    final Condition condition;
+
+    // guarded by the lock
+    boolean signalled;
+
+    Waiter(int minCount, long deadline, long sequence, Condition condition) {
+      this.minCount = minCount;
+      this.deadline = deadline;
+      this.sequence = sequence;
+      this.condition = condition;
+    }
+  }
+
+  private static final Comparator<Waiter> BY_DEADLINE = new Comparator<Waiter>() {
+    @Override
+    public int compare(Waiter a, Waiter b) {
+      int result = Long.compare(a.deadline - b.deadline, 0);
+      return result != 0 ? result : Long.compare(a.sequence, b.sequence);
+    }
+  };
+
+  private final long maxWaitNanos;
+  private final int maxWaiting;
+  private final IntSupplier available;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final NavigableSet<Waiter> waiting = new TreeSet<Waiter>(BY_DEADLINE);
+  private final AtomicInteger waitingCount = new AtomicInteger();
+
+  // guarded by the lock
+  private long sequence;
+  private boolean closed;
+
+  private final MetricsRegistry metrics = new MetricsRegistry();
+  private final LongAdder timeouts = metrics.counter("timeouts");
+  private final LongAdder rejections = metrics.counter("rejections");
+  private final LatencyHistogram waits = metrics.histogram("wait");
+
+  /**
+   * @param maxWait    how long a request waits for capacity
+   * @param maxWaiting how many requests can wait at once; more fail right away
+   * @param available  the number of hosts available to new requests
+   */
+  CapacityWaiters(long maxWait, TimeUnit unit, int maxWaiting, IntSupplier available) {
+    if (maxWait <= 0) {
+      throw new IllegalArgumentException("maximum wait must be positive");
+    }
+    if (maxWaiting <= 0) {
+      throw new IllegalArgumentException("maximum number of waiting requests must be positive");
+    }
+    if (available == null) {
+      throw new NullPointerException("available is null");
+    }
+    this.maxWaitNanos = unit.toNanos(maxWait);
+    this.maxWaiting = maxWaiting;
+    this.available = available;
+
+    metrics.gauge("waiting", new LongSupplier() {
+      @Override
+      public long getAsLong() {
+        return waitingCount.get();
+      }
+    });
+  }
+
+  MetricsRegistry getMetrics() {
+    return metrics;
+  }
+
+  int getWaitingCount() {
+    return waitingCount.get();
+  }
+
+  long getTimeoutCount() {
+    return timeouts.sum();
+  }
+
+  /**
+   * Make an attempt to allocate, and keep making it as hosts become available until
+   * it succeeds or the maximum wait is over. The first attempt is only made right
+   * away if no other request is waiting.
+   *
+   * @param minCount the smallest number of hosts the attempt can succeed with
+   * @param attempt  allocates hosts or throws {@link IllegalStateException} if there
+   *                 are not enough
+   * @return the result of the first successful attempt
+   * @throws IllegalStateException if no attempt succeeded in time, the queue is full
+   *                               or the waiters were closed
+   */
+  <T> T acquire(int minCount, Supplier<T> attempt) {
+    IllegalStateException failure = null;
+    if (waitingCount.get() == 0) {
+      try {
+        return attempt.get();
+      } catch (IllegalStateException e) {
+        failure = e;
+      }
+    }
+
+    long start = System.nanoTime();
+    Waiter waiter;
+    lock.lock();
+    try {
+      if (closed || waiting.size() >= maxWaiting) {
+        if (failure == null) {
+          failure = new IllegalStateException(
+              "Not enough capacity. Requested at least " + minCount);
+        }
+        if (closed) {
+          throw failure;
+        }
+        rejections.increment();
+        throw new IllegalStateException(String.format("%s. %d requests are already waiting " +
+            "for capacity", failure.getMessage(), waiting.size()), failure);
+      }
+      waiter = new Waiter(minCount, start + maxWaitNanos, sequence++, lock.newCondition());
+      waiting.add(waiter);
+      waitingCount.incrementAndGet();
+      // hosts made available before the waiter was queued did not signal it
+      wake(waiting);
+    } finally {
+      lock.unlock();
+    }
+
+    try {
+      while (true) {
+        await(waiter, failure);
+        try {
+          T result = attempt.get();
+          waits.recordSince(start);
+          return result;
+        } catch (IllegalStateException e) {
+          failure = e;
+        }
+        lock.lock();
+        try {
+          wake(waiting.tailSet(waiter, false));
+        } finally {
+          lock.unlock();
+        }
+      }
+    } finally {
+      lock.lock();
+      try {
+        waiting.remove(waiter);
+        waitingCount.decrementAndGet();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Wait until a waiter is signalled.
+   *
+   * @param failure the failure of the latest attempt, or null if none was made
+   * @throws IllegalStateException if the deadline passes or the waiters are closed first
+   */
+  private void await(Waiter waiter, IllegalStateException failure) {
+    lock.lock();
+    try {
+      while (!waiter.signalled) {
+        long remaining = waiter.deadline - System.nanoTime();
+        if (closed || remaining <= 0) {
+          if (!closed) {
+            timeouts.increment();
+            waits.recordSince(waiter.deadline - maxWaitNanos);
+          }
+          throw failure != null ? failure : new IllegalStateException(String.format(
+              "Not enough capacity. Requested at least %d, waited %d ms", waiter.minCount,
+              TimeUnit.NANOSECONDS.toMillis(maxWaitNanos - Math.max(remaining, 0))));
+        }
+        waiter.condition.awaitNanos(remaining);
+      }
+      waiter.signalled = false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for capacity", e);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Wake the waiting requests that the available hosts could serve, in deadline
+   * order. Called whenever hosts become available.
+   */
+  void signal() {
+    if (waitingCount.get() == 0) {
+      return;
+    }
+    lock.lock();
+    try {
+      wake(waiting);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Wake waiters in order for as long as the available hosts cover their minimum.
+   * Waiters already woken but not served yet are counted again, since the hosts
+   * they will take are still available.
+   */
+  private void wake(Iterable<Waiter> waiters) {
+    int budget = available.getAsInt();
+    Iterator<Waiter> iterator = waiters.iterator();
+    while (budget > 0 && iterator.hasNext()) {
+      Waiter waiter = iterator.next();
+      if (waiter.minCount > budget) {
+        continue;  // leave the hosts to smaller requests rather than nobody
+      }
+      budget -= Math.max(waiter.minCount, 1);
+      waiter.signalled = true;
+      waiter.condition.signal();
+    }
+  }
+
+  /**
+   * Fail every waiting request and stop queueing new ones.
+   */
+  void close() {
+    lock.lock();
+    try {
+      closed = true;
+      for (Waiter waiter : waiting) {
+        waiter.condition.signal();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.compute;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cleans hosts by running an external command with the host name as its last argument.
+ * The host is clean if the command exits with status 0 within the timeout.
+ * <p/>
+ * Cleanups run in parallel, so the output of each command, standard error included,
+ * goes to a file of its own and the end of it is logged under the host name when the
+ * command fails.
+ */
+class CommandHostCleaner implements HostCleaner {
+
+  private static final Logger LOG = Logger.getLogger(CommandHostCleaner.class.getName());
+
+  static final long TIMEOUT_MINUTES = 30;
+
+  /**
+   * How much of the end of the output of a failed command to log.
+   */
+  static final int MAX_LOGGED_BYTES = 4096;
+
+  private final List<String> command;
+
+  /**
+   * @param command the command line, split on whitespace
+   */
+  CommandHostCleaner(String command) {
+    if (command == null) {
+      throw new NullPointerException("command is null");
+    }
+    String trimmed = command.trim();
+    if (trimmed.isEmpty()) {
+      throw new IllegalArgumentException("Reclamation command is empty");
+    }
+    this.command = Arrays.asList(trimmed.split("\\s+"));
+  }
+
+  @Override
+  public boolean clean(String host) throws InterruptedException {
+    List<String> arguments = new ArrayList<String>(command);
+    arguments.add(host);
+
+    Path output = null;
+    Process process;
+    try {
+      output = Files.createTempFile("byon-reclaim-", ".log");
+      process = new ProcessBuilder(arguments)
+          .redirectErrorStream(true)
+          .redirectOutput(output.toFile())
+          .start();
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to run reclamation command for " + host, e);
+      delete(output);
+      return false;
+    }
+
+    try {
+      if (!process.waitFor(TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+        LOG.warning(String.format("Reclamation command for %s timed out after %d minutes%s",
+            host, TIMEOUT_MINUTES, tail(output)));
+        return false;
+      }
+      int status = process.exitValue();
+      if (status != 0) {
+        LOG.warning(String.format("Reclamation command for %s exited with status %d%s",
+            host, status, tail(output)));
+      }
+      return status == 0;
+
+    } finally {
+      if (process.isAlive()) {
+        process.destroyForcibly();
+      }
+      delete(output);
+    }
+  }
+
+  /**
+   * @return the last {@value #MAX_LOGGED_BYTES} bytes of the output of a command, ready
+   * to append to a log message
+   */
+  static String tail(Path output) {
+    try (FileChannel channel = FileChannel.open(output)) {
+      long size = channel.size();
+      if (size == 0) {
+        return ", no output";
+      }
+      ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(size, MAX_LOGGED_BYTES));
+      channel.position(size - buffer.capacity());
+      while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+        // keep reading
+      }
+      String text = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+      return (size > buffer.capacity() ? ", output ends with:\n" : ", output:\n") + text;
+    } catch (IOException e) {
+      return ", output unavailable: " + e.getMessage();
+    }
+  }
+
+  private static void delete(Path output) {
+    if (output == null) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(output);
+    } catch (IOException e) {
+      LOG.log(Level.FINE, "Unable to delete " + output, e);
+    }
+  }
+}
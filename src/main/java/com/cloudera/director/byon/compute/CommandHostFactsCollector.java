@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cloudera.director.byon.compute;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gathers host facts by running an external command with the host name as its last
+ * argument. The command prints the facts as {@code key=value} lines, see
+ * {@link HostFacts}, and must exit with status 0 within the timeout.
+ */
+class CommandHostFactsCollector implements HostFactsCollector {
+
+  static final long TIMEOUT_MINUTES = 5;
+
+  /**
+   * Output beyond this many bytes is ignored.
+   */
+  static final int MAX_OUTPUT_BYTES = 64 * 1024;
+
+  private final List<String> command;
+
+  /**
+   * @param command the command line, split on whitespace
+   */
+  CommandHostFactsCollector(String command) {
+    if (command == null) {
+      throw new NullPointerException("command is null");
+    }
+    String trimmed = command.trim();
+    if (trimmed.isEmpty()) {
+      throw new IllegalArgumentException("Host facts command is empty");
+    }
+    this.command = Arrays.asList(trimmed.split("\\s+"));
+  }
+
+  @Override
+  public HostFacts collect(String host) throws IOException, InterruptedException {
+    List<String> arguments = new ArrayList<String>(command);
+    arguments.add(host);
+
+    // the output goes to a file so that a command that hangs can still time out
+    Path output = Files.createTempFile("byon-facts-", ".txt");
+    try {
+      Process process = new ProcessBuilder(arguments)
+          .redirectOutput(output.toFile())
+          .redirectError(ProcessBuilder.Redirect.INHERIT)
+          .start();
+      try {
+        if (!process.waitFor(TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+          throw new IOException(String.format("Host facts command for %s timed out after " +
+              "%d minutes", host, TIMEOUT_MINUTES));
+        }
+      } finally {
+        if (process.isAlive()) {
+          process.destroyForcibly();
+        }
+      }
+      int status = process.exitValue();
+      if (status != 0) {
+        throw new IOException(String.format("Host facts command for %s exited with " +
+            "status %d", host, status));
+      }
+      try {
+        return HostFacts.parse(read(output));
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Unable to read the facts of " + host, e);
+      }
+
+    } finally {
+      Files.deleteIfExists(output);
+    }
+  }
+
+  /**
+   * @return the first {@value #MAX_OUTPUT_BYTES} bytes of a file as UTF-8
+   */
+  private static String read(Path file) throws IOException {
+    byte[] buffer = new byte[MAX_OUTPUT_BYTES];
+    int length = 0;
+    InputStream input = Files.newInputStream(file);
+    try {
+      while (length < buffer.length) {
+        int read = input.read(buffer, length, buffer.length - length);
+        if (read < 0) {
+          break;
+        }
+        length += read;
+      }
+    } finally {
+      input.close();
+    }
+    return new String(buffer, 0, length, StandardCharsets.UTF_8);
+  }
+}
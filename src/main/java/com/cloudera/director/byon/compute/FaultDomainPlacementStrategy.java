@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cloudera.director.byon.compute;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Spreads the instances of a request across fault domains, one host from each
+ * domain in turn.
+ * <p/>
+ * Domains are made of a few contiguous ranges of host IDs, see {@link HostDomains}.
+ * Every request keeps a cursor per domain, so a host is claimed with a masked scan
+ * that starts where the previous claim in the same domain left off: each word of the
+ * free bitmap is looked at no more than once per request, and choosing the next
+ * domain is constant time. Hosts freed behind a cursor during the request are only
+ * picked up by later requests. When every domain looks exhausted the request falls
+ * back to a full scan, so a reserved host is always found.
+ */
+class FaultDomainPlacementStrategy implements PlacementStrategy {
+
+  private final String attributeKey;
+
+  /**
+   * @param attributeKey the attribute naming the domain of a host, or null for
+   *                     domains made of hosts sharing a name prefix
+   */
+  FaultDomainPlacementStrategy(String attributeKey) {
+    this.attributeKey = attributeKey;
+  }
+
+  String getAttributeKey() {
+    return attributeKey;
+  }
+
+  @Override
+  public Placement begin(HostPool pool, HostPool.Reservation reservation) {
+    return new DomainRotation(pool.getDomains(attributeKey), reservation);
+  }
+
+  @Override
+  public String toString() {
+    return attributeKey == null ? "round robin by prefix" : "spread by " + attributeKey;
+  }
+
+  private static final class DomainRotation implements Placement {
+
+    private final HostDomains domains;
+    private final HostPool.Reservation reservation;
+
+    /**
+     * Indexes of the domains that may still have free hosts, in rotation order.
+     */
+    private final List<Integer> live;
+    private int next;
+
+    private final int[] ranges;
+    private final int[] cursors;
+
+    DomainRotation(HostDomains domains, HostPool.Reservation reservation) {
+      this.domains = domains;
+      this.reservation = reservation;
+
+      int count = domains.getDomains().size();
+      this.live = new ArrayList<Integer>(count);
+      int start = domains.nextStart();
+      for (int i = 0; i < count; i++) {
+        live.add((start + i) % count);
+      }
+      this.ranges = new int[count];
+      this.cursors = new int[count];
+    }
+
+    @Override
+    public String claim(String instanceId) {
+      while (!live.isEmpty()) {
+        if (next >= live.size()) {
+          next = 0;
+        }
+        if (claimIn(live.get(next), instanceId)) {
+          next++;
+          return reservation.getClaimed().get(instanceId);
+        }
+        live.remove(next);
+      }
+      return reservation.claimAny(instanceId);
+    }
+
+    private boolean claimIn(int index, String instanceId) {
+      HostDomains.Domain domain = domains.getDomains().get(index);
+      while (ranges[index] < domain.getRangeCount()) {
+        int range = ranges[index];
+        int from = Math.max(cursors[index], domain.getRangeStart(range));
+        int id = reservation.claimBetween(instanceId, from, domain.getRangeEnd(range));
+        if (id >= 0) {
+          cursors[index] = id + 1;
+          return true;
+        }
+        ranges[index]++;
+      }
+      return false;
+    }
+  }
+}
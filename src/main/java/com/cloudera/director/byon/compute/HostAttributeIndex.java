@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cloudera.director.byon.compute;
+
+import com.cloudera.director.byon.util.HostGroup;
+import com.cloudera.director.byon.util.HostGroupList;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An inverted index from host attributes to the IDs of the hosts carrying them.
+ * <p/>
+ * Each distinct {@code key=value} pair maps to a bitmap over host IDs, built by setting
+ * the contiguous ID range of every group declaring it, so the index costs one bitmap
+ * per distinct value no matter how many hosts share it. Requirements are answered by
+ * combining those bitmaps: a comparison is the union of the bitmaps of the values it
+ * matches and a set of requirements the intersection of its comparisons. The result
+ * is a mask that is intersected with the free hosts while claiming, instead of
+ * testing hosts one by one.
+ * <p/>
+ * The attributes hosts are listed with never change. {@link HostFacts} gathered in
+ * the background are indexed the same way, one host at a time as they arrive, under
+ * the keys the host was not listed with. Masks are computed once per distinct set of
+ * requirements and cached until the next facts arrive.
+ */
+final class HostAttributeIndex {
+
+  private final Map<String, Map<String, BitSet>> index;
+  private final ConcurrentMap<HostRequirements, long[]> masks =
+      new ConcurrentHashMap<HostRequirements, long[]>();
+
+  HostAttributeIndex(HostGroupList hosts) {
+    this.index = new HashMap<String, Map<String, BitSet>>();
+
+    int offset = 0;
+    for (HostGroup group : hosts.getGroups()) {
+      for (Map.Entry<String, String> attribute : group.getAttributes().entrySet()) {
+        Map<String, BitSet> values = index.get(attribute.getKey());
+        if (values == null) {
+          values = new HashMap<String, BitSet>();
+          index.put(attribute.getKey(), values);
+        }
+        BitSet ids = values.get(attribute.getValue());
+        if (ids == null) {
+          ids = new BitSet(hosts.size());
+          values.put(attribute.getValue(), ids);
+        }
+        ids.set(offset, offset + group.size());
+      }
+      offset += group.size();
+    }
+  }
+
+  /**
+   * @return the IDs of the hosts meeting all the requirements, as the words of a
+   * bit set, or null if there are no requirements
+   */
+  long[] select(HostRequirements requirements) {
+    if (requirements.isEmpty()) {
+      return null;
+    }
+    long[] mask = masks.get(requirements);
+    return mask != null ? mask : computeAndCache(requirements);
+  }
+
+  /**
+   * Index the facts of a host, replacing the facts indexed for it before.
+   *
+   * @param id       the ID of the host
+   * @param previous the facts indexed for the host so far, empty if none
+   * @param facts    the facts of the host
+   * @param declared the attributes the host was listed with, which take precedence
+   */
+  synchronized void addFacts(int id, Map<String, String> previous, Map<String, String> facts,
+      Map<String, String> declared) {
+    for (Map.Entry<String, String> fact : previous.entrySet()) {
+      if (!declared.containsKey(fact.getKey())) {
+        index.get(fact.getKey()).get(fact.getValue()).clear(id);
+      }
+    }
+    for (Map.Entry<String, String> fact : facts.entrySet()) {
+      if (declared.containsKey(fact.getKey())) {
+        continue;
+      }
+      Map<String, BitSet> values = index.get(fact.getKey());
+      if (values == null) {
+        values = new HashMap<String, BitSet>();
+        index.put(fact.getKey(), values);
+      }
+      BitSet ids = values.get(fact.getValue());
+      if (ids == null) {
+        ids = new BitSet();
+        values.put(fact.getValue(), ids);
+      }
+      ids.set(id);
+    }
+    masks.clear();
+  }
+
+  private synchronized long[] computeAndCache(HostRequirements requirements) {
+    long[] mask = masks.get(requirements);
+    if (mask == null) {
+      mask = compute(requirements);
+      masks.put(requirements, mask);
+    }
+    return mask;
+  }
+
+  private long[] compute(HostRequirements requirements) {
+    BitSet result = null;
+    for (HostRequirements.Requirement requirement : requirements.getRequirements()) {
+      BitSet matching = new BitSet();
+      Map<String, BitSet> values = index.get(requirement.getKey());
+      if (values != null) {
+        for (Map.Entry<String, BitSet> value : values.entrySet()) {
+          if (requirement.matches(value.getKey())) {
+            matching.or(value.getValue());
+          }
+        }
+      }
+
+      if (result == null) {
+        result = matching;
+      } else {
+        result.and(matching);
+      }
+      if (result.isEmpty()) {
+        break;
+      }
+    }
+    return result.toLongArray();
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.compute;
+
+/**
+ * Prepares a host released by a deleted instance for reuse.
+ */
+interface HostCleaner {
+
+  /**
+   * Accepts every host as is.
+   */
+  HostCleaner NONE = new HostCleaner() {
+    @Override
+    public boolean clean(String host) {
+      return true;
+    }
+  };
+
+  /**
+   * @return true if the host can go back to the pool
+   */
+  boolean clean(String host) throws InterruptedException;
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cloudera.director.byon.compute;
+
+import com.cloudera.director.byon.util.HostGroup;
+import com.cloudera.director.byon.util.HostGroupList;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The hosts of a pool split into fault domains, such as racks.
+ * <p/>
+ * A domain is either the value of an attribute, or the name prefix shared by its
+ * hosts when grouping by prefix or when no host carries the attribute. Groups are
+ * contiguous ranges of host IDs, so every domain is kept as a handful of ID ranges
+ * no matter how many hosts it has.
+ */
+final class HostDomains {
+
+  /**
+   * A fault domain and the ranges of host IDs within it, in ID order.
+   */
+  static final class Domain {
+
+    private final String name;
+    private final List<int[]> ranges = new ArrayList<int[]>();
+    private int size;
+
+    private Domain(String name) {
+      this.name = name;
+    }
+
+    String getName() {
+      return name;
+    }
+
+    int getSize() {
+      return size;
+    }
+
+    /**
+     * @return the number of ID ranges
+     */
+    int getRangeCount() {
+      return ranges.size();
+    }
+
+    /**
+     * @return the first ID of a range
+     */
+    int getRangeStart(int range) {
+      return ranges.get(range)[0];
+    }
+
+    /**
+     * @return the ID after the last one of a range
+     */
+    int getRangeEnd(int range) {
+      return ranges.get(range)[1];
+    }
+
+    private void add(int start, int end) {
+      int last = ranges.size() - 1;
+      if (last >= 0 && ranges.get(last)[1] == start) {
+        ranges.get(last)[1] = end;  // adjacent groups of the same domain
+      } else {
+        ranges.add(new int[]{start, end});
+      }
+      size += end - start;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  private final List<Domain> domains;
+
+  /**
+   * Where the next request starts going through the domains, so that consecutive
+   * small requests don't all start filling the same domain.
+   */
+  private final AtomicInteger nextStart = new AtomicInteger();
+
+  private HostDomains(List<Domain> domains) {
+    this.domains = domains;
+  }
+
+  /**
+   * Split hosts into domains by the value of an attribute, falling back to the name
+   * prefixes of the hosts if no host carries it. Hosts without the attribute
+   * form a domain of their own.
+   *
+   * @param attributeKey an attribute key, or null to split by name prefix
+   */
+  static HostDomains of(HostGroupList hosts, String attributeKey) {
+    boolean byAttribute = false;
+    if (attributeKey != null) {
+      for (HostGroup group : hosts.getGroups()) {
+        if (group.getAttributes().containsKey(attributeKey)) {
+          byAttribute = true;
+          break;
+        }
+      }
+    }
+
+    Map<String, Domain> domains = new LinkedHashMap<String, Domain>();
+    int offset = 0;
+    for (HostGroup group : hosts.getGroups()) {
+      if (byAttribute) {
+        String value = group.getAttributes().get(attributeKey);
+        add(domains, value == null ? "" : value, offset, offset + group.size());
+      } else if (group.isRange()) {
+        add(domains, group.getNamePrefix(), offset, offset + group.size());
+      } else {
+        for (int i = 0; i < group.size(); i++) {
+          add(domains, HostGroup.namePrefixOf(group.get(i)), offset + i, offset + i + 1);
+        }
+      }
+      offset += group.size();
+    }
+    return new HostDomains(Collections.unmodifiableList(new ArrayList<Domain>(domains.values())));
+  }
+
+  /**
+   * Adds a range of host IDs to a domain, created if needed.
+   */
+  private static void add(Map<String, Domain> domains, String name, int start, int end) {
+    Domain domain = domains.get(name);
+    if (domain == null) {
+      domain = new Domain(name);
+      domains.put(name, domain);
+    }
+    domain.add(start, end);
+  }
+
+  /**
+   * @return the domains in order of their first host
+   */
+  List<Domain> getDomains() {
+    return domains;
+  }
+
+  /**
+   * @return the domain a new request should start with, rotating between requests
+   */
+  int nextStart() {
+    return domains.isEmpty() ? 0 : (nextStart.getAndIncrement() & Integer.MAX_VALUE) % domains.size();
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cloudera.director.byon.compute;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Hardware and operating system facts about a host: a handful of primitive fields
+ * rather than a map, since the pool keeps one per host.
+ * <p/>
+ * Facts are read from {@code key=value} lines:
+ * <p/>
+ * <pre>
+ * cpus=32
+ * memoryMb=262144
+ * disks=12
+ * diskGb=48000
+ * os=CentOS Linux 7.9
+ * </pre>
+ * <p/>
+ * Every key is optional, unknown keys, blank lines and lines starting with {@code #}
+ * are ignored. The facts show up in the properties of instances and can be used in
+ * host requirements under the same keys, unless the host was listed with an
+ * attribute of the same name.
+ */
+final class HostFacts {
+
+  static final String CPUS = "cpus";
+  static final String MEMORY_MB = "memoryMb";
+  static final String DISKS = "disks";
+  static final String DISK_GB = "diskGb";
+  static final String OS = "os";
+
+  /**
+   * The value of numeric facts that are not known.
+   */
+  static final long UNKNOWN = -1;
+
+  private final int cpus;
+  private final long memoryMb;
+  private final int disks;
+  private final long diskGb;
+  private final String os;
+
+  /**
+   * @param os the operating system or null if unknown; other unknown facts are
+   *           {@link #UNKNOWN}
+   */
+  HostFacts(int cpus, long memoryMb, int disks, long diskGb, String os) {
+    this.cpus = cpus;
+    this.memoryMb = memoryMb;
+    this.disks = disks;
+    this.diskGb = diskGb;
+    this.os = os == null ? null : os.intern();  // shared by every host of the same kind
+  }
+
+  /**
+   * @throws IllegalArgumentException if a line is not a {@code key=value} pair or a
+   *                                  numeric fact is not a non-negative number
+   */
+  static HostFacts parse(String output) {
+    int cpus = (int) UNKNOWN;
+    long memoryMb = UNKNOWN;
+    int disks = (int) UNKNOWN;
+    long diskGb = UNKNOWN;
+    String os = null;
+
+    for (String line : output.split("\n")) {
+      String trimmed = line.trim();
+      if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+        continue;
+      }
+      int separator = trimmed.indexOf('=');
+      if (separator <= 0) {
+        throw new IllegalArgumentException("Invalid host fact: " + trimmed);
+      }
+      String key = trimmed.substring(0, separator).trim();
+      String value = trimmed.substring(separator + 1).trim();
+      if (key.equals(CPUS)) {
+        cpus = (int) parseCount(key, value, Integer.MAX_VALUE);
+      } else if (key.equals(MEMORY_MB)) {
+        memoryMb = parseCount(key, value, Long.MAX_VALUE);
+      } else if (key.equals(DISKS)) {
+        disks = (int) parseCount(key, value, Integer.MAX_VALUE);
+      } else if (key.equals(DISK_GB)) {
+        diskGb = parseCount(key, value, Long.MAX_VALUE);
+      } else if (key.equals(OS)) {
+        os = value.isEmpty() ? null : value;
+      }
+    }
+    return new HostFacts(cpus, memoryMb, disks, diskGb, os);
+  }
+
+  private static long parseCount(String key, String value, long max) {
+    try {
+      long count = Long.parseLong(value);
+      if (count >= 0 && count <= max) {
+        return count;
+      }
+    } catch (NumberFormatException e) {
+      // reported below
+    }
+    throw new IllegalArgumentException(String.format("Invalid host fact %s=%s", key, value));
+  }
+
+  int getCpus() {
+    return cpus;
+  }
+
+  long getMemoryMb() {
+    return memoryMb;
+  }
+
+  int getDisks() {
+    return disks;
+  }
+
+  long getDiskGb() {
+    return diskGb;
+  }
+
+  String getOs() {
+    return os;
+  }
+
+  /**
+   * @return the known facts by key
+   */
+  Map<String, String> asMap() {
+    Map<String, String> result = new LinkedHashMap<String, String>();
+    put(result, CPUS, cpus);
+    put(result, MEMORY_MB, memoryMb);
+    put(result, DISKS, disks);
+    put(result, DISK_GB, diskGb);
+    if (os != null) {
+      result.put(OS, os);
+    }
+    return Collections.unmodifiableMap(result);
+  }
+
+  private static void put(Map<String, String> result, String key, long value) {
+    if (value != UNKNOWN) {
+      result.put(key, Long.toString(value));
+    }
+  }
+
+  @Override
+  public String toString() {
+    return asMap().toString();
+  }
+}
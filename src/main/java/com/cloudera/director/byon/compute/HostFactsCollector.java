@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cloudera.director.byon.compute;
+
+import java.io.IOException;
+
+/**
+ * Gathers the facts of a host, typically by logging into it or asking an inventory.
+ * Collectors are called from background threads, for one host at a time each.
+ */
+interface HostFactsCollector {
+
+  /**
+   * @throws IOException if the facts could not be gathered
+   */
+  HostFacts collect(String host) throws IOException, InterruptedException;
+}
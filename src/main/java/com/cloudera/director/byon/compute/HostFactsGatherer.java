@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cloudera.director.byon.compute;
+
+import com.cloudera.director.byon.metrics.LatencyHistogram;
+import com.cloudera.director.byon.metrics.MetricsRegistry;
+import com.cloudera.director.byon.util.DaemonThreadFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Gathers the facts of hosts in the background as they enter the pool.
+ * <p/>
+ * Every host is handed to a {@link HostFactsCollector} once, from a small pool of
+ * threads, and its facts are stored in the pool as soon as they are known. Nothing
+ * waits for them: instances built before the facts of their host arrive simply
+ * don't have them yet, and placement only sees facts that have arrived. Hosts
+ * whose facts can't be gathered are not tried again until they enter the pool again.
+ * <p/>
+ * Facts are not journaled and are gathered again after a restart.
+ */
+class HostFactsGatherer {
+
+  private static final Logger LOG = Logger.getLogger(HostFactsGatherer.class.getName());
+
+  static final int THREADS = 4;
+
+  private final HostPool pool;
+  private final HostFactsCollector collector;
+  private final ExecutorService executor;
+
+  /**
+   * Hosts queued or being gathered.
+   */
+  private final Set<String> pending =
+      Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  private final MetricsRegistry metrics = new MetricsRegistry();
+  private final LongAdder gathered = metrics.counter("gathered");
+  private final LongAdder failures = metrics.counter("failures");
+  private final LatencyHistogram collectLatency = metrics.histogram("collect");
+
+  HostFactsGatherer(HostPool pool, HostFactsCollector collector) {
+    this(pool, collector,
+        Executors.newFixedThreadPool(THREADS, new DaemonThreadFactory("byon-facts")));
+  }
+
+  HostFactsGatherer(HostPool pool, HostFactsCollector collector, ExecutorService executor) {
+    if (collector == null) {
+      throw new NullPointerException("collector is null");
+    }
+    this.pool = pool;
+    this.collector = collector;
+    this.executor = executor;
+
+    metrics.gauge("pending", new LongSupplier() {
+      @Override
+      public long getAsLong() {
+        return pending.size();
+      }
+    });
+  }
+
+  MetricsRegistry getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Gather the facts of hosts whose facts are not known or being gathered yet.
+   */
+  void gather(Iterable<String> hosts) {
+    for (String host : hosts) {
+      gather(host);
+    }
+  }
+
+  /**
+   * Gather the facts of a host, unless they are known or being gathered already.
+   */
+  void gather(final String host) {
+    if (pool.getHostFacts(host) != null || !pending.add(host)) {
+      return;
+    }
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            collect(host);
+          } finally {
+            pending.remove(host);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      pending.remove(host);  // shut down
+    }
+  }
+
+  private void collect(String host) {
+    long start = System.nanoTime();
+    try {
+      HostFacts facts = collector.collect(host);
+      collectLatency.recordSince(start);
+      if (facts != null) {
+        pool.setHostFacts(host, facts);
+        gathered.increment();
+      }
+    } catch (IOException e) {
+      failures.increment();
+      LOG.log(Level.WARNING, "Unable to gather the facts of " + host, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (RuntimeException e) {
+      failures.increment();
+      LOG.log(Level.WARNING, "Unable to gather the facts of " + host, e);
+    }
+  }
+
+  /**
+   * @return the number of hosts queued or being gathered
+   */
+  int getPendingCount() {
+    return pending.size();
+  }
+
+  long getGatheredCount() {
+    return gathered.sum();
+  }
+
+  /**
+   * Stop gathering. Hosts not gathered yet are dropped.
+   */
+  void shutdown() {
+    executor.shutdownNow();
+  }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cloudera.director.byon.compute;
+
+import com.cloudera.director.byon.util.DaemonThreadFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Gives back the hosts of instances that were allocated but never looked up.
+ * <p/>
+ * Every new allocation starts as a lease. The lease is confirmed, and the allocation
+ * kept until the instance is deleted, the first time the instance is found by
+ * {@code find} or {@code getInstanceState}. Leases still unconfirmed when they
+ * expire are released like deleted instances, so a request that failed or timed out
+ * after allocating does not hold on to its hosts forever. Their hosts go through the
+ * reclaimer, if any, and are retired otherwise.
+ * <p/>
+ * Leases are kept in a hashed timer wheel: a ring of {@value #WHEEL_SIZE} slots, each
+ * covering a tick of a fraction of the lease duration. Granting, confirming and
+ * cancelling a lease are constant time, and each tick only looks at the leases
+ * falling due in its slot. Confirmed and cancelled leases are only dropped from the
+ * wheel when their slot comes around.
+ * <p/>
+ * Leases are not journaled: allocations restored after a restart are confirmed.
+ */
+class HostLeases {
+
+  private static final Logger LOG = Logger.getLogger(HostLeases.class.getName());
+
+  static final int WHEEL_SIZE = 128;
+
+  /**
+   * Ticks per lease duration: leases expire at most a tick, this fraction of their
+   * duration, late.
+   */
+  static final int TICKS_PER_LEASE = 64;
+
+  static final long MIN_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  /**
+   * Lease states, as reported in the properties of instances.
+   */
+  static final String UNCONFIRMED = "unconfirmed";
+  static final String CONFIRMED = "confirmed";
+
+  private static final class Lease {
+    final String instanceId;
+    final long deadline;
+
+    Lease(String instanceId, long deadline) {
+      this.instanceId = instanceId;
+      this.deadline = deadline;
+    }
+  }
+
+  private final HostPool pool;
+  private final long tickNanos;
+  private final long ticksPerLease;
+  private final LongSupplier clock;
+  private final long origin;
+  private final ScheduledExecutorService executor;
+
+  /**
+   * Unconfirmed leases by instance ID.
+   */
+  private final ConcurrentMap<String, Lease> pending = new ConcurrentHashMap<String, Lease>();
+  private final List<Queue<Lease>> wheel = new ArrayList<Queue<Lease>>(WHEEL_SIZE);
+
+  // guarded by this
+  private long processedTick;
+
+  private final LongAdder confirmed = new LongAdder();
+  private final LongAdder expired = new LongAdder();
+
+  HostLeases(HostPool pool, long duration, TimeUnit unit) {
+    this(pool, duration, unit, new LongSupplier() {
+      @Override
+      public long getAsLong() {
+        return System.nanoTime();
+      }
+    }, Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("byon-leases")));
+  }
+
+  /**
+   * @param executor runs the wheel, or null to only expire leases on
+   *                 {@link #expireDue()}
+   */
+  HostLeases(HostPool pool, long duration, TimeUnit unit, LongSupplier clock,
+      ScheduledExecutorService executor) {
+    if (duration <= 0) {
+      throw new IllegalArgumentException("lease duration must be positive");
+    }
+    long durationNanos = unit.toNanos(duration);
+    this.pool = pool;
+    this.tickNanos = Math.max(durationNanos / TICKS_PER_LEASE, MIN_TICK_NANOS);
+    this.ticksPerLease = (durationNanos + tickNanos - 1) / tickNanos;
+    this.clock = clock;
+    this.origin = clock.getAsLong();
+    this.executor = executor;
+    for (int i = 0; i < WHEEL_SIZE; i++) {
+      wheel.add(new ConcurrentLinkedQueue<Lease>());
+    }
+
+    if (executor != null) {
+      executor.scheduleAtFixedRate(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            expireDue();
+          } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Unable to expire leases", e);
+          }
+        }
+      }, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Start the lease of a new allocation.
+   */
+  void grant(String instanceId) {
+    Lease lease = new Lease(instanceId, currentTick() + ticksPerLease);
+    pending.put(instanceId, lease);
+    wheel.get((int) (lease.deadline % WHEEL_SIZE)).add(lease);
+  }
+
+  /**
+   * Confirm the lease of an instance, if it has one.
+   *
+   * @return true if the lease was unconfirmed until this call
+   */
+  boolean confirm(String instanceId) {
+    if (pending.remove(instanceId) == null) {
+      return false;
+    }
+    confirmed.increment();
+    return true;
+  }
+
+  /**
+   * @return true if an instance has a lease that has not been confirmed yet
+   */
+  boolean isPending(String instanceId) {
+    return pending.containsKey(instanceId);
+  }
+
+  /**
+   * Forget the lease of a deleted instance.
+   */
+  void cancel(String instanceId) {
+    pending.remove(instanceId);
+  }
+
+  /**
+   * Advance the wheel up to the current tick and release the allocations whose
+   * lease is due and still unconfirmed.
+   *
+   * @return the number of leases expired
+   */
+  synchronized int expireDue() {
+    long now = currentTick();
+    long from = Math.max(processedTick + 1, now - WHEEL_SIZE + 1);
+    int count = 0;
+    for (long tick = from; tick <= now; tick++) {
+      Queue<Lease> slot = wheel.get((int) (tick % WHEEL_SIZE));
+      List<Lease> later = new ArrayList<Lease>();
+      for (Lease lease = slot.poll(); lease != null; lease = slot.poll()) {
+        if (pending.get(lease.instanceId) != lease) {
+          continue;  // confirmed, cancelled or granted again
+        }
+        if (lease.deadline > now) {
+          later.add(lease);  // due on a later turn of the wheel
+        } else if (pending.remove(lease.instanceId, lease)) {
+          expire(lease.instanceId);
+          count++;
+        }
+      }
+      slot.addAll(later);
+    }
+    processedTick = Math.max(processedTick, now);
+    return count;
+  }
+
+  private void expire(String instanceId) {
+    String host;
+    try {
+      host = pool.expire(instanceId);
+    } catch (IllegalStateException e) {
+      LOG.log(Level.WARNING, "Unable to journal the expired lease of " + instanceId, e);
+      return;
+    }
+    if (host != null) {
+      expired.increment();
+      LOG.info(String.format("Lease of %s on host %s expired unconfirmed", instanceId, host));
+    }
+  }
+
+  private long currentTick() {
+    return (clock.getAsLong() - origin) / tickNanos;
+  }
+
+  /**
+   * Stop expiring leases. Unconfirmed leases are kept as allocations.
+   */
+  void shutdown() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * @return the number of unconfirmed leases
+   */
+  int getPendingCount() {
+    return pending.size();
+  }
+
+  long getConfirmedCount() {
+    return confirmed.sum();
+  }
+
+  long getExpiredCount() {
+    return expired.sum();
+  }
+}
@@ -0,0 +1,1366 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.compute;
+
+import com.cloudera.director.byon.journal.AllocationJournal;
+import com.cloudera.director.byon.journal.AllocationJournal.HostState;
+import com.cloudera.director.byon.metrics.LatencyHistogram;
+import com.cloudera.director.byon.metrics.MetricsMBean;
+import com.cloudera.director.byon.metrics.MetricsRegistry;
+import com.cloudera.director.byon.net.HostLiveness;
+import com.cloudera.director.byon.net.SshHostKeyScanner;
+import com.cloudera.director.byon.net.TcpProbeScheduler;
+import com.cloudera.director.byon.util.ConcurrentBitSet;
+import com.cloudera.director.byon.util.HostGroup;
+import com.cloudera.director.byon.util.HostGroupList;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A pool of hosts that can be safely shared by concurrent allocation requests.
+ * <p/>
+ * Every host gets an integer ID, its position in the lazily expanded host group list,
+ * and the free hosts are tracked as a bitmap over those IDs. Host names are only
+ * built when a host is handed out. Capacity is reserved up front with a
+ * compare-and-set on the number of unreserved hosts; each reserved slot is then
+ * guaranteed to be backed by a free host. Claiming a specific host is a single
+ * compare-and-set on its bit and claiming any host takes the lowest free ID, so two
+ * requests can never end up with the same host and neither operation scans the
+ * pool. Lookups by instance ID go through a concurrent map and never block behind
+ * an allocation in progress.
+ * <p/>
+ * The pool also keeps the {@link BYONComputeInstance} built for each allocation, so
+ * lookups can hand back the same immutable instance until the allocation is released.
+ * <p/>
+ * Batch allocations go through a {@link Reservation}, which claims hosts privately and
+ * either publishes all of them at once or gives all of them back.
+ * <p/>
+ * Hosts can be restricted by requirements on their attributes. The requirements are
+ * turned into a mask over host IDs through a {@link HostAttributeIndex} and hosts are
+ * claimed from the intersection of that mask with the free hosts.
+ * <p/>
+ * Released hosts are retired, unless a {@link HostReclaimer} is attached to bring
+ * them back once they have been cleaned up.
+ * <p/>
+ * When a probe scheduler is attached every allocated host is probed for as long as
+ * it stays allocated.
+ * <p/>
+ * When a {@link HostFactsGatherer} is attached the facts of every host are gathered
+ * in the background as it enters the pool. Facts are indexed like attributes, so
+ * requirements can select hosts on them once they are known.
+ * <p/>
+ * When {@link HostQuotas} are attached, batch allocations made for a quota group are
+ * admitted within the quota and fair share of the group, and the hosts they hold are
+ * charged to it until released.
+ * <p/>
+ * When {@link CapacityWaiters} are attached, batch allocations that can not be served
+ * wait a while for hosts to be returned, reclaimed or added instead of failing
+ * right away. The pool signals the waiters whenever hosts become available.
+ * <p/>
+ * When {@link HostLeases} are attached new allocations are leases that expire unless
+ * the instance is {@linkplain #confirm confirmed} in time.
+ * <p/>
+ * When a journal is attached every change to the allocations is recorded in it,
+ * after the change is visible in the pool, and {@link #commit()} makes the changes
+ * durable. So are released hosts that are retired or being reclaimed, which stay out
+ * of the pool after a restart and resume their reclamation once a reclaimer is
+ * attached.
+ * <p/>
+ * The hosts can be changed with {@link #update(HostGroupList)} while allocations are
+ * in progress. Host IDs are never reused: new hosts are appended, with the list of
+ * hosts and the indexes over it replaced as a whole, and hosts no longer listed are
+ * flagged as removed. Removed hosts that are free are taken out of the free set and
+ * allocated ones drain: they stay allocated but don't come back when released.
+ * <p/>
+ * The pool keeps {@link #getMetrics() metrics} on its size, contention on the
+ * reservation counter and the update lock, and the components attached to it.
+ * Providers record their own counters and latencies in the same registry. The
+ * metrics can be {@linkplain #registerMBean registered} as an MBean, which the pool
+ * unregisters when it is closed.
+ */
+class HostPool {
+
+  /**
+   * The hosts of the pool and the indexes built over them, replaced as a whole when
+   * hosts are added.
+   */
+  private static final class Generation {
+    final HostGroupList hosts;
+    final BitSet duplicates;
+    final HostAttributeIndex attributes;
+
+    /**
+     * Fault domains by attribute key, with the empty key for domains by name prefix.
+     */
+    final ConcurrentMap<String, HostDomains> domains = new ConcurrentHashMap<String, HostDomains>();
+
+    Generation(HostGroupList hosts) {
+      this.hosts = hosts;
+      this.duplicates = hosts.findDuplicates();
+      this.attributes = new HostAttributeIndex(hosts);
+    }
+  }
+
+  /**
+   * The changes made to a pool by an update.
+   */
+  static final class Update {
+    private final int added;
+    private final int dropped;
+    private final int draining;
+
+    Update(int added, int dropped, int draining) {
+      this.added = added;
+      this.dropped = dropped;
+      this.draining = draining;
+    }
+
+    /**
+     * @return the number of hosts made available
+     */
+    int getAdded() {
+      return added;
+    }
+
+    /**
+     * @return the number of free hosts removed from the pool
+     */
+    int getDropped() {
+      return dropped;
+    }
+
+    /**
+     * @return the number of allocated hosts that won't come back to the pool
+     */
+    int getDraining() {
+      return draining;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d added, %d dropped, %d draining", added, dropped, draining);
+    }
+  }
+
+  /**
+   * Always read before looking up a host ID taken from {@link #free}: IDs are only
+   * made free once the generation listing them is published.
+   */
+  private volatile Generation generation;
+
+  private final ConcurrentBitSet free;
+
+  /**
+   * Hosts no longer listed in the pool.
+   */
+  private final ConcurrentBitSet removed;
+
+  /**
+   * Removed or duplicate hosts that were taken out of the free set while free.
+   */
+  private final ConcurrentBitSet dropped;
+
+  private final Object updateLock = new Object();
+
+  private final ConcurrentMap<String, String> allocations = new ConcurrentHashMap<String, String>();
+
+  /**
+   * Instances built for current allocations, by instance ID.
+   */
+  private final ConcurrentMap<String, BYONComputeInstance> instances =
+      new ConcurrentHashMap<String, BYONComputeInstance>();
+
+  /**
+   * Facts gathered about hosts, by host name.
+   */
+  private final ConcurrentMap<String, HostFacts> facts = new ConcurrentHashMap<String, HostFacts>();
+
+  /**
+   * Number of free hosts not yet promised to an allocation request.
+   */
+  private final AtomicInteger unreserved;
+
+  /**
+   * Released hosts that are not back in the pool, by host name.
+   */
+  private final ConcurrentMap<String, HostState> outOfPool =
+      new ConcurrentHashMap<String, HostState>();
+
+  private volatile AllocationJournal journal;
+  private volatile HostReclaimer reclaimer;
+  private volatile HostLeases leases;
+  private volatile HostFactsGatherer factsGatherer;
+  private volatile HostQuotas quotas;
+  private volatile CapacityWaiters waiters;
+  private volatile TcpProbeScheduler probe;
+  private volatile SshHostKeyScanner hostKeyScanner;
+  private volatile HostsFileWatcher hostsFileWatcher;
+
+  private final MetricsRegistry metrics = new MetricsRegistry();
+  private volatile MBeanServer mbeanServer;
+  private volatile ObjectName mbeanName;
+  private final LongAdder reserveRetries = metrics.counter("reserveRetries");
+  private final LatencyHistogram updateLockWait = metrics.histogram("updateLockWait");
+
+  /**
+   * @param hosts the hosts in the pool, in allocation order; duplicates are ignored
+   */
+  HostPool(HostGroupList hosts) {
+    this.generation = new Generation(hosts);
+    this.free = new ConcurrentBitSet(hosts.size(), true);
+    this.removed = new ConcurrentBitSet(hosts.size(), false);
+    this.dropped = new ConcurrentBitSet(hosts.size(), false);
+
+    BitSet duplicates = generation.duplicates;
+    for (int id = duplicates.nextSetBit(0); id >= 0; id = duplicates.nextSetBit(id + 1)) {
+      free.clear(id);
+      dropped.set(id);
+    }
+    this.unreserved = new AtomicInteger(hosts.size() - duplicates.cardinality());
+
+    metrics.gauge("hosts", new LongSupplier() {
+      @Override
+      public long getAsLong() {
+        return generation.hosts.size();
+      }
+    });
+    metrics.gauge("freeHosts", new LongSupplier() {
+      @Override
+      public long getAsLong() {
+        return free.cardinality();
+      }
+    });
+    metrics.gauge("unreservedHosts", new LongSupplier() {
+      @Override
+      public long getAsLong() {
+        return unreserved.get();
+      }
+    });
+    metrics.gauge("allocatedHosts", new LongSupplier() {
+      @Override
+      public long getAsLong() {
+        return allocations.size();
+      }
+    });
+    metrics.gauge("cachedInstances", new LongSupplier() {
+      @Override
+      public long getAsLong() {
+        return instances.size();
+      }
+    });
+  }
+
+  MetricsRegistry getMetrics() {
+    return metrics;
+  }
+
+  int size() {
+    return generation.hosts.size();
+  }
+
+  /**
+   * @return every host ever listed in the pool, including removed ones, by ID
+   */
+  HostGroupList getHosts() {
+    return generation.hosts;
+  }
+
+  /**
+   * Sorts hosts by whether the pool could allocate them right now.
+   * <p/>
+   * Groups are compared with the groups of the pool symbolically, see
+   * {@link HostGroupList#locate}, and only the hosts found are checked, so the work
+   * depends on the size of the groups looked up rather than on the size of the pool.
+   *
+   * @param hosts       the hosts to look up
+   * @param missing     receives the hosts that are not in the pool, or no longer
+   * @param unavailable receives the hosts that are allocated, claimed by a request in
+   *                    progress or being reclaimed
+   * @param available   receives the hosts that are free
+   */
+  void lookUp(HostGroupList hosts, List<HostGroup> missing, Collection<String> unavailable,
+      Collection<String> available) {
+    Generation current = generation;
+    int[] found = current.hosts.locate(hosts, missing);
+    for (int i = 0; i < found.length; i += 2) {
+      for (int id = found[i]; id < found[i + 1]; id++) {
+        String host = current.hosts.get(id);
+        int first = id;
+        if (current.duplicates.get(id)) {
+          first = current.hosts.indexOf(host);  // the ID that tracks the host
+          if (inRanges(found, first)) {
+            continue;
+          }
+        }
+        if (removed.get(first)) {
+          missing.add(HostGroup.of(host));
+        } else if (free.get(first)) {
+          available.add(host);
+        } else {
+          unavailable.add(host);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param ranges sorted pairs of the first ID of a range and the ID after it
+   */
+  private static boolean inRanges(int[] ranges, int id) {
+    int low = 0;
+    int high = ranges.length / 2 - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      if (id < ranges[2 * middle]) {
+        high = middle - 1;
+      } else if (id >= ranges[2 * middle + 1]) {
+        low = middle + 1;
+      } else {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Change the hosts in the pool without disturbing allocations in progress.
+   * <p/>
+   * Hosts are matched by name. New hosts are made available, unless they are already
+   * allocated; removed hosts are dropped if free and drain otherwise; removed hosts
+   * listed again come back. Hosts keep the attributes they were first listed with.
+   * A removed host that is free but already counted on by requests in progress, when
+   * there are no other free hosts left for them, is left to them and drains.
+   * <p/>
+   * Updates are serialized with each other, but never block allocations or lookups.
+   *
+   * @param hosts the hosts that should be in the pool from now on
+   */
+  Update update(HostGroupList hosts) {
+    long waitStart = System.nanoTime();
+    synchronized (updateLock) {
+      updateLockWait.recordSince(waitStart);
+      Generation current = generation;
+      List<HostGroup> missing = new ArrayList<HostGroup>();
+      BitSet listed = current.hosts.match(hosts, missing);
+      for (int id = current.duplicates.nextSetBit(0); id >= 0;
+          id = current.duplicates.nextSetBit(id + 1)) {
+        if (listed.get(id)) {
+          listed.set(current.hosts.indexOf(current.hosts.get(id)));
+        }
+      }
+
+      Generation next = current;
+      if (!missing.isEmpty()) {
+        next = new Generation(current.hosts.append(missing));
+        int size = next.hosts.size();
+        removed.grow(size);
+        dropped.grow(size);
+        free.grow(size);
+        generation = next;
+        for (Map.Entry<String, HostFacts> entry : facts.entrySet()) {
+          index(next, entry.getKey(), Collections.<String, String>emptyMap(),
+              entry.getValue().asMap());
+        }
+      }
+
+      Set<String> allocated = new HashSet<String>(allocations.values());
+      int added = 0;
+      for (int id = current.hosts.size(); id < next.hosts.size(); id++) {
+        String host = next.hosts.get(id);
+        if (!next.duplicates.get(id) && !allocated.contains(host) && !outOfPool.containsKey(host)
+            && makeFree(id)) {
+          added++;
+        }
+      }
+
+      int droppedCount = 0;
+      for (int id = 0; id < current.hosts.size(); id++) {
+        if (current.duplicates.get(id)) {
+          continue;
+        }
+        if (listed.get(id)) {
+          if (removed.clear(id) && dropped.clear(id) && makeFree(id)) {
+            added++;
+          }
+        } else if (removed.set(id) && drop(id)) {
+          droppedCount++;
+        }
+      }
+
+      int draining = 0;
+      for (String host : allocated) {
+        int id = next.hosts.indexOf(host);
+        if (id >= 0 && removed.get(id)) {
+          draining++;
+        }
+      }
+      HostFactsGatherer currentGatherer = factsGatherer;
+      if (currentGatherer != null) {
+        currentGatherer.gather(next.hosts.subList(current.hosts.size(), next.hosts.size()));
+      }
+      return new Update(added, droppedCount, draining);
+    }
+  }
+
+  /**
+   * @return the allocated hosts that are no longer listed in the pool
+   */
+  Collection<String> getDrainingHosts() {
+    HostGroupList hosts = generation.hosts;
+    List<String> result = new ArrayList<String>();
+    for (String host : allocations.values()) {
+      int id = hosts.indexOf(host);
+      if (id >= 0 && removed.get(id)) {
+        result.add(host);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Put a host in the free set and make it available for reservation, unless it has
+   * been removed from the pool.
+   *
+   * @return true if the host is available because of this call
+   */
+  private boolean makeFree(int id) {
+    if (!free.set(id)) {
+      return false;
+    }
+    if (removed.get(id) && free.clear(id)) {
+      dropped.set(id);  // removed while it was not free
+      return false;
+    }
+    // the host must be free before it can be reserved
+    unreserved.incrementAndGet();
+    signalCapacity();
+    return true;
+  }
+
+  /**
+   * Wake requests waiting for capacity, if any.
+   */
+  private void signalCapacity() {
+    CapacityWaiters current = waiters;
+    if (current != null) {
+      current.signal();
+    }
+  }
+
+  /**
+   * Take a free host out of the free set, along with the capacity it stands for.
+   *
+   * @return true if the host was free and is now dropped
+   */
+  private boolean drop(int id) {
+    if (!free.get(id)) {
+      return false;
+    }
+    while (true) {
+      int available = unreserved.get();
+      if (available == 0) {
+        return false;  // every free host is counted on by requests in progress
+      }
+      if (unreserved.compareAndSet(available, available - 1)) {
+        break;
+      }
+    }
+    if (free.clear(id)) {
+      dropped.set(id);
+      return true;
+    }
+    unreserved.incrementAndGet();  // claimed in the meantime
+    return false;
+  }
+
+  /**
+   * @param attributeKey the attribute naming the domain of a host, or null for
+   *                     domains made of hosts sharing a name prefix
+   * @return the hosts of the pool split into fault domains
+   */
+  HostDomains getDomains(String attributeKey) {
+    String key = attributeKey == null ? "" : attributeKey;
+    Generation current = generation;
+    HostDomains result = current.domains.get(key);
+    if (result == null) {
+      result = HostDomains.of(current.hosts, attributeKey);
+      HostDomains previous = current.domains.putIfAbsent(key, result);
+      if (previous != null) {
+        result = previous;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Reserve between {@code minCount} and {@code maxCount} hosts, as many as possible.
+   *
+   * @return the number of hosts reserved, each of them to be claimed exactly once
+   * @throws IllegalStateException if fewer than {@code minCount} hosts are available
+   */
+  int reserve(int minCount, int maxCount) {
+    while (true) {
+      int available = unreserved.get();
+      if (available < minCount) {
+        throw new IllegalStateException(String.format("Not enough capacity. Requested at " +
+            "least %d, only have %d available", minCount, available));
+      }
+      int count = Math.min(available, maxCount);
+      if (unreserved.compareAndSet(available, available - count)) {
+        return count;
+      }
+      reserveRetries.increment();
+    }
+  }
+
+  /**
+   * Reserve between {@code minCount} and {@code maxCount} hosts for a batch allocation.
+   *
+   * @throws IllegalStateException if fewer than {@code minCount} hosts are available
+   */
+  Reservation reserveBatch(int minCount, int maxCount) {
+    return reserveBatch(minCount, maxCount, HostRequirements.NONE);
+  }
+
+  /**
+   * Reserve hosts meeting a set of requirements for a batch allocation charged to a
+   * quota group. Without quotas this is the same as
+   * {@link #reserveBatch(int, int, HostRequirements)}.
+   *
+   * @throws IllegalStateException if fewer than {@code minCount} hosts can be reserved
+   *                               within the quota of the group, and waiting for
+   *                               capacity is not enabled or timed out
+   */
+  Reservation reserveBatch(final int minCount, final int maxCount,
+      final HostRequirements requirements, final String quotaGroup) {
+    CapacityWaiters currentWaiters = waiters;
+    if (currentWaiters == null) {
+      return admit(minCount, maxCount, requirements, quotaGroup);
+    }
+    return currentWaiters.acquire(minCount, new Supplier<Reservation>() {
+      @Override
+      public Reservation get() {
+        return admit(minCount, maxCount, requirements, quotaGroup);
+      }
+    });
+  }
+
+  private Reservation admit(int minCount, int maxCount, HostRequirements requirements,
+      String quotaGroup) {
+    HostQuotas current = quotas;
+    if (current == null) {
+      return reserveBatch(minCount, maxCount, requirements);
+    }
+    return current.admit(quotaGroup, minCount, maxCount, requirements);
+  }
+
+  /**
+   * @return the number of free hosts not promised to any request
+   */
+  int getUnreservedCount() {
+    return unreserved.get();
+  }
+
+  /**
+   * Reserve between {@code minCount} and {@code maxCount} hosts meeting a set of
+   * requirements for a batch allocation.
+   * <p/>
+   * The matching hosts are counted up front, but concurrent requests may still take
+   * some of them before they are claimed, so claims against the reservation can fail.
+   *
+   * @throws IllegalStateException if fewer than {@code minCount} matching hosts are available
+   */
+  Reservation reserveBatch(int minCount, int maxCount, HostRequirements requirements) {
+    long[] mask = generation.attributes.select(requirements);
+    if (mask != null) {
+      int matching = free.cardinality(mask);
+      if (matching < minCount) {
+        throw new IllegalStateException(String.format("Not enough capacity matching %s. " +
+            "Requested at least %d, only have %d available", requirements, minCount, matching));
+      }
+      maxCount = Math.min(maxCount, matching);
+    }
+    return new Reservation(reserve(minCount, maxCount), mask);
+  }
+
+  /**
+   * Claim a specific host against a previous reservation.
+   *
+   * @return true if the host is in the pool, was free and is now owned by the caller
+   */
+  boolean claim(String host) {
+    int id = generation.hosts.indexOf(host);
+    return id >= 0 && free.clear(id);
+  }
+
+  /**
+   * Claim the first free host against a previous reservation.
+   */
+  String claimAny() {
+    int id = free.claimNext();
+    if (id < 0) {
+      throw new IllegalStateException("Host pool exhausted while claiming a reserved host");
+    }
+    return generation.hosts.get(id);
+  }
+
+  /**
+   * Restore the allocations and the hosts out of the pool recorded in a journal and
+   * record every further change in it. Hosts that are no longer part of the pool keep
+   * their allocation or state but are not tracked as free or taken. Must be attached
+   * before the reclaimer for reclamations in progress to be resumed.
+   */
+  void attachJournal(final AllocationJournal journal) throws IOException {
+    Map<String, HostState> hostStates = new LinkedHashMap<String, HostState>();
+    for (Map.Entry<String, String> entry : journal.replay(hostStates).entrySet()) {
+      take(entry.getValue());
+      allocations.put(entry.getKey(), entry.getValue());
+    }
+    for (Map.Entry<String, HostState> entry : hostStates.entrySet()) {
+      take(entry.getKey());
+      outOfPool.put(entry.getKey(), entry.getValue());
+    }
+
+    journal.setSnapshotSource(new Supplier<Map<String, String>>() {
+      @Override
+      public Map<String, String> get() {
+        return allocations;
+      }
+    });
+    journal.setHostStateSource(new Supplier<Map<String, HostState>>() {
+      @Override
+      public Map<String, HostState> get() {
+        return outOfPool;
+      }
+    });
+    metrics.include("journal", journal.getMetrics());
+    this.journal = journal;
+  }
+
+  /**
+   * Take a host out of the free set while restoring the pool.
+   */
+  private void take(String host) {
+    int id = generation.hosts.indexOf(host);
+    if (id >= 0 && free.clear(id)) {
+      unreserved.decrementAndGet();
+    }
+  }
+
+  /**
+   * Send the hosts of deleted instances through a reclaimer instead of retiring them,
+   * starting with the hosts whose reclamation was interrupted by a restart.
+   */
+  void attachReclaimer(final HostReclaimer reclaimer) {
+    metrics.include("reclaim", reclaimer.getMetrics());
+    this.reclaimer = reclaimer;
+    for (Map.Entry<String, HostState> entry : outOfPool.entrySet()) {
+      if (entry.getValue() == HostState.RECLAIMING) {
+        reclaimer.reclaim(entry.getKey());
+      }
+    }
+
+    metrics.gauge("reclaimQueueDepth", new LongSupplier() {
+      @Override
+      public long getAsLong() {
+        return reclaimer.getQueueDepth();
+      }
+    });
+    metrics.gauge("reclaimedHosts", new LongSupplier() {
+      @Override
+      public long getAsLong() {
+        return reclaimer.getReclaimedCount();
+      }
+    });
+    metrics.gauge("reclaimFailures", new LongSupplier() {
+      @Override
+      public long getAsLong() {
+        return reclaimer.getFailedCount();
+      }
+    });
+    metrics.gauge("reclaimJournalFailures", new LongSupplier() {
+      @Override
+      public long getAsLong() {
+        return reclaimer.getJournalFailureCount();
+      }
+    });
+  }
+
+  HostReclaimer getReclaimer() {
+    return reclaimer;
+  }
+
+  /**
+   * Admit batch allocations within quotas. Current allocations are not charged to
+   * any group.
+   */
+  void attachQuotas(final HostQuotas quotas) {
+    this.quotas = quotas;
+
+    metrics.gauge("quotaOwedHosts", new LongSupplier() {
+      @Override
+      public long getAsLong() {
+        return quotas.getOwed();
+      }
+    });
+    metrics.gauge("quotaRejections", new LongSupplier() {
+      @Override
+      public long getAsLong() {
+        return quotas.getRejectedCount();
+      }
+    });
+  }
+
+  HostQuotas getQuotas() {
+    return quotas;
+  }
+
+  /**
+   * Let batch allocations wait for capacity.
+   */
+  void attachCapacityWaiters(CapacityWaiters waiters) {
+    metrics.include("capacity", waiters.getMetrics());
+    this.waiters = waiters;
+  }
+
+  /**
+   * Gather the facts of every host in the pool, and of hosts added later, in the
+   * background.
+   */
+  void attachFactsGatherer(HostFactsGatherer gatherer) {
+    metrics.include("facts", gatherer.getMetrics());
+    this.factsGatherer = gatherer;
+    gatherer.gather(generation.hosts);
+  }
+
+  /**
+   * Make new allocations leases that expire unless confirmed. Current allocations
+   * are confirmed.
+   */
+  void attachLeases(final HostLeases leases) {
+    this.leases = leases;
+
+    metrics.gauge("unconfirmedLeases", new LongSupplier() {
+      @Override
+      public long getAsLong() {
+        return leases.getPendingCount();
+      }
+    });
+    metrics.gauge("confirmedLeases", new LongSupplier() {
+      @Override
+      public long getAsLong() {
+        return leases.getConfirmedCount();
+      }
+    });
+    metrics.gauge("expiredLeases", new LongSupplier() {
+      @Override
+      public long getAsLong() {
+        return leases.getExpiredCount();
+      }
+    });
+  }
+
+  /**
+   * Probe every allocated host, starting with the current allocations.
+   */
+  void attachProbe(final TcpProbeScheduler probe) {
+    this.probe = probe;
+    for (String host : allocations.values()) {
+      probe.watch(host);
+    }
+
+    metrics.gauge("probedHosts", new LongSupplier() {
+      @Override
+      public long getAsLong() {
+        return probe.size();
+      }
+    });
+  }
+
+  /**
+   * Collect the SSH host keys of allocated hosts. Cached keys are dropped when a
+   * host is released or reclaimed.
+   */
+  void attachHostKeyScanner(SshHostKeyScanner hostKeyScanner) {
+    this.hostKeyScanner = hostKeyScanner;
+  }
+
+  /**
+   * Keep the hosts in line with a hosts file until the pool is closed.
+   */
+  void attachHostsFileWatcher(HostsFileWatcher hostsFileWatcher) {
+    this.hostsFileWatcher = hostsFileWatcher;
+  }
+
+  /**
+   * @return the host key scanner or null if host keys are not collected
+   */
+  SshHostKeyScanner getHostKeyScanner() {
+    return hostKeyScanner;
+  }
+
+  /**
+   * @return the outcome of the latest probe of a host, or null if hosts are not probed
+   */
+  HostLiveness getLiveness(String host) {
+    TcpProbeScheduler current = probe;
+    if (current == null) {
+      return null;
+    }
+    HostLiveness liveness = current.getLiveness(host);
+    return liveness == null ? HostLiveness.UNKNOWN : liveness;
+  }
+
+  void assign(String instanceId, String host) {
+    allocations.put(instanceId, host);
+
+    HostLeases currentLeases = leases;
+    if (currentLeases != null) {
+      currentLeases.grant(instanceId);
+    }
+
+    AllocationJournal current = journal;
+    if (current != null) {
+      current.recordAllocation(instanceId, host);
+    }
+
+    TcpProbeScheduler currentProbe = probe;
+    if (currentProbe != null) {
+      currentProbe.watch(host);
+    }
+  }
+
+  String getHost(String instanceId) {
+    return allocations.get(instanceId);
+  }
+
+  /**
+   * @return the attributes a host was listed with, empty if it is not in the pool
+   */
+  Map<String, String> getHostAttributes(String host) {
+    HostGroupList hosts = generation.hosts;
+    int id = hosts.indexOf(host);
+    return id >= 0 ? hosts.getAttributes(id) : Collections.<String, String>emptyMap();
+  }
+
+  /**
+   * @return the facts gathered about a host, or null if not known (yet)
+   */
+  HostFacts getHostFacts(String host) {
+    return facts.get(host);
+  }
+
+  /**
+   * Store the facts of a host and index them for requirements.
+   *
+   * @return true if the host is in the pool
+   */
+  boolean setHostFacts(String host, HostFacts hostFacts) {
+    if (generation.hosts.indexOf(host) < 0) {
+      return false;
+    }
+    HostFacts previous = facts.put(host, hostFacts);
+    Map<String, String> previousMap =
+        previous == null ? Collections.<String, String>emptyMap() : previous.asMap();
+    Map<String, String> factsMap = hostFacts.asMap();
+
+    // an update may replace the index in the meantime, index the facts there too
+    Generation indexed = null;
+    for (Generation current = generation; current != indexed; current = generation) {
+      index(current, host, previousMap, factsMap);
+      indexed = current;
+    }
+    return true;
+  }
+
+  private static void index(Generation target, String host, Map<String, String> previous,
+      Map<String, String> hostFacts) {
+    int id = target.hosts.indexOf(host);
+    if (id >= 0) {
+      target.attributes.addFacts(id, previous, hostFacts, target.hosts.getAttributes(id));
+    }
+  }
+
+  /**
+   * @return the state of the lease of an instance, {@link HostLeases#UNCONFIRMED} or
+   * {@link HostLeases#CONFIRMED}, or null without leases
+   */
+  String getLeaseState(String instanceId) {
+    HostLeases current = leases;
+    if (current == null) {
+      return null;
+    }
+    return current.isPending(instanceId) ? HostLeases.UNCONFIRMED : HostLeases.CONFIRMED;
+  }
+
+  /**
+   * @return the instance last cached for an instance ID, or null
+   */
+  BYONComputeInstance getInstance(String instanceId) {
+    return instances.get(instanceId);
+  }
+
+  /**
+   * Keep an instance for later lookups, as long as its host is still allocated to it.
+   */
+  void cacheInstance(BYONComputeInstance instance) {
+    String instanceId = instance.getId();
+    instances.put(instanceId, instance);
+    if (!instance.getHost().equals(allocations.get(instanceId))) {
+      instances.remove(instanceId, instance);  // released in the meantime
+    }
+  }
+
+  /**
+   * Confirm the allocation of an instance that has been seen by its owner, so it is
+   * kept until deleted. Does nothing without leases.
+   *
+   * @return true if the instance had an unconfirmed lease
+   */
+  boolean confirm(String instanceId) {
+    HostLeases current = leases;
+    return current != null && current.confirm(instanceId);
+  }
+
+  /**
+   * Drop the allocation of an instance whose lease expired and make the change
+   * durable. The host is handled like the host of a deleted instance: it goes through
+   * the reclaimer if one is attached and is retired otherwise, since whoever asked
+   * for it may have started using it anyway.
+   *
+   * @return the host previously allocated to the instance or null
+   * @throws IllegalStateException if the journal can not be written
+   */
+  String expire(String instanceId) {
+    String host = release(instanceId);
+    if (host != null) {
+      commit();
+    }
+    return host;
+  }
+
+  /**
+   * Drop the allocation for an instance. The host is handed to the reclaimer, if
+   * one is attached, and is otherwise retired: it is not returned to the pool.
+   *
+   * @return the host previously allocated to the instance or null
+   */
+  String release(String instanceId) {
+    String host = allocations.remove(instanceId);
+    instances.remove(instanceId);
+
+    HostLeases currentLeases = leases;
+    if (host != null && currentLeases != null) {
+      currentLeases.cancel(instanceId);
+    }
+
+    HostQuotas currentQuotas = quotas;
+    if (host != null && currentQuotas != null) {
+      currentQuotas.release(instanceId);
+      signalCapacity();  // the group may have room again
+    }
+
+    HostReclaimer currentReclaimer = reclaimer;
+    HostState state = currentReclaimer != null ? HostState.RECLAIMING : HostState.RETIRED;
+    if (host != null) {
+      outOfPool.put(host, state);
+    }
+
+    AllocationJournal current = journal;
+    if (host != null && current != null) {
+      current.recordDeletion(instanceId);
+      if (state == HostState.RECLAIMING) {
+        current.recordReclamation(host);
+      } else {
+        current.recordRetirement(host);
+      }
+    }
+
+    TcpProbeScheduler currentProbe = probe;
+    if (host != null && currentProbe != null) {
+      currentProbe.unwatch(host);
+    }
+
+    SshHostKeyScanner currentScanner = hostKeyScanner;
+    if (host != null && currentScanner != null) {
+      currentScanner.invalidate(host);
+    }
+
+    if (host != null && currentReclaimer != null) {
+      currentReclaimer.reclaim(host);
+    }
+    return host;
+  }
+
+  /**
+   * @return the state of a host out of the pool without being allocated, or null
+   */
+  HostState getHostState(String host) {
+    return outOfPool.get(host);
+  }
+
+  /**
+   * Keep a released host out of the pool for good, typically because its cleanup
+   * failed. Not durable until the next {@link #commit()}.
+   */
+  void retire(String host) {
+    outOfPool.put(host, HostState.RETIRED);
+
+    AllocationJournal current = journal;
+    if (current != null) {
+      current.recordRetirement(host);
+    }
+  }
+
+  /**
+   * Make a host available again. Hosts that are not part of the pool, removed from
+   * it or already free are ignored. Not durable until the next {@link #commit()}.
+   *
+   * @return true if the host is free again because of this call
+   */
+  boolean returnHost(String host) {
+    SshHostKeyScanner currentScanner = hostKeyScanner;
+    if (currentScanner != null) {
+      currentScanner.invalidate(host);  // cleanup may have replaced the keys
+    }
+
+    AllocationJournal current = journal;
+    if (outOfPool.remove(host) != null && current != null) {
+      current.recordReturn(host);
+    }
+
+    int id = generation.hosts.indexOf(host);
+    return id >= 0 && makeFree(id);
+  }
+
+  /**
+   * Make all changes to the allocations so far durable, if a journal is attached.
+   *
+   * @throws IllegalStateException if the journal can not be written
+   */
+  void commit() {
+    AllocationJournal current = journal;
+    if (current != null) {
+      try {
+        current.sync();
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to write allocation journal", e);
+      }
+    }
+  }
+
+  /**
+   * Register the metrics of the pool as an MBean, until the pool is closed.
+   *
+   * @param keyProperties the key properties of the object name of the MBean
+   */
+  void registerMBean(MBeanServer server, String keyProperties, String description) {
+    this.mbeanName = MetricsMBean.register(server, keyProperties, metrics, description);
+    this.mbeanServer = server;
+  }
+
+  /**
+   * Unregister the metrics, fail requests waiting for capacity, stop watching the
+   * hosts file, expiring leases, gathering facts, probing, scanning and reclaiming
+   * hosts and close the journal. The pool must not be changed afterwards.
+   */
+  void close() throws IOException {
+    MBeanServer currentServer = mbeanServer;
+    if (currentServer != null) {
+      MetricsMBean.unregister(currentServer, mbeanName);
+      mbeanServer = null;
+    }
+
+    CapacityWaiters currentWaiters = waiters;
+    if (currentWaiters != null) {
+      currentWaiters.close();
+    }
+
+    HostsFileWatcher currentWatcher = hostsFileWatcher;
+    if (currentWatcher != null) {
+      currentWatcher.close();
+    }
+
+    HostLeases currentLeases = leases;
+    if (currentLeases != null) {
+      currentLeases.shutdown();
+    }
+
+    HostFactsGatherer currentGatherer = factsGatherer;
+    if (currentGatherer != null) {
+      currentGatherer.shutdown();
+    }
+
+    TcpProbeScheduler currentProbe = probe;
+    if (currentProbe != null) {
+      currentProbe.close();
+    }
+
+    SshHostKeyScanner currentScanner = hostKeyScanner;
+    if (currentScanner != null) {
+      currentScanner.close();
+    }
+
+    HostReclaimer currentReclaimer = reclaimer;
+    if (currentReclaimer != null) {
+      currentReclaimer.shutdown();
+    }
+
+    AllocationJournal current = journal;
+    if (current != null) {
+      current.close();
+    }
+  }
+
+  /**
+   * @return a snapshot of the free hosts in allocation order
+   */
+  Collection<String> getAvailableHosts() {
+    List<String> result = new ArrayList<String>();
+    for (int id = free.nextSetBit(0); id >= 0; id = free.nextSetBit(id + 1)) {
+      result.add(generation.hosts.get(id));
+    }
+    return result;
+  }
+
+  Map<String, String> getAllocations() {
+    return Collections.unmodifiableMap(allocations);
+  }
+
+  /**
+   * Hosts reserved for a single allocation request. Claimed hosts are invisible to
+   * lookups until {@link #commit()} and go back to the pool on {@link #rollback()}.
+   * A reservation is used by one thread at a time.
+   * <p/>
+   * A reservation made with requirements only claims hosts meeting them.
+   */
+  final class Reservation {
+
+    private final int count;
+    private final int[] ids;
+    private final Map<String, String> claimed;
+    private final long[] mask;
+    private HostQuotas.Quota quota;
+    private boolean done;
+
+    private Reservation(int count, long[] mask) {
+      this.count = count;
+      this.ids = new int[count];
+      this.claimed = new LinkedHashMap<String, String>(count * 2);
+      this.mask = mask;
+    }
+
+    /**
+     * @return how many hosts were reserved
+     */
+    int size() {
+      return count;
+    }
+
+    /**
+     * Charge the reserved hosts to a quota group: claimed hosts stay charged once
+     * committed, and the others are refunded on commit or rollback.
+     */
+    void chargeTo(HostQuotas.Quota quota) {
+      this.quota = quota;
+      quotas.charge(quota, count);
+    }
+
+    /**
+     * @return how many more hosts can be claimed
+     */
+    int remaining() {
+      return count - claimed.size();
+    }
+
+    /**
+     * Claim a specific host for an instance.
+     *
+     * @return true if the host is in the pool, meets the requirements, was free and
+     * is now claimed
+     */
+    boolean claim(String instanceId, String host) {
+      checkClaimable();
+      int id = generation.hosts.indexOf(host);
+      if (id < 0 || !isSelected(id) || !free.clear(id)) {
+        return false;
+      }
+      add(instanceId, id, host);
+      return true;
+    }
+
+    /**
+     * Claim the first free host for an instance.
+     *
+     * @return the claimed host, or null if the reservation has requirements and no
+     * free host meets them anymore
+     */
+    String claimAny(String instanceId) {
+      checkClaimable();
+      int id = (mask == null) ? free.claimNext() : free.claimNext(mask);
+      if (id < 0 && mask != null) {
+        return null;
+      }
+      if (id < 0) {
+        throw new IllegalStateException("Host pool exhausted while claiming a reserved host");
+      }
+      String host = generation.hosts.get(id);
+      add(instanceId, id, host);
+      return host;
+    }
+
+    /**
+     * Claim the first free host with an ID in {@code [fromId, toId)} for an instance.
+     *
+     * @return the ID of the claimed host or -1 if none of them is free and meets
+     * the requirements
+     */
+    int claimBetween(String instanceId, int fromId, int toId) {
+      checkClaimable();
+      int id = free.claimNext(fromId, toId, mask);
+      if (id >= 0) {
+        add(instanceId, id, generation.hosts.get(id));
+      }
+      return id;
+    }
+
+    /**
+     * @return host names keyed by instance ID, in claim order
+     */
+    Map<String, String> getClaimed() {
+      return Collections.unmodifiableMap(claimed);
+    }
+
+    /**
+     * Publish and journal all claimed hosts and give back any unused capacity.
+     *
+     * @throws IllegalStateException if the journal can not be written, in which
+     *                               case the reservation is rolled back
+     */
+    void commit() {
+      checkOpen();
+      done = true;
+      int unused = remaining();
+      unreserved.addAndGet(unused);
+      if (unused > 0) {
+        signalCapacity();
+      }
+      if (quota != null) {
+        quotas.refund(quota, unused);
+        for (String instanceId : claimed.keySet()) {
+          quotas.bind(instanceId, quota);
+        }
+      }
+
+      for (Map.Entry<String, String> entry : claimed.entrySet()) {
+        assign(entry.getKey(), entry.getValue());
+      }
+      try {
+        HostPool.this.commit();
+      } catch (IllegalStateException e) {
+        for (Map.Entry<String, String> entry : claimed.entrySet()) {
+          allocations.remove(entry.getKey());
+          HostLeases currentLeases = leases;
+          if (currentLeases != null) {
+            currentLeases.cancel(entry.getKey());
+          }
+          if (quota != null) {
+            quotas.release(entry.getKey());
+          }
+          AllocationJournal current = journal;
+          if (current != null) {
+            current.recordDeletion(entry.getKey());
+          }
+          TcpProbeScheduler currentProbe = probe;
+          if (currentProbe != null) {
+            currentProbe.unwatch(entry.getValue());
+          }
+        }
+        giveBack(claimed.size());
+        throw e;
+      }
+    }
+
+    /**
+     * Return every claimed host and the unused capacity to the pool. Does nothing
+     * once the reservation has been committed or rolled back.
+     */
+    void rollback() {
+      if (done) {
+        return;
+      }
+      done = true;
+      giveBack(claimed.size());
+      unreserved.addAndGet(remaining());
+      if (quota != null) {
+        quotas.refund(quota, count);
+      }
+      signalCapacity();
+    }
+
+    private void giveBack(int claimedCount) {
+      for (int i = 0; i < claimedCount; i++) {
+        makeFree(ids[i]);
+      }
+    }
+
+    private void add(String instanceId, int id, String host) {
+      if (claimed.containsKey(instanceId)) {
+        free.set(id);
+        throw new IllegalArgumentException("Duplicate instance ID: " + instanceId);
+      }
+      ids[claimed.size()] = id;
+      claimed.put(instanceId, host);
+    }
+
+    private boolean isSelected(int id) {
+      int wordIndex = id >>> 6;
+      return mask == null || (wordIndex < mask.length && (mask[wordIndex] & (1L << id)) != 0);
+    }
+
+    private void checkClaimable() {
+      checkOpen();
+      if (remaining() == 0) {
+        throw new IllegalStateException("All reserved hosts have been claimed");
+      }
+    }
+
+    private void checkOpen() {
+      if (done) {
+        throw new IllegalStateException("Reservation already completed");
+      }
+    }
+  }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.compute;
+
+import com.cloudera.director.byon.journal.AllocationJournal;
+import com.cloudera.director.byon.metrics.MetricsMBean;
+import com.cloudera.director.byon.net.CachingHostResolver;
+import com.cloudera.director.byon.net.SshHostKeyScanner;
+import com.cloudera.director.byon.net.TcpProbeScheduler;
+import com.cloudera.director.byon.util.HostGroupList;
+import com.cloudera.director.byon.util.HostGroups;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Keeps one host pool per host group expression for the whole process, so every
+ * provider configured with the same hosts shares the same allocations. Providers
+ * sharing a pool must also agree on its {@link HostPoolSettings}.
+ * <p/>
+ * Expressions are normalized by trimming each comma separated group and dropping
+ * empty ones before they are looked up, and pools reading more hosts from a file
+ * are also told apart by that file. A pool is built and its journal replayed the
+ * first time it is asked for, and later requests return the same instance.
+ * <p/>
+ * Pools are singletons that live as long as the registry: the plugin SPI doesn't tell
+ * when a provider is no longer used, so pools are not dropped with their providers.
+ * The process-wide registry is closed, closing every pool and its journal, when the
+ * process shuts down. Registries built for tests and benchmarks are closed explicitly.
+ * <p/>
+ * When the hosts of a pool are {@linkplain #updateHosts updated} the pool is also
+ * registered under the key of the new hosts, and keeps its old key, so providers
+ * configured with either expression share it.
+ * <p/>
+ * A registry given an MBean server registers the metrics of every pool it builds,
+ * named after the key the pool was built for, until the pool is closed. It also
+ * registers the metrics of the default host resolver until the registry is closed.
+ * The process-wide registry uses the platform MBean server.
+ */
+final class HostPoolRegistry {
+
+  private static final Logger LOG = Logger.getLogger(HostPoolRegistry.class.getName());
+
+  private static final HostPoolRegistry DEFAULT =
+      new HostPoolRegistry(ManagementFactory.getPlatformMBeanServer());
+
+  static {
+    Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+      @Override
+      public void run() {
+        DEFAULT.close();
+      }
+    }, "byon-pool-registry-shutdown"));
+  }
+
+  /**
+   * Longest time to wait for a probe connection.
+   */
+  static final long PROBE_TIMEOUT_SECONDS = 5;
+
+  /**
+   * Hosts scanned for SSH host keys at the same time.
+   */
+  static final int HOST_KEY_SCAN_THREADS = 64;
+
+  static final int HOST_KEY_SCAN_TIMEOUT_MILLIS = 10000;
+
+  private static final class Entry {
+    final String key;
+    final HostPool pool;
+    final HostPoolSettings settings;
+
+    Entry(String key, HostPool pool, HostPoolSettings settings) {
+      this.key = key;
+      this.pool = pool;
+      this.settings = settings;
+    }
+  }
+
+  // guarded by this, several keys map to the same entry once its hosts are updated
+  private final Map<String, Entry> pools = new HashMap<String, Entry>();
+
+  // guarded by this
+  private final List<Entry> entries = new ArrayList<Entry>();
+
+  // guarded by this
+  private boolean closed;
+
+  private final MBeanServer mbeanServer;
+  private final ObjectName resolverMBeanName;
+
+  HostPoolRegistry() {
+    this(null);
+  }
+
+  /**
+   * @param mbeanServer where to register the metrics of pools, or null to not register them
+   */
+  HostPoolRegistry(MBeanServer mbeanServer) {
+    this.mbeanServer = mbeanServer;
+    this.resolverMBeanName = mbeanServer == null ? null : MetricsMBean.register(mbeanServer,
+        "type=HostResolver", CachingHostResolver.getDefault().getMetrics(), "Host name lookups");
+  }
+
+  static HostPoolRegistry getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Get the pool for a host group expression, building it if needed.
+   *
+   * @param hostGroupExpressions the hosts in the pool
+   * @param settings             how the pool journals allocations and reclaims hosts
+   * @throws IllegalArgumentException if the expression has no hosts, the journal can
+   *                                  not be opened or is used by another pool, or the
+   *                                  pool is already in use with different settings
+   * @throws IllegalStateException    if the registry is closed
+   */
+  synchronized HostPool get(String hostGroupExpressions, HostPoolSettings settings) {
+    if (closed) {
+      throw new IllegalStateException("Host pool registry is closed");
+    }
+    if (hostGroupExpressions == null) {
+      hostGroupExpressions = "";
+    }
+    String key = key(hostGroupExpressions, settings);
+
+    Entry entry = pools.get(key);
+    if (entry == null) {
+      checkJournalDirectory(key, settings);
+      entry = new Entry(key, createPool(hostGroupExpressions, settings), settings);
+      pools.put(key, entry);
+      entries.add(entry);
+      if (mbeanServer != null) {
+        entry.pool.registerMBean(mbeanServer, "type=HostPool,hosts=" + ObjectName.quote(key),
+            "Host pool " + key);
+      }
+
+    } else if (!entry.settings.equals(settings)) {
+      throw new IllegalArgumentException(String.format("Hosts %s are already in use with " +
+          "different settings: %s", key, entry.settings));
+    }
+    return entry.pool;
+  }
+
+  /**
+   * Change the hosts of a pool, see {@link HostPool#update(HostGroupList)}, and
+   * register it under the key of its new hosts as well.
+   *
+   * @param pool                 a pool of this registry
+   * @param hostGroupExpressions all the hosts that should be in the pool
+   * @throws IllegalArgumentException if the expressions are not valid or their hosts
+   *                                  already belong to another pool
+   * @throws IllegalStateException    if the pool is not registered
+   */
+  synchronized HostPool.Update updateHosts(HostPool pool, String hostGroupExpressions) {
+    Entry entry = null;
+    for (Entry candidate : entries) {
+      if (candidate.pool == pool) {
+        entry = candidate;
+      }
+    }
+    if (entry == null) {
+      throw new IllegalStateException("Host pool is not registered");
+    }
+
+    String key = key(hostGroupExpressions, entry.settings);
+    Entry other = pools.get(key);
+    if (other != null && other != entry) {
+      throw new IllegalArgumentException("Hosts " + key + " are already used by another pool");
+    }
+    HostPool.Update update = pool.update(HostGroups.parse(hostGroupExpressions));
+    pools.put(key, entry);
+    return update;
+  }
+
+  /**
+   * Close every pool, dropping them, and unregister the metrics of the pools and the
+   * resolver. The registry can't be used afterwards.
+   */
+  synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (mbeanServer != null) {
+      MetricsMBean.unregister(mbeanServer, resolverMBeanName);
+    }
+    for (Entry entry : entries) {
+      try {
+        entry.pool.close();
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Unable to close allocation journal for " + entry.key, e);
+      }
+    }
+    entries.clear();
+    pools.clear();
+  }
+
+  /**
+   * Pools can't share a journal: each would replay, and then overwrite, the
+   * allocations of the other.
+   */
+  private void checkJournalDirectory(String key, HostPoolSettings settings) {
+    if (settings.getJournalDirectory() == null) {
+      return;
+    }
+    Path directory = Paths.get(settings.getJournalDirectory()).toAbsolutePath().normalize();
+    for (Entry other : entries) {
+      String otherDirectory = other.settings.getJournalDirectory();
+      if (otherDirectory != null
+          && Paths.get(otherDirectory).toAbsolutePath().normalize().equals(directory)) {
+        throw new IllegalArgumentException(String.format("Journal directory %s of hosts %s " +
+            "is already used by the pool of hosts %s", directory, key, other.key));
+      }
+    }
+  }
+
+  /**
+   * @return the number of pools in the registry
+   */
+  synchronized int size() {
+    return entries.size();
+  }
+
+  private static String key(String hostGroupExpressions, HostPoolSettings settings) {
+    String key = normalize(hostGroupExpressions);
+    if (settings.getHostsFile() != null) {
+      key += " + " + settings.getHostsFile();
+    }
+    return key;
+  }
+
+  static String normalize(String hostGroupExpressions) {
+    StringBuilder result = new StringBuilder(hostGroupExpressions.length());
+    for (String group : HostGroups.split(hostGroupExpressions)) {
+      if (result.length() > 0) {
+        result.append(',');
+      }
+      result.append(group);
+    }
+    return result.toString();
+  }
+
+  private static HostPool createPool(String hostGroupExpressions, HostPoolSettings settings) {
+    Path hostsFile = settings.getHostsFile() == null ? null : Paths.get(settings.getHostsFile());
+    HostGroupList hosts;
+    try {
+      hosts = HostsFileWatcher.read(hostGroupExpressions, hostsFile);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Unable to read hosts file " + hostsFile, e);
+    }
+    if (hosts.isEmpty() && hostsFile == null) {
+      throw new IllegalArgumentException("Host group expressions expands " +
+          "to an empty list: " + hostGroupExpressions);
+    }
+    HostPool pool = new HostPool(hosts);
+    try {
+      attachComponents(pool, hostGroupExpressions, hostsFile, settings);
+    } catch (RuntimeException e) {
+      try {
+        pool.close();
+      } catch (IOException closeFailure) {
+        e.addSuppressed(closeFailure);
+      }
+      throw e;
+    }
+    return pool;
+  }
+
+  /**
+   * Attach the components the settings ask for. On failure the components attached
+   * so far are left for the caller to close with the pool.
+   */
+  private static void attachComponents(final HostPool pool, String hostGroupExpressions,
+      Path hostsFile, HostPoolSettings settings) {
+    String journalDirectory = settings.getJournalDirectory();
+    if (journalDirectory != null) {
+      AllocationJournal journal = null;
+      try {
+        journal = AllocationJournal.open(Paths.get(journalDirectory),
+            AllocationJournal.DEFAULT_SNAPSHOT_THRESHOLD);
+        pool.attachJournal(journal);
+      } catch (IOException e) {
+        if (journal != null) {
+          try {
+            journal.close();  // not attached, the pool won't close it
+          } catch (IOException closeFailure) {
+            e.addSuppressed(closeFailure);
+          }
+        }
+        throw new IllegalArgumentException("Unable to open allocation journal in " +
+            journalDirectory, e);
+      }
+    }
+
+    if (settings.isReclaimDeletedHosts()) {
+      String command = settings.getReclamationCommand();
+      pool.attachReclaimer(new HostReclaimer(pool,
+          command == null ? HostCleaner.NONE : new CommandHostCleaner(command),
+          settings.getQuarantineSeconds(), TimeUnit.SECONDS));
+    }
+
+    if (settings.getQuotas() != null) {
+      pool.attachQuotas(new HostQuotas(pool, HostQuotas.parse(settings.getQuotas())));
+    }
+
+    if (settings.getCapacityWaitSeconds() > 0) {
+      pool.attachCapacityWaiters(new CapacityWaiters(settings.getCapacityWaitSeconds(),
+          TimeUnit.SECONDS, CapacityWaiters.DEFAULT_MAX_WAITING, new IntSupplier() {
+            @Override
+            public int getAsInt() {
+              return pool.getUnreservedCount();
+            }
+          }));
+    }
+
+    if (settings.getLeaseSeconds() > 0) {
+      pool.attachLeases(new HostLeases(pool, settings.getLeaseSeconds(), TimeUnit.SECONDS));
+    }
+
+    if (settings.getProbePort() > 0) {
+      long interval = TimeUnit.SECONDS.toNanos(settings.getProbeIntervalSeconds());
+      try {
+        pool.attachProbe(new TcpProbeScheduler(CachingHostResolver.getDefault(),
+            settings.getProbePort(), interval,
+            Math.min(interval, TimeUnit.SECONDS.toNanos(PROBE_TIMEOUT_SECONDS))));
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to start host probes", e);
+      }
+    }
+
+    if (settings.isCollectHostKeyFingerprints()) {
+      pool.attachHostKeyScanner(new SshHostKeyScanner(CachingHostResolver.getDefault(),
+          settings.getSshPort(), HOST_KEY_SCAN_THREADS, HOST_KEY_SCAN_TIMEOUT_MILLIS));
+    }
+
+    if (settings.getHostFactsCommand() != null) {
+      pool.attachFactsGatherer(new HostFactsGatherer(pool,
+          new CommandHostFactsCollector(settings.getHostFactsCommand())));
+    }
+
+    if (hostsFile != null) {
+      try {
+        pool.attachHostsFileWatcher(new HostsFileWatcher(pool, hostGroupExpressions, hostsFile));
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to watch hosts file " + hostsFile, e);
+      }
+    }
+  }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.compute;
+
+import static com.cloudera.director.byon.compute.BYONComputeProviderConfigurationPropertyToken.CAPACITY_WAIT_SECONDS;
+import static com.cloudera.director.byon.compute.BYONComputeProviderConfigurationPropertyToken.COLLECT_HOST_KEY_FINGERPRINTS;
+import static com.cloudera.director.byon.compute.BYONComputeProviderConfigurationPropertyToken.HOSTS_FILE;
+import static com.cloudera.director.byon.compute.BYONComputeProviderConfigurationPropertyToken.HOST_FACTS_COMMAND;
+import static com.cloudera.director.byon.compute.BYONComputeProviderConfigurationPropertyToken.JOURNAL_DIRECTORY;
+import static com.cloudera.director.byon.compute.BYONComputeProviderConfigurationPropertyToken.LEASE_SECONDS;
+import static com.cloudera.director.byon.compute.BYONComputeProviderConfigurationPropertyToken.PROBE_INTERVAL_SECONDS;
+import static com.cloudera.director.byon.compute.BYONComputeProviderConfigurationPropertyToken.PROBE_PORT;
+import static com.cloudera.director.byon.compute.BYONComputeProviderConfigurationPropertyToken.QUOTAS;
+import static com.cloudera.director.byon.compute.BYONComputeProviderConfigurationPropertyToken.RECLAIM_DELETED_HOSTS;
+import static com.cloudera.director.byon.compute.BYONComputeProviderConfigurationPropertyToken.RECLAMATION_COMMAND;
+import static com.cloudera.director.byon.compute.BYONComputeProviderConfigurationPropertyToken.RECLAMATION_QUARANTINE_SECONDS;
+import static com.cloudera.director.byon.compute.BYONComputeProviderConfigurationPropertyToken.SSH_PORT;
+
+import com.cloudera.director.spi.v2.model.ConfigurationPropertyToken;
+import com.cloudera.director.spi.v2.model.Configured;
+import com.cloudera.director.spi.v2.model.LocalizationContext;
+
+/**
+ * Provider settings that belong to a host pool rather than to a single provider.
+ * Every provider sharing a pool must agree on them.
+ */
+final class HostPoolSettings {
+
+  static final HostPoolSettings DEFAULT =
+      new HostPoolSettings(null, false, 0, null, 0, 30, false, 22, null, 0, null, 0, null);
+
+  private final String journalDirectory;
+  private final boolean reclaimDeletedHosts;
+  private final long quarantineSeconds;
+  private final String reclamationCommand;
+  private final int probePort;
+  private final long probeIntervalSeconds;
+  private final boolean collectHostKeyFingerprints;
+  private final int sshPort;
+  private final String hostsFile;
+  private final long leaseSeconds;
+  private final String quotas;
+  private final long capacityWaitSeconds;
+  private final String hostFactsCommand;
+
+  /**
+   * @param journalDirectory    where to journal allocations or null
+   * @param reclaimDeletedHosts whether deleted hosts go back to the pool
+   * @param quarantineSeconds   how long deleted hosts are kept out of the pool
+   * @param reclamationCommand  command cleaning up deleted hosts or null
+   * @param probePort           port probed on allocated hosts or 0 not to probe
+   * @param probeIntervalSeconds average time between two probes of a host
+   * @param collectHostKeyFingerprints whether to collect SSH host keys of allocated hosts
+   * @param sshPort             the port SSH servers listen on
+   * @param hostsFile           a file listing more hosts, watched for changes, or null
+   * @param leaseSeconds        how long new allocations wait for confirmation, or 0 to
+   *                            keep them without
+   * @param quotas              the quotas of groups of templates, or null for none
+   * @param capacityWaitSeconds how long allocations wait for capacity, or 0 to fail
+   *                            right away
+   * @param hostFactsCommand    command printing the facts of a host, or null not to
+   *                            gather facts
+   * @throws IllegalArgumentException if a setting is not valid
+   */
+  HostPoolSettings(String journalDirectory, boolean reclaimDeletedHosts,
+      long quarantineSeconds, String reclamationCommand, int probePort,
+      long probeIntervalSeconds, boolean collectHostKeyFingerprints, int sshPort,
+      String hostsFile, long leaseSeconds, String quotas, long capacityWaitSeconds,
+      String hostFactsCommand) {
+    if (quarantineSeconds < 0) {
+      throw new IllegalArgumentException("Reclamation quarantine must not be negative");
+    }
+    if (probePort < 0 || probePort > 0xFFFF) {
+      throw new IllegalArgumentException("Invalid probe port: " + probePort);
+    }
+    if (probeIntervalSeconds <= 0) {
+      throw new IllegalArgumentException("Probe interval must be positive");
+    }
+    if (sshPort <= 0 || sshPort > 0xFFFF) {
+      throw new IllegalArgumentException("Invalid SSH port: " + sshPort);
+    }
+    if (leaseSeconds < 0) {
+      throw new IllegalArgumentException("Allocation lease must not be negative");
+    }
+    if (capacityWaitSeconds < 0) {
+      throw new IllegalArgumentException("Capacity wait must not be negative");
+    }
+    this.journalDirectory = emptyToNull(journalDirectory);
+    this.reclaimDeletedHosts = reclaimDeletedHosts;
+    this.quarantineSeconds = quarantineSeconds;
+    this.reclamationCommand = emptyToNull(reclamationCommand);
+    this.probePort = probePort;
+    this.probeIntervalSeconds = probeIntervalSeconds;
+    this.collectHostKeyFingerprints = collectHostKeyFingerprints;
+    this.sshPort = sshPort;
+    this.hostsFile = emptyToNull(hostsFile);
+    this.leaseSeconds = leaseSeconds;
+    this.quotas = emptyToNull(quotas);
+    HostQuotas.parse(this.quotas);
+    this.capacityWaitSeconds = capacityWaitSeconds;
+    this.hostFactsCommand = emptyToNull(hostFactsCommand);
+  }
+
+  static HostPoolSettings from(Configured configuration, LocalizationContext localizationContext) {
+    return new HostPoolSettings(
+        configuration.getConfigurationValue(JOURNAL_DIRECTORY, localizationContext),
+        Boolean.parseBoolean(
+            configuration.getConfigurationValue(RECLAIM_DELETED_HOSTS, localizationContext)),
+        getLong(configuration, RECLAMATION_QUARANTINE_SECONDS, localizationContext, 0),
+        configuration.getConfigurationValue(RECLAMATION_COMMAND, localizationContext),
+        (int) getLong(configuration, PROBE_PORT, localizationContext, 0),
+        getLong(configuration, PROBE_INTERVAL_SECONDS, localizationContext, 30),
+        Boolean.parseBoolean(configuration.getConfigurationValue(
+            COLLECT_HOST_KEY_FINGERPRINTS, localizationContext)),
+        (int) getLong(configuration, SSH_PORT, localizationContext, 22),
+        configuration.getConfigurationValue(HOSTS_FILE, localizationContext),
+        getLong(configuration, LEASE_SECONDS, localizationContext, 0),
+        configuration.getConfigurationValue(QUOTAS, localizationContext),
+        getLong(configuration, CAPACITY_WAIT_SECONDS, localizationContext, 0),
+        configuration.getConfigurationValue(HOST_FACTS_COMMAND, localizationContext));
+  }
+
+  private static long getLong(Configured configuration, ConfigurationPropertyToken token,
+      LocalizationContext localizationContext, long defaultValue) {
+    String value = emptyToNull(configuration.getConfigurationValue(token, localizationContext));
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(String.format("Invalid value for %s: %s",
+          token.unwrap().getConfigKey(), value), e);
+    }
+  }
+
+  String getJournalDirectory() {
+    return journalDirectory;
+  }
+
+  boolean isReclaimDeletedHosts() {
+    return reclaimDeletedHosts;
+  }
+
+  long getQuarantineSeconds() {
+    return quarantineSeconds;
+  }
+
+  String getReclamationCommand() {
+    return reclamationCommand;
+  }
+
+  int getProbePort() {
+    return probePort;
+  }
+
+  long getProbeIntervalSeconds() {
+    return probeIntervalSeconds;
+  }
+
+  boolean isCollectHostKeyFingerprints() {
+    return collectHostKeyFingerprints;
+  }
+
+  int getSshPort() {
+    return sshPort;
+  }
+
+  String getHostsFile() {
+    return hostsFile;
+  }
+
+  long getLeaseSeconds() {
+    return leaseSeconds;
+  }
+
+  String getQuotas() {
+    return quotas;
+  }
+
+  long getCapacityWaitSeconds() {
+    return capacityWaitSeconds;
+  }
+
+  String getHostFactsCommand() {
+    return hostFactsCommand;
+  }
+
+  private static String emptyToNull(String value) {
+    return (value == null || value.trim().isEmpty()) ? null : value.trim();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    HostPoolSettings that = (HostPoolSettings) o;
+    return reclaimDeletedHosts == that.reclaimDeletedHosts
+        && quarantineSeconds == that.quarantineSeconds
+        && equal(journalDirectory, that.journalDirectory)
+        && probePort == that.probePort
+        && probeIntervalSeconds == that.probeIntervalSeconds
+        && collectHostKeyFingerprints == that.collectHostKeyFingerprints
+        && sshPort == that.sshPort
+        && equal(hostsFile, that.hostsFile)
+        && leaseSeconds == that.leaseSeconds
+        && equal(quotas, that.quotas)
+        && capacityWaitSeconds == that.capacityWaitSeconds
+        && equal(hostFactsCommand, that.hostFactsCommand)
+        && equal(reclamationCommand, that.reclamationCommand);
+  }
+
+  @Override
+  public int hashCode() {
+    int result = journalDirectory != null ? journalDirectory.hashCode() : 0;
+    result = 31 * result + (reclaimDeletedHosts ? 1 : 0);
+    result = 31 * result + (int) (quarantineSeconds ^ (quarantineSeconds >>> 32));
+    result = 31 * result + (reclamationCommand != null ? reclamationCommand.hashCode() : 0);
+    result = 31 * result + probePort;
+    result = 31 * result + (int) (probeIntervalSeconds ^ (probeIntervalSeconds >>> 32));
+    result = 31 * result + (collectHostKeyFingerprints ? 1 : 0);
+    result = 31 * result + sshPort;
+    result = 31 * result + (hostsFile != null ? hostsFile.hashCode() : 0);
+    result = 31 * result + (int) (leaseSeconds ^ (leaseSeconds >>> 32));
+    result = 31 * result + (quotas != null ? quotas.hashCode() : 0);
+    result = 31 * result + (int) (capacityWaitSeconds ^ (capacityWaitSeconds >>> 32));
+    result = 31 * result + (hostFactsCommand != null ? hostFactsCommand.hashCode() : 0);
+    return result;
+  }
+
+  private static boolean equal(String a, String b) {
+    return a == null ? b == null : a.equals(b);
+  }
+
+  @Override
+  public String toString() {
+    return "HostPoolSettings{" +
+        "journalDirectory=" + journalDirectory +
+        ", reclaimDeletedHosts=" + reclaimDeletedHosts +
+        ", quarantineSeconds=" + quarantineSeconds +
+        ", reclamationCommand=" + reclamationCommand +
+        ", probePort=" + probePort +
+        ", probeIntervalSeconds=" + probeIntervalSeconds +
+        ", collectHostKeyFingerprints=" + collectHostKeyFingerprints +
+        ", sshPort=" + sshPort +
+        ", hostsFile=" + hostsFile +
+        ", leaseSeconds=" + leaseSeconds +
+        ", quotas=" + quotas +
+        ", capacityWaitSeconds=" + capacityWaitSeconds +
+        ", hostFactsCommand=" + hostFactsCommand +
+        '}';
+  }
+}
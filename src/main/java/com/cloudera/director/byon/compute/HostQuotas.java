@@ -0,0 +1,462 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cloudera.director.byon.compute;
+
+import com.cloudera.director.byon.util.HostGroups;
+import com.cloudera.director.byon.util.Strings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Quotas on the hosts held by groups of templates, and weighted fair-share admission
+ * of the allocation requests made against them.
+ * <p/>
+ * A quota has a number of hosts guaranteed to its group, a hard maximum and a weight.
+ * Groups that are not configured have no guarantee, no maximum and a weight of 1.
+ * Every group counts the hosts it holds, reserved or allocated, and a shared counter
+ * tracks the guaranteed hosts not held yet, so checking a request against the quotas
+ * takes a few counter reads however many hosts or requests there are.
+ * <p/>
+ * Requests arriving together are admitted as a batch by whichever of their threads
+ * gets the admission lock first, instead of one at a time in lock order. When the
+ * batch asks for more than is available, the available hosts are split between its
+ * requests in proportion to their weights, with requests asking for less than their
+ * share getting all they ask for. Requests are then served in start-time fair
+ * queueing order: each group has a virtual start time that moves forward by the
+ * hosts it is granted divided by its weight, so groups that got fewer hosts for their
+ * weight go first.
+ * <p/>
+ * Fair share only applies to requests that contend for the admission lock. A request
+ * that finds no other waiting is admitted right away, up to its quota and the hosts
+ * not guaranteed to other groups, so without contention requests are served in
+ * arrival order. Holding hosts back from an uncontended request for groups that may
+ * ask later would leave them idle; the guarantees are the way to keep hosts for a
+ * group. The virtual start times still account for what uncontended requests got.
+ * <p/>
+ * Hosts restored from the journal after a restart are not charged to any group.
+ */
+final class HostQuotas {
+
+  static final String GUARANTEED = "guaranteed";
+  static final String MAX = "max";
+  static final String WEIGHT = "weight";
+
+  /**
+   * Virtual time taken by one host granted to a group of weight 1.
+   */
+  private static final long STRIDE = 1 << 20;
+
+  /**
+   * The hosts a group of templates can hold and how many it holds.
+   */
+  static final class Quota {
+    private final String name;
+    private final int guaranteed;
+    private final int max;
+    private final int weight;
+    private final AtomicInteger held = new AtomicInteger();
+
+    // guarded by the admission lock
+    private long pass;
+
+    Quota(String name, int guaranteed, int max, int weight) {
+      if (guaranteed < 0 || max < guaranteed) {
+        throw new IllegalArgumentException(String.format("Invalid quota %s: guaranteed %d " +
+            "hosts, at most %d", name, guaranteed, max));
+      }
+      if (weight <= 0) {
+        throw new IllegalArgumentException("Invalid quota " + name + ": weight must be positive");
+      }
+      this.name = name;
+      this.guaranteed = guaranteed;
+      this.max = max;
+      this.weight = weight;
+    }
+
+    String getName() {
+      return name;
+    }
+
+    int getGuaranteed() {
+      return guaranteed;
+    }
+
+    int getMax() {
+      return max;
+    }
+
+    int getWeight() {
+      return weight;
+    }
+
+    /**
+     * @return the hosts reserved or allocated for the group
+     */
+    int getHeld() {
+      return held.get();
+    }
+
+    /**
+     * @return the guaranteed hosts the group does not hold yet
+     */
+    private int owed() {
+      return Math.max(0, guaranteed - held.get());
+    }
+  }
+
+  /**
+   * An allocation request waiting for admission.
+   */
+  private static final class Request {
+    final Quota quota;
+    final int minCount;
+    final int maxCount;
+    final HostRequirements requirements;
+
+    // written under the admission lock, read after acquiring it
+    boolean done;
+    HostPool.Reservation reservation;
+    RuntimeException failure;
+
+    Request(Quota quota, int minCount, int maxCount, HostRequirements requirements) {
+      this.quota = quota;
+      this.minCount = minCount;
+      this.maxCount = maxCount;
+      this.requirements = requirements;
+    }
+  }
+
+  private final HostPool pool;
+  private final Map<String, Quota> configured;
+  private final ConcurrentMap<String, Quota> unconfigured = new ConcurrentHashMap<String, Quota>();
+
+  /**
+   * The group charged for each allocated instance.
+   */
+  private final ConcurrentMap<String, Quota> holders = new ConcurrentHashMap<String, Quota>();
+
+  /**
+   * Guaranteed hosts not held yet, over all groups.
+   */
+  private final AtomicInteger owed = new AtomicInteger();
+
+  // package-private so tests can queue requests behind it
+  final ReentrantLock admissionLock = new ReentrantLock();
+  private final Queue<Request> arrivals = new ConcurrentLinkedQueue<Request>();
+
+  // guarded by admissionLock
+  private long virtualTime;
+
+  private final LongAdder rejected = new LongAdder();
+
+  /**
+   * @param quotas the configured quotas by group
+   */
+  HostQuotas(HostPool pool, Map<String, Quota> quotas) {
+    this.pool = pool;
+    this.configured = Collections.unmodifiableMap(new LinkedHashMap<String, Quota>(quotas));
+    int total = 0;
+    for (Quota quota : quotas.values()) {
+      total += quota.guaranteed;
+    }
+    owed.set(total);
+  }
+
+  /**
+   * Parse comma separated quotas, each a group name followed by a block of settings:
+   * <p/>
+   * <pre>
+   * analytics{guaranteed=20,max=100,weight=2}, adhoc{max=10}
+   * </pre>
+   *
+   * @return the quotas by group, empty if the input is null or empty
+   * @throws IllegalArgumentException if the quotas are not valid
+   */
+  static Map<String, Quota> parse(String quotas) {
+    Map<String, Quota> result = new LinkedHashMap<String, Quota>();
+    if (quotas == null) {
+      return result;
+    }
+    for (String entry : HostGroups.split(quotas)) {
+      int blockStart = entry.indexOf('{');
+      if (blockStart <= 0 || !entry.endsWith("}")) {
+        throw new IllegalArgumentException("Invalid quota, expected name{key=value,...}: " +
+            entry);
+      }
+      String name = entry.substring(0, blockStart).trim();
+      Map<String, Integer> values = parseSettings(name, entry, blockStart + 1,
+          entry.length() - 1);
+      Quota quota = new Quota(name, valueOf(values, GUARANTEED, 0),
+          valueOf(values, MAX, Integer.MAX_VALUE), valueOf(values, WEIGHT, 1));
+      if (result.put(name, quota) != null) {
+        throw new IllegalArgumentException("Duplicate quota: " + name);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Parse the comma separated {@code key=value} settings of a quota found between two
+   * indexes of its entry.
+   */
+  private static Map<String, Integer> parseSettings(final String name, final String entry,
+      int from, int to) {
+    final Map<String, Integer> values = new LinkedHashMap<String, Integer>();
+    Strings.forEachPart(entry, from, to, ',', new Strings.PartConsumer() {
+      @Override
+      public void accept(CharSequence input, int start, int end) {
+        int separator = entry.indexOf('=', start);
+        String key = separator < 0 || separator >= end
+            ? null : Strings.trimmedSubstring(input, start, separator);
+        if (key == null || !Arrays.asList(GUARANTEED, MAX, WEIGHT).contains(key)) {
+          throw new IllegalArgumentException("Invalid quota setting for " + name + ": " +
+              input.subSequence(start, end));
+        }
+        try {
+          values.put(key, Integer.parseInt(Strings.trimmedSubstring(input, separator + 1, end)));
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("Invalid quota setting for " + name + ": " +
+              input.subSequence(start, end), e);
+        }
+      }
+    });
+    return values;
+  }
+
+  private static int valueOf(Map<String, Integer> values, String key, int defaultValue) {
+    Integer value = values.get(key);
+    return value == null ? defaultValue : value;
+  }
+
+  /**
+   * @return the quota of a group, configured or not
+   */
+  Quota get(String group) {
+    Quota quota = configured.get(group);
+    if (quota == null) {
+      quota = unconfigured.get(group);
+      if (quota == null) {
+        Quota created = new Quota(group, 0, Integer.MAX_VALUE, 1);
+        quota = unconfigured.putIfAbsent(group, created);
+        if (quota == null) {
+          quota = created;
+        }
+      }
+    }
+    return quota;
+  }
+
+  Map<String, Quota> getConfigured() {
+    return configured;
+  }
+
+  /**
+   * @return the guaranteed hosts not held yet by their groups
+   */
+  int getOwed() {
+    return owed.get();
+  }
+
+  long getRejectedCount() {
+    return rejected.sum();
+  }
+
+  /**
+   * Reserve hosts for a group, within its quota and its fair share of the hosts
+   * requested at the same time.
+   *
+   * @throws IllegalStateException if fewer than {@code minCount} hosts can be reserved
+   *                               for the group
+   */
+  HostPool.Reservation admit(String group, int minCount, int maxCount,
+      HostRequirements requirements) {
+    Request request = new Request(get(group), minCount, maxCount, requirements);
+    arrivals.add(request);
+    admissionLock.lock();
+    try {
+      if (!request.done) {
+        serve();
+      }
+    } finally {
+      admissionLock.unlock();
+    }
+
+    if (request.failure != null) {
+      rejected.increment();
+      throw request.failure;
+    }
+    return request.reservation;
+  }
+
+  /**
+   * Admit every request that arrived so far.
+   */
+  private void serve() {
+    List<Request> batch = new ArrayList<Request>();
+    for (Request request = arrivals.poll(); request != null; request = arrivals.poll()) {
+      batch.add(request);
+    }
+    int[] shares = share(batch, pool.getUnreservedCount());
+
+    boolean[] served = new boolean[batch.size()];
+    for (int round = 0; round < batch.size(); round++) {
+      int next = -1;
+      long nextStart = 0;
+      for (int i = 0; i < batch.size(); i++) {
+        long start = startOf(batch.get(i).quota);
+        if (!served[i] && (next < 0 || start < nextStart)) {
+          next = i;
+          nextStart = start;
+        }
+      }
+      served[next] = true;
+      Request request = batch.get(next);
+      try {
+        request.reservation = reserve(request, shares[next]);
+      } catch (RuntimeException e) {
+        request.failure = e;
+      }
+      request.done = true;
+    }
+  }
+
+  private HostPool.Reservation reserve(Request request, int share) {
+    Quota quota = request.quota;
+    int allowed = quota.max - quota.held.get();
+    if (allowed < request.minCount) {
+      throw new IllegalStateException(String.format("Quota %s allows %d more hosts. " +
+          "Requested at least %d", quota.name, allowed, request.minCount));
+    }
+    int available = pool.getUnreservedCount() - (owed.get() - quota.owed());
+    if (available < request.minCount) {
+      throw new IllegalStateException(String.format("Not enough capacity outside of the " +
+          "hosts guaranteed to other quotas. Requested at least %d, only have %d available",
+          request.minCount, Math.max(available, 0)));
+    }
+    int limit = Math.min(request.maxCount,
+        Math.min(allowed, Math.min(available, Math.max(request.minCount, share))));
+
+    HostPool.Reservation reservation =
+        pool.reserveBatch(request.minCount, limit, request.requirements);
+    long start = startOf(quota);
+    virtualTime = start;
+    quota.pass = start + reservation.size() * STRIDE / quota.weight;
+    reservation.chargeTo(quota);
+    return reservation;
+  }
+
+  /**
+   * @return the virtual time the next request of a group starts at, never earlier than
+   * the current virtual time so idle groups don't save up credit
+   */
+  private long startOf(Quota quota) {
+    return Math.max(quota.pass, virtualTime);
+  }
+
+  /**
+   * Splits hosts between requests in proportion to their weights, giving requests
+   * that ask for less than their share what they ask for and splitting what they
+   * leave between the others.
+   *
+   * @return how many hosts each request can have
+   */
+  private static int[] share(final List<Request> batch, int available) {
+    Integer[] order = new Integer[batch.size()];
+    long remainingWeight = 0;
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+      remainingWeight += batch.get(i).quota.weight;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        Request first = batch.get(a);
+        Request second = batch.get(b);
+        return Long.compare((long) first.maxCount * second.quota.weight,
+            (long) second.maxCount * first.quota.weight);
+      }
+    });
+
+    int[] shares = new int[order.length];
+    long remaining = Math.max(available, 0);
+    for (int i : order) {
+      Request request = batch.get(i);
+      long share = remaining * request.quota.weight / remainingWeight;
+      shares[i] = (int) Math.min(request.maxCount, share);
+      remaining -= shares[i];
+      remainingWeight -= request.quota.weight;
+    }
+    return shares;
+  }
+
+  /**
+   * Count hosts reserved for a group.
+   */
+  void charge(Quota quota, int count) {
+    add(quota, count);
+  }
+
+  /**
+   * Stop counting hosts reserved for a group but not allocated.
+   */
+  void refund(Quota quota, int count) {
+    add(quota, -count);
+  }
+
+  /**
+   * Charge an allocated instance to a group, until it is released.
+   */
+  void bind(String instanceId, Quota quota) {
+    holders.put(instanceId, quota);
+  }
+
+  /**
+   * Stop counting the host of a released instance.
+   */
+  void release(String instanceId) {
+    Quota quota = holders.remove(instanceId);
+    if (quota != null) {
+      add(quota, -1);
+    }
+  }
+
+  private void add(Quota quota, int delta) {
+    if (delta == 0) {
+      return;
+    }
+    int before = quota.held.getAndAdd(delta);
+    int change = Math.max(0, quota.guaranteed - before - delta)
+        - Math.max(0, quota.guaranteed - before);
+    if (change != 0) {
+      owed.addAndGet(change);
+    }
+  }
+}
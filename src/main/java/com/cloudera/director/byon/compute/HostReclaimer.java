@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.compute;
+
+import com.cloudera.director.byon.metrics.LatencyHistogram;
+import com.cloudera.director.byon.metrics.MetricsRegistry;
+import com.cloudera.director.byon.util.DaemonThreadFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Returns the hosts of deleted instances to their pool in the background.
+ * <p/>
+ * A released host is kept out of the pool for a quarantine period, then handed to a
+ * {@link HostCleaner} and put back as a free host if the cleanup succeeds. Hosts
+ * that fail the cleanup, or can't be returned, are retired and stay out of the pool.
+ * Both outcomes are committed to the journal of the pool, if any, so hosts still
+ * being reclaimed when the process stops are reclaimed again after a restart rather
+ * than freed. Failing to commit an outcome doesn't change it, and is counted apart.
+ * <p/>
+ * The reclaimer keeps track of how many hosts are in flight and how long it takes
+ * to get a host back, from its release until it is free again.
+ */
+class HostReclaimer {
+
+  private static final Logger LOG = Logger.getLogger(HostReclaimer.class.getName());
+
+  static final int THREADS = 4;
+
+  private final HostPool pool;
+  private final HostCleaner cleaner;
+  private final long quarantineNanos;
+  private final ScheduledExecutorService executor;
+
+  private final AtomicInteger queueDepth = new AtomicInteger();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder journalFailures = new LongAdder();
+
+  private final MetricsRegistry metrics = new MetricsRegistry();
+
+  /**
+   * Time from release to reuse of each reclaimed host.
+   */
+  private final LatencyHistogram latency = metrics.histogram("latency");
+
+  HostReclaimer(HostPool pool, HostCleaner cleaner, long quarantine, TimeUnit unit) {
+    this(pool, cleaner, quarantine, unit,
+        Executors.newScheduledThreadPool(THREADS, new DaemonThreadFactory("byon-reclaimer")));
+  }
+
+  HostReclaimer(HostPool pool, HostCleaner cleaner, long quarantine, TimeUnit unit,
+      ScheduledExecutorService executor) {
+    if (quarantine < 0) {
+      throw new IllegalArgumentException("quarantine must not be negative");
+    }
+    this.pool = pool;
+    this.cleaner = cleaner;
+    this.quarantineNanos = unit.toNanos(quarantine);
+    this.executor = executor;
+  }
+
+  /**
+   * Schedule a released host to go back to the pool.
+   */
+  void reclaim(final String host) {
+    final long releasedAt = System.nanoTime();
+    queueDepth.incrementAndGet();
+
+    executor.schedule(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          boolean returned = false;
+          try {
+            if (cleaner.clean(host)) {
+              pool.returnHost(host);
+              returned = true;
+            }
+          } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Unable to reclaim host " + host, e);
+          }
+
+          if (returned) {
+            latency.recordSince(releasedAt);
+            LOG.info(String.format("Reclaimed host %s, %d still pending", host,
+                queueDepth.get() - 1));
+          } else {
+            failed.increment();
+            LOG.warning("Host " + host + " failed cleanup and stays out of the pool");
+          }
+          commit(host, returned);
+        } catch (InterruptedException e) {
+          failed.increment();
+          Thread.currentThread().interrupt();
+        } finally {
+          queueDepth.decrementAndGet();
+        }
+      }
+    }, quarantineNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Retires the host unless it was returned, and commits the outcome.
+   */
+  private void commit(String host, boolean returned) {
+    try {
+      if (!returned) {
+        pool.retire(host);
+      }
+      pool.commit();
+    } catch (RuntimeException e) {
+      journalFailures.increment();
+      LOG.log(Level.SEVERE, "Unable to journal the reclamation of host " + host, e);
+    }
+  }
+
+  /**
+   * Stop reclaiming. Hosts still in quarantine or being cleaned up are dropped.
+   */
+  void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * @return the number of released hosts that are not back in the pool yet
+   */
+  int getQueueDepth() {
+    return queueDepth.get();
+  }
+
+  long getReclaimedCount() {
+    return latency.getCount();
+  }
+
+  long getFailedCount() {
+    return failed.sum();
+  }
+
+  /**
+   * @return the number of outcomes that could not be committed to the journal
+   */
+  long getJournalFailureCount() {
+    return journalFailures.sum();
+  }
+
+  MetricsRegistry getMetrics() {
+    return metrics;
+  }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cloudera.director.byon.compute;
+
+import com.cloudera.director.byon.util.HostGroups;
+import com.cloudera.director.byon.util.Strings;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Requirements on the attributes of the hosts picked for an instance template.
+ * <p/>
+ * Written as a comma separated list of comparisons, all of which must hold:
+ * <p/>
+ * <pre>
+ * rack=r1, cores>=32, disk!=hdd
+ * </pre>
+ * <p/>
+ * Equality compares values as strings, ordering comparisons compare them as numbers
+ * and never match a host whose value is not a number. A host without the attribute
+ * never meets a requirement on it.
+ */
+final class HostRequirements {
+
+  private static final String[] OPERATOR_CHARACTERS = {"=", "!", "<", ">"};
+
+  static final HostRequirements NONE = new HostRequirements(Collections.<Requirement>emptyList());
+
+  /**
+   * Comparison operators, longest symbols first so that they can be matched in order.
+   */
+  enum Operator {
+    GREATER_OR_EQUAL(">="),
+    LESS_OR_EQUAL("<="),
+    NOT_EQUAL("!="),
+    EQUAL("="),
+    GREATER(">"),
+    LESS("<");
+
+    private final String symbol;
+
+    Operator(String symbol) {
+      this.symbol = symbol;
+    }
+
+    String getSymbol() {
+      return symbol;
+    }
+
+    boolean isNumeric() {
+      return this != EQUAL && this != NOT_EQUAL;
+    }
+  }
+
+  /**
+   * A single comparison between the value of a host attribute and a constant.
+   */
+  static final class Requirement {
+
+    private final String key;
+    private final Operator operator;
+    private final String value;
+    private final BigDecimal number;
+
+    Requirement(String key, Operator operator, String value) {
+      this.key = key;
+      this.operator = operator;
+      this.value = value;
+      this.number = operator.isNumeric() ? toNumber(value) : null;
+      if (operator.isNumeric() && number == null) {
+        throw new IllegalArgumentException(String.format(
+            "Invalid host requirement %s%s%s, expected a number", key, operator.getSymbol(), value));
+      }
+    }
+
+    String getKey() {
+      return key;
+    }
+
+    Operator getOperator() {
+      return operator;
+    }
+
+    String getValue() {
+      return value;
+    }
+
+    /**
+     * @param actual the value of the attribute for a host
+     */
+    boolean matches(String actual) {
+      switch (operator) {
+        case EQUAL:
+          return value.equals(actual);
+        case NOT_EQUAL:
+          return !value.equals(actual);
+        default:
+          BigDecimal actualNumber = toNumber(actual);
+          if (actualNumber == null) {
+            return false;
+          }
+          int comparison = actualNumber.compareTo(number);
+          switch (operator) {
+            case GREATER_OR_EQUAL:
+              return comparison >= 0;
+            case LESS_OR_EQUAL:
+              return comparison <= 0;
+            case GREATER:
+              return comparison > 0;
+            default:
+              return comparison < 0;
+          }
+      }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Requirement that = (Requirement) o;
+      return key.equals(that.key) && operator == that.operator && value.equals(that.value);
+    }
+
+    @Override
+    public int hashCode() {
+      return (key.hashCode() * 31 + operator.hashCode()) * 31 + value.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return key + operator.getSymbol() + value;
+    }
+  }
+
+  private final List<Requirement> requirements;
+
+  private HostRequirements(List<Requirement> requirements) {
+    this.requirements = requirements;
+  }
+
+  /**
+   * @param expression comma separated comparisons, or null or empty for none
+   * @throws IllegalArgumentException if a comparison is not valid
+   */
+  static HostRequirements parse(String expression) {
+    if (expression == null || expression.trim().isEmpty()) {
+      return NONE;
+    }
+
+    List<Requirement> requirements = new ArrayList<Requirement>();
+    for (String comparison : HostGroups.split(expression)) {
+      requirements.add(parseRequirement(comparison));
+    }
+    return new HostRequirements(Collections.unmodifiableList(requirements));
+  }
+
+  private static Requirement parseRequirement(String comparison) {
+    for (int i = 0; i < comparison.length(); i++) {
+      for (Operator operator : Operator.values()) {
+        if (comparison.startsWith(operator.getSymbol(), i)) {
+          String key = comparison.substring(0, i).trim();
+          String value = comparison.substring(i + operator.getSymbol().length()).trim();
+          if (key.isEmpty() || value.isEmpty() || Strings.containsAny(value, OPERATOR_CHARACTERS)) {
+            throw new IllegalArgumentException("Invalid host requirement: " + comparison);
+          }
+          return new Requirement(key, operator, value);
+        }
+      }
+    }
+    throw new IllegalArgumentException("Invalid host requirement: " + comparison);
+  }
+
+  boolean isEmpty() {
+    return requirements.isEmpty();
+  }
+
+  List<Requirement> getRequirements() {
+    return requirements;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    return requirements.equals(((HostRequirements) o).requirements);
+  }
+
+  @Override
+  public int hashCode() {
+    return requirements.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder();
+    for (Requirement requirement : requirements) {
+      if (result.length() > 0) {
+        result.append(',');
+      }
+      result.append(requirement);
+    }
+    return result.toString();
+  }
+
+  private static BigDecimal toNumber(String value) {
+    try {
+      return new BigDecimal(value);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cloudera.director.byon.compute;
+
+import com.cloudera.director.byon.util.DaemonThreadFactory;
+import com.cloudera.director.byon.util.HostGroupList;
+import com.cloudera.director.byon.util.HostGroups;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps a host pool in line with a file listing its hosts.
+ * <p/>
+ * The file holds host group expressions, separated by commas or line breaks, with
+ * {@code #} starting a comment. Its directory is watched and the pool is updated
+ * once the file has stopped changing for a moment, so a file being written is not
+ * read halfway. A file that is deleted or can't be parsed leaves the pool as is.
+ */
+class HostsFileWatcher implements Closeable {
+
+  private static final Logger LOG = Logger.getLogger(HostsFileWatcher.class.getName());
+
+  /**
+   * How long the file has to stay unchanged before it is read.
+   */
+  static final long SETTLE_MILLIS = 200;
+
+  private final HostPool pool;
+  private final String hostGroupExpressions;
+  private final Path file;
+  private final WatchService watchService;
+  private final Thread thread;
+
+  /**
+   * The file is read again once it is watched, so the pool doesn't miss changes made
+   * between reading the file for the pool and creating the watcher.
+   *
+   * @param pool                 the pool to update
+   * @param hostGroupExpressions hosts always in the pool, on top of those in the file
+   * @param file                 the file to watch
+   */
+  HostsFileWatcher(HostPool pool, String hostGroupExpressions, Path file) throws IOException {
+    this.pool = pool;
+    this.hostGroupExpressions = hostGroupExpressions == null ? "" : hostGroupExpressions;
+    this.file = file.toAbsolutePath();
+
+    this.watchService = this.file.getFileSystem().newWatchService();
+    this.file.getParent().register(watchService,
+        StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    if (Files.exists(this.file)) {
+      reload();  // changes made since the pool was read came before the watch
+    }
+
+    this.thread = new DaemonThreadFactory("byon-hosts-file").newThread(new Runnable() {
+      @Override
+      public void run() {
+        loop();
+      }
+    });
+    thread.start();
+  }
+
+  /**
+   * Parse the hosts of a pool made of host group expressions and the contents of a
+   * hosts file.
+   *
+   * @param file the hosts file or null
+   */
+  static HostGroupList read(String hostGroupExpressions, Path file) throws IOException {
+    StringBuilder expressions = new StringBuilder(
+        hostGroupExpressions == null ? "" : hostGroupExpressions);
+    if (file != null) {
+      for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+        int comment = line.indexOf('#');
+        expressions.append(',').append(line, 0, comment < 0 ? line.length() : comment);
+      }
+    }
+    return HostGroups.parse(expressions.toString());
+  }
+
+  /**
+   * Read the file and update the pool with its contents.
+   */
+  void reload() {
+    try {
+      HostPool.Update update = pool.update(read(hostGroupExpressions, file));
+      LOG.info(String.format("Reloaded hosts from %s: %s", file, update));
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to read hosts file " + file + ", keeping current hosts", e);
+    } catch (IllegalArgumentException e) {
+      LOG.log(Level.WARNING, "Invalid hosts file " + file + ", keeping current hosts", e);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    watchService.close();
+  }
+
+  private void loop() {
+    try {
+      while (true) {
+        boolean changed = poll(watchService.take());
+        while (changed) {
+          WatchKey next = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+          if (next == null) {
+            break;
+          }
+          poll(next);
+        }
+        if (changed && Files.exists(file)) {
+          reload();
+        }
+      }
+    } catch (ClosedWatchServiceException e) {
+      // closed along with the pool
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * @return true if an event of the key is about the hosts file
+   */
+  private boolean poll(WatchKey key) {
+    boolean changed = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW ||
+          file.getFileName().equals(event.context())) {
+        changed = true;
+      }
+    }
+    key.reset();
+    return changed;
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cloudera.director.byon.compute;
+
+/**
+ * Decides which free hosts go to the instances of an allocation request, once the
+ * preferred hosts have been claimed.
+ */
+interface PlacementStrategy {
+
+  /**
+   * Takes the free hosts in pool order, which usually keeps the hosts of a request
+   * close to each other.
+   */
+  PlacementStrategy PACK = new PlacementStrategy() {
+    @Override
+    public Placement begin(HostPool pool, final HostPool.Reservation reservation) {
+      return new Placement() {
+        @Override
+        public String claim(String instanceId) {
+          return reservation.claimAny(instanceId);
+        }
+      };
+    }
+
+    @Override
+    public String toString() {
+      return "pack";
+    }
+  };
+
+  /**
+   * Start placing the instances of a single allocation request.
+   *
+   * @param reservation the capacity reserved for the request, which hosts are claimed from
+   */
+  Placement begin(HostPool pool, HostPool.Reservation reservation);
+
+  /**
+   * The placement of the instances of one allocation request, used by one thread.
+   */
+  interface Placement {
+
+    /**
+     * Claim a host for an instance against the reservation.
+     *
+     * @return the claimed host or null if no free host meets the requirements of
+     * the reservation anymore
+     */
+    String claim(String instanceId);
+  }
+}
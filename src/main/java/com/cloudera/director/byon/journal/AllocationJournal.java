@@ -0,0 +1,653 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.journal;
+
+import com.cloudera.director.byon.metrics.LatencyHistogram;
+import com.cloudera.director.byon.metrics.MetricsRegistry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * A durable record of host allocations that survives restarts.
+ * <p/>
+ * Besides allocations, the journal keeps the hosts that are out of the pool without
+ * being allocated, see {@link HostState}, so that hosts retired or still being
+ * reclaimed don't come back as free hosts after a restart.
+ * <p/>
+ * Allocations, deletions and changes to the state of hosts are appended to a
+ * journal file in a compact binary format. Appending only buffers the record in memory; {@link #sync()} writes
+ * everything buffered so far and forces it to disk, and concurrent callers share a
+ * single force (group commit). Every so often the current state is written to a
+ * snapshot file, atomically renamed into place, and the journal is truncated.
+ * <p/>
+ * On open the snapshot and then the journal are read through memory maps and the
+ * state they describe is compacted into a fresh snapshot. A record torn by a crash
+ * at the end of the journal is cut short or fails its checksum and is dropped. A bad
+ * record followed by more data fails the open instead, since dropping the records
+ * after it would forget allocations.
+ * <p/>
+ * If writing or forcing the journal fails, the journal is cut back to its last
+ * durable record and fails every later {@link #sync()}, so records are never reported
+ * durable without having been written.
+ * <p/>
+ * Records are laid out as:
+ * <pre>
+ * byte   type (1 = allocate, 2 = delete, 3 = retire, 4 = reclaim, 5 = return)
+ * short  length of the instance ID, followed by its UTF-8 bytes (empty for hosts)
+ * short  length of the host name, followed by its UTF-8 bytes (empty for deletes)
+ * int    CRC32 of all the preceding bytes of the record
+ * </pre>
+ * Journals of version 1 only hold allocations and deletions and are still read.
+ * Replaying a record twice has no effect, which is what makes the snapshot and
+ * journal rotation safe to interrupt at any point.
+ * <p/>
+ * The time callers of {@link #sync()} wait for the flush lock and the time taken by
+ * each write and force are recorded in the {@link #getMetrics() metrics} of the journal.
+ */
+public final class AllocationJournal implements Closeable {
+
+  private static final Logger LOG = Logger.getLogger(AllocationJournal.class.getName());
+
+  static final String JOURNAL_FILE = "allocations.journal";
+  static final String SNAPSHOT_FILE = "allocations.snapshot";
+  static final String LOCK_FILE = "allocations.lock";
+
+  static final int MAGIC = 0x42594F4E;  // "BYON"
+  static final byte VERSION = 2;
+  static final int HEADER_SIZE = 5;
+
+  static final byte ALLOCATE = 1;
+  static final byte DELETE = 2;
+  static final byte RETIRE = 3;
+  static final byte RECLAIM = 4;
+  static final byte RETURN = 5;
+
+  /**
+   * The state of a host that is out of the pool without being allocated.
+   */
+  public enum HostState {
+
+    /**
+     * The host was released and is not used again.
+     */
+    RETIRED,
+
+    /**
+     * The host was released and goes back to the pool once cleaned up.
+     */
+    RECLAIMING
+  }
+
+  private static final int MAX_STRING_LENGTH = 0xFFFF;
+  private static final int RECORD_OVERHEAD = 1 + 2 + 2 + 4;
+
+  /**
+   * Number of records after which the journal is compacted into a snapshot.
+   */
+  public static final int DEFAULT_SNAPSHOT_THRESHOLD = 10000;
+
+  /**
+   * Journals open in this JVM, by directory.
+   */
+  private static final ConcurrentMap<Path, AllocationJournal> OPEN =
+      new ConcurrentHashMap<Path, AllocationJournal>();
+
+  private final Path directory;
+  private final int snapshotThreshold;
+
+  private final FileChannel lockChannel;
+  private final FileLock lock;
+  private FileChannel journal;
+
+  /**
+   * Held while writing to the journal file. Acquired before the monitor of this object.
+   */
+  private final Object flushLock = new Object();
+
+  // guarded by this
+  private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+  private long appended;
+  private boolean closed;
+
+  // guarded by flushLock
+  private long durable;
+  private int recordsSinceSnapshot;
+  private long durableSize;
+  private IOException failure;
+
+  private volatile Supplier<Map<String, String>> snapshotSource;
+  private volatile Supplier<Map<String, HostState>> hostStateSource;
+
+  private final MetricsRegistry metrics = new MetricsRegistry();
+  private final LatencyHistogram lockWait = metrics.histogram("lockWait");
+  private final LatencyHistogram flushes = metrics.histogram("flush");
+
+  private AllocationJournal(Path directory, int snapshotThreshold) throws IOException {
+    this.directory = directory;
+    this.snapshotThreshold = snapshotThreshold;
+
+    this.lockChannel = FileChannel.open(directory.resolve(LOCK_FILE),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    FileLock acquired;
+    try {
+      acquired = lockChannel.tryLock();
+    } catch (IOException | RuntimeException e) {
+      lockChannel.close();
+      throw e;
+    }
+    if (acquired == null) {
+      lockChannel.close();
+      throw new IOException("Allocation journal is in use by another process: " + directory);
+    }
+    this.lock = acquired;
+  }
+
+  /**
+   * Opens the journal kept in a directory, creating it if needed.
+   * <p/>
+   * Only one journal can be open for a directory, whether in this process or in
+   * another one.
+   *
+   * @param directory         the directory holding the journal files
+   * @param snapshotThreshold number of records after which to write a snapshot
+   * @throws IOException if the journal is already open or can not be opened
+   */
+  public static AllocationJournal open(Path directory, int snapshotThreshold) throws IOException {
+    if (snapshotThreshold <= 0) {
+      throw new IllegalArgumentException("snapshotThreshold must be positive");
+    }
+    Files.createDirectories(directory);
+    Path key = directory.toRealPath();
+
+    synchronized (OPEN) {
+      if (OPEN.containsKey(key)) {
+        throw new IOException("Allocation journal is already open in this process: " + key);
+      }
+      AllocationJournal opened = new AllocationJournal(key, snapshotThreshold);
+      OPEN.put(key, opened);
+      return opened;
+    }
+  }
+
+  /**
+   * @return flush lock waits and flush latencies
+   */
+  public MetricsRegistry getMetrics() {
+    return metrics;
+  }
+
+  public Path getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Reads back the allocations recorded so far and compacts them into a new snapshot,
+   * ignoring the state of hosts.
+   *
+   * @see #replay(Map)
+   */
+  public Map<String, String> replay() throws IOException {
+    return replay(new LinkedHashMap<String, HostState>());
+  }
+
+  /**
+   * Reads back the allocations and host states recorded so far and compacts them
+   * into a new snapshot. Must be called once, before recording anything.
+   *
+   * @param hostStates receives the state of hosts out of the pool, by host name
+   * @return host names keyed by instance ID, in allocation order
+   */
+  public Map<String, String> replay(Map<String, HostState> hostStates) throws IOException {
+    synchronized (flushLock) {
+      Map<String, String> allocations = new LinkedHashMap<String, String>();
+
+      Path snapshotPath = directory.resolve(SNAPSHOT_FILE);
+      if (Files.exists(snapshotPath)) {
+        long valid = readRecords(snapshotPath, allocations, hostStates);
+        if (valid != Files.size(snapshotPath)) {
+          throw new IOException("Corrupted allocation snapshot: " + snapshotPath);
+        }
+      }
+
+      Path journalPath = directory.resolve(JOURNAL_FILE);
+      if (Files.exists(journalPath) && Files.size(journalPath) > 0) {
+        long size = Files.size(journalPath);
+        long valid = readRecords(journalPath, allocations, hostStates);
+        if (valid < size) {
+          LOG.warning(String.format("Dropping %d bytes of incomplete records at the end of %s",
+              size - valid, journalPath));
+        }
+      }
+
+      writeSnapshot(allocations, hostStates);
+
+      journal = FileChannel.open(journalPath, StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE, StandardOpenOption.READ);
+      resetJournal();
+
+      LOG.info(String.format("Recovered %d allocations and %d hosts out of the pool from %s",
+          allocations.size(), hostStates.size(), directory));
+      return allocations;
+    }
+  }
+
+  /**
+   * Sets where snapshots take the current allocations from. The source must already
+   * reflect any change by the time it is recorded in the journal.
+   */
+  public void setSnapshotSource(Supplier<Map<String, String>> snapshotSource) {
+    this.snapshotSource = snapshotSource;
+  }
+
+  /**
+   * Sets where snapshots take the state of hosts out of the pool from, with the same
+   * requirements as {@link #setSnapshotSource}. Without one, snapshots drop the state
+   * of hosts.
+   */
+  public void setHostStateSource(Supplier<Map<String, HostState>> hostStateSource) {
+    this.hostStateSource = hostStateSource;
+  }
+
+  /**
+   * Buffers an allocation record. Not durable until the next {@link #sync()}.
+   */
+  public void recordAllocation(String instanceId, String host) {
+    append(ALLOCATE, instanceId, host);
+  }
+
+  /**
+   * Buffers a deletion record. Not durable until the next {@link #sync()}.
+   */
+  public void recordDeletion(String instanceId) {
+    append(DELETE, instanceId, "");
+  }
+
+  /**
+   * Buffers a record of a host taken out of the pool for good. Not durable until the
+   * next {@link #sync()}.
+   */
+  public void recordRetirement(String host) {
+    append(RETIRE, "", host);
+  }
+
+  /**
+   * Buffers a record of a host taken out of the pool until it is cleaned up. Not
+   * durable until the next {@link #sync()}.
+   */
+  public void recordReclamation(String host) {
+    append(RECLAIM, "", host);
+  }
+
+  /**
+   * Buffers a record of a host back in the pool after being retired or reclaimed.
+   * Not durable until the next {@link #sync()}.
+   */
+  public void recordReturn(String host) {
+    append(RETURN, "", host);
+  }
+
+  /**
+   * Makes every record buffered so far durable. Threads calling this concurrently
+   * share the same write and force.
+   */
+  public void sync() throws IOException {
+    long target;
+    synchronized (this) {
+      target = appended;
+    }
+
+    long waitStart = System.nanoTime();
+    synchronized (flushLock) {
+      lockWait.recordSince(waitStart);
+      if (durable >= target) {
+        return;  // somebody else flushed our records while we were waiting
+      }
+      flush();
+
+      if (recordsSinceSnapshot >= snapshotThreshold && snapshotSource != null) {
+        snapshot();
+      }
+    }
+  }
+
+  /**
+   * Writes the current allocations to a new snapshot and empties the journal.
+   */
+  public void snapshot() throws IOException {
+    Supplier<Map<String, String>> source = snapshotSource;
+    if (source == null) {
+      throw new IllegalStateException("No snapshot source configured");
+    }
+
+    synchronized (flushLock) {
+      synchronized (this) {
+        // Appends are blocked, so everything in the source is either in the
+        // journal we are about to flush or will be recorded after the rotation.
+        flush();
+        Supplier<Map<String, HostState>> states = hostStateSource;
+        writeSnapshot(source.get(),
+            states == null ? Collections.<String, HostState>emptyMap() : states.get());
+        resetJournal();
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (flushLock) {
+      synchronized (this) {
+        if (closed) {
+          return;
+        }
+        try {
+          if (journal != null) {
+            flush();
+            journal.close();
+          }
+        } finally {
+          closed = true;
+          OPEN.remove(directory, this);
+          lock.release();
+          lockChannel.close();
+        }
+      }
+    }
+  }
+
+  private synchronized void append(byte type, String instanceId, String host) {
+    if (closed) {
+      throw new IllegalStateException("Allocation journal is closed: " + directory);
+    }
+    if (journal == null) {
+      throw new IllegalStateException("Allocation journal must be replayed before use");
+    }
+    byte[] record = encode(type, instanceId, host);
+    pending.write(record, 0, record.length);
+    appended++;
+  }
+
+  /**
+   * Writes out buffered records. Caller holds the flush lock.
+   *
+   * @throws IOException if writing fails now or failed before
+   */
+  private void flush() throws IOException {
+    if (failure != null) {
+      throw new IOException("Allocation journal failed earlier, records since then are not " +
+          "durable: " + directory, failure);
+    }
+    byte[] batch;
+    long upTo;
+    synchronized (this) {
+      if (closed) {
+        throw new IllegalStateException("Allocation journal is closed: " + directory);
+      }
+      batch = pending.toByteArray();
+      pending.reset();
+      upTo = appended;
+    }
+    if (batch.length == 0) {
+      durable = upTo;
+      return;
+    }
+
+    long start = System.nanoTime();
+    try {
+      ByteBuffer buffer = ByteBuffer.wrap(batch);
+      while (buffer.hasRemaining()) {
+        journal.write(buffer);
+      }
+      journal.force(false);
+    } catch (IOException e) {
+      fail(e);
+      throw e;
+    }
+    flushes.recordSince(start);
+
+    durableSize += batch.length;
+    recordsSinceSnapshot += (int) (upTo - durable);
+    durable = upTo;
+  }
+
+  /**
+   * Cuts off whatever part of a failed write made it to the journal and fails every
+   * later flush. Caller holds the flush lock.
+   */
+  private void fail(IOException e) {
+    failure = e;
+    LOG.severe("Allocation journal failed, later allocations are not durable: " + directory +
+        ": " + e);
+    try {
+      journal.truncate(durableSize);
+      journal.position(durableSize);
+    } catch (IOException truncateFailure) {
+      e.addSuppressed(truncateFailure);
+    }
+  }
+
+  private void resetJournal() throws IOException {
+    try {
+      journal.truncate(0);
+      journal.position(0);
+      ByteBuffer header = header();
+      while (header.hasRemaining()) {
+        journal.write(header);
+      }
+      journal.force(true);
+    } catch (IOException e) {
+      failure = e;
+      throw e;
+    }
+    durableSize = HEADER_SIZE;
+    recordsSinceSnapshot = 0;
+  }
+
+  private void writeSnapshot(Map<String, String> allocations, Map<String, HostState> hostStates)
+      throws IOException {
+    Path temporary = directory.resolve(SNAPSHOT_FILE + ".tmp");
+    try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream(HEADER_SIZE + allocations.size() * 64);
+      out.write(header().array(), 0, HEADER_SIZE);
+      for (Map.Entry<String, String> entry : allocations.entrySet()) {
+        byte[] record = encode(ALLOCATE, entry.getKey(), entry.getValue());
+        out.write(record, 0, record.length);
+      }
+      for (Map.Entry<String, HostState> entry : hostStates.entrySet()) {
+        byte type = entry.getValue() == HostState.RETIRED ? RETIRE : RECLAIM;
+        byte[] record = encode(type, "", entry.getKey());
+        out.write(record, 0, record.length);
+      }
+
+      ByteBuffer buffer = ByteBuffer.wrap(out.toByteArray());
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      channel.force(true);
+    }
+
+    Files.move(temporary, directory.resolve(SNAPSHOT_FILE),
+        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    syncDirectory();
+  }
+
+  /**
+   * Makes the snapshot rename durable, where the platform allows it.
+   */
+  private void syncDirectory() {
+    try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (IOException e) {
+      LOG.fine("Unable to sync journal directory " + directory + ": " + e);
+    }
+  }
+
+  private static ByteBuffer header() {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC).put(VERSION).flip();
+    return header;
+  }
+
+  static byte[] encode(byte type, String instanceId, String host) {
+    byte[] id = instanceId.getBytes(StandardCharsets.UTF_8);
+    byte[] name = host.getBytes(StandardCharsets.UTF_8);
+    if (id.length > MAX_STRING_LENGTH || name.length > MAX_STRING_LENGTH) {
+      throw new IllegalArgumentException("Instance ID or host name too long to journal");
+    }
+
+    ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + id.length + name.length);
+    record.put(type)
+        .putShort((short) id.length).put(id)
+        .putShort((short) name.length).put(name);
+
+    CRC32 crc = new CRC32();
+    crc.update(record.array(), 0, record.position());
+    record.putInt((int) crc.getValue());
+    return record.array();
+  }
+
+  /**
+   * Applies the records of a file to maps of allocations and host states, stopping
+   * at a last record that is incomplete or corrupted.
+   *
+   * @return the number of bytes of valid data at the start of the file
+   * @throws IOException if a corrupted record is followed by more data
+   */
+  static long readRecords(Path file, Map<String, String> allocations,
+      Map<String, HostState> hostStates) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Allocation journal too large: " + file);
+      }
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+      if (size < HEADER_SIZE || buffer.getInt() != MAGIC || !isSupported(buffer.get())) {
+        throw new IOException("Not an allocation journal: " + file);
+      }
+
+      CRC32 crc = new CRC32();
+      byte[] scratch = new byte[256];
+      while (true) {
+        int start = buffer.position();
+        if (buffer.remaining() < RECORD_OVERHEAD) {
+          return start;
+        }
+        byte type = buffer.get();
+        int idLength = buffer.getShort() & MAX_STRING_LENGTH;
+        if (buffer.remaining() < idLength + 2) {
+          return start;
+        }
+        buffer.position(buffer.position() + idLength);
+        int hostLength = buffer.getShort() & MAX_STRING_LENGTH;
+        if (buffer.remaining() < hostLength + 4) {
+          return start;
+        }
+        int end = buffer.position() + hostLength;
+
+        int length = end - start;
+        if (scratch.length < length) {
+          scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        buffer.position(start);
+        buffer.get(scratch, 0, length);
+        crc.reset();
+        crc.update(scratch, 0, length);
+        if (buffer.getInt() != (int) crc.getValue()) {
+          return endOfValidData(file, start, buffer.position(), size);
+        }
+
+        String instanceId = new String(scratch, 3, idLength, StandardCharsets.UTF_8);
+        String host = new String(scratch, 3 + idLength + 2, hostLength, StandardCharsets.UTF_8);
+        if (type == ALLOCATE) {
+          allocations.put(instanceId, host);
+          hostStates.remove(host);
+        } else if (type == DELETE) {
+          allocations.remove(instanceId);
+        } else if (type == RETIRE) {
+          hostStates.put(host, HostState.RETIRED);
+        } else if (type == RECLAIM) {
+          hostStates.put(host, HostState.RECLAIMING);
+        } else if (type == RETURN) {
+          hostStates.remove(host);
+        } else {
+          return endOfValidData(file, start, buffer.position(), size);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the start of a bad record if nothing follows it, as a torn write leaves it
+   * @throws IOException if more data follows the bad record
+   */
+  private static int endOfValidData(Path file, int start, int end, long size)
+      throws IOException {
+    if (end < size) {
+      throw new IOException(String.format("Corrupted allocation journal record at offset %d, " +
+          "followed by %d more bytes: %s", start, size - end, file));
+    }
+    return start;
+  }
+
+  private static boolean isSupported(byte version) {
+    return version >= 1 && version <= VERSION;
+  }
+
+  /**
+   * @return the allocations recorded in a journal directory, without opening it
+   */
+  static Map<String, String> read(Path directory) throws IOException {
+    return read(directory, new LinkedHashMap<String, HostState>());
+  }
+
+  /**
+   * @param hostStates receives the host states recorded in the directory
+   * @return the allocations recorded in a journal directory, without opening it
+   */
+  static Map<String, String> read(Path directory, Map<String, HostState> hostStates)
+      throws IOException {
+    Map<String, String> allocations = new LinkedHashMap<String, String>();
+    for (String name : new String[]{SNAPSHOT_FILE, JOURNAL_FILE}) {
+      Path file = directory.resolve(name);
+      if (Files.exists(file) && Files.size(file) > 0) {
+        readRecords(file, allocations, hostStates);
+      }
+    }
+    return Collections.unmodifiableMap(allocations);
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies in nanoseconds with a fixed set of buckets.
+ * <p/>
+ * Every power of two is split into {@value #SUB_BUCKETS} linear buckets, so any
+ * latency from a nanosecond to hundreds of years lands in one of {@value #BUCKETS}
+ * buckets and percentiles are accurate to within an eighth of their value. Each
+ * bucket is a {@link LongAdder}: recording a latency picks its bucket with a few
+ * shifts and never allocates or blocks, however many threads record at once.
+ * <p/>
+ * Reads are not atomic with respect to concurrent recordings, which is fine for
+ * monitoring.
+ */
+public final class LatencyHistogram {
+
+  static final int SUB_BUCKET_BITS = 3;
+  static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  static final int BUCKETS = (64 - SUB_BUCKET_BITS) << SUB_BUCKET_BITS;
+
+  private final LongAdder[] buckets = new LongAdder[BUCKETS];
+  private final LongAdder count = new LongAdder();
+  private final LongAdder totalNanos = new LongAdder();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  public LatencyHistogram() {
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * Records a latency. Negative latencies, from clock adjustments, count as zero.
+   */
+  public void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    buckets[bucketOf(nanos)].increment();
+    count.increment();
+    totalNanos.add(nanos);
+
+    long max = maxNanos.get();
+    while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+      max = maxNanos.get();
+    }
+  }
+
+  /**
+   * Records the time elapsed since a {@link System#nanoTime()} reading.
+   */
+  public void recordSince(long startNanos) {
+    record(System.nanoTime() - startNanos);
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getMean(TimeUnit unit) {
+    long currentCount = count.sum();
+    return currentCount == 0
+        ? 0
+        : unit.convert(totalNanos.sum() / currentCount, TimeUnit.NANOSECONDS);
+  }
+
+  public long getMax(TimeUnit unit) {
+    return unit.convert(maxNanos.get(), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @param quantile between 0 and 1, e.g. 0.99 for the 99th percentile
+   * @return the highest latency of the bucket holding the quantile, or 0 if nothing
+   * has been recorded
+   */
+  public long getPercentile(double quantile, TimeUnit unit) {
+    if (quantile < 0 || quantile > 1) {
+      throw new IllegalArgumentException("quantile must be between 0 and 1");
+    }
+    long[] counts = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets[i].sum();
+      total += counts[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+
+    long rank = Math.max(1, (long) Math.ceil(quantile * total));
+    long seen = 0;
+    int bucket = 0;
+    while (bucket < BUCKETS - 1) {
+      seen += counts[bucket];
+      if (seen >= rank) {
+        break;
+      }
+      bucket++;
+    }
+    long nanos = Math.min(highestValueOf(bucket), maxNanos.get());
+    return unit.convert(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Values below {@link #SUB_BUCKETS} get a bucket each. Larger values are bucketed by
+   * the position of their highest bit and the {@link #SUB_BUCKET_BITS} bits after it.
+   */
+  static int bucketOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+  }
+
+  /**
+   * @return the highest value that lands in a bucket
+   */
+  static long highestValueOf(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+    long lowest = (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Exposes a {@link MetricsRegistry} as read-only JMX attributes.
+ * <p/>
+ * Counters and gauges are exposed under their own name. Each histogram becomes a
+ * set of attributes in microseconds, named after the histogram with the
+ * {@code Count}, {@code MeanMicros}, {@code P50Micros}, {@code P99Micros},
+ * {@code P999Micros} and {@code MaxMicros} suffixes. The attributes are listed
+ * again every time the MBean info is asked for, so metrics registered later show up.
+ */
+public final class MetricsMBean implements DynamicMBean {
+
+  private static final Logger LOG = Logger.getLogger(MetricsMBean.class.getName());
+
+  /**
+   * The JMX domain of every MBean of the plugin.
+   */
+  public static final String DOMAIN = "com.cloudera.director.byon";
+
+  private final MetricsRegistry registry;
+  private final String description;
+
+  public MetricsMBean(MetricsRegistry registry, String description) {
+    if (registry == null) {
+      throw new NullPointerException("registry is null");
+    }
+    this.registry = registry;
+    this.description = description;
+  }
+
+  /**
+   * Registers the metrics of a component. Failures are logged and otherwise
+   * ignored: monitoring must not get in the way of allocations.
+   *
+   * @param keyProperties the key properties of the object name, e.g. {@code type=HostPool}
+   * @return the name of the registered MBean, or null if it could not be registered
+   */
+  public static ObjectName register(MBeanServer server, String keyProperties,
+      MetricsRegistry registry, String description) {
+    try {
+      ObjectName name = new ObjectName(DOMAIN + ":" + keyProperties);
+      server.registerMBean(new MetricsMBean(registry, description), name);
+      return name;
+    } catch (JMException e) {
+      LOG.log(Level.WARNING, "Unable to register metrics for " + keyProperties, e);
+      return null;
+    }
+  }
+
+  /**
+   * Unregisters an MBean registered by {@link #register}, if it was registered.
+   */
+  public static void unregister(MBeanServer server, ObjectName name) {
+    if (name == null) {
+      return;
+    }
+    try {
+      server.unregisterMBean(name);
+    } catch (JMException e) {
+      LOG.log(Level.WARNING, "Unable to unregister metrics " + name, e);
+    }
+  }
+
+  @Override
+  public Object getAttribute(String attribute) throws AttributeNotFoundException {
+    LongSupplier value = getAttributes().get(attribute);
+    if (value == null) {
+      throw new AttributeNotFoundException("No metric named " + attribute);
+    }
+    return value.getAsLong();
+  }
+
+  @Override
+  public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+    throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+  }
+
+  @Override
+  public AttributeList getAttributes(String[] attributes) {
+    Map<String, LongSupplier> values = getAttributes();
+    AttributeList result = new AttributeList();
+    for (String attribute : attributes) {
+      LongSupplier value = values.get(attribute);
+      if (value != null) {
+        result.add(new Attribute(attribute, value.getAsLong()));
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public AttributeList setAttributes(AttributeList attributes) {
+    return new AttributeList();
+  }
+
+  @Override
+  public Object invoke(String actionName, Object[] params, String[] signature)
+      throws ReflectionException {
+    throw new ReflectionException(new NoSuchMethodException(actionName));
+  }
+
+  @Override
+  public MBeanInfo getMBeanInfo() {
+    List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+    for (String name : getAttributes().keySet()) {
+      attributes.add(new MBeanAttributeInfo(name, "long", name, true, false, false));
+    }
+    return new MBeanInfo(getClass().getName(), description,
+        attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, null, null);
+  }
+
+  /**
+   * @return readers for every attribute, in name order
+   */
+  Map<String, LongSupplier> getAttributes() {
+    Map<String, LongSupplier> result = new LinkedHashMap<String, LongSupplier>();
+    for (Map.Entry<String, Object> entry : registry.getMetrics().entrySet()) {
+      String name = entry.getKey();
+      Object metric = entry.getValue();
+      if (metric instanceof LongAdder) {
+        final LongAdder counter = (LongAdder) metric;
+        result.put(name, new LongSupplier() {
+          @Override
+          public long getAsLong() {
+            return counter.sum();
+          }
+        });
+
+      } else if (metric instanceof LatencyHistogram) {
+        addHistogram(result, name, (LatencyHistogram) metric);
+
+      } else {
+        result.put(name, (LongSupplier) metric);
+      }
+    }
+    return result;
+  }
+
+  private static void addHistogram(Map<String, LongSupplier> result, String name,
+      final LatencyHistogram histogram) {
+    result.put(name + "Count", new LongSupplier() {
+      @Override
+      public long getAsLong() {
+        return histogram.getCount();
+      }
+    });
+    result.put(name + "MeanMicros", new LongSupplier() {
+      @Override
+      public long getAsLong() {
+        return histogram.getMean(TimeUnit.MICROSECONDS);
+      }
+    });
+    addPercentile(result, name + "P50Micros", histogram, 0.5);
+    addPercentile(result, name + "P99Micros", histogram, 0.99);
+    addPercentile(result, name + "P999Micros", histogram, 0.999);
+    result.put(name + "MaxMicros", new LongSupplier() {
+      @Override
+      public long getAsLong() {
+        return histogram.getMax(TimeUnit.MICROSECONDS);
+      }
+    });
+  }
+
+  private static void addPercentile(Map<String, LongSupplier> result, String name,
+      final LatencyHistogram histogram, final double quantile) {
+    result.put(name, new LongSupplier() {
+      @Override
+      public long getAsLong() {
+        return histogram.getPercentile(quantile, TimeUnit.MICROSECONDS);
+      }
+    });
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Named metrics of a component: counters, latency histograms and gauges.
+ * <p/>
+ * Metrics are looked up by name once, when the component is built, and the
+ * component then updates the returned counters and histograms directly, so nothing
+ * on the hot path goes through the registry. Gauges are read on demand.
+ * <p/>
+ * Names are camel case and unique across all kinds of metrics, since they become
+ * attribute names in {@link MetricsMBean}.
+ */
+public final class MetricsRegistry {
+
+  private final ConcurrentMap<String, Object> metrics = new ConcurrentSkipListMap<String, Object>();
+
+  /**
+   * @return the counter with a name, created if needed
+   * @throws IllegalArgumentException if the name is taken by another kind of metric
+   */
+  public LongAdder counter(String name) {
+    Object metric = metrics.get(checkName(name));
+    if (metric == null) {
+      metric = register(name, new LongAdder());
+    }
+    return cast(name, metric, LongAdder.class);
+  }
+
+  /**
+   * @return the histogram with a name, created if needed
+   * @throws IllegalArgumentException if the name is taken by another kind of metric
+   */
+  public LatencyHistogram histogram(String name) {
+    Object metric = metrics.get(checkName(name));
+    if (metric == null) {
+      metric = register(name, new LatencyHistogram());
+    }
+    return cast(name, metric, LatencyHistogram.class);
+  }
+
+  /**
+   * Registers a gauge, replacing any previous gauge with the same name.
+   *
+   * @throws IllegalArgumentException if the name is taken by another kind of metric
+   */
+  public void gauge(String name, LongSupplier gauge) {
+    if (gauge == null) {
+      throw new NullPointerException("gauge is null");
+    }
+    Object previous = metrics.get(checkName(name));
+    if (previous != null) {
+      cast(name, previous, LongSupplier.class);
+    }
+    metrics.put(name, gauge);
+  }
+
+  /**
+   * Registers every metric of another registry under a prefix. Metrics added to
+   * the other registry afterwards are not included.
+   */
+  public void include(String prefix, MetricsRegistry other) {
+    for (Map.Entry<String, Object> entry : other.metrics.entrySet()) {
+      String name = entry.getKey();
+      String prefixed = prefix + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+      Object previous = metrics.putIfAbsent(prefixed, entry.getValue());
+      if (previous != null && previous != entry.getValue()) {
+        throw new IllegalArgumentException("Metric " + prefixed + " is already registered");
+      }
+    }
+  }
+
+  /**
+   * @return the metrics by name, in name order
+   */
+  public Map<String, Object> getMetrics() {
+    return Collections.unmodifiableMap(metrics);
+  }
+
+  private Object register(String name, Object metric) {
+    Object previous = metrics.putIfAbsent(name, metric);
+    return previous == null ? metric : previous;
+  }
+
+  private static <T> T cast(String name, Object metric, Class<T> type) {
+    if (!type.isInstance(metric)) {
+      throw new IllegalArgumentException(String.format("Metric %s is already registered " +
+          "as a %s", name, kindOf(metric)));
+    }
+    return type.cast(metric);
+  }
+
+  private static String kindOf(Object metric) {
+    if (metric instanceof LongAdder) {
+      return "counter";
+    }
+    return metric instanceof LatencyHistogram ? "histogram" : "gauge";
+  }
+
+  private static String checkName(String name) {
+    if (name == null) {
+      throw new NullPointerException("name is null");
+    }
+    if (name.isEmpty()) {
+      throw new IllegalArgumentException("name is empty");
+    }
+    return name;
+  }
+}
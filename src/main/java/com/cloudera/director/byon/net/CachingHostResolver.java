@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.net;
+
+import com.cloudera.director.byon.metrics.LatencyHistogram;
+import com.cloudera.director.byon.metrics.MetricsRegistry;
+import com.cloudera.director.byon.util.DaemonThreadFactory;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.security.Security;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+/**
+ * A bounded cache of host name lookups backed by a dedicated executor.
+ * <p/>
+ * Lookups for different hosts run in parallel and concurrent lookups for the same
+ * host share a single in-flight request. Successful lookups are kept for
+ * {@code networkaddress.cache.ttl} seconds and failures for
+ * {@code networkaddress.cache.negative.ttl} seconds, the same security properties
+ * the JVM uses for its own cache. When the cache grows past its capacity expired
+ * entries are dropped first, then the oldest ones.
+ * <p/>
+ * Cache hits and misses are counted and the time taken by every actual lookup is
+ * recorded in the {@link #getMetrics() metrics} of the resolver.
+ */
+public class CachingHostResolver {
+
+  private static final Logger LOG = Logger.getLogger(CachingHostResolver.class.getName());
+
+  static final int DEFAULT_MAX_ENTRIES = 65536;
+  static final int DEFAULT_THREADS = 16;
+  static final long DEFAULT_TTL_SECONDS = 30;
+  static final long DEFAULT_NEGATIVE_TTL_SECONDS = 10;
+
+  private static final class DefaultHolder {
+    static final CachingHostResolver INSTANCE = new CachingHostResolver(HostResolver.SYSTEM,
+        Executors.newFixedThreadPool(DEFAULT_THREADS, new DaemonThreadFactory("byon-resolver")),
+        DEFAULT_MAX_ENTRIES,
+        TimeUnit.SECONDS.toNanos(securityPropertyOrDefault("networkaddress.cache.ttl",
+            DEFAULT_TTL_SECONDS)),
+        TimeUnit.SECONDS.toNanos(securityPropertyOrDefault("networkaddress.cache.negative.ttl",
+            DEFAULT_NEGATIVE_TTL_SECONDS)));
+  }
+
+  /**
+   * Returns the process-wide resolver backed by the JVM name service.
+   */
+  public static CachingHostResolver getDefault() {
+    return DefaultHolder.INSTANCE;
+  }
+
+  private static final class Entry {
+    final CompletableFuture<InetAddress> address = new CompletableFuture<InetAddress>();
+    final long createdAt;
+    volatile boolean expires;
+    volatile long expiresAt;
+
+    Entry(long createdAt) {
+      this.createdAt = createdAt;
+    }
+
+    boolean isFresh(long now) {
+      return !expires || expiresAt - now > 0;
+    }
+
+    boolean isExpired(long now) {
+      return address.isDone() && !isFresh(now);
+    }
+  }
+
+  private final HostResolver delegate;
+  private final Executor executor;
+  private final int maxEntries;
+  private final long ttlNanos;
+  private final long negativeTtlNanos;
+  private final LongSupplier clock;
+
+  private final ConcurrentMap<String, Entry> cache = new ConcurrentHashMap<String, Entry>();
+
+  private final MetricsRegistry metrics = new MetricsRegistry();
+  private final LongAdder hits = metrics.counter("cacheHits");
+  private final LongAdder misses = metrics.counter("cacheMisses");
+  private final LatencyHistogram lookups = metrics.histogram("lookup");
+
+  /**
+   * @param delegate         the resolver doing the actual lookups
+   * @param executor         the executor running the lookups
+   * @param maxEntries       the maximum number of cached hosts
+   * @param ttlNanos         how long to keep successful lookups, negative to keep forever
+   * @param negativeTtlNanos how long to keep failed lookups
+   */
+  public CachingHostResolver(HostResolver delegate, Executor executor, int maxEntries,
+      long ttlNanos, long negativeTtlNanos) {
+    this(delegate, executor, maxEntries, ttlNanos, negativeTtlNanos, System::nanoTime);
+  }
+
+  CachingHostResolver(HostResolver delegate, Executor executor, int maxEntries,
+      long ttlNanos, long negativeTtlNanos, LongSupplier clock) {
+    if (delegate == null) {
+      throw new NullPointerException("delegate is null");
+    }
+    if (executor == null) {
+      throw new NullPointerException("executor is null");
+    }
+    if (maxEntries <= 0) {
+      throw new IllegalArgumentException("maxEntries must be positive");
+    }
+    this.delegate = delegate;
+    this.executor = executor;
+    this.maxEntries = maxEntries;
+    this.ttlNanos = ttlNanos;
+    this.negativeTtlNanos = negativeTtlNanos;
+    this.clock = clock;
+
+    metrics.gauge("cachedHosts", new LongSupplier() {
+      @Override
+      public long getAsLong() {
+        return cache.size();
+      }
+    });
+  }
+
+  /**
+   * @return cache hits and misses, the number of cached hosts and lookup latencies
+   */
+  public MetricsRegistry getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Starts resolving a host unless a fresh answer is already cached.
+   */
+  public CompletableFuture<InetAddress> resolveAsync(final String host) {
+    long now = clock.getAsLong();
+    while (true) {
+      Entry current = cache.get(host);
+      if (current != null && current.isFresh(now)) {
+        hits.increment();
+        return current.address;
+      }
+
+      final Entry created = new Entry(now);
+      boolean installed = (current == null)
+          ? cache.putIfAbsent(host, created) == null
+          : cache.replace(host, current, created);
+      if (!installed) {
+        continue;  // lost a race with another lookup of the same host, use theirs
+      }
+
+      misses.increment();
+      if (cache.size() > maxEntries) {
+        evict(now);
+      }
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          long start = clock.getAsLong();
+          try {
+            InetAddress address = delegate.resolve(host);
+            lookups.record(clock.getAsLong() - start);
+            expireAfter(created, ttlNanos);
+            created.address.complete(address);
+
+          } catch (UnknownHostException e) {
+            lookups.record(clock.getAsLong() - start);
+            expireAfter(created, negativeTtlNanos);
+            created.address.completeExceptionally(e);
+
+          } catch (RuntimeException e) {
+            cache.remove(host, created);
+            created.address.completeExceptionally(e);
+          }
+        }
+      });
+      return created.address;
+    }
+  }
+
+  /**
+   * Returns the cached address of a host without ever starting a lookup.
+   *
+   * @return the address of a fresh, successful lookup of the host, or null if there is
+   * none yet, it failed or it expired
+   */
+  public InetAddress peek(String host) {
+    Entry current = cache.get(host);
+    if (current == null || !current.isFresh(clock.getAsLong())
+        || !current.address.isDone() || current.address.isCompletedExceptionally()) {
+      return null;
+    }
+    return current.address.getNow(null);
+  }
+
+  /**
+   * Resolves a single host, waiting for the lookup to complete.
+   */
+  public InetAddress resolve(String host) throws UnknownHostException, InterruptedException {
+    return await(host, resolveAsync(host));
+  }
+
+  /**
+   * Resolves all hosts in parallel. The call takes as long as the slowest lookup.
+   *
+   * @return addresses keyed by host name, in the iteration order of the input
+   * @throws UnknownHostException for the first host that can't be resolved
+   */
+  public Map<String, InetAddress> resolveAll(Collection<String> hosts)
+      throws UnknownHostException, InterruptedException {
+
+    Map<String, CompletableFuture<InetAddress>> pending =
+        new LinkedHashMap<String, CompletableFuture<InetAddress>>();
+    for (String host : hosts) {
+      if (!pending.containsKey(host)) {
+        pending.put(host, resolveAsync(host));
+      }
+    }
+
+    Map<String, InetAddress> result = new LinkedHashMap<String, InetAddress>();
+    for (Map.Entry<String, CompletableFuture<InetAddress>> entry : pending.entrySet()) {
+      result.put(entry.getKey(), await(entry.getKey(), entry.getValue()));
+    }
+    return result;
+  }
+
+  /**
+   * Warms up the cache in the background with up to its capacity of hosts.
+   */
+  public void prefetch(Iterable<String> hosts) {
+    int count = 0;
+    for (String host : hosts) {
+      if (count++ >= maxEntries) {
+        break;
+      }
+      resolveAsync(host);
+    }
+  }
+
+  /**
+   * Drops any cached answer for a host.
+   */
+  public void invalidate(String host) {
+    cache.remove(host);
+  }
+
+  int size() {
+    return cache.size();
+  }
+
+  private void expireAfter(Entry entry, long ttl) {
+    if (ttl >= 0) {
+      entry.expiresAt = clock.getAsLong() + ttl;
+      entry.expires = true;
+    }
+  }
+
+  /**
+   * Brings the cache back under its capacity. Expired entries go first, then the
+   * oldest ones. Lookups still in flight are never evicted.
+   */
+  private void evict(long now) {
+    for (Iterator<Entry> it = cache.values().iterator(); it.hasNext(); ) {
+      if (it.next().isExpired(now)) {
+        it.remove();
+      }
+    }
+
+    int excess = cache.size() - (maxEntries - maxEntries / 10);
+    if (excess <= 0) {
+      return;
+    }
+
+    long[] ages = new long[cache.size()];
+    int count = 0;
+    for (Iterator<Entry> it = cache.values().iterator(); it.hasNext() && count < ages.length; ) {
+      ages[count++] = it.next().createdAt - now;
+    }
+    Arrays.sort(ages, 0, count);
+    long cutoff = ages[Math.min(excess, count) - 1];
+
+    for (Iterator<Entry> it = cache.values().iterator(); it.hasNext(); ) {
+      Entry entry = it.next();
+      if (entry.address.isDone() && entry.createdAt - now <= cutoff) {
+        it.remove();
+      }
+    }
+    LOG.fine(String.format("Evicted host lookups down to %d entries", cache.size()));
+  }
+
+  private static InetAddress await(String host, CompletableFuture<InetAddress> future)
+      throws UnknownHostException, InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof UnknownHostException) {
+        throw (UnknownHostException) cause;
+      }
+      UnknownHostException wrapped = new UnknownHostException(host);
+      wrapped.initCause(cause);
+      throw wrapped;
+    }
+  }
+
+  private static long securityPropertyOrDefault(String name, long defaultValue) {
+    try {
+      String value = Security.getProperty(name);
+      return value == null ? defaultValue : Long.parseLong(value.trim());
+    } catch (NumberFormatException | SecurityException e) {
+      return defaultValue;
+    }
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.net;
+
+/**
+ * What the last probe of a host found out.
+ */
+public enum HostLiveness {
+
+  /**
+   * The host has not been probed yet.
+   */
+  UNKNOWN,
+
+  /**
+   * The probed port accepted a connection.
+   */
+  REACHABLE,
+
+  /**
+   * The host answered but refused the connection.
+   */
+  REFUSED,
+
+  /**
+   * The host did not answer in time or could not be routed to.
+   */
+  UNREACHABLE,
+
+  /**
+   * The host name did not resolve.
+   */
+  UNRESOLVABLE
+}
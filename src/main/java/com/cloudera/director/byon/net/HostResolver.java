@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.net;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Resolves host names to addresses.
+ */
+public interface HostResolver {
+
+  /**
+   * Resolves host names using the JVM name service.
+   */
+  HostResolver SYSTEM = new HostResolver() {
+    @Override
+    public InetAddress resolve(String host) throws UnknownHostException {
+      return InetAddress.getByName(host);
+    }
+  };
+
+  /**
+   * @param host a host name or an IP address literal
+   * @return the address of the host
+   * @throws UnknownHostException if the host can't be resolved
+   */
+  InetAddress resolve(String host) throws UnknownHostException;
+}
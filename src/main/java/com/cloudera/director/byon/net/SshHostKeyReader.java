@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.net;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Reads the host key of an SSH server by running the start of a key exchange.
+ * <p/>
+ * The client exchanges versions, offers diffie-hellman-group14 key exchange with
+ * a single family of host key algorithms, and stops as soon as the server has sent
+ * its host key in the key exchange reply. No keys are derived and no signature is
+ * checked: the key is only pinned here, and whoever connects later verifies that
+ * the server holds it.
+ */
+final class SshHostKeyReader {
+
+  static final String CLIENT_VERSION = "SSH-2.0-BYON_1.0";
+
+  static final byte SSH_MSG_DISCONNECT = 1;
+  static final byte SSH_MSG_IGNORE = 2;
+  static final byte SSH_MSG_DEBUG = 4;
+  static final byte SSH_MSG_EXT_INFO = 7;
+  static final byte SSH_MSG_KEXINIT = 20;
+  static final byte SSH_MSG_KEXDH_INIT = 30;
+  static final byte SSH_MSG_KEXDH_REPLY = 31;
+
+  static final String KEX_ALGORITHMS = "diffie-hellman-group14-sha256,diffie-hellman-group14-sha1";
+  static final String CIPHERS = "aes128-ctr,aes192-ctr,aes256-ctr,aes128-gcm@openssh.com," +
+      "aes256-gcm@openssh.com,chacha20-poly1305@openssh.com";
+  static final String MACS = "hmac-sha2-256,hmac-sha2-512,hmac-sha1," +
+      "hmac-sha2-256-etm@openssh.com,hmac-sha2-512-etm@openssh.com";
+
+  private static final int MAX_PACKET_LENGTH = 256 * 1024;
+  private static final int MAX_BANNER_LINES = 64;
+  private static final int MAX_LINE_LENGTH = 8192;
+
+  /**
+   * The 2048-bit MODP group from RFC 3526, used by diffie-hellman-group14.
+   */
+  private static final BigInteger GROUP14_PRIME = new BigInteger(
+      "FFFFFFFFFFFFFFFFC90FDAA22168C234C4C6628B80DC1CD1" +
+      "29024E088A67CC74020BBEA63B139B22514A08798E3404DD" +
+      "EF9519B3CD3A431B302B0A6DF25F14374FE1356D6D51C245" +
+      "E485B576625E7EC6F44C42E9A637ED6B0BFF5CB6F406B7ED" +
+      "EE386BFB5A899FA5AE9F24117C4B1FE649286651ECE45B3D" +
+      "C2007CB8A163BF0598DA48361C55D39A69163FA8FD24CF5F" +
+      "83655D23DCA3AD961C62F356208552BB9ED529077096966D" +
+      "670C354E4ABC9804F1746C08CA18217C32905E462E36CE3B" +
+      "E39E772C180E86039B2783A2EC07A28FB5C55DF06F4C52C9" +
+      "DE2BCBF6955817183995497CEA956AE515D2261898FA0510" +
+      "15728E5A8AACAA68FFFFFFFFFFFFFFFF", 16);
+
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  /**
+   * The public half of a key exchange that is never completed, so one value is
+   * shared by every scan instead of paying for a modular exponentiation each time.
+   */
+  private static final class PublicValue {
+    static final BigInteger E =
+        BigInteger.valueOf(2).modPow(new BigInteger(256, RANDOM), GROUP14_PRIME);
+  }
+
+  private SshHostKeyReader() {
+  }
+
+  /**
+   * Reads a host key from a server.
+   *
+   * @param address           the server address
+   * @param hostKeyAlgorithms comma separated host key algorithms to offer
+   * @param timeoutMillis     connect and read timeout
+   * @return the host key blob
+   * @throws ConnectException if no connection could be made
+   * @throws IOException      if the server does not support any of the algorithms or
+   *                          the exchange fails in any other way
+   */
+  static byte[] readHostKey(InetSocketAddress address, String hostKeyAlgorithms,
+      int timeoutMillis) throws IOException {
+
+    try (Socket socket = new Socket()) {
+      socket.setTcpNoDelay(true);
+      try {
+        socket.connect(address, timeoutMillis);
+      } catch (IOException e) {
+        ConnectException failure = new ConnectException("Unable to connect to " + address);
+        failure.initCause(e);
+        throw failure;
+      }
+      socket.setSoTimeout(timeoutMillis);
+
+      OutputStream out = socket.getOutputStream();
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+      out.write((CLIENT_VERSION + "\r\n").getBytes(StandardCharsets.US_ASCII));
+      out.flush();
+      readServerVersion(in);
+
+      writePacket(out, kexInit(hostKeyAlgorithms));
+      writePacket(out, kexDhInit());
+      out.flush();
+
+      while (true) {
+        ByteBuffer payload = ByteBuffer.wrap(readPacket(in));
+        byte type = payload.get();
+        switch (type) {
+          case SSH_MSG_KEXDH_REPLY:
+            return readString(payload);
+          case SSH_MSG_DISCONNECT:
+            payload.getInt();
+            throw new IOException("Server disconnected: " +
+                new String(readString(payload), StandardCharsets.UTF_8));
+          case SSH_MSG_IGNORE:
+          case SSH_MSG_DEBUG:
+          case SSH_MSG_EXT_INFO:
+          case SSH_MSG_KEXINIT:
+            break;
+          default:
+            throw new IOException("Unexpected SSH message " + type);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the SHA256 fingerprint of a host key, in OpenSSH format
+   */
+  static String fingerprint(byte[] hostKey) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(hostKey);
+      return "SHA256:" + Base64.getEncoder().withoutPadding().encodeToString(digest);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void readServerVersion(InputStream in) throws IOException {
+    for (int lines = 0; lines < MAX_BANNER_LINES; lines++) {
+      StringBuilder line = new StringBuilder();
+      int c;
+      while ((c = in.read()) != '\n') {
+        if (c < 0) {
+          throw new EOFException("Connection closed before the SSH version");
+        }
+        if (line.length() >= MAX_LINE_LENGTH) {
+          throw new IOException("SSH version line too long");
+        }
+        line.append((char) c);
+      }
+      if (line.toString().startsWith("SSH-")) {
+        if (!line.toString().startsWith("SSH-2.0-") && !line.toString().startsWith("SSH-1.99-")) {
+          throw new IOException("Unsupported SSH version: " + line.toString().trim());
+        }
+        return;
+      }
+    }
+    throw new IOException("No SSH version received");
+  }
+
+  private static byte[] kexInit(String hostKeyAlgorithms) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+    DataOutputStream payload = new DataOutputStream(bytes);
+
+    byte[] cookie = new byte[16];
+    RANDOM.nextBytes(cookie);
+
+    payload.writeByte(SSH_MSG_KEXINIT);
+    payload.write(cookie);
+    writeString(payload, KEX_ALGORITHMS);
+    writeString(payload, hostKeyAlgorithms);
+    writeString(payload, CIPHERS);
+    writeString(payload, CIPHERS);
+    writeString(payload, MACS);
+    writeString(payload, MACS);
+    writeString(payload, "none");
+    writeString(payload, "none");
+    writeString(payload, "");
+    writeString(payload, "");
+    payload.writeBoolean(false);
+    payload.writeInt(0);
+    return bytes.toByteArray();
+  }
+
+  private static byte[] kexDhInit() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(300);
+    DataOutputStream payload = new DataOutputStream(bytes);
+
+    byte[] e = PublicValue.E.toByteArray();  // two's complement, which is an SSH mpint
+    payload.writeByte(SSH_MSG_KEXDH_INIT);
+    payload.writeInt(e.length);
+    payload.write(e);
+    return bytes.toByteArray();
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Writes an unencrypted binary packet with no MAC, as used before the first key
+   * exchange completes.
+   */
+  static void writePacket(OutputStream out, byte[] payload) throws IOException {
+    int padding = 8 - (5 + payload.length) % 8;
+    if (padding < 4) {
+      padding += 8;
+    }
+    ByteBuffer packet = ByteBuffer.allocate(5 + payload.length + padding);
+    packet.putInt(1 + payload.length + padding)
+        .put((byte) padding)
+        .put(payload);
+    out.write(packet.array());
+  }
+
+  static byte[] readPacket(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 5 || length > MAX_PACKET_LENGTH) {
+      throw new IOException("Invalid SSH packet length: " + length);
+    }
+    byte[] packet = new byte[length];
+    in.readFully(packet);
+
+    int padding = packet[0] & 0xFF;
+    int payloadLength = length - 1 - padding;
+    if (payloadLength < 1) {
+      throw new IOException("Invalid SSH packet padding: " + padding);
+    }
+    byte[] payload = new byte[payloadLength];
+    System.arraycopy(packet, 1, payload, 0, payloadLength);
+    return payload;
+  }
+
+  static byte[] readString(ByteBuffer buffer) throws IOException {
+    if (buffer.remaining() < 4) {
+      throw new IOException("Truncated SSH message");
+    }
+    int length = buffer.getInt();
+    if (length < 0 || length > buffer.remaining()) {
+      throw new IOException("Truncated SSH message");
+    }
+    byte[] value = new byte[length];
+    buffer.get(value);
+    return value;
+  }
+}
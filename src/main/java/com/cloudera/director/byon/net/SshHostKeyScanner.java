@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.net;
+
+import com.cloudera.director.byon.util.DaemonThreadFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects the SSH host key fingerprints of many hosts in parallel.
+ * <p/>
+ * Each host is scanned once per family of host key algorithms, so the fingerprints
+ * of its Ed25519, ECDSA and RSA keys are all collected. Scans run on a fixed number
+ * of threads, which also bounds the number of open connections. Completed scans are
+ * cached per host until the host is invalidated; failed scans are dropped from the
+ * cache so the next lookup tries again.
+ */
+public class SshHostKeyScanner implements Closeable {
+
+  private static final Logger LOG = Logger.getLogger(SshHostKeyScanner.class.getName());
+
+  /**
+   * Host key algorithms offered in separate exchanges, one family at a time.
+   */
+  static final List<String> HOST_KEY_ALGORITHM_FAMILIES = Collections.unmodifiableList(
+      Arrays.asList(
+          "ssh-ed25519",
+          "ecdsa-sha2-nistp256,ecdsa-sha2-nistp384,ecdsa-sha2-nistp521",
+          "rsa-sha2-512,rsa-sha2-256,ssh-rsa"));
+
+  private final CachingHostResolver resolver;
+  private final int port;
+  private final int timeoutMillis;
+  private final ExecutorService executor;
+
+  private final ConcurrentMap<String, CompletableFuture<Set<String>>> cache =
+      new ConcurrentHashMap<String, CompletableFuture<Set<String>>>();
+
+  /**
+   * @param resolver      the resolver for host names
+   * @param port          the SSH port
+   * @param threads       how many hosts to scan at the same time
+   * @param timeoutMillis connect and read timeout of a single exchange
+   */
+  public SshHostKeyScanner(CachingHostResolver resolver, int port, int threads,
+      int timeoutMillis) {
+    if (resolver == null) {
+      throw new NullPointerException("resolver is null");
+    }
+    if (port <= 0 || port > 0xFFFF) {
+      throw new IllegalArgumentException("Invalid SSH port: " + port);
+    }
+    this.resolver = resolver;
+    this.port = port;
+    this.timeoutMillis = timeoutMillis;
+    this.executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("byon-ssh-scan"));
+  }
+
+  public int getPort() {
+    return port;
+  }
+
+  /**
+   * Starts scanning a host unless it is cached or already being scanned.
+   */
+  public CompletableFuture<Set<String>> scanAsync(final String host) {
+    CompletableFuture<Set<String>> existing = cache.get(host);
+    if (existing != null) {
+      return existing;
+    }
+
+    final CompletableFuture<Set<String>> created = new CompletableFuture<Set<String>>();
+    existing = cache.putIfAbsent(host, created);
+    if (existing != null) {
+      return existing;
+    }
+
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          created.complete(scan(host));
+        } catch (IOException | InterruptedException | RuntimeException e) {
+          if (e instanceof InterruptedException) {
+            Thread.currentThread().interrupt();
+          }
+          cache.remove(host, created);
+          created.completeExceptionally(e);
+        }
+      }
+    });
+    return created;
+  }
+
+  /**
+   * Starts scanning hosts in the background.
+   */
+  public void prefetch(Iterable<String> hosts) {
+    for (String host : hosts) {
+      scanAsync(host);
+    }
+  }
+
+  /**
+   * Collects the fingerprints of many hosts, waiting for all of them up to a timeout.
+   *
+   * @return fingerprints keyed by host, without the hosts that could not be scanned in time
+   */
+  public Map<String, Set<String>> getFingerprints(Collection<String> hosts, long timeout,
+      TimeUnit unit) throws InterruptedException {
+
+    Map<String, CompletableFuture<Set<String>>> pending =
+        new LinkedHashMap<String, CompletableFuture<Set<String>>>();
+    for (String host : hosts) {
+      pending.put(host, scanAsync(host));
+    }
+
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    Map<String, Set<String>> result = new LinkedHashMap<String, Set<String>>();
+    for (Map.Entry<String, CompletableFuture<Set<String>>> entry : pending.entrySet()) {
+      try {
+        result.put(entry.getKey(), entry.getValue()
+            .get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+      } catch (ExecutionException e) {
+        LOG.log(Level.WARNING, "Unable to collect host keys of " + entry.getKey(), e.getCause());
+      } catch (TimeoutException e) {
+        LOG.warning("Timed out collecting host keys of " + entry.getKey());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Forgets the fingerprints of a host, for instance because it is being reinstalled.
+   */
+  public void invalidate(String host) {
+    cache.remove(host);
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  private Set<String> scan(String host) throws IOException, InterruptedException {
+    InetAddress address = resolver.resolve(host);
+    InetSocketAddress socketAddress = new InetSocketAddress(address, port);
+
+    Set<String> fingerprints = new LinkedHashSet<String>();
+    IOException failure = null;
+    for (String algorithms : HOST_KEY_ALGORITHM_FAMILIES) {
+      try {
+        fingerprints.add(SshHostKeyReader.fingerprint(
+            SshHostKeyReader.readHostKey(socketAddress, algorithms, timeoutMillis)));
+      } catch (ConnectException e) {
+        throw e;  // no point trying other key types
+      } catch (IOException e) {
+        // most servers only have some of the key types
+        LOG.log(Level.FINE, String.format("No %s host key from %s", algorithms, host), e);
+        failure = e;
+      }
+    }
+
+    if (fingerprints.isEmpty()) {
+      throw failure != null ? failure : new IOException("No host keys from " + host);
+    }
+    return Collections.unmodifiableSet(fingerprints);
+  }
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.net;
+
+import com.cloudera.director.byon.util.DaemonThreadFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches a set of hosts by repeatedly opening a TCP connection to a port on each.
+ * <p/>
+ * A single thread drives every probe through a selector with non-blocking
+ * connects, so thousands of hosts are watched without a thread per host. Each
+ * host is probed again on an interval jittered by up to a quarter either way, which
+ * keeps probes of hosts allocated together from staying in lockstep. Host names
+ * go through a {@link CachingHostResolver} and are never resolved on the selector
+ * thread.
+ * <p/>
+ * The outcome of the latest probe of every host is cached, and reading it is a
+ * single map lookup. Until its first probe completes a host is
+ * {@link HostLiveness#UNKNOWN}.
+ */
+public class TcpProbeScheduler implements Closeable {
+
+  private static final Logger LOG = Logger.getLogger(TcpProbeScheduler.class.getName());
+
+  /**
+   * Upper bound on connections in progress, to stay well within descriptor limits.
+   */
+  static final int MAX_IN_FLIGHT = 2048;
+
+  private static final class Target {
+    final String host;
+    boolean watched = true;
+    long nextProbeAt;
+
+    // set while a connection attempt is in progress
+    SocketChannel channel;
+
+    // the number of connection attempts started so far
+    long probes;
+
+    Target(String host) {
+      this.host = host;
+    }
+  }
+
+  /**
+   * A connection attempt in progress, until its deadline. Stale once the target is
+   * done with it, whether the attempt finished or another one started since.
+   */
+  private static final class Probe {
+    final Target target;
+    final long number;
+    final long deadline;
+
+    Probe(Target target, long number, long deadline) {
+      this.target = target;
+      this.number = number;
+      this.deadline = deadline;
+    }
+
+    boolean isStale() {
+      return target.channel == null || target.probes != number;
+    }
+  }
+
+  private static final Comparator<Target> BY_NEXT_PROBE = new Comparator<Target>() {
+    @Override
+    public int compare(Target first, Target second) {
+      return Long.compare(first.nextProbeAt, second.nextProbeAt);
+    }
+  };
+
+  private final CachingHostResolver resolver;
+  private final int port;
+  private final long intervalNanos;
+  private final long timeoutNanos;
+
+  private final ConcurrentMap<String, HostLiveness> liveness =
+      new ConcurrentHashMap<String, HostLiveness>();
+  private final Queue<Runnable> commands = new ConcurrentLinkedQueue<Runnable>();
+  private final Selector selector;
+  private final Thread thread;
+  private volatile boolean running = true;
+
+  // only touched by the selector thread
+  private final Map<String, Target> targets = new HashMap<String, Target>();
+  private final PriorityQueue<Target> schedule = new PriorityQueue<Target>(64, BY_NEXT_PROBE);
+  private final ArrayDeque<Probe> inFlight = new ArrayDeque<Probe>();
+  private final Random random = new Random();
+  private int inFlightCount;
+
+  /**
+   * @param resolver      the resolver for host names
+   * @param port          the port to connect to
+   * @param intervalNanos the average time between two probes of a host
+   * @param timeoutNanos  how long to wait for a connection
+   */
+  public TcpProbeScheduler(CachingHostResolver resolver, int port, long intervalNanos,
+      long timeoutNanos) throws IOException {
+    if (resolver == null) {
+      throw new NullPointerException("resolver is null");
+    }
+    if (port <= 0 || port > 0xFFFF) {
+      throw new IllegalArgumentException("Invalid probe port: " + port);
+    }
+    if (intervalNanos <= 0 || timeoutNanos <= 0) {
+      throw new IllegalArgumentException("Probe interval and timeout must be positive");
+    }
+    this.resolver = resolver;
+    this.port = port;
+    this.intervalNanos = intervalNanos;
+    this.timeoutNanos = timeoutNanos;
+
+    this.selector = Selector.open();
+    this.thread = new DaemonThreadFactory("byon-probe").newThread(new Runnable() {
+      @Override
+      public void run() {
+        loop();
+      }
+    });
+    thread.start();
+  }
+
+  public int getPort() {
+    return port;
+  }
+
+  /**
+   * Start probing a host, right away and then on the interval.
+   */
+  public void watch(final String host) {
+    submit(new Runnable() {
+      @Override
+      public void run() {
+        if (targets.containsKey(host)) {
+          return;
+        }
+        Target target = new Target(host);
+        target.nextProbeAt = System.nanoTime();
+        targets.put(host, target);
+        schedule.add(target);
+        liveness.put(host, HostLiveness.UNKNOWN);
+      }
+    });
+  }
+
+  /**
+   * Stop probing a host and forget what is known about it.
+   */
+  public void unwatch(final String host) {
+    submit(new Runnable() {
+      @Override
+      public void run() {
+        Target target = targets.remove(host);
+        if (target != null) {
+          target.watched = false;
+          finish(target);
+        }
+        liveness.remove(host);
+      }
+    });
+  }
+
+  /**
+   * @return the outcome of the latest probe or null if the host is not watched
+   */
+  public HostLiveness getLiveness(String host) {
+    return liveness.get(host);
+  }
+
+  /**
+   * @return the number of watched hosts
+   */
+  public int size() {
+    return liveness.size();
+  }
+
+  @Override
+  public void close() {
+    running = false;
+    selector.wakeup();
+  }
+
+  private void submit(Runnable command) {
+    commands.add(command);
+    selector.wakeup();
+  }
+
+  private void loop() {
+    try {
+      while (running) {
+        Runnable command;
+        while ((command = commands.poll()) != null) {
+          command.run();
+        }
+
+        long now = System.nanoTime();
+        expire(now);
+        startDueProbes(now);
+
+        long wait = Long.MAX_VALUE;
+        if (!inFlight.isEmpty()) {
+          wait = inFlight.peekFirst().deadline - now;
+        }
+        if (!schedule.isEmpty() && inFlightCount < MAX_IN_FLIGHT) {
+          wait = Math.min(wait, schedule.peek().nextProbeAt - now);
+        }
+
+        if (wait == Long.MAX_VALUE) {
+          selector.select();
+        } else {
+          selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait) + 1));
+        }
+
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          connected((Target) key.attachment(), (SocketChannel) key.channel());
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      LOG.log(Level.SEVERE, "Host probing stopped", e);
+    } finally {
+      for (Target target : targets.values()) {
+        finish(target);
+      }
+      try {
+        selector.close();
+      } catch (IOException e) {
+        LOG.log(Level.FINE, "Unable to close probe selector", e);
+      }
+    }
+  }
+
+  private void startDueProbes(long now) {
+    while (inFlightCount < MAX_IN_FLIGHT && !schedule.isEmpty()
+        && schedule.peek().nextProbeAt - now <= 0) {
+      final Target target = schedule.poll();
+      if (!target.watched) {
+        continue;
+      }
+
+      CompletableFuture<InetAddress> address = resolver.resolveAsync(target.host);
+      if (address.isDone()) {
+        try {
+          probe(target, address.join(), null);
+        } catch (CompletionException e) {
+          probe(target, null, e.getCause());
+        }
+      } else {
+        address.whenComplete(new BiConsumer<InetAddress, Throwable>() {
+          @Override
+          public void accept(final InetAddress resolved, final Throwable failure) {
+            submit(new Runnable() {
+              @Override
+              public void run() {
+                if (target.watched) {
+                  probe(target, resolved, failure);
+                }
+              }
+            });
+          }
+        });
+      }
+    }
+  }
+
+  private void probe(Target target, InetAddress resolved, Throwable failure) {
+    if (failure != null) {
+      if (!(failure instanceof UnknownHostException)) {
+        LOG.log(Level.FINE, "Unable to resolve " + target.host, failure);
+      }
+      complete(target, HostLiveness.UNRESOLVABLE);
+      return;
+    }
+
+    SocketChannel channel = null;
+    try {
+      channel = SocketChannel.open();
+      channel.configureBlocking(false);
+      if (channel.connect(new InetSocketAddress(resolved, port))) {
+        channel.close();
+        complete(target, HostLiveness.REACHABLE);
+        return;
+      }
+      channel.register(selector, SelectionKey.OP_CONNECT, target);
+
+    } catch (IOException e) {
+      close(channel);
+      complete(target, classify(e));
+      return;
+    }
+
+    target.channel = channel;
+    target.probes++;
+    inFlight.addLast(new Probe(target, target.probes, System.nanoTime() + timeoutNanos));
+    inFlightCount++;
+  }
+
+  private void connected(Target target, SocketChannel channel) {
+    if (target.channel != channel) {
+      return;  // stale key for a probe that already finished
+    }
+    HostLiveness result;
+    try {
+      channel.finishConnect();
+      result = HostLiveness.REACHABLE;
+    } catch (IOException e) {
+      result = classify(e);
+    }
+    finish(target);
+    complete(target, result);
+  }
+
+  /**
+   * Time out the probes past their deadline. Every probe has the same timeout, so
+   * deadlines are in the order the probes were started. Stale probes are dropped on
+   * the way, so the first probe left, if any, is the next one to time out.
+   */
+  private void expire(long now) {
+    while (!inFlight.isEmpty()) {
+      Probe probe = inFlight.peekFirst();
+      if (probe.isStale()) {
+        inFlight.removeFirst();
+        continue;
+      }
+      if (probe.deadline - now > 0) {
+        return;
+      }
+      inFlight.removeFirst();
+      finish(probe.target);
+      complete(probe.target, HostLiveness.UNREACHABLE);
+    }
+  }
+
+  /**
+   * Abandon the connection attempt in progress, if any.
+   */
+  private void finish(Target target) {
+    if (target.channel != null) {
+      close(target.channel);
+      target.channel = null;
+      inFlightCount--;
+    }
+  }
+
+  private void complete(Target target, HostLiveness result) {
+    if (!target.watched) {
+      return;
+    }
+    liveness.put(target.host, result);
+
+    // between three quarters and five quarters of the interval
+    long jitter = (long) (intervalNanos * (random.nextDouble() - 0.5) / 2);
+    target.nextProbeAt = System.nanoTime() + intervalNanos + jitter;
+    schedule.add(target);
+  }
+
+  private static HostLiveness classify(IOException e) {
+    return (e instanceof ConnectException) ? HostLiveness.REFUSED : HostLiveness.UNREACHABLE;
+  }
+
+  private static void close(SocketChannel channel) {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        LOG.log(Level.FINE, "Unable to close probe connection", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.util;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bit set where individual bits can be set and cleared atomically by concurrent
+ * threads without locking.
+ * <p/>
+ * Used to track free slots: {@link #clear(int)} claims a known slot in constant time
+ * and {@link #claimNext()} claims the lowest free one, starting from a hint that
+ * moves forward as the low words are drained so that repeated calls don't rescan
+ * the same empty words.
+ * <p/>
+ * Both claims and counts can be restricted by a mask, the words of a
+ * {@link java.util.BitSet}, which is intersected with the set one word at a time.
+ * <p/>
+ * The set can grow. Words live in fixed size segments and growing only copies the
+ * array of segment references, so bits are never copied and concurrent updates to
+ * existing bits can't be lost.
+ */
+public final class ConcurrentBitSet {
+
+  private static final int ADDRESS_BITS_PER_WORD = 6;
+  private static final int BITS_PER_WORD = 1 << ADDRESS_BITS_PER_WORD;
+
+  private static final int ADDRESS_WORDS_PER_SEGMENT = 8;
+  private static final int WORDS_PER_SEGMENT = 1 << ADDRESS_WORDS_PER_SEGMENT;
+
+  /**
+   * Written after the segments when growing, so a reader that sees a size also sees
+   * the segments backing it.
+   */
+  private volatile int size;
+  private volatile AtomicLongArray[] segments;
+
+  /**
+   * Index of the lowest word that may still have bits set. Only a hint: bits can be
+   * set below it by a concurrent {@link #set(int)}, which is why a failed scan from
+   * the hint is always followed by a full scan.
+   */
+  private final AtomicInteger firstWordHint = new AtomicInteger();
+
+  /**
+   * @param size       the number of bits
+   * @param initialSet whether all bits start set
+   */
+  public ConcurrentBitSet(int size, boolean initialSet) {
+    if (size < 0) {
+      throw new IllegalArgumentException("size is negative: " + size);
+    }
+    this.segments = newSegments(new AtomicLongArray[0], wordCount(size));
+    this.size = size;
+
+    if (initialSet) {
+      for (int i = 0; i < wordCount(size); i++) {
+        int remaining = size - i * BITS_PER_WORD;
+        segment(segments, i).set(offset(i), remaining >= BITS_PER_WORD ? -1L : (1L << remaining) - 1);
+      }
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Grow the set. New bits start clear.
+   *
+   * @param newSize the new number of bits, ignored if not larger than the current one
+   */
+  public synchronized void grow(int newSize) {
+    if (newSize <= size) {
+      return;
+    }
+    segments = newSegments(segments, wordCount(newSize));
+    size = newSize;
+  }
+
+  public boolean get(int index) {
+    checkIndex(index);
+    int wordIndex = wordIndex(index);
+    return (segment(segments, wordIndex).get(offset(wordIndex)) & bit(index)) != 0;
+  }
+
+  /**
+   * Sets a bit.
+   *
+   * @return true if the bit was clear before
+   */
+  public boolean set(int index) {
+    checkIndex(index);
+    int wordIndex = wordIndex(index);
+    AtomicLongArray segment = segment(segments, wordIndex);
+    int offset = offset(wordIndex);
+    long mask = bit(index);
+    while (true) {
+      long current = segment.get(offset);
+      if ((current & mask) != 0) {
+        return false;
+      }
+      if (segment.compareAndSet(offset, current, current | mask)) {
+        lowerHint(wordIndex);
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Clears a bit.
+   *
+   * @return true if the bit was set before, that is if this call claimed it
+   */
+  public boolean clear(int index) {
+    checkIndex(index);
+    int wordIndex = wordIndex(index);
+    AtomicLongArray segment = segment(segments, wordIndex);
+    int offset = offset(wordIndex);
+    long mask = bit(index);
+    while (true) {
+      long current = segment.get(offset);
+      if ((current & mask) == 0) {
+        return false;
+      }
+      if (segment.compareAndSet(offset, current, current & ~mask)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Atomically finds and clears the lowest set bit.
+   *
+   * @return the index of the bit cleared by this call or -1 if none is set
+   */
+  public int claimNext() {
+    int claimed = claimFrom(firstWordHint.get(), true, null);
+    return claimed >= 0 ? claimed : claimFrom(0, false, null);
+  }
+
+  /**
+   * Atomically finds and clears the lowest set bit that is also set in a mask.
+   *
+   * @param mask the words of a bit set, as returned by {@link java.util.BitSet#toLongArray()}
+   * @return the index of the bit cleared by this call or -1 if none is set
+   */
+  public int claimNext(long[] mask) {
+    if (mask == null) {
+      throw new NullPointerException("mask is null");
+    }
+    int claimed = claimFrom(firstWordHint.get(), false, mask);
+    return claimed >= 0 ? claimed : claimFrom(0, false, mask);
+  }
+
+  /**
+   * Atomically finds and clears the lowest set bit between two indexes, optionally
+   * restricted by a mask.
+   *
+   * @param fromIndex the first index to look at
+   * @param toIndex   the index after the last one to look at
+   * @param mask      the words of a bit set or null to consider all bits
+   * @return the index of the bit cleared by this call or -1 if none is set
+   */
+  public int claimNext(int fromIndex, int toIndex, long[] mask) {
+    int currentSize = size;
+    if (fromIndex < 0 || toIndex > currentSize || fromIndex > toIndex) {
+      throw new IndexOutOfBoundsException(
+          "fromIndex: " + fromIndex + ", toIndex: " + toIndex + ", size: " + currentSize);
+    }
+    if (fromIndex == toIndex) {
+      return -1;
+    }
+
+    AtomicLongArray[] currentSegments = segments;
+    int firstWord = wordIndex(fromIndex);
+    int lastWord = wordIndex(toIndex - 1);
+    for (int wordIndex = firstWord; wordIndex <= lastWord; wordIndex++) {
+      long allowed = mask == null ? -1L : (wordIndex < mask.length ? mask[wordIndex] : 0L);
+      if (wordIndex == firstWord) {
+        allowed &= -1L << fromIndex;
+      }
+      if (wordIndex == lastWord) {
+        allowed &= -1L >>> -toIndex;
+      }
+      int claimed = claimInWord(currentSegments, wordIndex, allowed);
+      if (claimed >= 0) {
+        return claimed;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the index of the first set bit at or after {@code fromIndex} or -1
+   */
+  public int nextSetBit(int fromIndex) {
+    if (fromIndex < 0) {
+      throw new IndexOutOfBoundsException("fromIndex < 0: " + fromIndex);
+    }
+    int currentSize = size;
+    if (fromIndex >= currentSize) {
+      return -1;
+    }
+    AtomicLongArray[] currentSegments = segments;
+    int wordCount = wordCount(currentSize);
+    int wordIndex = wordIndex(fromIndex);
+    long word = segment(currentSegments, wordIndex).get(offset(wordIndex)) & (-1L << fromIndex);
+    while (true) {
+      if (word != 0) {
+        return wordIndex * BITS_PER_WORD + Long.numberOfTrailingZeros(word);
+      }
+      if (++wordIndex == wordCount) {
+        return -1;
+      }
+      word = segment(currentSegments, wordIndex).get(offset(wordIndex));
+    }
+  }
+
+  /**
+   * @return the number of bits set, a snapshot that may be stale under concurrent updates
+   */
+  public int cardinality() {
+    int wordCount = wordCount(size);
+    AtomicLongArray[] currentSegments = segments;
+    int count = 0;
+    for (int i = 0; i < wordCount; i++) {
+      count += Long.bitCount(segment(currentSegments, i).get(offset(i)));
+    }
+    return count;
+  }
+
+  /**
+   * @return the number of bits set in both this set and a mask, a snapshot that may
+   * be stale under concurrent updates
+   */
+  public int cardinality(long[] mask) {
+    if (mask == null) {
+      throw new NullPointerException("mask is null");
+    }
+    int wordCount = Math.min(wordCount(size), mask.length);
+    AtomicLongArray[] currentSegments = segments;
+    int count = 0;
+    for (int i = 0; i < wordCount; i++) {
+      count += Long.bitCount(segment(currentSegments, i).get(offset(i)) & mask[i]);
+    }
+    return count;
+  }
+
+  private int claimFrom(int fromWord, boolean advanceHint, long[] mask) {
+    int wordCount = wordCount(size);
+    AtomicLongArray[] currentSegments = segments;
+    int limit = mask == null ? wordCount : Math.min(wordCount, mask.length);
+    for (int wordIndex = fromWord; wordIndex < limit; wordIndex++) {
+      int claimed = claimInWord(currentSegments, wordIndex,
+          mask == null ? -1L : mask[wordIndex]);
+      if (claimed >= 0) {
+        return claimed;
+      }
+      if (advanceHint) {
+        firstWordHint.compareAndSet(wordIndex, wordIndex + 1);
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Clears the lowest bit of a word that is both set and allowed.
+   *
+   * @return the index of the bit cleared by this call or -1 if none is set
+   */
+  private static int claimInWord(AtomicLongArray[] segments, int wordIndex, long allowed) {
+    AtomicLongArray segment = segment(segments, wordIndex);
+    int offset = offset(wordIndex);
+    long current = segment.get(offset);
+    while ((current & allowed) != 0) {
+      long lowest = Long.lowestOneBit(current & allowed);
+      if (segment.compareAndSet(offset, current, current & ~lowest)) {
+        return wordIndex * BITS_PER_WORD + Long.numberOfTrailingZeros(lowest);
+      }
+      current = segment.get(offset);
+    }
+    return -1;
+  }
+
+  private void lowerHint(int wordIndex) {
+    while (true) {
+      int current = firstWordHint.get();
+      if (current <= wordIndex || firstWordHint.compareAndSet(current, wordIndex)) {
+        return;
+      }
+    }
+  }
+
+  private void checkIndex(int index) {
+    int currentSize = size;
+    if (index < 0 || index >= currentSize) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", size: " + currentSize);
+    }
+  }
+
+  private static AtomicLongArray[] newSegments(AtomicLongArray[] current, int wordCount) {
+    int count = (wordCount + WORDS_PER_SEGMENT - 1) >> ADDRESS_WORDS_PER_SEGMENT;
+    if (count <= current.length) {
+      return current;
+    }
+    AtomicLongArray[] result = Arrays.copyOf(current, count);
+    for (int i = current.length; i < count; i++) {
+      result[i] = new AtomicLongArray(WORDS_PER_SEGMENT);
+    }
+    return result;
+  }
+
+  private static AtomicLongArray segment(AtomicLongArray[] segments, int wordIndex) {
+    return segments[wordIndex >> ADDRESS_WORDS_PER_SEGMENT];
+  }
+
+  private static int offset(int wordIndex) {
+    return wordIndex & (WORDS_PER_SEGMENT - 1);
+  }
+
+  private static int wordCount(int size) {
+    return (int) (((long) size + BITS_PER_WORD - 1) >> ADDRESS_BITS_PER_WORD);
+  }
+
+  private static int wordIndex(int index) {
+    return index >> ADDRESS_BITS_PER_WORD;
+  }
+
+  private static long bit(int index) {
+    return 1L << index;
+  }
+}
@@ -0,0 +1,495 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.util;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * A single group of hosts: one literal host name, a table of distinct literal host
+ * names, or the names made by combining literal text with one or more numeric
+ * ranges, such as {@code dc[1-3]-rack{01..20}-n[1-40]}.
+ * <p/>
+ * Ranges are kept symbolic: the size is known without expanding the group, host names
+ * are only built when accessed and membership is tested by parsing the candidate
+ * instead of comparing it against every host. A group of a hundred thousand hosts
+ * takes the same few bytes as a group of two. With several ranges the hosts are
+ * their cartesian product, with the last range varying fastest.
+ * <p/>
+ * Host names are formatted by copying the literal text around the digits of the
+ * numbers written straight into a character buffer. Iterating reuses one buffer
+ * and only rewrites the numbers that change, so the host strings themselves are the
+ * only allocations.
+ * <p/>
+ * Literal text between two ranges must contain something other than digits, so
+ * every host name can be parsed back into exactly one combination of numbers.
+ * <p/>
+ * Consecutive literal hosts with the same attributes are packed into a
+ * {@link HostTable} by {@link HostGroupList#compact}, so long lists of hosts, such as
+ * the ones read from a hosts file, are not kept as a group per host.
+ * <p/>
+ * A group can carry attributes, such as a rack or a number of cores, shared by all
+ * of its hosts.
+ */
+public final class HostGroup extends AbstractList<String> implements RandomAccess {
+
+  /**
+   * The text before, between and after the ranges: one more than there are ranges.
+   */
+  private final String[] literals;
+  private final HostNumbers[] numbers;
+
+  /**
+   * The hosts of a table of literal hosts, in which case there are no literals.
+   */
+  private final HostTable table;
+  private final int size;
+  private final Map<String, String> attributes;
+
+  private HostGroup(String[] literals, HostNumbers[] numbers, Map<String, String> attributes) {
+    this.literals = literals;
+    this.numbers = numbers;
+    this.table = null;
+    this.attributes = attributes;
+
+    long total = 1;
+    for (HostNumbers range : numbers) {
+      total *= range.size();
+      if (total > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Too many hosts in group");
+      }
+    }
+    this.size = (int) total;
+  }
+
+  private HostGroup(HostTable table, Map<String, String> attributes) {
+    this.literals = null;
+    this.numbers = new HostNumbers[0];
+    this.table = table;
+    this.size = table.size();
+    this.attributes = attributes;
+  }
+
+  /**
+   * A group made of a single host.
+   */
+  public static HostGroup of(String host) {
+    if (host == null) {
+      throw new NullPointerException("host is null");
+    }
+    return new HostGroup(new String[]{host}, new HostNumbers[0],
+        Collections.<String, String>emptyMap());
+  }
+
+  /**
+   * A group of the literal hosts of a table, in table order.
+   */
+  static HostGroup of(HostTable table) {
+    return new HostGroup(table, Collections.<String, String>emptyMap());
+  }
+
+  /**
+   * A group of hosts named {@code prefix + number + suffix} for all numbers between
+   * {@code begin} and {@code end}, inclusive, with numbers zero-padded to at least
+   * {@code padding} digits.
+   */
+  public static HostGroup range(String prefix, int begin, int end, int padding, String suffix) {
+    if (prefix == null) {
+      throw new NullPointerException("prefix is null");
+    }
+    if (suffix == null) {
+      throw new NullPointerException("suffix is null");
+    }
+    if (begin < 0 || begin > end) {
+      throw new IllegalArgumentException(String.format("Invalid range %d-%d", begin, end));
+    }
+    if (end - begin == Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Range too large: " + begin + "-" + end);
+    }
+    return new HostGroup(new String[]{prefix, suffix},
+        new HostNumbers[]{HostNumbers.range(begin, end, padding)},
+        Collections.<String, String>emptyMap());
+  }
+
+  /**
+   * A group of hosts named by the cartesian product of a set of ranges, each of
+   * them written between two literals.
+   *
+   * @param literals the text before, between and after the ranges
+   * @throws IllegalArgumentException if the text between two ranges is only digits
+   *                                  or the group has too many hosts
+   */
+  static HostGroup product(List<String> literals, List<HostNumbers> numbers) {
+    if (literals.size() != numbers.size() + 1) {
+      throw new IllegalArgumentException("Expected one more literal than ranges");
+    }
+    for (int i = 1; i < numbers.size(); i++) {
+      if (leadingDigits(literals.get(i)) == literals.get(i).length()) {
+        throw new IllegalArgumentException("Ranges must be separated by text other than digits");
+      }
+    }
+    return new HostGroup(literals.toArray(new String[literals.size()]),
+        numbers.toArray(new HostNumbers[numbers.size()]),
+        Collections.<String, String>emptyMap());
+  }
+
+  /**
+   * @return the same hosts with a new set of attributes, replacing the current ones
+   */
+  public HostGroup withAttributes(Map<String, String> attributes) {
+    if (attributes == null) {
+      throw new NullPointerException("attributes is null");
+    }
+    Map<String, String> copy =
+        Collections.unmodifiableMap(new LinkedHashMap<String, String>(attributes));
+    return table != null ? new HostGroup(table, copy) : new HostGroup(literals, numbers, copy);
+  }
+
+  /**
+   * @return the attributes shared by all hosts of the group, in declaration order
+   */
+  public Map<String, String> getAttributes() {
+    return attributes;
+  }
+
+  /**
+   * The part of the host names before the number that tells hosts apart: the text
+   * before the first range, or the {@linkplain #namePrefixOf name prefix} of a literal
+   * host. Hosts named alike, such as {@code rack1-node-[1-9]} and
+   * {@code rack1-node-12}, share it. The hosts of a table can each have their own,
+   * and this is the one of the first host.
+   */
+  public String getNamePrefix() {
+    return isRange() ? literals[0] : namePrefixOf(get(0));
+  }
+
+  /**
+   * @return everything before the last run of digits of a host name, or the whole
+   * name if it has no digits
+   */
+  public static String namePrefixOf(String host) {
+    int end = host.length();
+    while (end > 0 && !Character.isDigit(host.charAt(end - 1))) {
+      end--;
+    }
+    if (end == 0) {
+      return host;
+    }
+    while (end > 0 && Character.isDigit(host.charAt(end - 1))) {
+      end--;
+    }
+    return host.substring(0, end);
+  }
+
+  public boolean isRange() {
+    return numbers.length > 0;
+  }
+
+  /**
+   * @return true if the group is a single literal host
+   */
+  private boolean isSingleHost() {
+    return table == null && !isRange();
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public String get(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+    }
+    if (table != null) {
+      return table.get(index);
+    }
+    if (!isRange()) {
+      return literals[0];
+    }
+
+    int[] values = new int[numbers.length];
+    int length = literals[numbers.length].length();
+    for (int i = numbers.length - 1; i >= 0; i--) {
+      values[i] = numbers[i].get(index % numbers[i].size());
+      index /= numbers[i].size();
+      length += literals[i].length() + numbers[i].width(values[i]);
+    }
+
+    char[] buffer = new char[length];
+    int position = 0;
+    for (int i = 0; i < numbers.length; i++) {
+      position = writeLiteral(buffer, position, literals[i]);
+      position = writeNumber(buffer, position, numbers[i].width(values[i]), values[i]);
+    }
+    writeLiteral(buffer, position, literals[numbers.length]);
+    return new String(buffer);
+  }
+
+  @Override
+  public Iterator<String> iterator() {
+    return isRange() ? new ProductIterator() : super.iterator();
+  }
+
+  /**
+   * Parses the numbers out of a candidate host, left to right. The digits of each
+   * range run up to the first character that is not a digit, minus the leading
+   * digits of the literal that follows, and the digits of the last range run up to
+   * the text after it.
+   */
+  @Override
+  public int indexOf(Object candidate) {
+    if (!(candidate instanceof String)) {
+      return -1;
+    }
+    String host = (String) candidate;
+    if (table != null) {
+      return table.indexOf(host);
+    }
+    if (!isRange()) {
+      return literals[0].equals(host) ? 0 : -1;
+    }
+    if (!host.startsWith(literals[0])) {
+      return -1;
+    }
+
+    int position = literals[0].length();
+    long index = 0;
+    for (int i = 0; i < numbers.length; i++) {
+      String next = literals[i + 1];
+      int digitsEnd;
+      if (i == numbers.length - 1) {
+        digitsEnd = host.length() - next.length();
+        if (digitsEnd <= position || !host.endsWith(next)) {
+          return -1;
+        }
+      } else {
+        digitsEnd = position;
+        while (digitsEnd < host.length() && isDigit(host.charAt(digitsEnd))) {
+          digitsEnd++;
+        }
+        digitsEnd -= leadingDigits(next);
+        if (digitsEnd <= position || !host.startsWith(next, digitsEnd)) {
+          return -1;
+        }
+      }
+
+      int offset = numbers[i].indexOf(host, position, digitsEnd);
+      if (offset < 0) {
+        return -1;
+      }
+      index = index * numbers[i].size() + offset;
+      position = digitsEnd + next.length();
+    }
+    return (int) index;
+  }
+
+  @Override
+  public int lastIndexOf(Object candidate) {
+    return indexOf(candidate);  // hosts are unique within a group
+  }
+
+  @Override
+  public boolean contains(Object candidate) {
+    return indexOf(candidate) >= 0;
+  }
+
+  /**
+   * @return true if both groups are written the same way and so have the same hosts
+   * in the same order
+   */
+  boolean isSameGroup(HostGroup other) {
+    if (table != null || other.table != null) {
+      return table != null && table.equals(other.table);
+    }
+    return Arrays.equals(literals, other.literals) && Arrays.equals(numbers, other.numbers);
+  }
+
+  /**
+   * A cheap test for whether two groups can have hosts in common. A false answer is
+   * definitive, a true one needs to be confirmed host by host.
+   */
+  boolean mayOverlap(HostGroup other) {
+    if (isSingleHost()) {
+      return other.contains(literals[0]);
+    }
+    if (other.isSingleHost()) {
+      return contains(other.literals[0]);
+    }
+    if (table != null || other.table != null) {
+      return true;  // tables have no common prefix or suffix to compare
+    }
+    String prefix = literals[0];
+    String suffix = literals[numbers.length];
+    String otherPrefix = other.literals[0];
+    String otherSuffix = other.literals[other.numbers.length];
+    return (prefix.startsWith(otherPrefix) || otherPrefix.startsWith(prefix))
+        && (suffix.endsWith(otherSuffix) || otherSuffix.endsWith(suffix));
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static int leadingDigits(String text) {
+    int count = 0;
+    while (count < text.length() && isDigit(text.charAt(count))) {
+      count++;
+    }
+    return count;
+  }
+
+  private static int writeLiteral(char[] buffer, int position, String literal) {
+    literal.getChars(0, literal.length(), buffer, position);
+    return position + literal.length();
+  }
+
+  /**
+   * Writes a number right-aligned and zero-padded in {@code width} characters.
+   *
+   * @return the position after the number
+   */
+  private static int writeNumber(char[] buffer, int offset, int width, int number) {
+    for (int i = offset + width - 1; i >= offset; i--) {
+      buffer[i] = (char) ('0' + number % 10);
+      number /= 10;
+    }
+    return offset + width;
+  }
+
+  /**
+   * Writes the group back as a host group expression, or as one expression per host
+   * for a table.
+   */
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder();
+    if (table != null) {
+      for (int i = 0; i < table.size(); i++) {
+        if (i > 0) {
+          result.append(", ");
+        }
+        appendAttributes(result.append(table.get(i)));
+      }
+      return result.toString();
+    }
+
+    result.append(literals[0]);
+    for (int i = 0; i < numbers.length; i++) {
+      result.append(numbers[i]).append(literals[i + 1]);
+    }
+    return appendAttributes(result).toString();
+  }
+
+  private StringBuilder appendAttributes(StringBuilder result) {
+    if (attributes.isEmpty()) {
+      return result;
+    }
+    result.append('{');
+    boolean first = true;
+    for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+      if (!first) {
+        result.append(',');
+      }
+      first = false;
+      result.append(attribute.getKey()).append('=').append(attribute.getValue());
+    }
+    return result.append('}');
+  }
+
+  /**
+   * Walks the product of the ranges like an odometer, with a single buffer holding
+   * the text before the first range once. Only the numbers that change are
+   * rewritten, and the text after a number is only moved when its width changes.
+   */
+  private final class ProductIterator implements Iterator<String> {
+
+    private final char[] buffer;
+    private final int[] positions = new int[numbers.length];
+    private final int[] widths = new int[numbers.length];
+
+    /**
+     * Where each number starts in the buffer.
+     */
+    private final int[] starts = new int[numbers.length];
+    private int length;
+    private int remaining = size;
+    private boolean started;
+
+    ProductIterator() {
+      int capacity = 0;
+      for (int i = 0; i < numbers.length; i++) {
+        capacity += literals[i].length() + numbers[i].maxWidth();
+      }
+      buffer = new char[capacity + literals[numbers.length].length()];
+      starts[0] = writeLiteral(buffer, 0, literals[0]);
+    }
+
+    @Override
+    public boolean hasNext() {
+      return remaining > 0;
+    }
+
+    @Override
+    public String next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      remaining--;
+
+      int changed = 0;
+      if (started) {
+        changed = numbers.length - 1;
+        while (++positions[changed] == numbers[changed].size()) {
+          positions[changed--] = 0;
+        }
+      }
+      boolean moved = !started;
+      started = true;
+
+      for (int i = changed; i < numbers.length; i++) {
+        int number = numbers[i].get(positions[i]);
+        int width = numbers[i].width(number);
+        moved |= width != widths[i];
+        widths[i] = width;
+        int end = writeNumber(buffer, starts[i], width, number);
+        if (moved) {
+          end = writeLiteral(buffer, end, literals[i + 1]);
+          if (i + 1 < numbers.length) {
+            starts[i + 1] = end;
+          } else {
+            length = end;
+          }
+        }
+      }
+      return new String(buffer, 0, length);
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
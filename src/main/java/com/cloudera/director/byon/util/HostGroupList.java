@@ -0,0 +1,382 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.util;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * An ordered list of host groups seen as a single list of hosts.
+ * <p/>
+ * Host names are only built when accessed. Positional access does a binary search
+ * over the group boundaries and membership tests ask each group in turn, so both
+ * depend on the number of groups and not on the number of hosts.
+ */
+public final class HostGroupList extends AbstractList<String> implements RandomAccess {
+
+  private static final HostGroupList EMPTY = new HostGroupList(Collections.<HostGroup>emptyList());
+
+  private final HostGroup[] groups;
+
+  /**
+   * Index of the first host of each group in the overall list.
+   */
+  private final int[] offsets;
+  private final int size;
+
+  public HostGroupList(List<HostGroup> groups) {
+    this.groups = groups.toArray(new HostGroup[groups.size()]);
+    this.offsets = new int[this.groups.length];
+
+    long total = 0;
+    for (int i = 0; i < this.groups.length; i++) {
+      offsets[i] = (int) total;
+      total += this.groups[i].size();
+      if (total > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Too many hosts in host group expressions");
+      }
+    }
+    this.size = (int) total;
+  }
+
+  public static HostGroupList empty() {
+    return EMPTY;
+  }
+
+  public List<HostGroup> getGroups() {
+    return Collections.unmodifiableList(Arrays.asList(groups));
+  }
+
+  /**
+   * @return a list made of the groups of this list followed by more groups, leaving
+   * the positions of the current hosts unchanged. Literal hosts among the new groups
+   * are {@linkplain #compact compacted}.
+   */
+  public HostGroupList append(List<HostGroup> more) {
+    List<HostGroup> compacted = compact(more);
+    List<HostGroup> result = new ArrayList<HostGroup>(groups.length + compacted.size());
+    result.addAll(Arrays.asList(groups));
+    result.addAll(compacted);
+    return new HostGroupList(result);
+  }
+
+  /**
+   * Packs every run of consecutive single host groups with the same attributes into
+   * a {@link HostTable}, keeping the hosts in the same order. A host already in the
+   * current table starts a new one, so tables never hold duplicates. The tables are
+   * kept off-heap if the {@value HostTable#OFF_HEAP_PROPERTY} system property is true.
+   */
+  static List<HostGroup> compact(List<HostGroup> groups) {
+    boolean offHeap = Boolean.getBoolean(HostTable.OFF_HEAP_PROPERTY);
+    List<HostGroup> result = new ArrayList<HostGroup>();
+    List<HostGroup> run = new ArrayList<HostGroup>();
+    HostTable.Builder table = new HostTable.Builder();
+
+    for (HostGroup group : groups) {
+      boolean single = !group.isRange() && group.size() == 1;
+      if (single && (run.isEmpty() ||
+          run.get(0).getAttributes().equals(group.getAttributes())) && table.add(group.get(0))) {
+        run.add(group);
+        continue;
+      }
+      addRun(result, run, table, offHeap);
+      table = new HostTable.Builder();
+      if (single) {
+        table.add(group.get(0));
+        run.add(group);
+      } else {
+        result.add(group);
+      }
+    }
+    addRun(result, run, table, offHeap);
+    return result;
+  }
+
+  private static void addRun(List<HostGroup> result, List<HostGroup> run,
+      HostTable.Builder table, boolean offHeap) {
+    if (run.size() == 1) {
+      result.add(run.get(0));
+    } else if (run.size() > 1) {
+      result.add(HostGroup.of(table.build(offHeap)).withAttributes(run.get(0).getAttributes()));
+    }
+    run.clear();
+  }
+
+  /**
+   * Finds which hosts of another list are also in this one, as a set of positions.
+   * The set is as large as this list, see {@link #locate} to only pay for the other list.
+   *
+   * @param other   the hosts to look for
+   * @param missing receives the hosts of the other list that are not in this one, as
+   *                groups carrying the attributes of the group they come from
+   * @return the positions in this list of the hosts found in the other list
+   */
+  public BitSet match(HostGroupList other, List<HostGroup> missing) {
+    int[] ranges = locate(other, missing);
+    BitSet found = new BitSet(size);
+    for (int i = 0; i < ranges.length; i += 2) {
+      found.set(ranges[i], ranges[i + 1]);
+    }
+    return found;
+  }
+
+  /**
+   * Finds where the hosts of another list are in this one.
+   * <p/>
+   * Groups identical to a group of this list are matched as a whole and groups that
+   * can't have any host in common with this list are reported as missing as a whole,
+   * so only partially overlapping groups are compared host by host. The work depends
+   * on the other list and on the number of groups of this one, never on its size.
+   *
+   * @param other   the hosts to look for
+   * @param missing receives the hosts of the other list that are not in this one, as
+   *                groups carrying the attributes of the group they come from
+   * @return the positions in this list of the hosts found in the other list, as pairs
+   * of the first position of a range and the position after it. Ranges are sorted and
+   * don't overlap.
+   */
+  public int[] locate(HostGroupList other, List<HostGroup> missing) {
+    long[] ranges = new long[Math.max(other.groups.length, 1)];
+    int count = 0;
+    for (HostGroup candidate : other.groups) {
+      int same = indexOfSameGroup(candidate);
+      if (same >= 0) {
+        ranges = add(ranges, count++, offsets[same], offsets[same] + groups[same].size());
+        continue;
+      }
+      if (!mayOverlapAny(candidate)) {
+        missing.add(candidate);
+        continue;
+      }
+      for (int i = 0; i < candidate.size(); i++) {
+        String host = candidate.get(i);
+        int index = indexOf(host);
+        if (index >= 0) {
+          ranges = add(ranges, count++, index, index + 1);
+        } else {
+          missing.add(HostGroup.of(host).withAttributes(candidate.getAttributes()));
+        }
+      }
+    }
+    return merge(ranges, count);
+  }
+
+  /**
+   * Packs a range of positions into a long, start first so ranges sort by start.
+   */
+  private static long[] add(long[] ranges, int count, int start, int end) {
+    long[] result = count < ranges.length ? ranges : Arrays.copyOf(ranges, count * 2);
+    result[count] = ((long) start << 32) | end;
+    return result;
+  }
+
+  private static int[] merge(long[] ranges, int count) {
+    Arrays.sort(ranges, 0, count);
+    int[] result = new int[count * 2];
+    int length = 0;
+    for (int i = 0; i < count; i++) {
+      int start = (int) (ranges[i] >>> 32);
+      int end = (int) ranges[i];
+      if (length > 0 && start <= result[length - 1]) {
+        result[length - 1] = Math.max(result[length - 1], end);
+      } else {
+        result[length++] = start;
+        result[length++] = end;
+      }
+    }
+    return Arrays.copyOf(result, length);
+  }
+
+  private int indexOfSameGroup(HostGroup candidate) {
+    for (int i = 0; i < groups.length; i++) {
+      if (groups[i].isSameGroup(candidate)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private boolean mayOverlapAny(HostGroup candidate) {
+    for (HostGroup group : groups) {
+      if (group.mayOverlap(candidate)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public String get(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+    }
+    int group = groupOf(index);
+    return groups[group].get(index - offsets[group]);
+  }
+
+  @Override
+  public Iterator<String> iterator() {
+    return new Iterator<String>() {
+      private int group = 0;
+      private Iterator<String> current = groups.length == 0
+          ? Collections.<String>emptyIterator()
+          : groups[0].iterator();
+
+      @Override
+      public boolean hasNext() {
+        while (!current.hasNext() && group + 1 < groups.length) {
+          current = groups[++group].iterator();
+        }
+        return current.hasNext();
+      }
+
+      @Override
+      public String next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return current.next();
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /**
+   * @return the attributes of the group listing the host at a position
+   * @throws IndexOutOfBoundsException if the position is not in the list
+   */
+  public Map<String, String> getAttributes(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+    }
+    return groups[groupOf(index)].getAttributes();
+  }
+
+  @Override
+  public int indexOf(Object candidate) {
+    for (int i = 0; i < groups.length; i++) {
+      int index = groups[i].indexOf(candidate);
+      if (index >= 0) {
+        return offsets[i] + index;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public boolean contains(Object candidate) {
+    return indexOf(candidate) >= 0;
+  }
+
+  /**
+   * Finds the hosts that are repeated in the list.
+   * <p/>
+   * Single literal hosts are compared through a hash map, and ranges and tables of
+   * hosts symbolically, so the work depends on how much the groups actually overlap
+   * rather than on their size.
+   *
+   * @return the positions of hosts already listed at a lower position
+   */
+  public BitSet findDuplicates() {
+    BitSet duplicates = new BitSet();
+    Map<String, Integer> literals = new HashMap<String, Integer>();
+    List<Integer> multiple = new ArrayList<Integer>();
+
+    for (int j = 0; j < groups.length; j++) {
+      HostGroup current = groups[j];
+
+      if (!current.isRange() && current.size() == 1) {
+        String host = current.get(0);
+        if (literals.containsKey(host) || inAnyGroup(host, multiple)) {
+          duplicates.set(offsets[j]);
+        } else {
+          literals.put(host, j);
+        }
+        continue;
+      }
+
+      for (int i : multiple) {
+        markOverlap(groups[i], j, duplicates);
+      }
+      for (Map.Entry<String, Integer> literal : literals.entrySet()) {
+        int index = current.indexOf(literal.getKey());
+        if (index >= 0) {
+          duplicates.set(offsets[j] + index);
+        }
+      }
+      multiple.add(j);
+    }
+    return duplicates;
+  }
+
+  private boolean inAnyGroup(String host, List<Integer> candidates) {
+    for (int i : candidates) {
+      if (groups[i].contains(host)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Marks the hosts of group {@code j} also found in an earlier group, walking
+   * whichever of the two groups is smaller.
+   */
+  private void markOverlap(HostGroup earlier, int j, BitSet duplicates) {
+    HostGroup later = groups[j];
+    if (!earlier.mayOverlap(later)) {
+      return;
+    }
+    if (later.size() <= earlier.size()) {
+      for (int k = 0; k < later.size(); k++) {
+        if (earlier.contains(later.get(k))) {
+          duplicates.set(offsets[j] + k);
+        }
+      }
+    } else {
+      for (String host : earlier) {
+        int index = later.indexOf(host);
+        if (index >= 0) {
+          duplicates.set(offsets[j] + index);
+        }
+      }
+    }
+  }
+
+  private int groupOf(int index) {
+    int found = Arrays.binarySearch(offsets, index);
+    return found >= 0 ? found : -found - 2;
+  }
+}
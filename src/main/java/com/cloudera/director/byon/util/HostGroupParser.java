@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiles a single host group expression, without attributes, into a
+ * {@link HostGroup} in one pass over its characters.
+ * <p/>
+ * The grammar is:
+ * <pre>
+ * group     := text (range text)*
+ * range     := '[' items ']' | '{' items '}'
+ * items     := item (',' item)*
+ * item      := ['!'] number [separator number [separator number]]
+ * separator := '-' | '..'
+ * </pre>
+ * An item is a single number, all numbers from the first to the second or, with a
+ * third number, every so many numbers between the first two. The first two numbers
+ * may be equal, so {@code [5-5]} is the single number 5. Items starting with
+ * {@code !} exclude numbers from the other items of the range. Numbers are
+ * zero-padded to the number of digits of the first number of their range. Ranges
+ * don't nest.
+ * <p/>
+ * Example inputs:
+ * <p/>
+ * <pre>
+ * cluster-[1-5].example.com
+ * cluster-{01..05}.example.com
+ * dc[1-3]-rack{01..20}-n[1-40]
+ * node-[1,3,7-9]
+ * node-{0..100..5}
+ * node-[1-40,!13]
+ * </pre>
+ */
+final class HostGroupParser {
+
+  private final String expression;
+  private int position;
+
+  private HostGroupParser(String expression) {
+    this.expression = expression;
+  }
+
+  /**
+   * @throws IllegalArgumentException if the expression is not valid
+   */
+  static HostGroup parse(String expression) {
+    return new HostGroupParser(expression).parseGroup();
+  }
+
+  private HostGroup parseGroup() {
+    List<String> literals = new ArrayList<String>();
+    List<HostNumbers> numbers = new ArrayList<HostNumbers>();
+
+    int literalStart = 0;
+    while (position < expression.length()) {
+      char c = expression.charAt(position);
+      if (c == '[' || c == '{') {
+        literals.add(expression.substring(literalStart, position));
+        position++;
+        numbers.add(parseRange(c == '[' ? ']' : '}'));
+        literalStart = position;
+      } else if (c == ']' || c == '}') {
+        throw invalid("Unmatched " + c);
+      } else {
+        position++;
+      }
+    }
+
+    if (numbers.isEmpty()) {
+      return HostGroup.of(expression);
+    }
+    literals.add(expression.substring(literalStart));
+    try {
+      return HostGroup.product(literals, numbers);
+    } catch (IllegalArgumentException e) {
+      throw invalid(e.getMessage());
+    }
+  }
+
+  /**
+   * Parses the items of a range, up to and including the closing bracket.
+   */
+  private HostNumbers parseRange(char close) {
+    List<int[]> included = new ArrayList<int[]>();
+    List<int[]> excluded = new ArrayList<int[]>();
+    int padding = 0;
+
+    while (true) {
+      skipSpaces();
+      boolean exclusion = consume('!');
+      int numberStart = position;
+      int first = parseNumber();
+      if (included.isEmpty() && excluded.isEmpty()) {
+        padding = position - numberStart;
+      }
+
+      int last = first;
+      int step = 1;
+      if (consumeSeparator()) {
+        last = parseNumber();
+        if (consumeSeparator()) {
+          step = parseNumber();
+        }
+      }
+      if (last < first || step == 0) {
+        throw invalid("Invalid range " + expression.substring(numberStart, position));
+      }
+      if (exclusion && step != 1) {
+        throw invalid("Exclusions can not have a step");
+      }
+      (exclusion ? excluded : included).add(new int[]{first, last, step});
+
+      skipSpaces();
+      if (position == expression.length()) {
+        throw invalid("Unterminated range");
+      }
+      char c = expression.charAt(position++);
+      if (c == close) {
+        break;
+      }
+      if (c != ',') {
+        throw invalid("Invalid range");
+      }
+    }
+
+    List<int[]> runs = exclude(included, excluded);
+    if (runs.isEmpty()) {
+      throw invalid("Range without any number");
+    }
+    int[] starts = new int[runs.size()];
+    int[] ends = new int[runs.size()];
+    int[] steps = new int[runs.size()];
+    for (int i = 0; i < runs.size(); i++) {
+      starts[i] = runs.get(i)[0];
+      ends[i] = runs.get(i)[1];
+      steps[i] = runs.get(i)[2];
+    }
+    try {
+      return new HostNumbers(starts, ends, steps, padding);
+    } catch (IllegalArgumentException e) {
+      throw invalid(e.getMessage());
+    }
+  }
+
+  /**
+   * Takes excluded numbers out of runs of numbers, splitting the runs around them.
+   *
+   * @param runs     the start, end and step of each run
+   * @param excluded the start and end of each exclusion
+   */
+  private static List<int[]> exclude(List<int[]> runs, List<int[]> excluded) {
+    for (int[] exclusion : excluded) {
+      List<int[]> remaining = new ArrayList<int[]>(runs.size() + 1);
+      for (int[] run : runs) {
+        int start = run[0];
+        int step = run[2];
+        int end = run[1] - (run[1] - start) % step;
+        if (exclusion[1] < start || exclusion[0] > end) {
+          remaining.add(run);
+          continue;
+        }
+        if (exclusion[0] > start) {
+          int below = start + (exclusion[0] - 1 - start) / step * step;
+          remaining.add(new int[]{start, below, step});
+        }
+        if (exclusion[1] < end) {
+          long above = start + ((long) (exclusion[1] - start) / step + 1) * step;
+          remaining.add(new int[]{(int) above, end, step});
+        }
+      }
+      runs = remaining;
+    }
+    return runs;
+  }
+
+  private int parseNumber() {
+    int start = position;
+    long value = 0;
+    while (position < expression.length()) {
+      char c = expression.charAt(position);
+      if (c < '0' || c > '9') {
+        break;
+      }
+      value = value * 10 + (c - '0');
+      if (value > Integer.MAX_VALUE) {
+        throw invalid("Number too large");
+      }
+      position++;
+    }
+    if (position == start) {
+      throw invalid("Invalid range");
+    }
+    return (int) value;
+  }
+
+  private boolean consumeSeparator() {
+    if (consume('-')) {
+      return true;
+    }
+    if (expression.startsWith("..", position)) {
+      position += 2;
+      return true;
+    }
+    return false;
+  }
+
+  private boolean consume(char expected) {
+    if (position < expression.length() && expression.charAt(position) == expected) {
+      position++;
+      return true;
+    }
+    return false;
+  }
+
+  private void skipSpaces() {
+    while (position < expression.length() && expression.charAt(position) == ' ') {
+      position++;
+    }
+  }
+
+  private IllegalArgumentException invalid(String reason) {
+    return new IllegalArgumentException(reason + " in host group expression: " + expression);
+  }
+}
@@ -16,118 +16,159 @@
 
 package com.cloudera.director.byon.util;
 
-import static com.cloudera.director.byon.util.Strings.countOccurrencesOf;
-
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
 
 /**
  * Utility functions for working with host group expressions.
  */
 public final class HostGroups {
 
-  static final String GROUP_SEPARATOR = ",";
+  static final char GROUP_SEPARATOR_CHAR = ',';
+  static final char ATTRIBUTE_SEPARATOR = ',';
+  static final char ATTRIBUTE_VALUE_SEPARATOR = '=';
 
-  static final Pattern CURLY_BRACKET_PATTERN = Pattern.compile("^.*(\\{(\\d+)(\\.\\.|-)(\\d+)\\}).*$");
-  static final Pattern SQUARE_BRACKET_PATTERN = Pattern.compile("^.*(\\[(\\d+)(\\.\\.|-)(\\d+)\\]).*$");
-  static final int GROUP_COUNT_ON_PATTERN_MATCH = 4;
+  /**
+   * Characters reserved for comparisons in host requirements.
+   */
+  static final String[] ATTRIBUTE_RESERVED_CHARACTERS =
+      {"=", "!", "<", ">", "{", "}", "[", "]", ","};
 
   private HostGroups() {
   }
 
   /**
-   * Expand one or multiple comma separated contiguous groups of hosts as single hosts.
+   * Expand one or multiple comma separated groups of hosts as single hosts.
    * <p/>
    * Example input:
    * <p/>
    * <pre>
-   * cluster-[1-5].example.com, 192.168.0.{4..10}, example.com
+   * cluster-[1-5].example.com, 192.168.0.{4..10}, dc[1-3]-rack{01..20}-n[1-40], example.com
    * </pre>
+   *
+   * @see #parse(String) for a lazy alternative
    */
   public static String[] expand(String hostGroupExpression) {
-    List<String> parts = new ArrayList<String>();
-    for (String group : Strings.splitTrimOmitEmpty(hostGroupExpression, GROUP_SEPARATOR)) {
-      parts.addAll(Arrays.asList(expandSingleContiguousGroup(group)));
-    }
-    return parts.toArray(new String[parts.size()]);
+    HostGroupList hosts = parse(hostGroupExpression);
+    return hosts.toArray(new String[hosts.size()]);
   }
 
   /**
-   * Expand a single contiguous group as a list of hosts.
+   * Parse one or multiple comma separated groups of hosts without expanding them.
+   * Host names are only built when the returned list is accessed. See
+   * {@link HostGroupParser} for the syntax of a group.
    * <p/>
-   * Example inputs:
+   * Each group can end with a block of attributes shared by all of its hosts:
    * <p/>
    * <pre>
-   * cluster-[1-5].example.com
-   * cluster-{1..5}.example.com
-   * cluster-{01..05}.example.com
-   * 192.168.0.[4-10]
+   * node-[1-50].example.com{rack=r1,cores=32}, node-[51-60].example.com{rack=r2}
    * </pre>
+   * The brackets of the whole input are checked in one pass up front, so a stray
+   * bracket is reported as such instead of swallowing the groups after it.
+   * Consecutive literal hosts are packed into tables, see {@link HostTable}.
+   *
+   * @throws IllegalArgumentException if the expressions are not valid
    */
-  private static String[] expandSingleContiguousGroup(String expression) {
-    if (!hasASingleRangeOrNoneWithMatchingBrackets(expression)) {
-      throw new IllegalArgumentException("A host group expression can " +
-          "contain a single range enclosed within [ ] or { } or none.");
+  public static HostGroupList parse(String hostGroupExpression) {
+    if (hostGroupExpression == null) {
+      throw new NullPointerException("hostGroupExpression is null");
+    }
+    Strings.BracketStats brackets = Strings.bracketStats(hostGroupExpression);
+    if (!brackets.isBalanced()) {
+      throw new IllegalArgumentException("Unbalanced brackets in host group expressions");
+    }
+    if (brackets.getMaxDepth() > 1) {
+      throw new IllegalArgumentException("Nested brackets in host group expressions");
     }
 
-    Matcher matcher = tryPatterns(expression, CURLY_BRACKET_PATTERN, SQUARE_BRACKET_PATTERN);
-    if (matcher != null && matcher.groupCount() == GROUP_COUNT_ON_PATTERN_MATCH) {
-
-      String block = matcher.group(1);
-      int paddingSize = matcher.group(2).length();
-
-      int begin = Integer.parseInt(matcher.group(2));
-      int end = Integer.parseInt(matcher.group(4));
-      if (begin >= end) {
-        throw new IllegalArgumentException("Invalid range " + block);
-      }
-
-      String result[] = new String[end - begin + 1];
-      for (int i = begin; i <= end; i++) {
-        result[i - begin] = expression.replace(block,
-            String.format("%0" + paddingSize + "d", i));
-      }
-      return result;
+    List<HostGroup> groups = new ArrayList<HostGroup>();
+    for (String group : split(hostGroupExpression)) {
+      groups.add(parseGroupWithAttributes(group));
+    }
+    return new HostGroupList(HostGroupList.compact(groups));
+  }
 
-    } else {
-      if (Strings.containsAny(expression, "{", "}", "[", "]")) {
-        throw new IllegalArgumentException("Invalid range in host group expression: " + expression);
-      }
+  /**
+   * Split comma separated host group expressions, ignoring the commas within brackets,
+   * then trim the expressions and omit any empty ones.
+   *
+   * @param hostGroupExpressions an arbitrary input string (not null)
+   */
+  public static List<String> split(String hostGroupExpressions) {
+    if (hostGroupExpressions == null) {
+      throw new NullPointerException("hostGroupExpressions is null");
+    }
 
-      if (expression.isEmpty()) {
-        return new String[]{};  // no hosts in this group
+    List<String> result = new ArrayList<String>();
+    int depth = 0;
+    int start = 0;
+    for (int i = 0; i < hostGroupExpressions.length(); i++) {
+      char c = hostGroupExpressions.charAt(i);
+      if (c == '{' || c == '[') {
+        depth++;
+      } else if (c == '}' || c == ']') {
+        depth = Math.max(depth - 1, 0);
+      } else if (c == GROUP_SEPARATOR_CHAR && depth == 0) {
+        Strings.addTrimmedIfNotEmpty(result, hostGroupExpressions, start, i);
+        start = i + 1;
       }
-
-      // assuming the group expression is actually a single host
-      return new String[]{expression};
     }
+    Strings.addTrimmedIfNotEmpty(result, hostGroupExpressions, start,
+        hostGroupExpressions.length());
+    return result;
   }
 
   /**
-   * A naive check for matching brackets.
+   * Parse a single group of hosts, optionally followed by a block of attributes.
    * <p/>
-   * TODO improve to use a stack based implementation if needed
+   * Attribute blocks are told apart from ranges within curly brackets by their
+   * {@code key=value} pairs.
    */
-  private static boolean hasASingleRangeOrNoneWithMatchingBrackets(String expression) {
-    int numberOfRanges = countOccurrencesOf(expression, '[') + countOccurrencesOf(expression, '{');
-    return countOccurrencesOf(expression, '[') == countOccurrencesOf(expression, ']') &&
-        countOccurrencesOf(expression, '{') == countOccurrencesOf(expression, '}') &&
-        (numberOfRanges == 1 || numberOfRanges == 0);
+  private static HostGroup parseGroupWithAttributes(String expression) {
+    int blockStart = expression.lastIndexOf('{');
+    if (!expression.endsWith("}") || blockStart < 0 ||
+        expression.indexOf(ATTRIBUTE_VALUE_SEPARATOR, blockStart) < 0) {
+      return HostGroupParser.parse(expression);
+    }
+
+    String hosts = expression.substring(0, blockStart).trim();
+    if (hosts.isEmpty()) {
+      throw new IllegalArgumentException("Missing host before attributes: " + expression);
+    }
+    HostGroup group = HostGroupParser.parse(hosts);
+    return group.withAttributes(
+        parseAttributes(expression, blockStart + 1, expression.length() - 1));
   }
 
   /**
-   * Try multiple patterns on a string and return the first one matching or absent.
+   * Parse a comma separated list of {@code key=value} attributes found between two
+   * indexes of an expression. Only the keys and values are copied.
    */
-  private static Matcher tryPatterns(String target, Pattern... patterns) {
-    for (Pattern candidate : patterns) {
-      Matcher result = candidate.matcher(target);
-      if (result.matches()) {
-        return result;
+  private static Map<String, String> parseAttributes(final String expression, int from, int to) {
+    final Map<String, String> attributes = new LinkedHashMap<String, String>();
+    Strings.forEachPart(expression, from, to, ATTRIBUTE_SEPARATOR, new Strings.PartConsumer() {
+      @Override
+      public void accept(CharSequence input, int start, int end) {
+        int separator = expression.indexOf(ATTRIBUTE_VALUE_SEPARATOR, start);
+        if (separator < 0 || separator >= end) {
+          throw new IllegalArgumentException("Invalid host attribute, expected key=value: " +
+              input.subSequence(start, end));
+        }
+        String key = Strings.trimmedSubstring(input, start, separator);
+        String value = Strings.trimmedSubstring(input, separator + 1, end);
+        if (key.isEmpty() || value.isEmpty()
+            || Strings.containsAny(key, ATTRIBUTE_RESERVED_CHARACTERS)
+            || Strings.containsAny(value, ATTRIBUTE_RESERVED_CHARACTERS)) {
+          throw new IllegalArgumentException("Invalid host attribute: " +
+              input.subSequence(start, end));
+        }
+        if (attributes.put(key, value) != null) {
+          throw new IllegalArgumentException("Duplicate host attribute: " + key);
+        }
       }
-    }
-    return null;
+    });
+    return attributes;
   }
 }
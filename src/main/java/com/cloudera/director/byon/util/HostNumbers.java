@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.util;
+
+import java.util.Arrays;
+
+/**
+ * The numbers of one range of a host group: a list of runs, each going from a start
+ * to an end by a step, in declaration order.
+ * <p/>
+ * Like the group itself the numbers are kept symbolic. Positional access does a
+ * binary search over the runs and membership tests check each run arithmetically.
+ * Numbers are written zero-padded to at least {@link #getPadding()} digits.
+ */
+final class HostNumbers {
+
+  private final int[] starts;
+
+  /**
+   * Last number of each run, always reachable from its start by its step.
+   */
+  private final int[] ends;
+  private final int[] steps;
+
+  /**
+   * Position of the first number of each run.
+   */
+  private final int[] offsets;
+  private final int size;
+  private final int padding;
+  private final int max;
+
+  /**
+   * @throws IllegalArgumentException if a run is empty, negative or shares a number with
+   *                                  another
+   */
+  HostNumbers(int[] starts, int[] ends, int[] steps, int padding) {
+    if (starts.length == 0 || starts.length != ends.length || starts.length != steps.length) {
+      throw new IllegalArgumentException("Invalid runs of numbers");
+    }
+    this.starts = starts.clone();
+    this.ends = ends.clone();
+    this.steps = steps.clone();
+    this.offsets = new int[starts.length];
+    this.padding = Math.max(padding, 1);
+
+    long total = 0;
+    int highest = 0;
+    for (int i = 0; i < starts.length; i++) {
+      if (starts[i] < 0 || starts[i] > ends[i] || steps[i] <= 0) {
+        throw new IllegalArgumentException(
+            String.format("Invalid range %d-%d", starts[i], ends[i]));
+      }
+      this.ends[i] = ends[i] - (ends[i] - starts[i]) % steps[i];
+      for (int j = 0; j < i; j++) {
+        if (shareANumber(j, i)) {
+          throw new IllegalArgumentException(String.format("Overlapping ranges %d-%d and %d-%d",
+              starts[j], this.ends[j], starts[i], this.ends[i]));
+        }
+      }
+      offsets[i] = (int) total;
+      total += (this.ends[i] - starts[i]) / steps[i] + 1;
+      if (total > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Range too large");
+      }
+      highest = Math.max(highest, this.ends[i]);
+    }
+    this.size = (int) total;
+    this.max = highest;
+  }
+
+  /**
+   * Whether two runs have a number in common. Runs whose bounds overlap can still be
+   * disjoint when their steps interleave them, like the odd and even numbers.
+   */
+  private boolean shareANumber(int i, int j) {
+    long low = Math.max(starts[i], starts[j]);
+    long high = Math.min(ends[i], ends[j]);
+    if (low > high) {
+      return false;
+    }
+    // the common numbers are x = starts[i] (mod steps[i]) and x = starts[j] (mod steps[j]),
+    // which have a solution only when the gcd of the steps divides the difference
+    long gcd = gcd(steps[i], steps[j]);
+    long difference = (long) starts[j] - starts[i];
+    if (difference % gcd != 0) {
+      return false;
+    }
+    // solve steps[i] * k = difference (mod steps[j]) for the first common number
+    long modulus = steps[j] / gcd;
+    long k = Math.floorMod(difference / gcd, modulus) * inverse(steps[i] / gcd, modulus)
+        % modulus;
+    long first = starts[i] + steps[i] * k;
+    long period = steps[i] / gcd * steps[j];
+    if (first < low) {
+      first += (low - first + period - 1) / period * period;
+    }
+    return first <= high;
+  }
+
+  private static long gcd(long a, long b) {
+    while (b != 0) {
+      long rest = a % b;
+      a = b;
+      b = rest;
+    }
+    return a;
+  }
+
+  /**
+   * @return the inverse of {@code value} modulo {@code modulus}, which must be coprime
+   */
+  private static long inverse(long value, long modulus) {
+    if (modulus == 1) {
+      return 0;
+    }
+    long a = value % modulus;
+    long b = modulus;
+    long x = 1;
+    long y = 0;
+    while (b != 0) {
+      long quotient = a / b;
+      long rest = a - quotient * b;
+      a = b;
+      b = rest;
+      long next = x - quotient * y;
+      x = y;
+      y = next;
+    }
+    return Math.floorMod(x, modulus);
+  }
+
+  /**
+   * All numbers from {@code begin} to {@code end}, inclusive.
+   */
+  static HostNumbers range(int begin, int end, int padding) {
+    return new HostNumbers(new int[]{begin}, new int[]{end}, new int[]{1}, padding);
+  }
+
+  int size() {
+    return size;
+  }
+
+  int getPadding() {
+    return padding;
+  }
+
+  int get(int index) {
+    if (starts.length == 1) {
+      return starts[0] + index * steps[0];
+    }
+    int found = Arrays.binarySearch(offsets, index);
+    int run = found >= 0 ? found : -found - 2;
+    return starts[run] + (index - offsets[run]) * steps[run];
+  }
+
+  /**
+   * Parses a number written in a piece of text.
+   *
+   * @return the position of the number written between {@code from} and {@code to},
+   * or -1 if it is not one of these numbers or is not written at its width
+   */
+  int indexOf(CharSequence text, int from, int to) {
+    long number = 0;
+    for (int i = from; i < to; i++) {
+      char c = text.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      number = number * 10 + (c - '0');
+      if (number > max) {
+        return -1;
+      }
+    }
+    if (to <= from || width((int) number) != to - from) {
+      return -1;  // zeros are only used for padding up to the width of the range
+    }
+    return indexOf(number);
+  }
+
+  /**
+   * @return the position of a number, or -1 if it is not one of these numbers
+   */
+  int indexOf(long number) {
+    for (int i = 0; i < starts.length; i++) {
+      if (number >= starts[i] && number <= ends[i] && (number - starts[i]) % steps[i] == 0) {
+        return offsets[i] + (int) ((number - starts[i]) / steps[i]);
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the number of characters used to write a number
+   */
+  int width(int number) {
+    int digits = 1;
+    while (number >= 10) {
+      number /= 10;
+      digits++;
+    }
+    return Math.max(padding, digits);
+  }
+
+  /**
+   * @return the number of characters used to write the widest number
+   */
+  int maxWidth() {
+    return width(max);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    HostNumbers that = (HostNumbers) o;
+    return padding == that.padding && Arrays.equals(starts, that.starts)
+        && Arrays.equals(ends, that.ends) && Arrays.equals(steps, that.steps);
+  }
+
+  @Override
+  public int hashCode() {
+    int result = Arrays.hashCode(starts);
+    result = 31 * result + Arrays.hashCode(ends);
+    result = 31 * result + Arrays.hashCode(steps);
+    return 31 * result + padding;
+  }
+
+  /**
+   * Writes the numbers back in the syntax of host group expressions, padding the
+   * first number to carry the padding of the whole range.
+   */
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder("[");
+    for (int i = 0; i < starts.length; i++) {
+      if (i > 0) {
+        result.append(',').append(starts[i]);
+      } else {
+        result.append(String.format("%0" + padding + "d", starts[i]));
+      }
+      if (ends[i] == starts[i]) {
+        continue;
+      }
+      if (steps[i] == 1) {
+        result.append('-').append(ends[i]);
+      } else {
+        result.append("..").append(ends[i]).append("..").append(steps[i]);
+      }
+    }
+    return result.append(']').toString();
+  }
+}
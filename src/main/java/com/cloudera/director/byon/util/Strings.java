@@ -38,8 +38,8 @@ public final class Strings {
     }
 
     int count = 0;
-    for (char element : input.toCharArray()) {
-      if (element == candidate) {
+    for (int i = 0; i < input.length(); i++) {
+      if (input.charAt(i) == candidate) {
         count++;
       }
     }
@@ -48,9 +48,17 @@ public final class Strings {
 
   /**
    * Split the input string using the separator, trim the parts and omit any empty strings.
+   * <p/>
+   * The input is scanned once and each part is trimmed before it is copied, so the
+   * parts kept are the only strings created.
+   * <p/>
+   * The separator is literal text, not a regular expression as it used to be:
+   * characters such as {@code .} or {@code |} only match themselves, and an empty
+   * separator is rejected. Callers that need a pattern must split with
+   * {@link java.util.regex.Pattern} themselves.
    *
    * @param input     an arbitrary input string (not null)
-   * @param separator regular expression used for splitting
+   * @param separator literal text used for splitting (not empty)
    * @return a list of strings or empty
    */
   public static List<String> splitTrimOmitEmpty(String input, String separator) {
@@ -60,18 +68,209 @@ public final class Strings {
     if (separator == null) {
       throw new NullPointerException("separator is null");
     }
+    if (separator.isEmpty()) {
+      throw new IllegalArgumentException("separator is empty");
+    }
+
+    List<String> result = new ArrayList<String>();
+    int start = 0;
+    while (true) {
+      int end = input.indexOf(separator, start);
+      addTrimmedIfNotEmpty(result, input, start, end < 0 ? input.length() : end);
+      if (end < 0) {
+        return result;
+      }
+      start = end + separator.length();
+    }
+  }
+
+  /**
+   * Adds the trimmed part of a string between two indexes to a list, unless it is
+   * only whitespace.
+   */
+  static void addTrimmedIfNotEmpty(List<String> result, String input, int start, int end) {
+    while (start < end && input.charAt(start) <= ' ') {
+      start++;
+    }
+    while (end > start && input.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    if (start < end) {
+      result.add(input.substring(start, end));
+    }
+  }
+
+  /**
+   * Receives the bounds of the parts found by {@link #forEachPart}.
+   */
+  public interface PartConsumer {
+
+    /**
+     * @param input the whole input
+     * @param start the index of the first character of the part
+     * @param end   the index after the last character of the part
+     */
+    void accept(CharSequence input, int start, int end);
+  }
 
-    String[] parts = input.split(separator);
+  /**
+   * Split the input using a separator, trim the parts and pass the bounds of the
+   * ones that are not empty to a consumer, without copying any characters.
+   *
+   * @param input     an arbitrary input (not null)
+   * @param separator the character used for splitting
+   * @return the number of parts passed to the consumer
+   */
+  public static int forEachPart(CharSequence input, char separator, PartConsumer consumer) {
+    if (input == null) {
+      throw new NullPointerException("input is null");
+    }
+    return forEachPart(input, 0, input.length(), separator, consumer);
+  }
 
-    List<String> result = new ArrayList<String>(parts.length);
-    for (String candidate : parts) {
-      String trimmed = candidate.trim();
-      if (!trimmed.isEmpty()) {
-        result.add(trimmed);
+  /**
+   * Like {@link #forEachPart(CharSequence, char, PartConsumer)}, for the characters
+   * of the input between two indexes only.
+   *
+   * @param from the index of the first character to split
+   * @param to   the index after the last character to split
+   */
+  public static int forEachPart(CharSequence input, int from, int to, char separator,
+      PartConsumer consumer) {
+    if (input == null) {
+      throw new NullPointerException("input is null");
+    }
+    if (consumer == null) {
+      throw new NullPointerException("consumer is null");
+    }
+    if (from < 0 || to > input.length() || from > to) {
+      throw new IndexOutOfBoundsException("Invalid bounds " + from + ", " + to +
+          " for length " + input.length());
+    }
+
+    int count = 0;
+    int start = from;
+    for (int i = from; i <= to; i++) {
+      if (i < to && input.charAt(i) != separator) {
+        continue;
       }
+      int partStart = start;
+      int partEnd = i;
+      while (partStart < partEnd && input.charAt(partStart) <= ' ') {
+        partStart++;
+      }
+      while (partEnd > partStart && input.charAt(partEnd - 1) <= ' ') {
+        partEnd--;
+      }
+      if (partStart < partEnd) {
+        consumer.accept(input, partStart, partEnd);
+        count++;
+      }
+      start = i + 1;
+    }
+    return count;
+  }
+
+  /**
+   * @return the characters of the input between two indexes, trimmed
+   */
+  public static String trimmedSubstring(CharSequence input, int start, int end) {
+    while (start < end && input.charAt(start) <= ' ') {
+      start++;
+    }
+    while (end > start && input.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    return input.subSequence(start, end).toString();
+  }
+
+  /**
+   * How the brackets of a string are laid out, gathered in a single pass.
+   */
+  public static final class BracketStats {
+    private final int squareOpened;
+    private final int squareClosed;
+    private final int curlyOpened;
+    private final int curlyClosed;
+    private final int maxDepth;
+    private final boolean closedBeforeOpened;
+
+    private BracketStats(int squareOpened, int squareClosed, int curlyOpened, int curlyClosed,
+        int maxDepth, boolean closedBeforeOpened) {
+      this.squareOpened = squareOpened;
+      this.squareClosed = squareClosed;
+      this.curlyOpened = curlyOpened;
+      this.curlyClosed = curlyClosed;
+      this.maxDepth = maxDepth;
+      this.closedBeforeOpened = closedBeforeOpened;
     }
 
-    return result;
+    /**
+     * @return the number of opening square and curly brackets
+     */
+    public int getOpened() {
+      return squareOpened + curlyOpened;
+    }
+
+    /**
+     * @return the deepest nesting of brackets of either kind
+     */
+    public int getMaxDepth() {
+      return maxDepth;
+    }
+
+    /**
+     * @return true if every bracket is closed by a bracket of the same kind and no
+     * bracket is closed before it is opened
+     */
+    public boolean isBalanced() {
+      return !closedBeforeOpened && squareOpened == squareClosed && curlyOpened == curlyClosed;
+    }
+  }
+
+  /**
+   * Count the square and curly brackets of a string and track how deep they nest.
+   *
+   * @param input an arbitrary input (not null)
+   */
+  public static BracketStats bracketStats(CharSequence input) {
+    if (input == null) {
+      throw new NullPointerException("input is null");
+    }
+
+    int squareOpened = 0;
+    int squareClosed = 0;
+    int curlyOpened = 0;
+    int curlyClosed = 0;
+    int square = 0;
+    int curly = 0;
+    int maxDepth = 0;
+    boolean closedBeforeOpened = false;
+    for (int i = 0; i < input.length(); i++) {
+      switch (input.charAt(i)) {
+        case '[':
+          squareOpened++;
+          square++;
+          break;
+        case ']':
+          squareClosed++;
+          closedBeforeOpened |= --square < 0;
+          break;
+        case '{':
+          curlyOpened++;
+          curly++;
+          break;
+        case '}':
+          curlyClosed++;
+          closedBeforeOpened |= --curly < 0;
+          break;
+        default:
+          continue;
+      }
+      maxDepth = Math.max(maxDepth, square + curly);
+    }
+    return new BracketStats(squareOpened, squareClosed, curlyOpened, curlyClosed, maxDepth,
+        closedBeforeOpened);
   }
 
   /**
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.compute;
+
+import static com.cloudera.director.byon.compute.BYONComputeInstanceTemplateConfigurationPropertyToken.PLACEMENT;
+import static com.cloudera.director.byon.compute.BYONComputeInstanceTemplateConfigurationPropertyToken.PREFERRED_HOSTS;
+import static com.cloudera.director.byon.compute.BYONComputeInstanceTemplateConfigurationPropertyToken.QUOTA_GROUP;
+import static com.cloudera.director.byon.compute.BYONComputeInstanceTemplateConfigurationPropertyToken.REQUIREMENTS;
+import static com.cloudera.director.byon.compute.BYONComputeProviderConfigurationPropertyToken.HOSTS;
+import static com.cloudera.director.byon.compute.BYONComputeProviderConfigurationPropertyToken.QUOTAS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.cloudera.director.byon.BYONLauncher;
+import com.cloudera.director.byon.net.CachingHostResolver;
+import com.cloudera.director.byon.net.HostResolver;
+import com.cloudera.director.spi.v2.model.exception.PluginExceptionConditionAccumulator;
+import com.cloudera.director.spi.v2.model.util.SimpleConfiguration;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BYONComputeInstanceTemplateConfigurationValidatorTest {
+
+  private ExecutorService executor;
+  private HostPoolRegistry registry;
+  private BYONComputeProvider provider;
+  private BYONComputeInstanceTemplateConfigurationValidator validator;
+
+  @Before
+  public void setUp() {
+    HostResolver resolver = new HostResolver() {
+      @Override
+      public InetAddress resolve(String host) throws UnknownHostException {
+        if (host.startsWith("bad")) {
+          throw new UnknownHostException(host);
+        }
+        return InetAddress.getByAddress(host, new byte[]{127, 0, 0, 1});
+      }
+    };
+    executor = Executors.newCachedThreadPool();
+    registry = new HostPoolRegistry();
+    provider = new BYONComputeProvider(
+        new SimpleConfiguration(Collections.singletonMap(
+            HOSTS.unwrap().getConfigKey(), "good-[1-20], bad-1, good-[21-30]")),
+        new BYONLauncher().getLocalizationContext(Locale.getDefault()),
+        new CachingHostResolver(resolver, executor, 64, TimeUnit.MINUTES.toNanos(1), 0),
+        registry);
+    validator = new BYONComputeInstanceTemplateConfigurationValidator(provider);
+  }
+
+  @After
+  public void tearDown() {
+    registry.close();
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testValidate_AcceptsFreeHosts() {
+    RecordingAccumulator accumulator = validate("good-[1-20], good-25");
+
+    assertThat(accumulator.hasError()).isFalse();
+    assertThat(accumulator.warningMessages).isEmpty();
+  }
+
+  @Test
+  public void testValidate_ReportsHostsNotInThePool() {
+    RecordingAccumulator accumulator = validate("good-[15-25], other-[1-100000], good-31");
+
+    assertThat(accumulator.hasError()).isTrue();
+    assertThat(accumulator.errorMessages).hasSize(1);
+    assertThat(accumulator.errorMessages.get(0))
+        .contains("not in the pool")
+        .contains("other-[1-100000]")
+        .contains("good-31")
+        .doesNotContain("good-15");
+  }
+
+  @Test
+  public void testValidate_ReportsUnresolvableHosts() {
+    RecordingAccumulator accumulator = validate("good-1, bad-1");
+
+    assertThat(accumulator.errorMessages).hasSize(1);
+    assertThat(accumulator.errorMessages.get(0))
+        .contains("can't be resolved")
+        .contains("bad-1")
+        .doesNotContain("good-1");
+  }
+
+  @Test
+  public void testValidate_WarnsAboutAllocatedHosts() throws InterruptedException {
+    BYONComputeInstanceTemplate template = provider.createResourceTemplate(
+        "test",
+        new SimpleConfiguration(Collections.singletonMap(
+            PREFERRED_HOSTS.unwrap().getConfigKey(), "good-2")),
+        Collections.<String, String>emptyMap()
+    );
+    provider.allocate(template, Arrays.asList("ID-1"), 1);
+
+    RecordingAccumulator accumulator = validate("good-[1-3]");
+
+    assertThat(accumulator.hasError()).isFalse();
+    assertThat(accumulator.warningMessages).hasSize(1);
+    assertThat(accumulator.warningMessages.get(0)).contains("already allocated")
+        .contains("good-2")
+        .doesNotContain("good-3");
+  }
+
+  @Test
+  public void testValidate_ReportsInvalidExpressions() {
+    RecordingAccumulator accumulator = validate("good-[1-");
+
+    assertThat(accumulator.errorMessages).hasSize(1);
+    assertThat(accumulator.errorMessages.get(0)).contains("Unbalanced brackets");
+  }
+
+  @Test
+  public void testValidate_ReportsUnknownPlacementAndInvalidRequirements() {
+    Map<String, String> configs = new HashMap<String, String>();
+    configs.put(PLACEMENT.unwrap().getConfigKey(), "scatter");
+    configs.put(REQUIREMENTS.unwrap().getConfigKey(), "cores>=many");
+    RecordingAccumulator accumulator = new RecordingAccumulator();
+    validator.validate("test", new SimpleConfiguration(configs), accumulator,
+        provider.getLocalizationContext());
+
+    assertThat(accumulator.errorKeys).containsExactly(REQUIREMENTS.unwrap().getConfigKey(),
+        PLACEMENT.unwrap().getConfigKey());
+    assertThat(accumulator.errorMessages.get(0)).contains("cores>=many");
+    assertThat(accumulator.errorMessages.get(1)).contains("Unknown placement: scatter");
+  }
+
+  @Test
+  public void testValidate_ReportsUnknownQuotaGroups() {
+    Map<String, String> providerConfigs = new HashMap<String, String>();
+    providerConfigs.put(HOSTS.unwrap().getConfigKey(), "good-[1-5]");
+    providerConfigs.put(QUOTAS.unwrap().getConfigKey(), "analytics{max=2}");
+    BYONComputeProvider withQuotas = new BYONComputeProvider(
+        new SimpleConfiguration(providerConfigs), provider.getLocalizationContext(),
+        provider.getResolver(), registry);
+    BYONComputeInstanceTemplateConfigurationValidator quotaValidator =
+        new BYONComputeInstanceTemplateConfigurationValidator(withQuotas);
+
+    RecordingAccumulator accumulator = new RecordingAccumulator();
+    quotaValidator.validate("test", new SimpleConfiguration(Collections.singletonMap(
+            QUOTA_GROUP.unwrap().getConfigKey(), "analytcs")),
+        accumulator, provider.getLocalizationContext());
+    assertThat(accumulator.errorKeys).containsExactly(QUOTA_GROUP.unwrap().getConfigKey());
+    assertThat(accumulator.errorMessages.get(0)).contains("Unknown quota group: analytcs");
+
+    accumulator = new RecordingAccumulator();
+    quotaValidator.validate("test", new SimpleConfiguration(Collections.singletonMap(
+            QUOTA_GROUP.unwrap().getConfigKey(), "analytics")),
+        accumulator, provider.getLocalizationContext());
+    assertThat(accumulator.hasError()).isFalse();
+
+    // without quotas any group is as good as another
+    accumulator = new RecordingAccumulator();
+    validator.validate("test", new SimpleConfiguration(Collections.singletonMap(
+            QUOTA_GROUP.unwrap().getConfigKey(), "analytcs")),
+        accumulator, provider.getLocalizationContext());
+    assertThat(accumulator.hasError()).isFalse();
+  }
+
+  private RecordingAccumulator validate(String preferredHosts) {
+    RecordingAccumulator accumulator = new RecordingAccumulator();
+    validator.validate("test", new SimpleConfiguration(Collections.singletonMap(
+            PREFERRED_HOSTS.unwrap().getConfigKey(), preferredHosts)),
+        accumulator, provider.getLocalizationContext());
+    for (String key : accumulator.errorKeys) {
+      assertThat(key).isEqualTo(PREFERRED_HOSTS.unwrap().getConfigKey());
+    }
+    return accumulator;
+  }
+
+  private static final class RecordingAccumulator extends PluginExceptionConditionAccumulator {
+
+    final List<String> errorKeys = new ArrayList<String>();
+    final List<String> errorMessages = new ArrayList<String>();
+    final List<String> warningMessages = new ArrayList<String>();
+
+    @Override
+    public void addError(String key, String message) {
+      errorKeys.add(key);
+      errorMessages.add(message);
+      super.addError(key, message);
+    }
+
+    @Override
+    public void addWarning(String key, String message) {
+      assertThat(key).isEqualTo(PREFERRED_HOSTS.unwrap().getConfigKey());
+      warningMessages.add(message);
+      super.addWarning(key, message);
+    }
+  }
+}
@@ -16,41 +16,118 @@
 
 package com.cloudera.director.byon.compute;
 
+import static com.cloudera.director.byon.compute.BYONComputeInstanceTemplateConfigurationPropertyToken.PLACEMENT;
 import static com.cloudera.director.byon.compute.BYONComputeInstanceTemplateConfigurationPropertyToken.PREFERRED_HOSTS;
+import static com.cloudera.director.byon.compute.BYONComputeInstanceTemplateConfigurationPropertyToken.REQUIREMENTS;
 import static com.cloudera.director.byon.compute.BYONComputeProviderConfigurationPropertyToken.HOSTS;
+import static com.cloudera.director.byon.compute.BYONComputeProviderConfigurationPropertyToken.HOST_FACTS_COMMAND;
+import static com.cloudera.director.byon.compute.BYONComputeProviderConfigurationPropertyToken.JOURNAL_DIRECTORY;
+import static com.cloudera.director.byon.compute.BYONComputeProviderConfigurationPropertyToken.LEASE_SECONDS;
+import static com.cloudera.director.byon.compute.BYONComputeProviderConfigurationPropertyToken.PROBE_PORT;
+import static com.cloudera.director.byon.compute.BYONComputeProviderConfigurationPropertyToken.RECLAIM_DELETED_HOSTS;
+import static com.cloudera.director.byon.compute.BYONComputeProviderConfigurationPropertyToken.RECLAMATION_QUARANTINE_SECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import com.cloudera.director.byon.BYONCloudProvider;
 import com.cloudera.director.byon.BYONLauncher;
+import com.cloudera.director.byon.metrics.MetricsRegistry;
+import com.cloudera.director.byon.net.CachingHostResolver;
+import com.cloudera.director.byon.net.HostLiveness;
+import com.cloudera.director.byon.net.HostResolver;
+import com.cloudera.director.spi.v2.model.InstanceStatus;
 import com.cloudera.director.spi.v2.model.util.SimpleConfiguration;
 import com.cloudera.director.spi.v2.provider.CloudProvider;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
 
+import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class BYONComputeProviderTest {
 
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private HostPoolRegistry registry;
+  private ExecutorService executor;
   private BYONComputeProvider provider;
 
   @Before
   public void setUp() {
-    CloudProvider cloudProvider = new BYONLauncher().createCloudProvider(
-        BYONCloudProvider.ID,
-        new SimpleConfiguration(Collections.<String, String>emptyMap()),
-        Locale.getDefault());
+    registry = new HostPoolRegistry();
+    executor = Executors.newCachedThreadPool();
 
     Map<String, String> configs = new HashMap<String, String>();
     configs.put(HOSTS.unwrap().getConfigKey(), "10.0.1.[5-15]");
 
-    provider = (BYONComputeProvider) cloudProvider
-        .createResourceProvider(BYONComputeProvider.ID, new SimpleConfiguration(configs));
+    provider = newProvider(configs);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+    registry.close();
+  }
+
+  private BYONComputeProvider newProvider(Map<String, String> configs) {
+    return new BYONComputeProvider(new SimpleConfiguration(configs),
+        new BYONLauncher().getLocalizationContext(Locale.getDefault()),
+        CachingHostResolver.getDefault(), registry);
+  }
+
+  @Test
+  public void testCreateResourceProvider_SharesTheDefaultRegistry() throws InterruptedException {
+    CloudProvider cloudProvider = new BYONLauncher().createCloudProvider(BYONCloudProvider.ID,
+        new SimpleConfiguration(Collections.<String, String>emptyMap()), Locale.getDefault());
+    Map<String, String> configs = new HashMap<String, String>();
+    configs.put(HOSTS.unwrap().getConfigKey(), "10.0.90.[1-3]");
+
+    BYONComputeProvider first = (BYONComputeProvider) cloudProvider.createResourceProvider(
+        BYONComputeProvider.ID, new SimpleConfiguration(configs));
+    BYONComputeProvider second = (BYONComputeProvider) cloudProvider.createResourceProvider(
+        BYONComputeProvider.ID, new SimpleConfiguration(configs));
+    assertThat(first.getPool()).isSameAs(second.getPool());
+    assertThat(first.getPool()).isSameAs(new BYONComputeProvider(new SimpleConfiguration(configs),
+        new BYONLauncher().getLocalizationContext(Locale.getDefault())).getPool());
+    assertThat(registry.size()).isEqualTo(1);
+    assertThat(first.getResolver()).isSameAs(CachingHostResolver.getDefault());
+
+    BYONComputeInstanceTemplate template = first.createResourceTemplate(
+        "test",
+        new SimpleConfiguration(Collections.<String, String>emptyMap()),
+        Collections.<String, String>emptyMap()
+    );
+    List<String> instanceIds = Arrays.asList("ID-1", "ID-2");
+    try {
+      first.allocate(template, instanceIds, 2);
+      assertThat(second.getAllocations()).containsKeys("ID-1", "ID-2");
+      assertThat(second.getAvailableHosts()).hasSize(1);
+    } finally {
+      second.delete(template, instanceIds);
+    }
+    assertThat(first.getAllocations()).isEmpty();
   }
 
   @Test
@@ -96,6 +173,28 @@ public class BYONComputeProviderTest {
         .contains("10.0.1.7");
   }
 
+  @Test
+  public void testMetrics_CountAllocationsAndDeletions() throws InterruptedException {
+    BYONComputeInstanceTemplate template = provider.createResourceTemplate(
+        "test",
+        new SimpleConfiguration(Collections.<String, String>emptyMap()),
+        Collections.<String, String>emptyMap()
+    );
+
+    List<String> instanceIds = Arrays.asList("ID-1", "ID-2", "ID-3");
+    provider.allocate(template, instanceIds, 1);
+    provider.find(template, instanceIds);
+    provider.delete(template, Arrays.asList("ID-1", "ID-4"));
+
+    MetricsRegistry metrics = provider.getMetrics();
+    assertThat(metrics.counter("allocatedInstances").sum()).isEqualTo(3);
+    assertThat(metrics.counter("deletedInstances").sum()).isEqualTo(1);
+    assertThat(metrics.counter("allocationFailures").sum()).isEqualTo(0);
+    assertThat(metrics.histogram("allocate").getCount()).isEqualTo(1);
+    assertThat(metrics.histogram("find").getCount()).isEqualTo(1);
+    assertThat(metrics.getMetrics().get("allocatedHosts")).isNotNull();
+  }
+
   @Test
   public void testAllocate_WithManyPreferredHosts() throws Exception {
     Map<String, String> configs = new HashMap<String, String>();
@@ -141,4 +240,407 @@ public class BYONComputeProviderTest {
     assertThat(provider.find(template, instanceIds))
         .hasSameSizeAs(instanceIds);
   }
+
+  @Test
+  public void testAllocate_WithRequirements() throws Exception {
+    Map<String, String> providerConfigs = new HashMap<String, String>();
+    providerConfigs.put(HOSTS.unwrap().getConfigKey(),
+        "10.0.4.[1-4]{rack=r1,cores=16}, 10.0.4.[5-8]{rack=r2,cores=32}");
+    BYONComputeProvider racked = newProvider(providerConfigs);
+
+    Map<String, String> configs = new HashMap<String, String>();
+    configs.put(PREFERRED_HOSTS.unwrap().getConfigKey(), "10.0.4.2, 10.0.4.7");
+    configs.put(REQUIREMENTS.unwrap().getConfigKey(), "cores>=32");
+    BYONComputeInstanceTemplate template = racked.createResourceTemplate(
+        "test", new SimpleConfiguration(configs), Collections.<String, String>emptyMap());
+
+    racked.allocate(template, Arrays.asList("ID-1", "ID-2"), 2);
+
+    assertThat(racked.getAllocations().get("ID-1")).isEqualTo("10.0.4.7");
+    assertThat(racked.getAllocations().get("ID-2")).isEqualTo("10.0.4.5");
+
+    try {
+      racked.allocate(template, Arrays.asList("ID-3", "ID-4", "ID-5"), 3);
+      throw new AssertionError("Expected allocation to fail");
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessageContaining("cores>=32");
+    }
+    assertThat(racked.getAvailableHosts()).hasSize(6);
+  }
+
+  @Test
+  public void testAllocate_SpreadAcrossRacks() throws Exception {
+    Map<String, String> providerConfigs = new HashMap<String, String>();
+    providerConfigs.put(HOSTS.unwrap().getConfigKey(),
+        "10.0.5.[1-4]{rack=r1}, 10.0.5.[5-8]{rack=r2}");
+    BYONComputeProvider racked = newProvider(providerConfigs);
+
+    Map<String, String> configs = new HashMap<String, String>();
+    configs.put(PLACEMENT.unwrap().getConfigKey(), "spread");
+    BYONComputeInstanceTemplate template = racked.createResourceTemplate(
+        "test", new SimpleConfiguration(configs), Collections.<String, String>emptyMap());
+
+    racked.allocate(template, Arrays.asList("ID-1", "ID-2", "ID-3", "ID-4"), 4);
+
+    assertThat(racked.getAllocations().values())
+        .hasSize(4).contains("10.0.5.1", "10.0.5.2", "10.0.5.5", "10.0.5.6");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCreateTemplate_UnknownPlacement() {
+    Map<String, String> configs = new HashMap<String, String>();
+    configs.put(PLACEMENT.unwrap().getConfigKey(), "scatter");
+
+    provider.createResourceTemplate(
+        "test", new SimpleConfiguration(configs), Collections.<String, String>emptyMap());
+  }
+
+  @Test
+  public void testUpdateHosts_KeepsAllocations() throws InterruptedException {
+    BYONComputeInstanceTemplate template = provider.createResourceTemplate(
+        "test",
+        new SimpleConfiguration(Collections.<String, String>emptyMap()),
+        Collections.<String, String>emptyMap()
+    );
+    provider.allocate(template, Arrays.asList("ID-1", "ID-2"), 2);
+
+    provider.updateHosts("10.0.1.[6-10], 10.0.1.[100-101]");
+
+    assertThat(provider.getAllocations()).hasSize(2).containsKeys("ID-1", "ID-2");
+    assertThat(provider.getAvailableHosts())
+        .containsExactly("10.0.1.7", "10.0.1.8", "10.0.1.9", "10.0.1.10",
+            "10.0.1.100", "10.0.1.101");
+    assertThat(provider.find(template, Arrays.asList("ID-1"))).hasSize(1);
+  }
+
+  @Test
+  public void testJournal_AllocationsSurviveRestart() throws IOException, InterruptedException {
+    Map<String, String> configs = new HashMap<String, String>();
+    configs.put(HOSTS.unwrap().getConfigKey(), "10.0.2.[5-15]");
+    configs.put(JOURNAL_DIRECTORY.unwrap().getConfigKey(),
+        folder.newFolder("journal").getAbsolutePath());
+
+    BYONComputeProvider journaled = newProvider(configs);
+    BYONComputeInstanceTemplate template = journaled.createResourceTemplate(
+        "test",
+        new SimpleConfiguration(Collections.<String, String>emptyMap()),
+        Collections.<String, String>emptyMap()
+    );
+
+    journaled.allocate(template, Arrays.asList("ID-1", "ID-2", "ID-3"), 3);
+    journaled.delete(template, Collections.singletonList("ID-2"));
+    registry.close();
+
+    registry = new HostPoolRegistry();
+    BYONComputeProvider restarted = newProvider(configs);
+
+    assertThat(restarted.getAllocations())
+        .hasSize(2)
+        .containsKeys("ID-1", "ID-3");
+    // the host of ID-2 was retired without a reclaimer and stays retired
+    assertThat(restarted.getAvailableHosts())
+        .hasSize(8)
+        .doesNotContain("10.0.2.5", "10.0.2.6", "10.0.2.7");
+    assertThat(restarted.find(template, Arrays.asList("ID-1", "ID-2", "ID-3")))
+        .hasSize(2);
+  }
+
+  @Test
+  public void testProvidersOverTheSameHosts_ShareAllocations() throws InterruptedException {
+    Map<String, String> configs = new HashMap<String, String>();
+    configs.put(HOSTS.unwrap().getConfigKey(), " 10.0.1.[5-15] ,");
+
+    BYONComputeProvider other = newProvider(configs);
+    BYONComputeInstanceTemplate template = provider.createResourceTemplate(
+        "test",
+        new SimpleConfiguration(Collections.<String, String>emptyMap()),
+        Collections.<String, String>emptyMap()
+    );
+
+    provider.allocate(template, Arrays.asList("ID-1", "ID-2"), 2);
+    other.allocate(template, Arrays.asList("ID-3"), 1);
+
+    assertThat(other.getAllocations())
+        .hasSize(3)
+        .containsKeys("ID-1", "ID-2", "ID-3");
+    assertThat(provider.getAvailableHosts())
+        .hasSize(8)
+        .doesNotContain("10.0.1.5", "10.0.1.6", "10.0.1.7");
+    assertThat(other.find(template, Arrays.asList("ID-1")))
+        .hasSize(1);
+  }
+
+  @Test
+  public void testDelete_ReclaimedHostsAreReturnedToThePool() throws InterruptedException {
+    Map<String, String> configs = new HashMap<String, String>();
+    configs.put(HOSTS.unwrap().getConfigKey(), "10.0.3.[5-6]");
+    configs.put(RECLAIM_DELETED_HOSTS.unwrap().getConfigKey(), "true");
+    configs.put(RECLAMATION_QUARANTINE_SECONDS.unwrap().getConfigKey(), "0");
+
+    BYONComputeProvider reclaiming = newProvider(configs);
+    BYONComputeInstanceTemplate template = reclaiming.createResourceTemplate(
+        "test",
+        new SimpleConfiguration(Collections.<String, String>emptyMap()),
+        Collections.<String, String>emptyMap()
+    );
+
+    reclaiming.allocate(template, Arrays.asList("ID-1", "ID-2"), 2);
+    reclaiming.delete(template, Arrays.asList("ID-1", "ID-2"));
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (reclaiming.getAvailableHosts().size() < 2 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(reclaiming.getAvailableHosts())
+        .containsExactly("10.0.3.5", "10.0.3.6");
+
+    reclaiming.allocate(template, Arrays.asList("ID-3", "ID-4"), 2);
+    assertThat(reclaiming.getAllocations())
+        .hasSize(2)
+        .containsKeys("ID-3", "ID-4");
+  }
+
+  @Test
+  public void testAllocate_RollsBackWhenAHostDoesNotResolve() throws InterruptedException {
+    HostResolver resolver = new HostResolver() {
+      @Override
+      public InetAddress resolve(String host) throws UnknownHostException {
+        if (host.startsWith("bad")) {
+          throw new UnknownHostException(host);
+        }
+        return InetAddress.getByAddress(host, new byte[]{127, 0, 0, 1});
+      }
+    };
+
+    Map<String, String> configs = new HashMap<String, String>();
+    configs.put(HOSTS.unwrap().getConfigKey(), "good-1, bad-1, good-2");
+
+    BYONComputeProvider failing = new BYONComputeProvider(new SimpleConfiguration(configs),
+        new BYONLauncher().getLocalizationContext(Locale.getDefault()),
+        new CachingHostResolver(resolver, executor, 16, TimeUnit.MINUTES.toNanos(1), 0),
+        registry);
+    BYONComputeInstanceTemplate template = failing.createResourceTemplate(
+        "test",
+        new SimpleConfiguration(Collections.<String, String>emptyMap()),
+        Collections.<String, String>emptyMap()
+    );
+
+    try {
+      failing.allocate(template, Arrays.asList("ID-1", "ID-2", "ID-3"), 3);
+      throw new AssertionError("Expected allocation to fail");
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessageContaining("bad-1");
+    }
+
+    assertThat(failing.getAllocations()).isEmpty();
+    assertThat(failing.getAvailableHosts())
+        .containsExactly("good-1", "bad-1", "good-2");
+    assertThat(failing.getMetrics().counter("allocationFailures").sum()).isEqualTo(1);
+
+    configs.put(PREFERRED_HOSTS.unwrap().getConfigKey(), "good-2");
+    BYONComputeInstanceTemplate preferring = failing.createResourceTemplate(
+        "test", new SimpleConfiguration(configs), Collections.<String, String>emptyMap());
+    assertThat(failing.allocate(preferring, Arrays.asList("ID-4"), 1)).hasSize(1);
+    assertThat(failing.getAllocations().get("ID-4")).isEqualTo("good-2");
+  }
+
+  @Test
+  public void testLookups_ConfirmLeases() throws InterruptedException {
+    Map<String, String> configs = new HashMap<String, String>();
+    configs.put(HOSTS.unwrap().getConfigKey(), "10.0.2.[1-5]");
+    configs.put(LEASE_SECONDS.unwrap().getConfigKey(), "3600");
+
+    BYONComputeProvider leasing = newProvider(configs);
+    BYONComputeInstanceTemplate template = leasing.createResourceTemplate(
+        "test",
+        new SimpleConfiguration(Collections.<String, String>emptyMap()),
+        Collections.<String, String>emptyMap()
+    );
+    leasing.allocate(template, Arrays.asList("ID-1", "ID-2", "ID-3"), 3);
+    Map<String, Object> metrics = leasing.getMetrics().getMetrics();
+    assertThat(((LongSupplier) metrics.get("unconfirmedLeases")).getAsLong()).isEqualTo(3L);
+
+    leasing.find(template, Collections.singletonList("ID-1"));
+    leasing.getInstanceState(template, Arrays.asList("ID-2", "ID-4"));
+
+    assertThat(((LongSupplier) metrics.get("unconfirmedLeases")).getAsLong()).isEqualTo(1L);
+    assertThat(((LongSupplier) metrics.get("confirmedLeases")).getAsLong()).isEqualTo(2L);
+  }
+
+  @Test
+  public void testFind_ReturnsCachedInstances() throws InterruptedException {
+    Map<String, String> configs = new HashMap<String, String>();
+    configs.put(HOSTS.unwrap().getConfigKey(), "10.0.6.[1-2]{rack=r1}, 10.0.6.3");
+    BYONComputeProvider racked = newProvider(configs);
+    BYONComputeInstanceTemplate template = racked.createResourceTemplate(
+        "test",
+        new SimpleConfiguration(Collections.<String, String>emptyMap()),
+        Collections.<String, String>emptyMap()
+    );
+    List<BYONComputeInstance> allocated = new ArrayList<BYONComputeInstance>(
+        racked.allocate(template, Arrays.asList("ID-1", "ID-2", "ID-3"), 3));
+
+    List<BYONComputeInstance> found = new ArrayList<BYONComputeInstance>(
+        racked.find(template, Arrays.asList("ID-3", "ID-4", "ID-1")));
+    assertThat(found).hasSize(2);
+    assertThat(found.get(0)).isSameAs(allocated.get(2));
+    assertThat(found.get(1)).isSameAs(allocated.get(0));
+
+    Map<String, String> properties = found.get(1).getProperties();
+    assertThat(properties).containsEntry(BYONComputeInstance.HOST, "10.0.6.1")
+        .containsEntry("rack", "r1")
+        .containsKeys(BYONComputeInstance.ALLOCATED_AT);
+    assertThat(properties).isSameAs(found.get(1).getProperties());
+    assertThat(found.get(0).getProperties()).doesNotContainKey("rack");
+
+    racked.delete(template, Collections.singletonList("ID-1"));
+    assertThat(racked.find(template, Collections.singletonList("ID-1"))).isEmpty();
+    Map<String, Object> metrics = racked.getMetrics().getMetrics();
+    assertThat(((LongSupplier) metrics.get("cachedInstances")).getAsLong()).isEqualTo(2L);
+  }
+
+  @Test
+  public void testFind_DoesNotLookUpCachedInstances() throws InterruptedException {
+    final AtomicInteger lookups = new AtomicInteger();
+    HostResolver resolver = new HostResolver() {
+      @Override
+      public InetAddress resolve(String host) throws UnknownHostException {
+        lookups.incrementAndGet();
+        return InetAddress.getByAddress(host, new byte[]{127, 0, 0, 1});
+      }
+    };
+
+    Map<String, String> configs = new HashMap<String, String>();
+    configs.put(HOSTS.unwrap().getConfigKey(), "host-1, host-2");
+    // answers expire right away, so any lookup through the resolver would show
+    BYONComputeProvider uncached = new BYONComputeProvider(new SimpleConfiguration(configs),
+        new BYONLauncher().getLocalizationContext(Locale.getDefault()),
+        new CachingHostResolver(resolver, executor, 16, 0, 0),
+        registry);
+    BYONComputeInstanceTemplate template = uncached.createResourceTemplate(
+        "test",
+        new SimpleConfiguration(Collections.<String, String>emptyMap()),
+        Collections.<String, String>emptyMap()
+    );
+    List<BYONComputeInstance> allocated = new ArrayList<BYONComputeInstance>(
+        uncached.allocate(template, Arrays.asList("ID-1", "ID-2"), 2));
+    int lookupsAfterAllocate = lookups.get();
+
+    List<BYONComputeInstance> found = new ArrayList<BYONComputeInstance>(
+        uncached.find(template, Arrays.asList("ID-1", "ID-2")));
+    assertThat(found.get(0)).isSameAs(allocated.get(0));
+    assertThat(found.get(1)).isSameAs(allocated.get(1));
+    assertThat(lookups.get()).isEqualTo(lookupsAfterAllocate);
+  }
+
+  @Test
+  public void testFind_RebuildsInstancesWhenTheirLeaseIsConfirmed()
+      throws InterruptedException {
+    Map<String, String> configs = new HashMap<String, String>();
+    configs.put(HOSTS.unwrap().getConfigKey(), "10.0.7.[1-2]");
+    configs.put(LEASE_SECONDS.unwrap().getConfigKey(), "3600");
+    BYONComputeProvider leasing = newProvider(configs);
+    BYONComputeInstanceTemplate template = leasing.createResourceTemplate(
+        "test",
+        new SimpleConfiguration(Collections.<String, String>emptyMap()),
+        Collections.<String, String>emptyMap()
+    );
+    BYONComputeInstance allocated =
+        leasing.allocate(template, Collections.singletonList("ID-1"), 1).iterator().next();
+    assertThat(allocated.getProperties())
+        .containsEntry(BYONComputeInstance.LEASE_STATE, HostLeases.UNCONFIRMED);
+
+    BYONComputeInstance confirmed =
+        leasing.find(template, Collections.singletonList("ID-1")).iterator().next();
+    assertThat(confirmed.getProperties())
+        .containsEntry(BYONComputeInstance.LEASE_STATE, HostLeases.CONFIRMED)
+        .containsEntry(BYONComputeInstance.ALLOCATED_AT,
+            allocated.getProperties().get(BYONComputeInstance.ALLOCATED_AT));
+    assertThat(leasing.find(template, Collections.singletonList("ID-1")).iterator().next())
+        .isSameAs(confirmed);
+  }
+
+  @Test
+  public void testAllocate_MatchesAndExposesHostFacts() throws Exception {
+    Path script = folder.newFile("facts.sh").toPath();
+    Files.write(script, Arrays.asList(
+        "case \"$1\" in 10.0.8.1) echo cpus=32 ;; *) echo cpus=8 ;; esac",
+        "echo os=linux"), StandardCharsets.UTF_8);
+
+    Map<String, String> configs = new HashMap<String, String>();
+    configs.put(HOSTS.unwrap().getConfigKey(), "10.0.8.[1-2], 10.0.8.3{cpus=64}");
+    configs.put(HOST_FACTS_COMMAND.unwrap().getConfigKey(), "sh " + script);
+    BYONComputeProvider gathering = newProvider(configs);
+    LongSupplier pending =
+        (LongSupplier) gathering.getMetrics().getMetrics().get("factsPending");
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (pending.getAsLong() > 0 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+
+    Map<String, String> templateConfigs = new HashMap<String, String>();
+    templateConfigs.put(REQUIREMENTS.unwrap().getConfigKey(), "cpus>=16,os=linux");
+    BYONComputeInstanceTemplate template = gathering.createResourceTemplate(
+        "test",
+        new SimpleConfiguration(templateConfigs),
+        Collections.<String, String>emptyMap()
+    );
+    Collection<BYONComputeInstance> allocated =
+        gathering.allocate(template, Arrays.asList("ID-1", "ID-2", "ID-3"), 1);
+
+    assertThat(allocated).hasSize(2);
+    Map<String, BYONComputeInstance> byHost = new HashMap<String, BYONComputeInstance>();
+    for (BYONComputeInstance instance : allocated) {
+      byHost.put(instance.getHost(), instance);
+    }
+    assertThat(byHost.get("10.0.8.1").getProperties())
+        .containsEntry(HostFacts.CPUS, "32")
+        .containsEntry(HostFacts.OS, "linux");
+    assertThat(byHost.get("10.0.8.3").getProperties())
+        .containsEntry(HostFacts.CPUS, "64")
+        .containsEntry(HostFacts.OS, "linux");
+  }
+
+  @Test
+  public void testGetInstanceState_MapsProbeResults() {
+    assertThat(BYONComputeProvider.getStatus(null)).isEqualTo(InstanceStatus.RUNNING);
+    assertThat(BYONComputeProvider.getStatus(HostLiveness.UNKNOWN))
+        .isEqualTo(InstanceStatus.UNKNOWN);
+    assertThat(BYONComputeProvider.getStatus(HostLiveness.REACHABLE))
+        .isEqualTo(InstanceStatus.RUNNING);
+    assertThat(BYONComputeProvider.getStatus(HostLiveness.UNREACHABLE))
+        .isEqualTo(InstanceStatus.STOPPED);
+    assertThat(BYONComputeProvider.getStatus(HostLiveness.REFUSED))
+        .isEqualTo(InstanceStatus.FAILED);
+  }
+
+  @Test
+  public void testGetInstanceState_ProbesAllocatedHosts() throws Exception {
+    ServerSocket server = new ServerSocket(0, 16, InetAddress.getLoopbackAddress());
+    try {
+      Map<String, String> configs = new HashMap<String, String>();
+      configs.put(HOSTS.unwrap().getConfigKey(), "127.0.0.1");
+      configs.put(PROBE_PORT.unwrap().getConfigKey(), String.valueOf(server.getLocalPort()));
+
+      BYONComputeProvider probing = newProvider(configs);
+      BYONComputeInstanceTemplate template = probing.createResourceTemplate(
+          "test",
+          new SimpleConfiguration(Collections.<String, String>emptyMap()),
+          Collections.<String, String>emptyMap()
+      );
+      probing.allocate(template, Collections.singletonList("ID-1"), 1);
+
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      InstanceStatus status = InstanceStatus.UNKNOWN;
+      while (status != InstanceStatus.RUNNING && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+        status = probing.getInstanceState(template, Collections.singletonList("ID-1"))
+            .get("ID-1").getInstanceStatus();
+      }
+      assertThat(status).isEqualTo(InstanceStatus.RUNNING);
+
+    } finally {
+      server.close();
+    }
+  }
 }
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cloudera.director.byon.compute;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.cloudera.director.byon.util.HostGroups;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class CapacityWaitersTest {
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testWaitingRequest_IsServedWhenAHostIsReturned() throws Exception {
+    HostPool pool = new HostPool(HostGroups.parse("h-[1-2]"));
+    CapacityWaiters waiters = attach(pool, 60, 4);
+    allocate(pool, "ID-1", "ID-2");
+
+    Future<String> waiting = allocateLater(pool, "ID-3");
+    awaitWaiting(waiters, 1);
+    assertThat(waiting.isDone()).isFalse();
+
+    pool.release("ID-1");
+    pool.returnHost("h-1");
+    assertThat(waiting.get(10, TimeUnit.SECONDS)).isEqualTo("h-1");
+    assertThat(waiters.getWaitingCount()).isEqualTo(0);
+    assertThat(pool.getMetrics().getMetrics()).containsKeys("capacityWaiting",
+        "capacityTimeouts", "capacityRejections", "capacityWait");
+  }
+
+  @Test
+  public void testWaitingRequest_IsServedWhenHostsAreAdded() throws Exception {
+    HostPool pool = new HostPool(HostGroups.parse("h-1"));
+    CapacityWaiters waiters = attach(pool, 60, 4);
+    allocate(pool, "ID-1");
+
+    Future<String> waiting = allocateLater(pool, "ID-2");
+    awaitWaiting(waiters, 1);
+
+    pool.update(HostGroups.parse("h-[1-2]"));
+    assertThat(waiting.get(10, TimeUnit.SECONDS)).isEqualTo("h-2");
+  }
+
+  @Test
+  public void testWaitingRequest_FailsAfterTheMaximumWait() throws Exception {
+    HostPool pool = new HostPool(HostGroups.parse("h-1"));
+    CapacityWaiters waiters = new CapacityWaiters(50, TimeUnit.MILLISECONDS, 4,
+        available(pool));
+    pool.attachCapacityWaiters(waiters);
+    allocate(pool, "ID-1");
+
+    long start = System.nanoTime();
+    try {
+      allocate(pool, "ID-2");
+      throw new AssertionError("Expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessageContaining("Not enough capacity");
+    }
+    assertThat(System.nanoTime() - start)
+        .isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+    assertThat(waiters.getTimeoutCount()).isEqualTo(1L);
+    assertThat(waiters.getWaitingCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testFullQueue_FailsRightAway() throws Exception {
+    HostPool pool = new HostPool(HostGroups.parse("h-1"));
+    CapacityWaiters waiters = attach(pool, 60, 1);
+    allocate(pool, "ID-1");
+
+    Future<String> waiting = allocateLater(pool, "ID-2");
+    awaitWaiting(waiters, 1);
+    try {
+      allocate(pool, "ID-3");
+      throw new AssertionError("Expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessageContaining("1 requests are already waiting");
+    }
+
+    pool.release("ID-1");
+    pool.returnHost("h-1");
+    assertThat(waiting.get(10, TimeUnit.SECONDS)).isEqualTo("h-1");
+  }
+
+  @Test
+  public void testEarliestDeadline_IsServedFirst() throws Exception {
+    HostPool pool = new HostPool(HostGroups.parse("h-1"));
+    CapacityWaiters waiters = attach(pool, 60, 4);
+    allocate(pool, "ID-1");
+
+    Future<String> first = allocateLater(pool, "ID-2");
+    awaitWaiting(waiters, 1);
+    Future<String> second = allocateLater(pool, "ID-3");
+    awaitWaiting(waiters, 2);
+
+    pool.release("ID-1");
+    pool.returnHost("h-1");
+    assertThat(first.get(10, TimeUnit.SECONDS)).isEqualTo("h-1");
+    assertThat(second.isDone()).isFalse();
+  }
+
+  @Test
+  public void testClose_FailsWaitingRequests() throws Exception {
+    HostPool pool = new HostPool(HostGroups.parse("h-1"));
+    CapacityWaiters waiters = attach(pool, 60, 4);
+    allocate(pool, "ID-1");
+
+    Future<String> waiting = allocateLater(pool, "ID-2");
+    awaitWaiting(waiters, 1);
+    pool.close();
+    try {
+      waiting.get(10, TimeUnit.SECONDS);
+      throw new AssertionError("Expected ExecutionException");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause() instanceof IllegalStateException).isTrue();
+    }
+  }
+
+  private static CapacityWaiters attach(HostPool pool, long seconds, int maxWaiting) {
+    CapacityWaiters waiters =
+        new CapacityWaiters(seconds, TimeUnit.SECONDS, maxWaiting, available(pool));
+    pool.attachCapacityWaiters(waiters);
+    return waiters;
+  }
+
+  private static IntSupplier available(final HostPool pool) {
+    return new IntSupplier() {
+      @Override
+      public int getAsInt() {
+        return pool.getUnreservedCount();
+      }
+    };
+  }
+
+  private static void awaitWaiting(CapacityWaiters waiters, int count)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (waiters.getWaitingCount() < count) {
+      if (System.nanoTime() > deadline) {
+        throw new AssertionError("Requests did not start waiting");
+      }
+      Thread.sleep(1);
+    }
+  }
+
+  private Future<String> allocateLater(final HostPool pool, final String instanceId) {
+    return executor.submit(new Callable<String>() {
+      @Override
+      public String call() {
+        allocate(pool, instanceId);
+        return pool.getHost(instanceId);
+      }
+    });
+  }
+
+  private static void allocate(HostPool pool, String... instanceIds) {
+    HostPool.Reservation reservation = pool.reserveBatch(instanceIds.length,
+        instanceIds.length, HostRequirements.NONE, null);
+    for (String instanceId : instanceIds) {
+      reservation.claimAny(instanceId);
+    }
+    reservation.commit();
+  }
+}
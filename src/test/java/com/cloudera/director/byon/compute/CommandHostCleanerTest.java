@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.compute;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CommandHostCleanerTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testClean_ExitStatus() throws InterruptedException {
+    assertThat(new CommandHostCleaner("true").clean("h-1")).isTrue();
+    assertThat(new CommandHostCleaner(" false ").clean("h-1")).isFalse();
+  }
+
+  @Test
+  public void testClean_PassesHostAsLastArgument() throws InterruptedException {
+    assertThat(new CommandHostCleaner("test h-1 =").clean("h-1")).isTrue();
+    assertThat(new CommandHostCleaner("test h-1 =").clean("h-2")).isFalse();
+  }
+
+  @Test
+  public void testClean_MissingCommand() throws InterruptedException {
+    assertThat(new CommandHostCleaner("/nonexistent/cleanup").clean("h-1")).isFalse();
+  }
+
+  @Test
+  public void testClean_LogsOutputOfFailedCommand() throws IOException, InterruptedException {
+    Path script = folder.newFile("cleanup.sh").toPath();
+    Files.write(script, ("#!/bin/sh\n" +
+        "seq 1 5000\n" +
+        "echo \"unable to wipe $1\" >&2\n" +
+        "exit 3\n").getBytes(StandardCharsets.UTF_8));
+    script.toFile().setExecutable(true);
+
+    final List<String> messages = new ArrayList<String>();
+    Handler handler = new Handler() {
+      @Override
+      public void publish(LogRecord record) {
+        messages.add(record.getMessage());
+      }
+
+      @Override
+      public void flush() {
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+    Logger logger = Logger.getLogger(CommandHostCleaner.class.getName());
+    logger.addHandler(handler);
+    try {
+      assertThat(new CommandHostCleaner(script.toString()).clean("h-1")).isFalse();
+    } finally {
+      logger.removeHandler(handler);
+    }
+
+    assertThat(messages).hasSize(1);
+    String message = messages.get(0);
+    assertThat(message)
+        .startsWith("Reclamation command for h-1 exited with status 3, output ends with:")
+        .endsWith("4999\n5000\nunable to wipe h-1\n");
+    assertThat(message.length()).isLessThan(CommandHostCleaner.MAX_LOGGED_BYTES + 100);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testEmptyCommand() {
+    new CommandHostCleaner("  ");
+  }
+}
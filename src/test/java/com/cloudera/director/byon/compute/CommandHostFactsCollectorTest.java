@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.compute;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class CommandHostFactsCollectorTest {
+
+  @Test
+  public void testCollect_ParsesOutput() throws Exception {
+    HostFacts facts = new CommandHostFactsCollector("printf cpus=%s\\nos=linux\\n").collect("16");
+
+    assertThat(facts.getCpus()).isEqualTo(16);
+    assertThat(facts.getOs()).isEqualTo("linux");
+  }
+
+  @Test(expected = IOException.class)
+  public void testCollect_FailsOnExitStatus() throws Exception {
+    new CommandHostFactsCollector("false").collect("h-1");
+  }
+
+  @Test(expected = IOException.class)
+  public void testCollect_FailsOnInvalidOutput() throws Exception {
+    new CommandHostFactsCollector("echo cpus=").collect("h-1");
+  }
+
+  @Test(expected = IOException.class)
+  public void testCollect_MissingCommand() throws Exception {
+    new CommandHostFactsCollector("/nonexistent/facts").collect("h-1");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testEmptyCommand() {
+    new CommandHostFactsCollector("  ");
+  }
+}
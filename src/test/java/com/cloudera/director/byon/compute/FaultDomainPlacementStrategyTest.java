@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cloudera.director.byon.compute;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.cloudera.director.byon.util.HostGroups;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FaultDomainPlacementStrategyTest {
+
+  @Test
+  public void testSpread_TakesOneHostFromEachDomainInTurn() {
+    HostPool pool = new HostPool(HostGroups.parse(
+        "a-[1-4]{rack=r1}, b-[1-4]{rack=r2}, c-[1-2]{rack=r1}, d-[1-4]{rack=r3}"));
+
+    assertThat(place(pool, new FaultDomainPlacementStrategy("rack"), 7))
+        .containsExactly("a-1", "b-1", "d-1", "a-2", "b-2", "d-2", "a-3");
+  }
+
+  @Test
+  public void testSpread_StartsWithTheNextDomainOnEachRequest() {
+    HostPool pool = new HostPool(HostGroups.parse("a-[1-4]{rack=r1}, b-[1-4]{rack=r2}"));
+    PlacementStrategy strategy = new FaultDomainPlacementStrategy("rack");
+
+    assertThat(place(pool, strategy, 1)).containsExactly("a-1");
+    assertThat(place(pool, strategy, 1)).containsExactly("b-1");
+    assertThat(place(pool, strategy, 1)).containsExactly("a-2");
+  }
+
+  @Test
+  public void testSpread_SkipsExhaustedDomains() {
+    HostPool pool = new HostPool(HostGroups.parse("a-1{rack=r1}, b-[1-4]{rack=r2}"));
+
+    assertThat(place(pool, new FaultDomainPlacementStrategy("rack"), 4))
+        .containsExactly("a-1", "b-1", "b-2", "b-3");
+  }
+
+  @Test
+  public void testSpread_FallsBackToPrefixesWithoutTheAttribute() {
+    HostPool pool = new HostPool(HostGroups.parse("a-[1-2], b-[1-2], a-3"));
+
+    assertThat(place(pool, new FaultDomainPlacementStrategy("rack"), 5))
+        .containsExactly("a-1", "b-1", "a-2", "b-2", "a-3");
+  }
+
+  @Test
+  public void testSpread_LiteralHostsKeepTheirOwnPrefixes() {
+    HostPool pool = new HostPool(HostGroups.parse("a-1, a-2, b-1, b-2, a-3"));
+
+    assertThat(place(pool, new FaultDomainPlacementStrategy(null), 5))
+        .containsExactly("a-1", "b-1", "a-2", "b-2", "a-3");
+  }
+
+  @Test
+  public void testRoundRobinByPrefix_WithRequirements() {
+    HostPool pool = new HostPool(HostGroups.parse(
+        "x-[1-3]{cores=16}, x-[4-6]{cores=32}, y-[1-3]{cores=32}, 10.0.0.[1-2]{cores=32}"));
+    HostPool.Reservation reservation =
+        pool.reserveBatch(4, 4, HostRequirements.parse("cores>=32"));
+    PlacementStrategy.Placement placement =
+        new FaultDomainPlacementStrategy(null).begin(pool, reservation);
+
+    List<String> hosts = new ArrayList<String>();
+    for (int i = 0; i < 4; i++) {
+      hosts.add(placement.claim("ID-" + i));
+    }
+    reservation.commit();
+
+    assertThat(hosts).containsExactly("x-4", "y-1", "10.0.0.1", "x-5");
+  }
+
+  @Test
+  public void testPack_TakesHostsInPoolOrder() {
+    HostPool pool = new HostPool(HostGroups.parse("a-[1-2]{rack=r1}, b-[1-2]{rack=r2}"));
+
+    assertThat(place(pool, PlacementStrategy.PACK, 3)).containsExactly("a-1", "a-2", "b-1");
+  }
+
+  private static List<String> place(HostPool pool, PlacementStrategy strategy, int count) {
+    HostPool.Reservation reservation = pool.reserveBatch(count, count);
+    PlacementStrategy.Placement placement = strategy.begin(pool, reservation);
+
+    List<String> hosts = new ArrayList<String>();
+    for (int i = 0; i < count; i++) {
+      hosts.add(placement.claim("ID-" + pool.getAllocations().size() + "-" + i));
+    }
+    reservation.commit();
+    return hosts;
+  }
+}
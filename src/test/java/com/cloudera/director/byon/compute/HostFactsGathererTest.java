@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.compute;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.cloudera.director.byon.util.HostGroups;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class HostFactsGathererTest {
+
+  /**
+   * Hosts named {@code big-*} have 64 CPUs, others 8, and {@code bad-*} hosts fail.
+   */
+  private static final HostFactsCollector COLLECTOR = new HostFactsCollector() {
+    @Override
+    public HostFacts collect(String host) throws IOException {
+      if (host.startsWith("bad-")) {
+        throw new IOException("Unreachable " + host);
+      }
+      return new HostFacts(host.startsWith("big-") ? 64 : 8, 1024, 1, 100, "linux");
+    }
+  };
+
+  private HostPool pool;
+
+  @After
+  public void tearDown() throws IOException {
+    if (pool != null) {
+      pool.close();
+    }
+  }
+
+  @Test
+  public void testAttach_GathersEveryHost() throws InterruptedException {
+    pool = new HostPool(HostGroups.parse("small-[1-2], big-1, bad-1"));
+    HostFactsGatherer gatherer = new HostFactsGatherer(pool, COLLECTOR);
+    pool.attachFactsGatherer(gatherer);
+    awaitIdle(gatherer);
+
+    assertThat(gatherer.getGatheredCount()).isEqualTo(3L);
+    assertThat(pool.getHostFacts("big-1").getCpus()).isEqualTo(64);
+    assertThat(pool.getHostFacts("small-2").getCpus()).isEqualTo(8);
+    assertThat(pool.getHostFacts("bad-1")).isNull();
+    assertThat(pool.getMetrics().getMetrics()).containsKeys("factsGathered", "factsFailures");
+  }
+
+  @Test
+  public void testRequirements_MatchGatheredFacts() throws InterruptedException {
+    pool = new HostPool(HostGroups.parse("small-[1-3], big-[1-2]"));
+    HostFactsGatherer gatherer = new HostFactsGatherer(pool, COLLECTOR);
+    pool.attachFactsGatherer(gatherer);
+    awaitIdle(gatherer);
+
+    HostPool.Reservation reservation =
+        pool.reserveBatch(1, 5, HostRequirements.parse("cpus>=32"));
+    assertThat(reservation.remaining()).isEqualTo(2);
+    assertThat(reservation.claimAny("ID-1")).isEqualTo("big-1");
+    assertThat(reservation.claim("ID-2", "small-1")).isFalse();
+    reservation.rollback();
+  }
+
+  @Test
+  public void testRequirements_PreferListedAttributes() throws InterruptedException {
+    pool = new HostPool(HostGroups.parse("big-1{cpus=4}, big-2"));
+    HostFactsGatherer gatherer = new HostFactsGatherer(pool, COLLECTOR);
+    pool.attachFactsGatherer(gatherer);
+    awaitIdle(gatherer);
+
+    HostPool.Reservation reservation =
+        pool.reserveBatch(1, 5, HostRequirements.parse("cpus>=32"));
+    assertThat(reservation.remaining()).isEqualTo(1);
+    assertThat(reservation.claimAny("ID-1")).isEqualTo("big-2");
+    reservation.rollback();
+    assertThat(pool.reserveBatch(1, 5, HostRequirements.parse("cpus=4")).remaining())
+        .isEqualTo(1);
+  }
+
+  @Test
+  public void testUpdate_GathersAddedHostsAndKeepsFacts() throws InterruptedException {
+    pool = new HostPool(HostGroups.parse("small-1, big-1"));
+    HostFactsGatherer gatherer = new HostFactsGatherer(pool, COLLECTOR);
+    pool.attachFactsGatherer(gatherer);
+    awaitIdle(gatherer);
+
+    pool.update(HostGroups.parse("small-1, big-[1-3]"));
+    awaitIdle(gatherer);
+
+    assertThat(gatherer.getGatheredCount()).isEqualTo(4L);
+    assertThat(pool.reserveBatch(1, 5, HostRequirements.parse("cpus>=32")).remaining())
+        .isEqualTo(3);
+  }
+
+  private static void awaitIdle(HostFactsGatherer gatherer) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (gatherer.getPendingCount() > 0) {
+      if (System.nanoTime() > deadline) {
+        throw new AssertionError("Facts still pending");
+      }
+      Thread.sleep(10);
+    }
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.compute;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class HostFactsTest {
+
+  @Test
+  public void testParse() {
+    HostFacts facts = HostFacts.parse("# gathered\ncpus=32\n\nmemoryMb = 262144\n" +
+        "disks=12\ndiskGb=48000\nos=CentOS Linux 7.9\nkernel=3.10\n");
+
+    assertThat(facts.getCpus()).isEqualTo(32);
+    assertThat(facts.getMemoryMb()).isEqualTo(262144L);
+    assertThat(facts.getDisks()).isEqualTo(12);
+    assertThat(facts.getDiskGb()).isEqualTo(48000L);
+    assertThat(facts.getOs()).isEqualTo("CentOS Linux 7.9");
+    assertThat(facts.asMap()).containsEntry(HostFacts.CPUS, "32")
+        .containsEntry(HostFacts.OS, "CentOS Linux 7.9")
+        .doesNotContainKey("kernel");
+  }
+
+  @Test
+  public void testParse_UnknownFactsAreLeftOut() {
+    HostFacts facts = HostFacts.parse("cpus=4");
+
+    assertThat(facts.getMemoryMb()).isEqualTo(HostFacts.UNKNOWN);
+    assertThat(facts.getOs()).isNull();
+    assertThat(facts.asMap()).hasSize(1).containsEntry(HostFacts.CPUS, "4");
+  }
+
+  @Test
+  public void testParse_InvalidFacts() {
+    for (String output : new String[]{"cpus", "cpus=many", "memoryMb=-1", "=4"}) {
+      try {
+        HostFacts.parse(output);
+        throw new AssertionError("Expected an exception for " + output);
+      } catch (IllegalArgumentException e) {
+        assertThat(e.getMessage()).contains("Invalid host fact");
+      }
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cloudera.director.byon.compute;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.cloudera.director.byon.util.HostGroups;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.junit.Test;
+
+public class HostLeasesTest {
+
+  private final AtomicLong now = new AtomicLong();
+
+  private final LongSupplier clock = new LongSupplier() {
+    @Override
+    public long getAsLong() {
+      return now.get();
+    }
+  };
+
+  @Test
+  public void testUnconfirmedLease_RetiresHost() {
+    HostPool pool = new HostPool(HostGroups.parse("h-[1-3]"));
+    HostLeases leases = new HostLeases(pool, 60, TimeUnit.SECONDS, clock, null);
+    pool.attachLeases(leases);
+    allocate(pool, "ID-1", "ID-2");
+
+    advance(59);
+    assertThat(leases.expireDue()).isEqualTo(0);
+    assertThat(pool.getAllocations()).hasSize(2);
+
+    advance(2);
+    assertThat(leases.expireDue()).isEqualTo(2);
+    assertThat(pool.getAllocations()).isEmpty();
+    // like the hosts of deleted instances, without a reclaimer
+    assertThat(pool.getAvailableHosts()).containsExactly("h-3");
+    assertThat(leases.getExpiredCount()).isEqualTo(2L);
+    assertThat(pool.getMetrics().getMetrics()).containsKeys("unconfirmedLeases",
+        "confirmedLeases", "expiredLeases");
+  }
+
+  @Test
+  public void testUnconfirmedLease_HostGoesThroughTheReclaimer() {
+    HostPool pool = new HostPool(HostGroups.parse("h-[1-3]"));
+    HostReclaimer reclaimer = new HostReclaimer(pool, HostCleaner.NONE, 1, TimeUnit.HOURS);
+    pool.attachReclaimer(reclaimer);
+    HostLeases leases = new HostLeases(pool, 60, TimeUnit.SECONDS, clock, null);
+    pool.attachLeases(leases);
+    allocate(pool, "ID-1");
+
+    advance(61);
+    try {
+      assertThat(leases.expireDue()).isEqualTo(1);
+      assertThat(reclaimer.getQueueDepth()).isEqualTo(1);
+      assertThat(pool.getAvailableHosts()).containsExactly("h-2", "h-3");
+    } finally {
+      reclaimer.shutdown();
+    }
+  }
+
+  @Test
+  public void testConfirmedLease_KeepsTheAllocation() {
+    HostPool pool = new HostPool(HostGroups.parse("h-[1-3]"));
+    HostLeases leases = new HostLeases(pool, 60, TimeUnit.SECONDS, clock, null);
+    pool.attachLeases(leases);
+    allocate(pool, "ID-1", "ID-2");
+
+    assertThat(pool.confirm("ID-1")).isTrue();
+    assertThat(pool.confirm("ID-1")).isFalse();
+    advance(600);
+
+    assertThat(leases.expireDue()).isEqualTo(1);
+    assertThat(pool.getAllocations()).containsKeys("ID-1").hasSize(1);
+    assertThat(leases.getPendingCount()).isEqualTo(0);
+    assertThat(leases.getConfirmedCount()).isEqualTo(1L);
+  }
+
+  @Test
+  public void testDeletedInstance_LeaseIsCancelled() {
+    HostPool pool = new HostPool(HostGroups.parse("h-[1-3]"));
+    HostLeases leases = new HostLeases(pool, 60, TimeUnit.SECONDS, clock, null);
+    pool.attachLeases(leases);
+    allocate(pool, "ID-1");
+    pool.release("ID-1");
+
+    advance(61);
+    assertThat(leases.expireDue()).isEqualTo(0);
+    assertThat(pool.getAvailableHosts()).containsExactly("h-2", "h-3");
+  }
+
+  @Test
+  public void testLeasesLongerThanTheWheel_ExpireOnTime() {
+    HostPool pool = new HostPool(HostGroups.parse("h-[1-3]"));
+    HostLeases leases = new HostLeases(pool, 60, TimeUnit.SECONDS, clock, null);
+    pool.attachLeases(leases);
+
+    for (int second = 0; second < 200; second += 5) {
+      advance(5);
+      leases.expireDue();
+      if (second == 30) {
+        allocate(pool, "ID-" + second);
+      }
+    }
+    assertThat(leases.getExpiredCount()).isEqualTo(1L);
+
+    allocate(pool, "ID-late");
+    advance(30);
+    leases.expireDue();
+    assertThat(pool.getAllocations()).containsKeys("ID-late");
+  }
+
+  @Test
+  public void testWithoutLeases_ConfirmDoesNothing() {
+    HostPool pool = new HostPool(HostGroups.parse("h-[1-3]"));
+    allocate(pool, "ID-1");
+
+    assertThat(pool.confirm("ID-1")).isFalse();
+    assertThat(pool.getAllocations()).hasSize(1);
+  }
+
+  private void advance(long seconds) {
+    now.addAndGet(TimeUnit.SECONDS.toNanos(seconds));
+  }
+
+  private static void allocate(HostPool pool, String... instanceIds) {
+    HostPool.Reservation reservation = pool.reserveBatch(instanceIds.length, instanceIds.length);
+    for (String instanceId : instanceIds) {
+      reservation.claimAny(instanceId);
+    }
+    reservation.commit();
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.compute;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.cloudera.director.byon.metrics.MetricsMBean;
+import com.cloudera.director.byon.util.HostGroups;
+
+import java.io.IOException;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HostPoolRegistryTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testGet_SharesPoolForEquivalentExpressions() {
+    HostPoolRegistry registry = new HostPoolRegistry();
+
+    HostPool first = registry.get("h-[1-5], h-7", HostPoolSettings.DEFAULT);
+    HostPool second = registry.get(" h-[1-5],,h-7 ",
+        new HostPoolSettings("", false, 0, " ", 0, 30, false, 22, null, 0, null, 0, " "));
+
+    assertThat(second).isSameAs(first);
+    assertThat(registry.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void testClose_DropsPools() {
+    HostPoolRegistry registry = new HostPoolRegistry();
+
+    registry.get("h-[1-5]", HostPoolSettings.DEFAULT);
+    registry.get("g-[1-5]", HostPoolSettings.DEFAULT);
+    assertThat(registry.size()).isEqualTo(2);
+
+    registry.close();
+    assertThat(registry.size()).isEqualTo(0);
+    try {
+      registry.get("h-[1-5]", HostPoolSettings.DEFAULT);
+      throw new AssertionError("Expected the registry to be closed");
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessageContaining("closed");
+    }
+    registry.close();
+  }
+
+  @Test
+  public void testUpdateHosts_RegistersPoolUnderNewHosts() {
+    HostPoolRegistry registry = new HostPoolRegistry();
+
+    HostPool pool = registry.get("h-[1-5]", HostPoolSettings.DEFAULT);
+    pool.reserve(1, 1);
+    pool.assign("ID-1", pool.claimAny());
+    registry.updateHosts(pool, "h-[1-7]");
+
+    assertThat(registry.get("h-[1-7]", HostPoolSettings.DEFAULT)).isSameAs(pool);
+    assertThat(registry.get("h-[1-5]", HostPoolSettings.DEFAULT)).isSameAs(pool);
+    assertThat(registry.size()).isEqualTo(1);
+    assertThat(pool.getAvailableHosts()).hasSize(6);
+
+    HostPool other = registry.get("g-[1-5]", HostPoolSettings.DEFAULT);
+    try {
+      registry.updateHosts(other, " h-[1-7] ");
+      throw new AssertionError("Expected the hosts to be in use");
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessageContaining("h-[1-7]");
+    }
+    assertThat(other.getAvailableHosts()).hasSize(5);
+    registry.close();
+  }
+
+  @Test
+  public void testGet_RegistersMetricsUntilClosed() throws Exception {
+    MBeanServer server = MBeanServerFactory.newMBeanServer();
+    HostPoolRegistry registry = new HostPoolRegistry(server);
+    ObjectName name = new ObjectName(MetricsMBean.DOMAIN + ":type=HostPool,hosts=" +
+        ObjectName.quote("h-[1-5]"));
+
+    ObjectName resolverName = new ObjectName(MetricsMBean.DOMAIN + ":type=HostResolver");
+
+    HostPool pool = registry.get("h-[1-5]", HostPoolSettings.DEFAULT);
+    pool.reserve(2, 2);
+    assertThat(server.getAttribute(name, "unreservedHosts")).isEqualTo(3L);
+    assertThat(server.isRegistered(resolverName)).isTrue();
+
+    registry.close();
+    assertThat(server.isRegistered(name)).isFalse();
+    assertThat(server.isRegistered(resolverName)).isFalse();
+    assertThat(server.getMBeanCount()).isEqualTo(1);  // the delegate of the server
+
+    // a pool closed on its own unregisters its metrics too
+    HostPool alone = new HostPool(HostGroups.parse("h-[1-5]"));
+    alone.registerMBean(server, "type=HostPool,hosts=" + ObjectName.quote("h-[1-5]"), "alone");
+    assertThat(server.isRegistered(name)).isTrue();
+    alone.close();
+    assertThat(server.isRegistered(name)).isFalse();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testGet_RejectsDifferentSettings() {
+    HostPoolRegistry registry = new HostPoolRegistry();
+
+    registry.get("h-[1-5]", HostPoolSettings.DEFAULT);
+    registry.get("h-[1-5]",
+        new HostPoolSettings(null, true, 0, null, 0, 30, false, 22, null, 0, null, 0, null));
+  }
+
+  @Test
+  public void testGet_RejectsSharedJournalDirectory() throws IOException {
+    HostPoolRegistry registry = new HostPoolRegistry();
+    String directory = folder.newFolder("journal").toString();
+    HostPoolSettings settings = new HostPoolSettings(directory, false, 0, null, 0, 30, false,
+        22, null, 0, null, 0, null);
+
+    HostPool first = registry.get("h-[1-5]", settings);
+    try {
+      registry.get("g-[1-5]", settings);
+      throw new AssertionError("Expected the journal directory to be in use");
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessageContaining("h-[1-5]");
+    }
+    assertThat(registry.size()).isEqualTo(1);
+
+    first.reserve(1, 1);
+    first.assign("ID-1", first.claimAny());
+    first.commit();
+    registry.close();
+
+    HostPoolRegistry reopened = new HostPoolRegistry();
+    assertThat(reopened.get("h-[1-5]", settings).getAllocations()).containsKeys("ID-1");
+    reopened.close();
+  }
+
+  @Test
+  public void testGet_ClosesPoolThatFailsToStart() throws IOException {
+    HostPoolRegistry registry = new HostPoolRegistry();
+    String journal = folder.newFolder("journal").getAbsolutePath();
+
+    try {
+      registry.get("h-[1-5]", new HostPoolSettings(journal, false, 0, null, 0, 30, false,
+          22, null, 0, "broken", 0, null));
+      throw new AssertionError("Expected the quotas to be rejected");
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessageContaining("Invalid quota");
+    }
+    assertThat(registry.size()).isEqualTo(0);
+
+    // the journal of the failed pool was closed
+    HostPool pool = registry.get("h-[1-5]", new HostPoolSettings(journal, false, 0, null, 0,
+        30, false, 22, null, 0, null, 0, null));
+    assertThat(pool.getAvailableHosts()).hasSize(5);
+    registry.close();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testGet_EmptyListOfHosts() {
+    new HostPoolRegistry().get(" , ", HostPoolSettings.DEFAULT);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testUpdateHosts_UnknownPool() {
+    new HostPoolRegistry().updateHosts(new HostPool(HostGroups.parse("h-1")), "h-2");
+  }
+}
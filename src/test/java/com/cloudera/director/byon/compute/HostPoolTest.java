@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.compute;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.cloudera.director.byon.util.HostGroup;
+import com.cloudera.director.byon.util.HostGroups;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class HostPoolTest {
+
+  @Test
+  public void testReserve_TakesAsManyAsPossible() {
+    HostPool pool = new HostPool(HostGroups.parse("h-[1-5]"));
+
+    assertThat(pool.reserve(1, 3)).isEqualTo(3);
+    assertThat(pool.reserve(1, 3)).isEqualTo(2);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testReserve_NotEnoughCapacity() {
+    HostPool pool = new HostPool(HostGroups.parse("h-[1-5]"));
+
+    pool.reserve(6, 6);
+  }
+
+  @Test
+  public void testClaim_OnlyOnce() {
+    HostPool pool = new HostPool(HostGroups.parse("h-[1-5]"));
+    pool.reserve(2, 2);
+
+    assertThat(pool.claim("h-3")).isTrue();
+    assertThat(pool.claim("h-3")).isFalse();
+    assertThat(pool.claimAny()).isEqualTo("h-1");
+  }
+
+  @Test
+  public void testDuplicateHosts_AreOnlyAvailableOnce() {
+    HostPool pool = new HostPool(HostGroups.parse("h-[1-5], h-3, h-[4-8], h-1"));
+
+    assertThat(pool.getAvailableHosts())
+        .containsExactly("h-1", "h-2", "h-3", "h-4", "h-5", "h-6", "h-7", "h-8");
+    assertThat(pool.reserve(1, 100)).isEqualTo(8);
+  }
+
+  @Test
+  public void testLookUp_SortsHostsByAvailability() {
+    HostPool pool = new HostPool(HostGroups.parse("h-[1-5], h-3"));
+    pool.reserve(1, 1);
+    assertThat(pool.claim("h-2")).isTrue();
+    pool.update(HostGroups.parse("h-[1-4], h-3"));
+
+    List<HostGroup> missing = new ArrayList<HostGroup>();
+    List<String> unavailable = new ArrayList<String>();
+    List<String> available = new ArrayList<String>();
+    pool.lookUp(HostGroups.parse("h-3, h-[2-5], h-3, x"), missing, unavailable, available);
+
+    assertThat(missing).hasSize(2);
+    assertThat(missing.get(0)).containsExactly("x");
+    assertThat(missing.get(1)).containsExactly("h-5");
+    assertThat(unavailable).containsExactly("h-2");
+    assertThat(available).containsExactly("h-3", "h-4");
+  }
+
+  @Test
+  public void testReservation_CommitPublishesClaims() {
+    HostPool pool = new HostPool(HostGroups.parse("h-[1-5]"));
+    HostPool.Reservation reservation = pool.reserveBatch(1, 3);
+
+    assertThat(reservation.claim("ID-1", "h-4")).isTrue();
+    assertThat(reservation.claimAny("ID-2")).isEqualTo("h-1");
+    assertThat(pool.getHost("ID-1")).isNull();
+
+    reservation.commit();
+    reservation.rollback();
+
+    assertThat(pool.getHost("ID-1")).isEqualTo("h-4");
+    assertThat(pool.getHost("ID-2")).isEqualTo("h-1");
+    assertThat(pool.getAvailableHosts()).containsExactly("h-2", "h-3", "h-5");
+    assertThat(pool.reserve(1, 5)).isEqualTo(3);
+  }
+
+  @Test
+  public void testReservation_RollbackReturnsEverything() {
+    HostPool pool = new HostPool(HostGroups.parse("h-[1-5]"));
+    HostPool.Reservation reservation = pool.reserveBatch(4, 4);
+
+    reservation.claim("ID-1", "h-2");
+    reservation.claimAny("ID-2");
+    reservation.rollback();
+
+    assertThat(pool.getAllocations()).isEmpty();
+    assertThat(pool.getAvailableHosts()).containsExactly("h-1", "h-2", "h-3", "h-4", "h-5");
+    assertThat(pool.reserve(5, 5)).isEqualTo(5);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testReservation_CannotClaimMoreThanReserved() {
+    HostPool pool = new HostPool(HostGroups.parse("h-[1-5]"));
+    HostPool.Reservation reservation = pool.reserveBatch(1, 1);
+
+    reservation.claimAny("ID-1");
+    reservation.claimAny("ID-2");
+  }
+
+  @Test
+  public void testReservation_WithRequirementsOnlyClaimsMatchingHosts() {
+    HostPool pool = new HostPool(HostGroups.parse(
+        "a-[1-3]{rack=r1,cores=16}, b-[1-3]{rack=r1,cores=32}, c-[1-3]{rack=r2,cores=64}"));
+    HostPool.Reservation reservation =
+        pool.reserveBatch(1, 5, HostRequirements.parse("rack=r1,cores>=32"));
+
+    assertThat(reservation.remaining()).isEqualTo(3);
+    assertThat(reservation.claim("ID-1", "c-1")).isFalse();
+    assertThat(reservation.claim("ID-1", "b-2")).isTrue();
+    assertThat(reservation.claimAny("ID-2")).isEqualTo("b-1");
+    assertThat(reservation.claimAny("ID-3")).isEqualTo("b-3");
+    reservation.commit();
+
+    assertThat(pool.getAvailableHosts()).hasSize(6).doesNotContain("b-1", "b-2", "b-3");
+  }
+
+  @Test
+  public void testReservation_ClaimAnyReturnsNullOnceMatchingHostsAreTaken() {
+    HostPool pool = new HostPool(HostGroups.parse("a-[1-2]{rack=r1}, b-[1-2]{rack=r2}"));
+    HostPool.Reservation reservation = pool.reserveBatch(1, 2, HostRequirements.parse("rack=r2"));
+
+    assertThat(pool.claim("b-1")).isTrue();  // taken concurrently
+    assertThat(reservation.claimAny("ID-1")).isEqualTo("b-2");
+    assertThat(reservation.claimAny("ID-2")).isNull();
+    reservation.rollback();
+
+    assertThat(pool.getAvailableHosts()).containsExactly("a-1", "a-2", "b-2");
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testReserve_NotEnoughMatchingCapacity() {
+    HostPool pool = new HostPool(HostGroups.parse("a-[1-5]{rack=r1}, b-[1-5]"));
+
+    pool.reserveBatch(6, 6, HostRequirements.parse("rack=r1"));
+  }
+
+  @Test
+  public void testUpdate_AddsDropsAndDrainsHosts() {
+    HostPool pool = new HostPool(HostGroups.parse("h-[1-5]"));
+    pool.assign("ID-1", "h-1");
+    pool.claim("h-1");
+    pool.reserve(1, 1);
+
+    HostPool.Update update = pool.update(HostGroups.parse("h-[3-5], h-[6-7]"));
+
+    assertThat(update.getAdded()).isEqualTo(2);
+    assertThat(update.getDropped()).isEqualTo(1);
+    assertThat(update.getDraining()).isEqualTo(1);
+    assertThat(pool.getAvailableHosts()).containsExactly("h-3", "h-4", "h-5", "h-6", "h-7");
+    assertThat(pool.getDrainingHosts()).containsExactly("h-1");
+    assertThat(pool.getHost("ID-1")).isEqualTo("h-1");
+    assertThat(pool.reserve(5, 5)).isEqualTo(5);
+  }
+
+  @Test
+  public void testUpdate_DrainingHostsDoNotComeBack() {
+    HostPool pool = new HostPool(HostGroups.parse("h-[1-2]"));
+    HostPool.Reservation reservation = pool.reserveBatch(1, 1);
+    reservation.claim("ID-1", "h-1");
+
+    pool.update(HostGroups.parse("h-2"));
+    reservation.rollback();
+    assertThat(pool.returnHost("h-1")).isFalse();
+
+    assertThat(pool.getAvailableHosts()).containsExactly("h-2");
+    assertThat(pool.reserve(1, 5)).isEqualTo(1);
+  }
+
+  @Test
+  public void testUpdate_RemovedHostsCanComeBack() {
+    HostPool pool = new HostPool(HostGroups.parse("h-[1-3]{rack=r1}"));
+
+    pool.update(HostGroups.parse("h-3"));
+    pool.update(HostGroups.parse("h-[1-3], x{rack=r2}"));
+
+    assertThat(pool.getAvailableHosts()).containsExactly("h-1", "h-2", "h-3", "x");
+    assertThat(pool.reserveBatch(1, 5, HostRequirements.parse("rack=r2")).claimAny("ID-1"))
+        .isEqualTo("x");
+  }
+
+  @Test
+  public void testUpdate_AllocatedHostsAreNotAddedAsFree() {
+    HostPool pool = new HostPool(HostGroups.parse("h-1"));
+    pool.assign("ID-1", "h-2");  // replayed from a journal of a larger pool
+
+    pool.update(HostGroups.parse("h-[1-3]"));
+
+    assertThat(pool.getAvailableHosts()).containsExactly("h-1", "h-3");
+  }
+
+  @Test
+  public void testConcurrentAllocationsAndUpdates_NeverShareAHost() throws Exception {
+    final HostPool pool = new HostPool(HostGroups.parse("h-[1-1000]"));
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>();
+      for (int i = 0; i < 100; i++) {
+        futures.add(executor.submit(new Callable<List<String>>() {
+          @Override
+          public List<String> call() {
+            List<String> claimed = new ArrayList<String>();
+            int count = pool.reserve(10, 10);
+            for (int j = 0; j < count; j++) {
+              claimed.add(pool.claimAny());
+            }
+            return claimed;
+          }
+        }));
+      }
+      for (int i = 1; i <= 5; i++) {
+        pool.update(HostGroups.parse("h-[1-1000], g-[1-" + (i * 100) + "]"));
+      }
+
+      Set<String> allClaimed = new HashSet<String>();
+      for (Future<List<String>> future : futures) {
+        List<String> claimed = future.get();
+        allClaimed.addAll(claimed);
+        assertThat(claimed).hasSize(10);
+      }
+
+      assertThat(allClaimed).hasSize(1000);
+      assertThat(pool.getAvailableHosts()).hasSize(500);
+      assertThat(pool.reserve(500, 500)).isEqualTo(500);
+
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testConcurrentAllocations_NeverShareAHost() throws Exception {
+    final HostPool pool = new HostPool(HostGroups.parse("h-[1-1000]"));
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>();
+      for (int i = 0; i < 100; i++) {
+        futures.add(executor.submit(new Callable<List<String>>() {
+          @Override
+          public List<String> call() {
+            List<String> claimed = new ArrayList<String>();
+            int count = pool.reserve(10, 10);
+            for (int j = 0; j < count; j++) {
+              claimed.add(pool.claimAny());
+            }
+            return claimed;
+          }
+        }));
+      }
+
+      Set<String> allClaimed = new HashSet<String>();
+      for (Future<List<String>> future : futures) {
+        allClaimed.addAll(future.get());
+      }
+
+      assertThat(allClaimed).hasSize(1000);
+      assertThat(pool.getAvailableHosts()).isEmpty();
+
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
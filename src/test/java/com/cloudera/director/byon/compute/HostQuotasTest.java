@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cloudera.director.byon.compute;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.cloudera.director.byon.util.HostGroups;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class HostQuotasTest {
+
+  @Test
+  public void testParse() {
+    Map<String, HostQuotas.Quota> quotas =
+        HostQuotas.parse("analytics{guaranteed=2, max=4, weight=3}, adhoc{max=1}");
+
+    assertThat(quotas).containsKeys("analytics", "adhoc").hasSize(2);
+    HostQuotas.Quota analytics = quotas.get("analytics");
+    assertThat(analytics.getGuaranteed()).isEqualTo(2);
+    assertThat(analytics.getMax()).isEqualTo(4);
+    assertThat(analytics.getWeight()).isEqualTo(3);
+    HostQuotas.Quota adhoc = quotas.get("adhoc");
+    assertThat(adhoc.getGuaranteed()).isEqualTo(0);
+    assertThat(adhoc.getMax()).isEqualTo(1);
+    assertThat(adhoc.getWeight()).isEqualTo(1);
+    assertThat(HostQuotas.parse(null)).isEmpty();
+  }
+
+  @Test
+  public void testParse_InvalidQuotas() {
+    String[] invalid = {"a{max=1", "a{size=1}", "a{max=x}", "a{guaranteed=2,max=1}",
+        "a{weight=0}", "a{max=1},a{max=2}", "{max=1}"};
+    for (String quotas : invalid) {
+      try {
+        HostQuotas.parse(quotas);
+        throw new AssertionError("Expected IllegalArgumentException for " + quotas);
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testMax_LimitsTheHostsOfAGroup() {
+    HostPool pool = poolWithQuotas("h-[1-10]", "adhoc{max=2}");
+
+    try {
+      pool.reserveBatch(3, 3, HostRequirements.NONE, "adhoc");
+      throw new AssertionError("Expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessageContaining("Quota adhoc allows 2 more hosts");
+    }
+    assertThat(allocate(pool, "adhoc", 1, 3, "ID-1", "ID-2", "ID-3")).isEqualTo(2);
+    assertThat(pool.getQuotas().get("adhoc").getHeld()).isEqualTo(2);
+    assertThat(pool.getQuotas().getRejectedCount()).isEqualTo(1L);
+    assertThat(allocate(pool, "other", 5, 5, "ID-4", "ID-5", "ID-6", "ID-7", "ID-8"))
+        .isEqualTo(5);
+  }
+
+  @Test
+  public void testGuarantee_KeepsHostsForItsGroup() {
+    HostPool pool = poolWithQuotas("h-[1-5]", "analytics{guaranteed=3}");
+    assertThat(pool.getQuotas().getOwed()).isEqualTo(3);
+
+    try {
+      pool.reserveBatch(3, 3, HostRequirements.NONE, "adhoc");
+      throw new AssertionError("Expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessageContaining("hosts guaranteed to other quotas");
+    }
+    assertThat(allocate(pool, "adhoc", 1, 5, "ID-1", "ID-2", "ID-3", "ID-4", "ID-5"))
+        .isEqualTo(2);
+    assertThat(allocate(pool, "analytics", 3, 3, "ID-6", "ID-7", "ID-8")).isEqualTo(3);
+    assertThat(pool.getQuotas().getOwed()).isEqualTo(0);
+    assertThat(pool.getMetrics().getMetrics()).containsKeys("quotaOwedHosts",
+        "quotaRejections");
+  }
+
+  @Test
+  public void testRollbackAndRelease_GiveHostsBackToTheGroup() {
+    HostPool pool = poolWithQuotas("h-[1-5]", "analytics{guaranteed=2,max=2}");
+    HostQuotas.Quota analytics = pool.getQuotas().get("analytics");
+
+    HostPool.Reservation reservation =
+        pool.reserveBatch(2, 2, HostRequirements.NONE, "analytics");
+    assertThat(analytics.getHeld()).isEqualTo(2);
+    assertThat(pool.getQuotas().getOwed()).isEqualTo(0);
+    reservation.rollback();
+    assertThat(analytics.getHeld()).isEqualTo(0);
+    assertThat(pool.getQuotas().getOwed()).isEqualTo(2);
+
+    assertThat(allocate(pool, "analytics", 2, 2, "ID-1", "ID-2")).isEqualTo(2);
+    pool.release("ID-1");
+    assertThat(analytics.getHeld()).isEqualTo(1);
+    assertThat(pool.getQuotas().getOwed()).isEqualTo(1);
+    assertThat(allocate(pool, "analytics", 1, 1, "ID-3")).isEqualTo(1);
+  }
+
+  @Test
+  public void testUnconfirmedClaims_AreRefundedOnCommit() {
+    HostPool pool = poolWithQuotas("h-[1-5]", "analytics{max=3}");
+
+    HostPool.Reservation reservation =
+        pool.reserveBatch(1, 3, HostRequirements.NONE, "analytics");
+    reservation.claimAny("ID-1");
+    reservation.commit();
+
+    assertThat(pool.getQuotas().get("analytics").getHeld()).isEqualTo(1);
+    assertThat(allocate(pool, "analytics", 2, 2, "ID-2", "ID-3")).isEqualTo(2);
+  }
+
+  @Test
+  public void testContendedRequests_AreServedInFairShareOrder() throws Exception {
+    HostPool pool = poolWithQuotas("h-[1-5]", "heavy{weight=2}");
+    HostQuotas quotas = pool.getQuotas();
+    // uncontended, heavy gets what it asks for and moves ahead in virtual time
+    assertThat(allocate(pool, "heavy", 2, 2, "ID-1", "ID-2")).isEqualTo(2);
+
+    AtomicReference<Object> heavy = new AtomicReference<Object>();
+    AtomicReference<Object> light = new AtomicReference<Object>();
+    quotas.admissionLock.lock();
+    Thread heavyThread;
+    Thread lightThread;
+    try {
+      heavyThread = reserveInBackground(pool, "heavy", heavy);
+      awaitQueueLength(quotas, 1);
+      lightThread = reserveInBackground(pool, "light", light);
+      awaitQueueLength(quotas, 2);
+    } finally {
+      quotas.admissionLock.unlock();
+    }
+    heavyThread.join(10000);
+    lightThread.join(10000);
+
+    // heavy asked first, but light got fewer hosts for its weight so far
+    assertThat(light.get()).isInstanceOf(HostPool.Reservation.class);
+    assertThat(((HostPool.Reservation) light.get()).size()).isEqualTo(2);
+    assertThat(heavy.get()).isInstanceOf(IllegalStateException.class);
+  }
+
+  private static Thread reserveInBackground(final HostPool pool, final String group,
+      final AtomicReference<Object> result) {
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          result.set(pool.reserveBatch(2, 2, HostRequirements.NONE, group));
+        } catch (IllegalStateException e) {
+          result.set(e);
+        }
+      }
+    });
+    thread.start();
+    return thread;
+  }
+
+  private static void awaitQueueLength(HostQuotas quotas, int length)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (quotas.admissionLock.getQueueLength() < length) {
+      if (System.currentTimeMillis() > deadline) {
+        throw new AssertionError("Timed out waiting for " + length + " queued requests");
+      }
+      Thread.sleep(5);
+    }
+  }
+
+  private static HostPool poolWithQuotas(String hosts, String quotas) {
+    HostPool pool = new HostPool(HostGroups.parse(hosts));
+    pool.attachQuotas(new HostQuotas(pool, HostQuotas.parse(quotas)));
+    return pool;
+  }
+
+  /**
+   * @return the number of instances allocated
+   */
+  private static int allocate(HostPool pool, String group, int minCount, int maxCount,
+      String... instanceIds) {
+    HostPool.Reservation reservation =
+        pool.reserveBatch(minCount, maxCount, HostRequirements.NONE, group);
+    int allocated = Math.min(reservation.size(), instanceIds.length);
+    for (int i = 0; i < allocated; i++) {
+      reservation.claimAny(instanceIds[i]);
+    }
+    reservation.commit();
+    return allocated;
+  }
+}
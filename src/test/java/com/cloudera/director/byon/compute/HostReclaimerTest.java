@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.compute;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.cloudera.director.byon.journal.AllocationJournal;
+import com.cloudera.director.byon.metrics.LatencyHistogram;
+import com.cloudera.director.byon.util.HostGroups;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HostReclaimerTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private HostReclaimer reclaimer;
+
+  @After
+  public void tearDown() {
+    if (reclaimer != null) {
+      reclaimer.shutdown();
+    }
+  }
+
+  @Test
+  public void testRelease_ReturnsHostAfterCleanup() throws InterruptedException {
+    HostPool pool = new HostPool(HostGroups.parse("h-[1-3]"));
+    final CountDownLatch cleaned = new CountDownLatch(1);
+    reclaimer = new HostReclaimer(pool, new HostCleaner() {
+      @Override
+      public boolean clean(String host) {
+        cleaned.countDown();
+        return true;
+      }
+    }, 0, TimeUnit.SECONDS);
+    pool.attachReclaimer(reclaimer);
+
+    pool.reserve(1, 1);
+    pool.assign("ID-1", pool.claimAny());
+    pool.release("ID-1");
+
+    assertThat(cleaned.await(5, TimeUnit.SECONDS)).isTrue();
+    awaitQueueDrained();
+
+    assertThat(pool.getAvailableHosts()).containsExactly("h-1", "h-2", "h-3");
+    assertThat(pool.reserve(3, 3)).isEqualTo(3);
+    assertThat(reclaimer.getReclaimedCount()).isEqualTo(1L);
+    assertThat(reclaimer.getFailedCount()).isEqualTo(0L);
+    LatencyHistogram latency = (LatencyHistogram) pool.getMetrics().getMetrics()
+        .get("reclaimLatency");
+    assertThat(latency.getCount()).isEqualTo(1L);
+  }
+
+  @Test
+  public void testRelease_FailedCleanupKeepsHostOut() throws InterruptedException {
+    HostPool pool = new HostPool(HostGroups.parse("h-[1-3]"));
+    reclaimer = new HostReclaimer(pool, new HostCleaner() {
+      @Override
+      public boolean clean(String host) {
+        return false;
+      }
+    }, 0, TimeUnit.SECONDS);
+    pool.attachReclaimer(reclaimer);
+
+    pool.reserve(1, 1);
+    pool.assign("ID-1", pool.claimAny());
+    pool.release("ID-1");
+    awaitQueueDrained();
+
+    assertThat(pool.getAvailableHosts()).containsExactly("h-2", "h-3");
+    assertThat(reclaimer.getFailedCount()).isEqualTo(1L);
+  }
+
+  @Test
+  public void testRelease_CleanupErrorRetiresHost() throws InterruptedException {
+    HostPool pool = new HostPool(HostGroups.parse("h-[1-3]"));
+    reclaimer = new HostReclaimer(pool, new HostCleaner() {
+      @Override
+      public boolean clean(String host) {
+        throw new IllegalStateException("no route to " + host);
+      }
+    }, 0, TimeUnit.SECONDS);
+    pool.attachReclaimer(reclaimer);
+
+    pool.reserve(1, 1);
+    pool.assign("ID-1", pool.claimAny());
+    pool.release("ID-1");
+    awaitQueueDrained();
+
+    assertThat(pool.getHostState("h-1")).isEqualTo(AllocationJournal.HostState.RETIRED);
+    assertThat(pool.getAvailableHosts()).containsExactly("h-2", "h-3");
+    assertThat(reclaimer.getFailedCount()).isEqualTo(1L);
+  }
+
+  @Test
+  public void testRelease_JournalFailureStillReturnsHost()
+      throws IOException, InterruptedException {
+    HostPool pool = new HostPool(HostGroups.parse("h-[1-3]"));
+    AllocationJournal journal = AllocationJournal.open(folder.newFolder("journal").toPath(), 100);
+    pool.attachJournal(journal);
+    final CountDownLatch go = new CountDownLatch(1);
+    reclaimer = new HostReclaimer(pool, new HostCleaner() {
+      @Override
+      public boolean clean(String host) throws InterruptedException {
+        return go.await(5, TimeUnit.SECONDS);
+      }
+    }, 0, TimeUnit.SECONDS);
+    pool.attachReclaimer(reclaimer);
+    pool.reserve(1, 1);
+    pool.assign("ID-1", pool.claimAny());
+    pool.release("ID-1");
+    pool.commit();
+
+    // break the journal: interrupting the writer closes its channel
+    journal.recordDeletion("ID-none");
+    Thread.currentThread().interrupt();
+    try {
+      pool.commit();
+      throw new AssertionError("Expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      // expected
+    } finally {
+      Thread.interrupted();
+    }
+    go.countDown();
+    awaitQueueDrained();
+
+    assertThat(pool.getAvailableHosts()).containsExactly("h-1", "h-2", "h-3");
+    assertThat(reclaimer.getReclaimedCount()).isEqualTo(1L);
+    assertThat(reclaimer.getFailedCount()).isEqualTo(0L);
+    assertThat(reclaimer.getJournalFailureCount()).isEqualTo(1L);
+  }
+
+  @Test
+  public void testRelease_HostIsQuarantined() throws InterruptedException {
+    HostPool pool = new HostPool(HostGroups.parse("h-[1-3]"));
+    reclaimer = new HostReclaimer(pool, HostCleaner.NONE, 1, TimeUnit.HOURS);
+    pool.attachReclaimer(reclaimer);
+
+    pool.reserve(1, 1);
+    pool.assign("ID-1", pool.claimAny());
+    pool.release("ID-1");
+
+    assertThat(reclaimer.getQueueDepth()).isEqualTo(1);
+    assertThat(pool.getAvailableHosts()).containsExactly("h-2", "h-3");
+  }
+
+  @Test
+  public void testRestart_KeepsReleasedHostsOutOfThePool()
+      throws IOException, InterruptedException {
+    Path directory = folder.newFolder("journal").toPath();
+    HostPool pool = new HostPool(HostGroups.parse("h-[1-3]"));
+    pool.attachJournal(AllocationJournal.open(directory, 100));
+    pool.attachReclaimer(new HostReclaimer(pool, HostCleaner.NONE, 1, TimeUnit.HOURS));
+    pool.reserve(2, 2);
+    pool.assign("ID-1", pool.claimAny());
+    pool.assign("ID-2", pool.claimAny());
+    pool.release("ID-1");
+    pool.retire(pool.release("ID-2"));
+    pool.commit();
+    pool.close();
+
+    HostPool restarted = new HostPool(HostGroups.parse("h-[1-3]"));
+    restarted.attachJournal(AllocationJournal.open(directory, 100));
+    assertThat(restarted.getAvailableHosts()).containsExactly("h-3");
+
+    reclaimer = new HostReclaimer(restarted, HostCleaner.NONE, 0, TimeUnit.SECONDS);
+    restarted.attachReclaimer(reclaimer);
+    awaitQueueDrained();
+    assertThat(restarted.getAvailableHosts()).containsExactly("h-1", "h-3");
+    restarted.close();
+  }
+
+  @Test
+  public void testReturnHost_OnlyOnce() {
+    HostPool pool = new HostPool(HostGroups.parse("h-[1-3]"));
+    pool.reserve(1, 1);
+    String host = pool.claimAny();
+
+    assertThat(pool.returnHost(host)).isTrue();
+    assertThat(pool.returnHost(host)).isFalse();
+    assertThat(pool.returnHost("unknown")).isFalse();
+    assertThat(pool.reserve(3, 3)).isEqualTo(3);
+  }
+
+  private void awaitQueueDrained() throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (reclaimer.getQueueDepth() > 0 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(reclaimer.getQueueDepth()).isEqualTo(0);
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cloudera.director.byon.compute;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class HostRequirementsTest {
+
+  @Test
+  public void testParse() {
+    HostRequirements requirements = HostRequirements.parse(" rack = r1, cores>=32,disk!=hdd");
+
+    assertThat(requirements.getRequirements()).hasSize(3);
+    assertThat(requirements.getRequirements().get(1).getOperator())
+        .isEqualTo(HostRequirements.Operator.GREATER_OR_EQUAL);
+    assertThat(requirements.toString()).isEqualTo("rack=r1,cores>=32,disk!=hdd");
+    assertThat(requirements).isEqualTo(HostRequirements.parse("rack=r1,cores>=32,disk!=hdd"));
+  }
+
+  @Test
+  public void testParse_EmptyMeansNone() {
+    assertThat(HostRequirements.parse(null)).isSameAs(HostRequirements.NONE);
+    assertThat(HostRequirements.parse(" ").isEmpty()).isTrue();
+  }
+
+  @Test
+  public void testNumericComparisons() {
+    HostRequirements.Requirement requirement =
+        HostRequirements.parse("memory>128").getRequirements().get(0);
+
+    assertThat(requirement.matches("256")).isTrue();
+    assertThat(requirement.matches("128.0")).isFalse();
+    assertThat(requirement.matches("large")).isFalse();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testOrderingRequiresANumber() {
+    HostRequirements.parse("cores>=many");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingOperator() {
+    HostRequirements.parse("rack");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingKey() {
+    HostRequirements.parse(">=3");
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cloudera.director.byon.compute;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HostsFileWatcherTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testRead_CombinesExpressionsAndFile() throws IOException {
+    Path file = write("hosts", "# spares", "b-[1-2]  # rack 2", "", "c, d");
+
+    assertThat(HostsFileWatcher.read("a", file)).containsExactly("a", "b-1", "b-2", "c", "d");
+    assertThat(HostsFileWatcher.read(null, null)).isEmpty();
+  }
+
+  @Test
+  public void testPoolFollowsTheFile() throws Exception {
+    Path file = write("hosts", "f-[1-3]");
+    HostPoolRegistry registry = new HostPoolRegistry();
+    HostPool pool = registry.get("a", new HostPoolSettings(null, false, 0, null, 0, 30,
+        false, 22, file.toString(), 0, null, 0, null));
+    try {
+      assertThat(pool.getAvailableHosts()).containsExactly("a", "f-1", "f-2", "f-3");
+      pool.assign("ID-1", "f-1");
+      pool.claim("f-1");
+      pool.reserve(1, 1);
+
+      write("hosts", "f-[2-3]", "g-1");
+      waitForAvailableHosts(pool, 4);
+
+      assertThat(pool.getAvailableHosts()).containsExactly("a", "f-2", "f-3", "g-1");
+      assertThat(pool.getDrainingHosts()).containsExactly("f-1");
+
+    } finally {
+      registry.close();
+    }
+  }
+
+  @Test
+  public void testChangeBeforeTheWatchIsNotMissed() throws Exception {
+    Path file = write("hosts", "f-[1-3]");
+    HostPool pool = new HostPool(HostsFileWatcher.read(null, file));
+    write("hosts", "f-[2-3]", "g-1");
+
+    HostsFileWatcher watcher = new HostsFileWatcher(pool, null, file);
+    try {
+      assertThat(pool.getAvailableHosts()).containsExactly("f-2", "f-3", "g-1");
+    } finally {
+      watcher.close();
+    }
+  }
+
+  @Test
+  public void testInvalidFileKeepsCurrentHosts() throws Exception {
+    Path file = write("hosts", "f-[1-3]");
+    HostPool pool = new HostPool(HostsFileWatcher.read(null, file));
+    HostsFileWatcher watcher = new HostsFileWatcher(pool, null, file);
+    try {
+      write("hosts", "f-[3-1]");
+      watcher.reload();
+
+      assertThat(pool.getAvailableHosts()).containsExactly("f-1", "f-2", "f-3");
+
+    } finally {
+      watcher.close();
+    }
+  }
+
+  private Path write(String name, String... lines) throws IOException {
+    return Files.write(folder.getRoot().toPath().resolve(name), Arrays.asList(lines),
+        StandardCharsets.UTF_8);
+  }
+
+  private static void waitForAvailableHosts(HostPool pool, int count) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+    while (pool.getAvailableHosts().size() != count && System.nanoTime() < deadline) {
+      Thread.sleep(50);
+    }
+  }
+}
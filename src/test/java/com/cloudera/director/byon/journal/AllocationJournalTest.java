@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.journal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AllocationJournalTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testReplay_RestoresAllocationsAndDeletions() throws IOException {
+    Path directory = folder.newFolder("journal").toPath();
+
+    AllocationJournal journal = AllocationJournal.open(directory, 100);
+    assertThat(journal.replay()).isEmpty();
+    journal.recordAllocation("ID-1", "h-1");
+    journal.recordAllocation("ID-2", "h-2");
+    journal.recordDeletion("ID-1");
+    journal.recordAllocation("ID-3", "h-3");
+    journal.sync();
+
+    // synced records are durable before the journal is closed
+    assertThat(AllocationJournal.read(directory)).hasSize(2).containsKeys("ID-2", "ID-3");
+    journal.close();
+
+    AllocationJournal reopened = AllocationJournal.open(directory, 100);
+    Map<String, String> allocations = reopened.replay();
+    assertThat(allocations).hasSize(2);
+    assertThat(allocations.get("ID-2")).isEqualTo("h-2");
+    assertThat(allocations.get("ID-3")).isEqualTo("h-3");
+    reopened.close();
+  }
+
+  @Test
+  public void testReplay_DropsTornRecord() throws IOException {
+    Path directory = folder.newFolder("journal").toPath();
+
+    AllocationJournal journal = AllocationJournal.open(directory, 100);
+    journal.replay();
+    journal.recordAllocation("ID-1", "h-1");
+    journal.recordAllocation("ID-2", "h-2");
+    journal.close();
+
+    Path file = directory.resolve(AllocationJournal.JOURNAL_FILE);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.truncate(Files.size(file) - 3);
+    }
+
+    AllocationJournal reopened = AllocationJournal.open(directory, 100);
+    Map<String, String> allocations = reopened.replay();
+    assertThat(allocations).hasSize(1);
+    assertThat(allocations.get("ID-1")).isEqualTo("h-1");
+
+    reopened.recordAllocation("ID-3", "h-3");
+    reopened.close();
+    assertThat(AllocationJournal.read(directory)).hasSize(2).containsKeys("ID-1", "ID-3");
+  }
+
+  @Test
+  public void testReplay_RefusesCorruptedRecordFollowedByMore() throws IOException {
+    Path directory = folder.newFolder("journal").toPath();
+
+    AllocationJournal journal = AllocationJournal.open(directory, 100);
+    journal.replay();
+    journal.recordAllocation("ID-1", "h-1");
+    journal.recordAllocation("ID-2", "h-2");
+    journal.recordAllocation("ID-3", "h-3");
+    journal.close();
+
+    // flip the last byte of the host name of the first record
+    Path file = directory.resolve(AllocationJournal.JOURNAL_FILE);
+    int offset = AllocationJournal.HEADER_SIZE
+        + AllocationJournal.encode(AllocationJournal.ALLOCATE, "ID-1", "h-1").length - 5;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[]{'x'}), offset);
+    }
+
+    AllocationJournal reopened = AllocationJournal.open(directory, 100);
+    try {
+      reopened.replay();
+      throw new AssertionError("Expected IOException");
+    } catch (IOException e) {
+      assertThat(e).hasMessageContaining("Corrupted allocation journal record at offset 5");
+    } finally {
+      reopened.close();
+    }
+  }
+
+  @Test
+  public void testSync_FailsForGoodAfterAFailedWrite() throws IOException {
+    Path directory = folder.newFolder("journal").toPath();
+
+    AllocationJournal journal = AllocationJournal.open(directory, 100);
+    journal.replay();
+    journal.recordAllocation("ID-1", "h-1");
+    journal.sync();
+
+    journal.recordAllocation("ID-2", "h-2");
+    Thread.currentThread().interrupt();  // closes the channel on the next write
+    try {
+      journal.sync();
+      throw new AssertionError("Expected IOException");
+    } catch (IOException e) {
+      // expected
+    } finally {
+      Thread.interrupted();
+    }
+
+    journal.recordAllocation("ID-3", "h-3");
+    try {
+      journal.sync();
+      throw new AssertionError("Expected IOException");
+    } catch (IOException e) {
+      assertThat(e).hasMessageContaining("failed earlier");
+    }
+    try {
+      journal.close();
+      throw new AssertionError("Expected IOException");
+    } catch (IOException e) {
+      assertThat(e).hasMessageContaining("failed earlier");
+    }
+    assertThat(AllocationJournal.read(directory)).hasSize(1).containsKeys("ID-1");
+  }
+
+  @Test
+  public void testSync_CompactsIntoSnapshot() throws IOException {
+    Path directory = folder.newFolder("journal").toPath();
+
+    final Map<String, String> state = new ConcurrentHashMap<String, String>();
+    AllocationJournal journal = AllocationJournal.open(directory, 10);
+    journal.replay();
+    journal.setSnapshotSource(new Supplier<Map<String, String>>() {
+      @Override
+      public Map<String, String> get() {
+        return state;
+      }
+    });
+
+    for (int i = 0; i < 20; i++) {
+      state.put("ID-" + i, "h-" + i);
+      journal.recordAllocation("ID-" + i, "h-" + i);
+      state.remove("ID-" + i);
+      journal.recordDeletion("ID-" + i);
+    }
+    state.put("ID-last", "h-last");
+    journal.recordAllocation("ID-last", "h-last");
+    journal.sync();
+
+    assertThat(Files.size(directory.resolve(AllocationJournal.JOURNAL_FILE)))
+        .isEqualTo((long) AllocationJournal.HEADER_SIZE);
+    assertThat(AllocationJournal.read(directory)).hasSize(1).containsKeys("ID-last");
+    journal.close();
+  }
+
+  @Test
+  public void testReplay_RestoresHostStates() throws IOException {
+    Path directory = folder.newFolder("journal").toPath();
+
+    final Map<String, AllocationJournal.HostState> states =
+        new ConcurrentHashMap<String, AllocationJournal.HostState>();
+    AllocationJournal journal = AllocationJournal.open(directory, 100);
+    journal.replay();
+    journal.setHostStateSource(new Supplier<Map<String, AllocationJournal.HostState>>() {
+      @Override
+      public Map<String, AllocationJournal.HostState> get() {
+        return states;
+      }
+    });
+    journal.recordAllocation("ID-1", "h-1");
+    journal.recordAllocation("ID-2", "h-2");
+    journal.recordAllocation("ID-3", "h-3");
+    journal.recordDeletion("ID-1");
+    journal.recordRetirement("h-1");
+    journal.recordDeletion("ID-2");
+    journal.recordReclamation("h-2");
+    journal.recordDeletion("ID-3");
+    journal.recordReclamation("h-3");
+    journal.recordReturn("h-3");
+    journal.close();
+
+    Map<String, AllocationJournal.HostState> replayed =
+        new HashMap<String, AllocationJournal.HostState>();
+    AllocationJournal reopened = AllocationJournal.open(directory, 100);
+    assertThat(reopened.replay(replayed)).isEmpty();
+    assertThat(replayed).hasSize(2);
+    assertThat(replayed.get("h-1")).isEqualTo(AllocationJournal.HostState.RETIRED);
+    assertThat(replayed.get("h-2")).isEqualTo(AllocationJournal.HostState.RECLAIMING);
+
+    // the replay compacted the states into the snapshot
+    assertThat(Files.size(directory.resolve(AllocationJournal.JOURNAL_FILE)))
+        .isEqualTo((long) AllocationJournal.HEADER_SIZE);
+    reopened.recordAllocation("ID-4", "h-2");
+    reopened.close();
+
+    replayed.clear();
+    assertThat(AllocationJournal.read(directory, replayed)).hasSize(1).containsKeys("ID-4");
+    assertThat(replayed).hasSize(1).containsKeys("h-1");
+  }
+
+  @Test
+  public void testOpen_RefusesJournalOpenInThisProcess() throws IOException {
+    Path directory = folder.newFolder("journal").toPath();
+
+    AllocationJournal first = AllocationJournal.open(directory, 100);
+    first.replay();
+    first.recordAllocation("ID-1", "h-1");
+
+    try {
+      AllocationJournal.open(directory.resolve("../journal"), 100);
+      throw new AssertionError("Expected the journal to be in use");
+    } catch (IOException e) {
+      assertThat(e).hasMessageContaining("already open");
+    }
+    try {
+      AllocationJournal.open(directory, 100);
+      throw new AssertionError("Expected the journal to be in use");
+    } catch (IOException e) {
+      assertThat(e).hasMessageContaining("already open");
+    }
+
+    first.recordAllocation("ID-2", "h-2");
+    first.close();
+    AllocationJournal second = AllocationJournal.open(directory, 100);
+    assertThat(second.replay()).hasSize(2).containsKeys("ID-1", "ID-2");
+    second.close();
+  }
+
+  @Test
+  public void testReplay_HundredThousandEvents() throws IOException {
+    Path directory = folder.newFolder("journal").toPath();
+
+    AllocationJournal journal = AllocationJournal.open(directory, Integer.MAX_VALUE);
+    journal.replay();
+    for (int i = 0; i < 50000; i++) {
+      journal.recordAllocation("instance-" + i, "host-" + i + ".example.com");
+      if (i % 2 == 1) {
+        journal.recordDeletion("instance-" + i);
+      }
+    }
+    for (int i = 0; i < 25000; i++) {
+      journal.recordAllocation("instance-" + i, "other-" + i + ".example.com");
+    }
+    journal.sync();
+    journal.close();
+
+    AllocationJournal reopened = AllocationJournal.open(directory, Integer.MAX_VALUE);
+    long start = System.nanoTime();
+    Map<String, String> allocations = reopened.replay();
+    long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+    assertThat(allocations).hasSize(37500);
+    assertThat(allocations.get("instance-0")).isEqualTo("other-0.example.com");
+    assertThat(allocations.get("instance-49998")).isEqualTo("host-49998.example.com");
+    assertThat(elapsedMillis).isLessThan(5000L);
+    reopened.close();
+  }
+}
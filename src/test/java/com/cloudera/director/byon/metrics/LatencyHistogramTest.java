@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void testBuckets_CoverEveryValueContiguously() {
+    assertThat(LatencyHistogram.bucketOf(0)).isEqualTo(0);
+    assertThat(LatencyHistogram.bucketOf(7)).isEqualTo(7);
+    assertThat(LatencyHistogram.bucketOf(8)).isEqualTo(8);
+    assertThat(LatencyHistogram.bucketOf(17)).isEqualTo(16);
+    assertThat(LatencyHistogram.bucketOf(Long.MAX_VALUE))
+        .isEqualTo(LatencyHistogram.BUCKETS - 1);
+    assertThat(LatencyHistogram.highestValueOf(LatencyHistogram.BUCKETS - 1))
+        .isEqualTo(Long.MAX_VALUE);
+
+    for (int bucket = 1; bucket < LatencyHistogram.BUCKETS; bucket++) {
+      long lowest = LatencyHistogram.highestValueOf(bucket - 1) + 1;
+      assertThat(LatencyHistogram.bucketOf(lowest)).isEqualTo(bucket);
+      assertThat(LatencyHistogram.bucketOf(LatencyHistogram.highestValueOf(bucket)))
+          .isEqualTo(bucket);
+    }
+  }
+
+  @Test
+  public void testPercentiles_WithinAnEighth() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+    }
+
+    assertThat(histogram.getCount()).isEqualTo(1000);
+    assertThat(histogram.getMean(TimeUnit.MICROSECONDS)).isEqualTo(500);
+    assertThat(histogram.getMax(TimeUnit.MICROSECONDS)).isEqualTo(1000);
+
+    assertThat(histogram.getPercentile(0.5, TimeUnit.MICROSECONDS))
+        .isGreaterThanOrEqualTo(500L).isLessThanOrEqualTo(500L * 9 / 8);
+    assertThat(histogram.getPercentile(0.99, TimeUnit.MICROSECONDS))
+        .isGreaterThanOrEqualTo(990L).isLessThanOrEqualTo(1000L);
+    assertThat(histogram.getPercentile(1, TimeUnit.MICROSECONDS)).isEqualTo(1000);
+  }
+
+  @Test
+  public void testEmpty() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5);
+
+    assertThat(histogram.getMax(TimeUnit.NANOSECONDS)).isEqualTo(0);
+    assertThat(new LatencyHistogram().getPercentile(0.99, TimeUnit.NANOSECONDS)).isEqualTo(0);
+    assertThat(new LatencyHistogram().getMean(TimeUnit.NANOSECONDS)).isEqualTo(0);
+  }
+}
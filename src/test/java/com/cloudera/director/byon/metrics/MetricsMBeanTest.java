@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class MetricsMBeanTest {
+
+  @Test
+  public void testRegister_ExposesEveryMetric() throws Exception {
+    MetricsRegistry registry = new MetricsRegistry();
+    registry.counter("allocations").add(3);
+    registry.histogram("allocate").record(TimeUnit.MILLISECONDS.toNanos(2));
+    registry.gauge("freeHosts", new LongSupplier() {
+      @Override
+      public long getAsLong() {
+        return 42;
+      }
+    });
+
+    MBeanServer server = MBeanServerFactory.newMBeanServer();
+    ObjectName name = MetricsMBean.register(server, "type=Test", registry, "Test metrics");
+
+    assertThat(name.getDomain()).isEqualTo(MetricsMBean.DOMAIN);
+    assertThat(server.getAttribute(name, "allocations")).isEqualTo(3L);
+    assertThat(server.getAttribute(name, "freeHosts")).isEqualTo(42L);
+    assertThat(server.getAttribute(name, "allocateCount")).isEqualTo(1L);
+    assertThat(server.getAttribute(name, "allocateMaxMicros")).isEqualTo(2000L);
+    assertThat(server.getMBeanInfo(name).getAttributes()).hasSize(8);
+
+    registry.counter("allocations").increment();
+    assertThat(server.getAttribute(name, "allocations")).isEqualTo(4L);
+
+    MetricsMBean.unregister(server, name);
+    assertThat(server.isRegistered(name)).isFalse();
+  }
+
+  @Test
+  public void testRegister_FailureIsNotFatal() {
+    MBeanServer server = MBeanServerFactory.newMBeanServer();
+    MetricsRegistry registry = new MetricsRegistry();
+
+    MetricsMBean.register(server, "type=Test", registry, "");
+
+    assertThat(MetricsMBean.register(server, "type=Test", registry, "")).isNull();
+  }
+
+  @Test
+  public void testInclude_PrefixesNames() {
+    MetricsRegistry journal = new MetricsRegistry();
+    journal.histogram("flush");
+    MetricsRegistry pool = new MetricsRegistry();
+    pool.include("journal", journal);
+
+    assertThat(pool.getMetrics()).containsKeys("journalFlush");
+    assertThat(pool.histogram("journalFlush")).isSameAs(journal.histogram("flush"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRegistry_NamesAreUniqueAcrossKinds() {
+    MetricsRegistry registry = new MetricsRegistry();
+    registry.counter("allocations");
+    registry.histogram("allocations");
+  }
+}
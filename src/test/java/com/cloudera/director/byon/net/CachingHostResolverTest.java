@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.net;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class CachingHostResolverTest {
+
+  private static final long TTL = TimeUnit.SECONDS.toNanos(30);
+  private static final long NEGATIVE_TTL = TimeUnit.SECONDS.toNanos(10);
+
+  /**
+   * A stand-in for DNS: resolves "host-N" to 10.0.0.N after a delay.
+   */
+  private static class StandInResolver implements HostResolver {
+    final AtomicInteger lookups = new AtomicInteger();
+    final long delayMillis;
+
+    StandInResolver(long delayMillis) {
+      this.delayMillis = delayMillis;
+    }
+
+    @Override
+    public InetAddress resolve(String host) throws UnknownHostException {
+      lookups.incrementAndGet();
+      try {
+        Thread.sleep(delayMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      if (!host.startsWith("host-")) {
+        throw new UnknownHostException(host);
+      }
+      int n = Integer.parseInt(host.substring("host-".length()));
+      return InetAddress.getByAddress(host, new byte[]{10, 0, (byte) (n >> 8), (byte) n});
+    }
+  }
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(32);
+  private final AtomicLong now = new AtomicLong();
+  private final LongSupplier clock = new LongSupplier() {
+    @Override
+    public long getAsLong() {
+      return now.get();
+    }
+  };
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testResolveAll_RunsInParallel() throws Exception {
+    StandInResolver standIn = new StandInResolver(200);
+    CachingHostResolver resolver = new CachingHostResolver(standIn, executor, 100, TTL, NEGATIVE_TTL);
+
+    List<String> hosts = new ArrayList<String>();
+    for (int i = 1; i <= 30; i++) {
+      hosts.add("host-" + i);
+    }
+
+    long start = System.nanoTime();
+    Map<String, InetAddress> addresses = resolver.resolveAll(hosts);
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    assertThat(addresses).hasSize(30);
+    assertThat(addresses.get("host-7").getHostAddress()).isEqualTo("10.0.0.7");
+    assertThat(elapsedMillis).isLessThan(30 * 200 / 2);
+  }
+
+  @Test
+  public void testResolve_CachedUntilTtlExpires() throws Exception {
+    StandInResolver standIn = new StandInResolver(0);
+    CachingHostResolver resolver =
+        new CachingHostResolver(standIn, executor, 100, TTL, NEGATIVE_TTL, clock);
+
+    resolver.resolve("host-1");
+    resolver.resolve("host-1");
+    assertThat(standIn.lookups.get()).isEqualTo(1);
+
+    now.addAndGet(TTL + 1);
+    resolver.resolve("host-1");
+    assertThat(standIn.lookups.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void testResolve_FailuresAreCachedForTheNegativeTtl() throws Exception {
+    StandInResolver standIn = new StandInResolver(0);
+    CachingHostResolver resolver =
+        new CachingHostResolver(standIn, executor, 100, TTL, NEGATIVE_TTL, clock);
+
+    for (int i = 0; i < 2; i++) {
+      try {
+        resolver.resolve("unknown");
+        fail("Expected lookup to fail");
+      } catch (UnknownHostException expected) {
+        assertThat(expected).hasMessageContaining("unknown");
+      }
+    }
+    assertThat(standIn.lookups.get()).isEqualTo(1);
+
+    now.addAndGet(NEGATIVE_TTL + 1);
+    try {
+      resolver.resolve("unknown");
+      fail("Expected lookup to fail");
+    } catch (UnknownHostException expected) {
+      assertThat(standIn.lookups.get()).isEqualTo(2);
+    }
+  }
+
+  @Test
+  public void testPeek_NeverStartsALookup() throws Exception {
+    StandInResolver standIn = new StandInResolver(0);
+    CachingHostResolver resolver =
+        new CachingHostResolver(standIn, executor, 100, TTL, NEGATIVE_TTL, clock);
+
+    assertThat(resolver.peek("host-1")).isNull();
+    InetAddress address = resolver.resolve("host-1");
+    assertThat(resolver.peek("host-1")).isEqualTo(address);
+
+    try {
+      resolver.resolve("unknown");
+      fail("Expected lookup to fail");
+    } catch (UnknownHostException expected) {
+      assertThat(resolver.peek("unknown")).isNull();
+    }
+
+    now.addAndGet(TTL + 1);
+    assertThat(resolver.peek("host-1")).isNull();
+    assertThat(standIn.lookups.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void testPrefetch_IsBoundedByCapacity() throws Exception {
+    StandInResolver standIn = new StandInResolver(0);
+    CachingHostResolver resolver =
+        new CachingHostResolver(standIn, executor, 50, TTL, NEGATIVE_TTL, clock);
+
+    List<String> hosts = new ArrayList<String>();
+    for (int i = 1; i <= 200; i++) {
+      hosts.add("host-" + i);
+    }
+    resolver.prefetch(hosts);
+    resolver.resolveAll(hosts.subList(0, 50));
+
+    assertThat(standIn.lookups.get()).isEqualTo(50);
+    assertThat(resolver.size()).isLessThanOrEqualTo(50);
+  }
+
+  @Test
+  public void testCacheStaysBounded() throws Exception {
+    StandInResolver standIn = new StandInResolver(0);
+    CachingHostResolver resolver =
+        new CachingHostResolver(standIn, executor, 50, TTL, NEGATIVE_TTL, clock);
+
+    for (int i = 1; i <= 500; i++) {
+      now.incrementAndGet();
+      resolver.resolve("host-" + i);
+    }
+
+    assertThat(resolver.size()).isLessThanOrEqualTo(51);
+  }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.net;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SshHostKeyScannerTest {
+
+  /**
+   * Resolves "local-N" to the loopback address and nothing else.
+   */
+  private static final HostResolver LOCAL_RESOLVER = new HostResolver() {
+    @Override
+    public InetAddress resolve(String host) throws UnknownHostException {
+      if (!host.startsWith("local-")) {
+        throw new UnknownHostException(host);
+      }
+      return InetAddress.getByAddress(host, new byte[]{127, 0, 0, 1});
+    }
+  };
+
+  /**
+   * Just enough of an SSH server to send its host key in a key exchange reply.
+   */
+  private static class FakeSshServer implements Runnable {
+    final ServerSocket server;
+    final Map<String, byte[]> hostKeys;
+    final AtomicInteger connections = new AtomicInteger();
+    final ExecutorService handlers = Executors.newCachedThreadPool();
+
+    FakeSshServer(Map<String, byte[]> hostKeys) throws IOException {
+      this.server = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+      this.hostKeys = hostKeys;
+      Thread thread = new Thread(this);
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    int getPort() {
+      return server.getLocalPort();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          final Socket socket = server.accept();
+          connections.incrementAndGet();
+          handlers.execute(new Runnable() {
+            @Override
+            public void run() {
+              try {
+                handle(socket);
+              } catch (IOException e) {
+                // client went away
+              } finally {
+                try {
+                  socket.close();
+                } catch (IOException e) {
+                  // ignore
+                }
+              }
+            }
+          });
+        }
+      } catch (IOException e) {
+        // server closed
+      }
+    }
+
+    void handle(Socket socket) throws IOException {
+      OutputStream out = socket.getOutputStream();
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+      out.write("Welcome\r\nSSH-2.0-Fake_1.0\r\n".getBytes(StandardCharsets.US_ASCII));
+      out.flush();
+      while (in.read() != '\n') {
+        // skip the client version
+      }
+
+      ByteBuffer kexInit = ByteBuffer.wrap(SshHostKeyReader.readPacket(in));
+      assertThat(kexInit.get()).isEqualTo(SshHostKeyReader.SSH_MSG_KEXINIT);
+      kexInit.position(kexInit.position() + 16);
+      SshHostKeyReader.readString(kexInit);
+      List<String> offered = Arrays.asList(new String(SshHostKeyReader.readString(kexInit),
+          StandardCharsets.US_ASCII).split(","));
+
+      ByteBuffer kexDhInit = ByteBuffer.wrap(SshHostKeyReader.readPacket(in));
+      assertThat(kexDhInit.get()).isEqualTo(SshHostKeyReader.SSH_MSG_KEXDH_INIT);
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream reply = new DataOutputStream(bytes);
+      for (Map.Entry<String, byte[]> hostKey : hostKeys.entrySet()) {
+        if (offered.contains(hostKey.getKey())) {
+          reply.writeByte(SshHostKeyReader.SSH_MSG_KEXDH_REPLY);
+          reply.writeInt(hostKey.getValue().length);
+          reply.write(hostKey.getValue());
+          reply.writeInt(1);
+          reply.writeByte(5);
+          reply.writeInt(0);
+          SshHostKeyReader.writePacket(out, bytes.toByteArray());
+          out.flush();
+          return;
+        }
+      }
+
+      reply.writeByte(SshHostKeyReader.SSH_MSG_DISCONNECT);
+      reply.writeInt(3);
+      byte[] message = "no matching host key type found".getBytes(StandardCharsets.UTF_8);
+      reply.writeInt(message.length);
+      reply.write(message);
+      reply.writeInt(0);
+      SshHostKeyReader.writePacket(out, bytes.toByteArray());
+      out.flush();
+    }
+
+    void close() throws IOException {
+      server.close();
+      handlers.shutdownNow();
+    }
+  }
+
+  private static byte[] hostKey(String type, int seed) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+    out.writeInt(name.length);
+    out.write(name);
+    byte[] key = new byte[32];
+    Arrays.fill(key, (byte) seed);
+    out.writeInt(key.length);
+    out.write(key);
+    return bytes.toByteArray();
+  }
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(4);
+  private byte[] ed25519;
+  private byte[] rsa;
+  private FakeSshServer server;
+  private SshHostKeyScanner scanner;
+
+  @Before
+  public void setUp() throws IOException {
+    ed25519 = hostKey("ssh-ed25519", 1);
+    rsa = hostKey("ssh-rsa", 2);
+
+    Map<String, byte[]> hostKeys = new LinkedHashMap<String, byte[]>();
+    hostKeys.put("ssh-ed25519", ed25519);
+    hostKeys.put("ssh-rsa", rsa);
+    server = new FakeSshServer(hostKeys);
+    scanner = newScanner(server.getPort());
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    scanner.close();
+    server.close();
+    executor.shutdownNow();
+  }
+
+  private SshHostKeyScanner newScanner(int port) {
+    return new SshHostKeyScanner(new CachingHostResolver(LOCAL_RESOLVER, executor, 1 << 16,
+        TimeUnit.MINUTES.toNanos(1), TimeUnit.MINUTES.toNanos(1)), port, 16, 5000);
+  }
+
+  @Test
+  public void testFingerprint_OpenSshFormat() {
+    assertThat(SshHostKeyReader.fingerprint("abc".getBytes(StandardCharsets.US_ASCII)))
+        .isEqualTo("SHA256:ungWv48Bz+pBQUDeXa4iI7ADYaOWF3qctBD/YfIAFa0");
+  }
+
+  @Test
+  public void testGetFingerprints_CollectsEveryKeyType() throws InterruptedException {
+    Map<String, Set<String>> fingerprints =
+        scanner.getFingerprints(Collections.singletonList("local-1"), 10, TimeUnit.SECONDS);
+
+    assertThat(fingerprints.get("local-1")).containsExactly(
+        SshHostKeyReader.fingerprint(ed25519), SshHostKeyReader.fingerprint(rsa));
+    assertThat(server.connections.get())
+        .isEqualTo(SshHostKeyScanner.HOST_KEY_ALGORITHM_FAMILIES.size());
+  }
+
+  @Test
+  public void testGetFingerprints_CachedUntilInvalidated() throws InterruptedException {
+    List<String> hosts = Collections.singletonList("local-1");
+    scanner.getFingerprints(hosts, 10, TimeUnit.SECONDS);
+    int connections = server.connections.get();
+
+    scanner.getFingerprints(hosts, 10, TimeUnit.SECONDS);
+    assertThat(server.connections.get()).isEqualTo(connections);
+
+    scanner.invalidate("local-1");
+    assertThat(scanner.getFingerprints(hosts, 10, TimeUnit.SECONDS)).hasSize(1);
+    assertThat(server.connections.get()).isEqualTo(connections * 2);
+  }
+
+  @Test
+  public void testGetFingerprints_OmitsFailedHosts() throws InterruptedException {
+    Map<String, Set<String>> fingerprints = scanner.getFingerprints(
+        Arrays.asList("local-1", "remote-1"), 10, TimeUnit.SECONDS);
+
+    assertThat(fingerprints).hasSize(1);
+    assertThat(fingerprints.get("remote-1")).isNull();
+  }
+
+  @Test
+  public void testGetFingerprints_ClosedPort() throws Exception {
+    ServerSocket closed = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    int port = closed.getLocalPort();
+    closed.close();
+
+    SshHostKeyScanner refused = newScanner(port);
+    try {
+      assertThat(refused.getFingerprints(Collections.singletonList("local-1"),
+          10, TimeUnit.SECONDS)).isEmpty();
+    } finally {
+      refused.close();
+    }
+  }
+
+  @Test
+  public void testGetFingerprints_ManyHostsInParallel() throws InterruptedException {
+    List<String> hosts = new ArrayList<String>();
+    for (int i = 0; i < 200; i++) {
+      hosts.add("local-" + i);
+    }
+
+    long start = System.nanoTime();
+    scanner.prefetch(hosts);
+    Map<String, Set<String>> fingerprints = scanner.getFingerprints(hosts, 30, TimeUnit.SECONDS);
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    assertThat(fingerprints).hasSize(200);
+    assertThat(elapsedMillis).isLessThan(10000L);
+  }
+}
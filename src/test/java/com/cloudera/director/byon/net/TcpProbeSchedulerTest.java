@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.net;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TcpProbeSchedulerTest {
+
+  private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(200);
+  private static final long TIMEOUT = TimeUnit.SECONDS.toNanos(2);
+
+  /**
+   * Resolves "local-N" to the loopback address, "stuck-N" to a second loopback
+   * address and nothing else.
+   */
+  private static final HostResolver LOCAL_RESOLVER = new HostResolver() {
+    @Override
+    public InetAddress resolve(String host) throws UnknownHostException {
+      if (host.startsWith("stuck-")) {
+        return InetAddress.getByAddress(host, new byte[]{127, 0, 0, 2});
+      }
+      if (!host.startsWith("local-")) {
+        throw new UnknownHostException(host);
+      }
+      return InetAddress.getByAddress(host, new byte[]{127, 0, 0, 1});
+    }
+  };
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(4);
+  private ServerSocket server;
+  private Thread acceptor;
+  private TcpProbeScheduler scheduler;
+
+  @Before
+  public void setUp() throws IOException {
+    server = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+    acceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            Socket socket = server.accept();
+            socket.close();
+          }
+        } catch (IOException e) {
+          // server closed
+        }
+      }
+    });
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    if (scheduler != null) {
+      scheduler.close();
+    }
+    server.close();
+    executor.shutdownNow();
+  }
+
+  private TcpProbeScheduler newScheduler(int port) throws IOException {
+    return new TcpProbeScheduler(new CachingHostResolver(LOCAL_RESOLVER, executor, 1 << 16,
+        TimeUnit.MINUTES.toNanos(1), TimeUnit.MINUTES.toNanos(1)), port, INTERVAL, TIMEOUT);
+  }
+
+  @Test
+  public void testWatch_ListeningPortIsReachable() throws Exception {
+    scheduler = newScheduler(server.getLocalPort());
+    scheduler.watch("local-1");
+
+    assertThat(await("local-1", HostLiveness.REACHABLE)).isEqualTo(HostLiveness.REACHABLE);
+  }
+
+  @Test
+  public void testWatch_ClosedPortIsRefused() throws Exception {
+    ServerSocket closed = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    int port = closed.getLocalPort();
+    closed.close();
+
+    scheduler = newScheduler(port);
+    scheduler.watch("local-1");
+
+    assertThat(await("local-1", HostLiveness.REFUSED)).isEqualTo(HostLiveness.REFUSED);
+  }
+
+  @Test
+  public void testWatch_UnknownHostIsUnresolvable() throws Exception {
+    scheduler = newScheduler(server.getLocalPort());
+    scheduler.watch("remote-1");
+
+    assertThat(await("remote-1", HostLiveness.UNRESOLVABLE))
+        .isEqualTo(HostLiveness.UNRESOLVABLE);
+  }
+
+  @Test
+  public void testWatch_NoticesWhenTheServiceGoesAway() throws Exception {
+    scheduler = newScheduler(server.getLocalPort());
+    scheduler.watch("local-1");
+    assertThat(await("local-1", HostLiveness.REACHABLE)).isEqualTo(HostLiveness.REACHABLE);
+
+    server.close();
+
+    assertThat(await("local-1", HostLiveness.REFUSED)).isEqualTo(HostLiveness.REFUSED);
+  }
+
+  @Test
+  public void testWatch_TimesOutWhileOtherHostsAreProbedAgain() throws Exception {
+    // a server that never accepts stops answering once its backlog is full
+    ServerSocket stuck = new ServerSocket();
+    stuck.bind(new InetSocketAddress(InetAddress.getByAddress(new byte[]{127, 0, 0, 2}),
+        server.getLocalPort()), 1);
+    List<Socket> backlog = new ArrayList<Socket>();
+    try {
+      while (true) {
+        Socket socket = new Socket();
+        backlog.add(socket);
+        socket.connect(stuck.getLocalSocketAddress(), 200);
+      }
+    } catch (SocketTimeoutException e) {
+      // backlog is full
+    }
+
+    try {
+      scheduler = newScheduler(server.getLocalPort());
+      scheduler.watch("stuck-1");
+      for (int i = 0; i < 20; i++) {
+        scheduler.watch("local-" + i);
+      }
+
+      assertThat(await("stuck-1", HostLiveness.UNREACHABLE))
+          .isEqualTo(HostLiveness.UNREACHABLE);
+      assertThat(scheduler.getLiveness("local-1")).isEqualTo(HostLiveness.REACHABLE);
+    } finally {
+      for (Socket socket : backlog) {
+        socket.close();
+      }
+      stuck.close();
+    }
+  }
+
+  @Test
+  public void testUnwatch_ForgetsHost() throws Exception {
+    scheduler = newScheduler(server.getLocalPort());
+    scheduler.watch("local-1");
+    await("local-1", HostLiveness.REACHABLE);
+
+    scheduler.unwatch("local-1");
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (scheduler.getLiveness("local-1") != null && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(scheduler.getLiveness("local-1")).isNull();
+  }
+
+  @Test
+  public void testWatch_ThousandsOfHostsOnOneThread() throws Exception {
+    scheduler = newScheduler(server.getLocalPort());
+    int count = 2000;
+    for (int i = 0; i < count; i++) {
+      scheduler.watch("local-" + i);
+    }
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+    int reachable = 0;
+    while (reachable < count && System.nanoTime() < deadline) {
+      Thread.sleep(50);
+      reachable = 0;
+      for (int i = 0; i < count; i++) {
+        if (scheduler.getLiveness("local-" + i) == HostLiveness.REACHABLE) {
+          reachable++;
+        }
+      }
+    }
+    assertThat(reachable).isEqualTo(count);
+    assertThat(scheduler.size()).isEqualTo(count);
+  }
+
+  private HostLiveness await(String host, HostLiveness expected) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (scheduler.getLiveness(host) != expected && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    return scheduler.getLiveness(host);
+  }
+}
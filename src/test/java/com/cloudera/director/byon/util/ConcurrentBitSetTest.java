@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class ConcurrentBitSetTest {
+
+  @Test
+  public void testInitiallySet() {
+    ConcurrentBitSet bits = new ConcurrentBitSet(130, true);
+
+    assertThat(bits.cardinality()).isEqualTo(130);
+    assertThat(bits.get(0)).isTrue();
+    assertThat(bits.get(129)).isTrue();
+    assertThat(bits.nextSetBit(129)).isEqualTo(129);
+  }
+
+  @Test
+  public void testSetAndClear_ReportChanges() {
+    ConcurrentBitSet bits = new ConcurrentBitSet(100, false);
+
+    assertThat(bits.set(70)).isTrue();
+    assertThat(bits.set(70)).isFalse();
+    assertThat(bits.clear(70)).isTrue();
+    assertThat(bits.clear(70)).isFalse();
+    assertThat(bits.cardinality()).isEqualTo(0);
+  }
+
+  @Test
+  public void testClaimNext_InOrder() {
+    ConcurrentBitSet bits = new ConcurrentBitSet(200, true);
+    bits.clear(1);
+
+    assertThat(bits.claimNext()).isEqualTo(0);
+    assertThat(bits.claimNext()).isEqualTo(2);
+  }
+
+  @Test
+  public void testClaimNext_FindsBitsSetBehindTheHint() {
+    ConcurrentBitSet bits = new ConcurrentBitSet(200, true);
+    for (int i = 0; i < 200; i++) {
+      assertThat(bits.claimNext()).isEqualTo(i);
+    }
+    assertThat(bits.claimNext()).isEqualTo(-1);
+
+    bits.set(3);
+    bits.set(150);
+
+    assertThat(bits.claimNext()).isEqualTo(3);
+    assertThat(bits.claimNext()).isEqualTo(150);
+    assertThat(bits.claimNext()).isEqualTo(-1);
+  }
+
+  @Test
+  public void testClaimNext_WithinAMask() {
+    ConcurrentBitSet bits = new ConcurrentBitSet(200, true);
+    BitSet mask = new BitSet();
+    mask.set(70);
+    mask.set(130, 132);
+    bits.clear(130);
+
+    assertThat(bits.cardinality(mask.toLongArray())).isEqualTo(2);
+    assertThat(bits.claimNext(mask.toLongArray())).isEqualTo(70);
+    assertThat(bits.claimNext(mask.toLongArray())).isEqualTo(131);
+    assertThat(bits.claimNext(mask.toLongArray())).isEqualTo(-1);
+    assertThat(bits.cardinality()).isEqualTo(197);
+  }
+
+  @Test
+  public void testClaimNext_BetweenIndexes() {
+    ConcurrentBitSet bits = new ConcurrentBitSet(300, true);
+    BitSet mask = new BitSet();
+    mask.set(0, 300);
+    mask.clear(65);
+
+    assertThat(bits.claimNext(64, 128, mask.toLongArray())).isEqualTo(64);
+    assertThat(bits.claimNext(64, 128, mask.toLongArray())).isEqualTo(66);
+    assertThat(bits.claimNext(127, 128, null)).isEqualTo(127);
+    assertThat(bits.claimNext(127, 128, null)).isEqualTo(-1);
+    assertThat(bits.claimNext(250, 250, null)).isEqualTo(-1);
+    assertThat(bits.claimNext(299, 300, null)).isEqualTo(299);
+  }
+
+  @Test
+  public void testGrow_KeepsBitsAndAddsClearOnes() {
+    ConcurrentBitSet bits = new ConcurrentBitSet(100, true);
+    bits.clear(3);
+
+    bits.grow(100000);
+
+    assertThat(bits.size()).isEqualTo(100000);
+    assertThat(bits.cardinality()).isEqualTo(99);
+    assertThat(bits.set(99999)).isTrue();
+    assertThat(bits.nextSetBit(100)).isEqualTo(99999);
+    for (int i = 0; i < 99; i++) {
+      bits.claimNext();
+    }
+    assertThat(bits.claimNext()).isEqualTo(99999);
+    assertThat(bits.claimNext()).isEqualTo(-1);
+  }
+
+  @Test
+  public void testNextSetBit() {
+    ConcurrentBitSet bits = new ConcurrentBitSet(300, false);
+    bits.set(5);
+    bits.set(250);
+
+    assertThat(bits.nextSetBit(0)).isEqualTo(5);
+    assertThat(bits.nextSetBit(6)).isEqualTo(250);
+    assertThat(bits.nextSetBit(251)).isEqualTo(-1);
+    assertThat(bits.nextSetBit(300)).isEqualTo(-1);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testOutOfBounds() {
+    new ConcurrentBitSet(10, true).get(10);
+  }
+
+  @Test
+  public void testConcurrentClaims_AreExclusive() throws Exception {
+    final ConcurrentBitSet bits = new ConcurrentBitSet(10000, true);
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<List<Integer>>> futures = new ArrayList<Future<List<Integer>>>();
+      for (int i = 0; i < 8; i++) {
+        futures.add(executor.submit(new Callable<List<Integer>>() {
+          @Override
+          public List<Integer> call() {
+            List<Integer> claimed = new ArrayList<Integer>();
+            for (int id = bits.claimNext(); id >= 0; id = bits.claimNext()) {
+              claimed.add(id);
+            }
+            return claimed;
+          }
+        }));
+      }
+
+      Set<Integer> all = new HashSet<Integer>();
+      int total = 0;
+      for (Future<List<Integer>> future : futures) {
+        List<Integer> claimed = future.get();
+        total += claimed.size();
+        all.addAll(claimed);
+      }
+      assertThat(total).isEqualTo(10000);
+      assertThat(all).hasSize(10000);
+
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2018 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.byon.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+public class HostGroupTest {
+
+  @Test
+  public void testRange_IsNotExpanded() {
+    HostGroup group = HostGroup.range("node-", 0, 99999, 5, ".dc1.example.com");
+
+    assertThat(group.size()).isEqualTo(100000);
+    assertThat(group.get(0)).isEqualTo("node-00000.dc1.example.com");
+    assertThat(group.get(42)).isEqualTo("node-00042.dc1.example.com");
+    assertThat(group.get(99999)).isEqualTo("node-99999.dc1.example.com");
+  }
+
+  @Test
+  public void testRange_IndexOf() {
+    HostGroup group = HostGroup.range("node-", 0, 99999, 5, ".dc1.example.com");
+
+    assertThat(group.indexOf("node-00042.dc1.example.com")).isEqualTo(42);
+    assertThat(group.indexOf("node-42.dc1.example.com")).isEqualTo(-1);
+    assertThat(group.indexOf("node-000042.dc1.example.com")).isEqualTo(-1);
+    assertThat(group.indexOf("node-00042.dc2.example.com")).isEqualTo(-1);
+    assertThat(group.indexOf("node-0004x.dc1.example.com")).isEqualTo(-1);
+    assertThat(group.indexOf("node-.dc1.example.com")).isEqualTo(-1);
+  }
+
+  @Test
+  public void testRange_IndexOfWithoutPadding() {
+    HostGroup group = HostGroup.range("10.0.1.", 5, 150, 1, "");
+
+    assertThat(group.indexOf("10.0.1.5")).isEqualTo(0);
+    assertThat(group.indexOf("10.0.1.150")).isEqualTo(145);
+    assertThat(group.indexOf("10.0.1.05")).isEqualTo(-1);
+    assertThat(group.indexOf("10.0.1.4")).isEqualTo(-1);
+    assertThat(group.indexOf("10.0.1.151")).isEqualTo(-1);
+  }
+
+  @Test
+  public void testRange_WiderNumbersThanPadding() {
+    HostGroup group = HostGroup.range("h", 98, 100, 2, "");
+
+    assertThat(group).containsExactly("h98", "h99", "h100");
+    assertThat(group.indexOf("h100")).isEqualTo(2);
+  }
+
+  @Test
+  public void testRange_MatchesPerHostFormatting() {
+    assertMatchesFormat("n-", 1, 1200, 3, ".x");
+    assertMatchesFormat("h", 95, 1005, 1, "");
+    assertMatchesFormat("node-", 0, 99, 2, ".dc1.example.com");
+    assertMatchesFormat("10.0.1.", 250, 254, 1, "");
+  }
+
+  @Test
+  public void testRange_IteratorsDoNotShareNames() {
+    HostGroup group = HostGroup.range("h-", 8, 11, 1, ".x");
+    Iterator<String> first = group.iterator();
+    Iterator<String> second = group.iterator();
+
+    String h8 = first.next();
+    assertThat(second.next()).isEqualTo("h-8.x");
+    String h9 = first.next();
+    String h10 = first.next();
+    assertThat(second.next()).isEqualTo("h-9.x");
+    assertThat(first.next()).isEqualTo("h-11.x");
+    assertThat(first.hasNext()).isFalse();
+    assertThat(h8).isEqualTo("h-8.x");
+    assertThat(h9).isEqualTo("h-9.x");
+    assertThat(h10).isEqualTo("h-10.x");
+  }
+
+  /**
+   * Checks a range against host names built one by one with {@code String.format},
+   * the way ranges were expanded before names were written into a shared buffer.
+   */
+  private static void assertMatchesFormat(String prefix, int start, int end, int padding,
+      String suffix) {
+    List<String> expected = new ArrayList<String>();
+    for (int i = start; i <= end; i++) {
+      expected.add(prefix + String.format("%0" + padding + "d", i) + suffix);
+    }
+    HostGroup group = HostGroup.range(prefix, start, end, padding, suffix);
+
+    assertThat(group.size()).isEqualTo(expected.size());
+    assertThat(new ArrayList<String>(group)).isEqualTo(expected);
+    for (int i = 0; i < expected.size(); i++) {
+      assertThat(group.get(i)).isEqualTo(expected.get(i));
+      assertThat(group.indexOf(expected.get(i))).isEqualTo(i);
+      assertThat(group.contains(expected.get(i))).isTrue();
+    }
+    assertThat(group.contains(prefix + (start - 1) + suffix)).isFalse();
+    assertThat(group.contains(prefix + (end + 1) + suffix)).isFalse();
+  }
+
+  @Test
+  public void testProduct_IteratesLikePositionalAccess() {
+    HostGroup group = HostGroups.parse("h[8-11]-{1,3}.x{98..100}").getGroups().get(0);
+
+    List<String> iterated = new ArrayList<String>();
+    for (String host : group) {
+      iterated.add(host);
+    }
+    assertThat(group.size()).isEqualTo(24);
+    assertThat(iterated).hasSize(24);
+    for (int i = 0; i < group.size(); i++) {
+      assertThat(iterated.get(i)).isEqualTo(group.get(i));
+      assertThat(group.indexOf(iterated.get(i))).isEqualTo(i);
+    }
+    assertThat(iterated.get(0)).isEqualTo("h8-1.x98");
+    assertThat(iterated.get(23)).isEqualTo("h11-3.x100");
+    assertThat(group.indexOf("h9-2.x99")).isEqualTo(-1);
+    assertThat(group.indexOf("h9-1.x099")).isEqualTo(-1);
+  }
+
+  @Test
+  public void testNamePrefix() {
+    assertThat(HostGroup.range("rack1-node-", 1, 9, 1, ".x.com").getNamePrefix())
+        .isEqualTo("rack1-node-");
+    assertThat(HostGroup.of("rack1-node-12.x.com").getNamePrefix()).isEqualTo("rack1-node-");
+    assertThat(HostGroup.of("10.0.1.7").getNamePrefix()).isEqualTo("10.0.1.");
+    assertThat(HostGroup.of("gateway.x.com").getNamePrefix()).isEqualTo("gateway.x.com");
+  }
+
+  @Test
+  public void testSingleHost() {
+    HostGroup group = HostGroup.of("a.example.com");
+
+    assertThat(group).containsExactly("a.example.com");
+    assertThat(group.contains("a.example.com")).isTrue();
+    assertThat(group.contains("b.example.com")).isFalse();
+  }
+
+  @Test
+  public void testList_PositionalAccessAcrossGroups() {
+    HostGroupList hosts = HostGroups.parse("a-[1-3], b, c-[10-11]");
+
+    assertThat(hosts.size()).isEqualTo(6);
+    assertThat(hosts.get(2)).isEqualTo("a-3");
+    assertThat(hosts.get(3)).isEqualTo("b");
+    assertThat(hosts.get(5)).isEqualTo("c-11");
+    assertThat(hosts.indexOf("c-10")).isEqualTo(4);
+    assertThat(hosts.indexOf("c-12")).isEqualTo(-1);
+  }
+
+  @Test
+  public void testList_HugePoolsAreCheap() {
+    HostGroupList hosts = HostGroups.parse("node-[00000-99999].dc1.example.com, " +
+        "node-[00000-99999].dc2.example.com");
+
+    assertThat(hosts.size()).isEqualTo(200000);
+    assertThat(hosts.get(150000)).isEqualTo("node-50000.dc2.example.com");
+    assertThat(hosts.findDuplicates().isEmpty()).isTrue();
+  }
+
+  @Test
+  public void testList_FindDuplicates() {
+    HostGroupList hosts = HostGroups.parse("h-[1-5], h-3, x, h-[04-06], h-[4-8], x");
+
+    assertThat(hosts.findDuplicates().toString()).isEqualTo("{5, 10, 11, 15}");
+  }
+
+  @Test
+  public void testList_Match() {
+    HostGroupList hosts = HostGroups.parse("a-[1-5], b, c-[1-3]");
+    List<HostGroup> missing = new ArrayList<HostGroup>();
+
+    BitSet found = hosts.match(HostGroups.parse("a-[1-5], c-[2-4]{rack=r1}, d-[1-2]"), missing);
+
+    assertThat(found.toString()).isEqualTo("{0, 1, 2, 3, 4, 7, 8}");
+    assertThat(missing).hasSize(2);
+    assertThat(missing.get(0)).containsExactly("c-4");
+    assertThat(missing.get(0).getAttributes()).containsEntry("rack", "r1");
+    assertThat(missing.get(1)).containsExactly("d-1", "d-2");
+    assertThat(hosts.append(missing)).hasSize(12);
+  }
+
+  @Test
+  public void testList_LocateMergesRanges() {
+    HostGroupList hosts = HostGroups.parse("a-[1-5], b, c-[1-3], d");
+    List<HostGroup> missing = new ArrayList<HostGroup>();
+
+    int[] found = hosts.locate(HostGroups.parse("c-2, a-[1-5], b, c-1, a-3, d, e"), missing);
+
+    assertThat(Arrays.toString(found)).isEqualTo("[0, 8, 9, 10]");
+    assertThat(missing).hasSize(1);
+    assertThat(missing.get(0)).containsExactly("e");
+  }
+
+  @Test
+  public void testList_LocateDoesNotDependOnTheSizeOfTheList() {
+    HostGroupList hosts = HostGroups.parse("h-[1-2000000000]");
+    List<HostGroup> missing = new ArrayList<HostGroup>();
+
+    int[] found = hosts.locate(HostGroups.parse("h-[1-2000000000], h-7"), missing);
+
+    assertThat(Arrays.toString(found)).isEqualTo("[0, 2000000000]");
+    assertThat(missing).isEmpty();
+  }
+
+  @Test
+  public void testTable_ConsecutiveLiteralHostsArePacked() {
+    HostGroupList hosts = HostGroups.parse("a.x.com, b.x.com, c.x.com{rack=r1}, d.x.com{rack=r1}, " +
+        "e-[1-2], f.x.com, a.x.com, g.x.com");
+
+    assertThat(hosts).containsExactly("a.x.com", "b.x.com", "c.x.com", "d.x.com", "e-1", "e-2",
+        "f.x.com", "a.x.com", "g.x.com");
+    assertThat(hosts.getGroups()).hasSize(4);
+    assertThat(hosts.getGroups().get(1).getAttributes()).containsEntry("rack", "r1");
+    assertThat(hosts.getGroups().get(1).toString()).isEqualTo("c.x.com{rack=r1}, d.x.com{rack=r1}");
+    assertThat(hosts.indexOf("d.x.com")).isEqualTo(3);
+    assertThat(hosts.indexOf("g.x.com")).isEqualTo(8);
+    assertThat(hosts.indexOf("h.x.com")).isEqualTo(-1);
+    assertThat(hosts.findDuplicates().toString()).isEqualTo("{7}");
+  }
+
+  @Test
+  public void testTable_RepeatedHostStartsANewTable() {
+    HostGroupList hosts = HostGroups.parse("a, b, a, c");
+
+    assertThat(hosts.getGroups()).hasSize(2);
+    assertThat(hosts.getGroups().get(0)).containsExactly("a", "b");
+    assertThat(hosts.getGroups().get(1)).containsExactly("a", "c");
+    assertThat(hosts.findDuplicates().toString()).isEqualTo("{2}");
+  }
+
+  @Test
+  public void testTable_ManyHosts() {
+    StringBuilder expression = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      expression.append("host-").append(Integer.toHexString(i * 7919)).append(".example.com, ");
+    }
+    HostGroupList hosts = HostGroups.parse(expression.toString());
+
+    assertThat(hosts.getGroups()).hasSize(1);
+    assertThat(hosts.size()).isEqualTo(20000);
+    for (int i = 0; i < 20000; i += 997) {
+      String host = "host-" + Integer.toHexString(i * 7919) + ".example.com";
+      assertThat(hosts.get(i)).isEqualTo(host);
+      assertThat(hosts.indexOf(host)).isEqualTo(i);
+    }
+    assertThat(hosts.findDuplicates().isEmpty()).isTrue();
+  }
+
+  @Test
+  public void testTable_OffHeapAndNonAsciiNames() {
+    HostTable.Builder builder = new HostTable.Builder();
+    assertThat(builder.add("b\u00fccher.example.com")).isTrue();
+    assertThat(builder.add("plain.example.com")).isTrue();
+    assertThat(builder.add("b\u00fccher.example.com")).isFalse();
+
+    HostTable onHeap = builder.build(false);
+    HostTable offHeap = builder.build(true);
+
+    assertThat(offHeap.isOffHeap()).isTrue();
+    assertThat(offHeap.get(0)).isEqualTo("b\u00fccher.example.com");
+    assertThat(offHeap.indexOf("b\u00fccher.example.com")).isEqualTo(0);
+    assertThat(offHeap.indexOf("plain.example.com")).isEqualTo(1);
+    assertThat(offHeap.indexOf("bucher.example.com")).isEqualTo(-1);
+    assertThat(offHeap.equals(onHeap)).isTrue();
+    assertThat(HostGroup.of(offHeap).isSameGroup(HostGroup.of(onHeap))).isTrue();
+  }
+
+  @Test
+  public void testTable_Match() {
+    HostGroupList hosts = HostGroups.parse("a, b, c, n-[1-3]");
+    List<HostGroup> missing = new ArrayList<HostGroup>();
+
+    BitSet found = hosts.match(HostGroups.parse("a, b, c, n-[1-3]"), missing);
+    assertThat(found.cardinality()).isEqualTo(6);
+    assertThat(missing).isEmpty();
+
+    found = hosts.match(HostGroups.parse("c, d, n-2, e"), missing);
+    assertThat(found.toString()).isEqualTo("{2, 4}");
+    HostGroupList appended = hosts.append(missing);
+    assertThat(appended.getGroups()).hasSize(3);
+    assertThat(appended.indexOf("e")).isEqualTo(7);
+  }
+}
@@ -18,6 +18,10 @@ package com.cloudera.director.byon.util;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.junit.Test;
 
 public class HostGroupsTest {
@@ -70,9 +74,124 @@ public class HostGroupsTest {
     assertExpandsTo("192.168.0.{5-6}", "192.168.0.5", "192.168.0.6");
   }
 
+  @Test
+  public void testExpandTwoRangesInTheSameGroup() {
+    assertExpandsTo("my-{1..2}-[5-6].example.com",
+        "my-1-5.example.com", "my-1-6.example.com", "my-2-5.example.com", "my-2-6.example.com");
+  }
+
+  @Test
+  public void testParseManyRangesWithoutExpanding() {
+    HostGroupList hosts = HostGroups.parse("dc[1-3]-rack{01..20}-n[1-800]");
+
+    assertThat(hosts.size()).isEqualTo(48000);
+    assertThat(hosts.get(0)).isEqualTo("dc1-rack01-n1");
+    assertThat(hosts.get(800)).isEqualTo("dc1-rack02-n1");
+    assertThat(hosts.get(47999)).isEqualTo("dc3-rack20-n800");
+    assertThat(hosts.indexOf("dc2-rack05-n17")).isEqualTo(16000 + 4 * 800 + 16);
+    assertThat(hosts.indexOf("dc2-rack5-n17")).isEqualTo(-1);
+    assertThat(hosts.getGroups().get(0).toString()).isEqualTo("dc[1-3]-rack[01-20]-n[1-800]");
+  }
+
+  @Test
+  public void testParse_ListsTheSameHostsAsExpand() {
+    String expression = "dc[1-2]-n[98-101].x, gateway, 10.0.1.{8..11}, gateway-2";
+    List<String> expected = new ArrayList<String>();
+    for (int dc = 1; dc <= 2; dc++) {
+      for (int n = 98; n <= 101; n++) {
+        expected.add(String.format("dc%d-n%d.x", dc, n));
+      }
+    }
+    expected.add("gateway");
+    for (int i = 8; i <= 11; i++) {
+      expected.add(String.format("10.0.1.%d", i));
+    }
+    expected.add("gateway-2");
+
+    HostGroupList hosts = HostGroups.parse(expression);
+    assertThat(Arrays.asList(HostGroups.expand(expression))).isEqualTo(expected);
+    assertThat(hosts.size()).isEqualTo(expected.size());
+    assertThat(new ArrayList<String>(hosts)).isEqualTo(expected);
+    for (int i = 0; i < expected.size(); i++) {
+      assertThat(hosts.get(i)).isEqualTo(expected.get(i));
+      assertThat(hosts.indexOf(expected.get(i))).isEqualTo(i);
+      assertThat(hosts.contains(expected.get(i))).isTrue();
+    }
+    assertThat(hosts.contains("dc3-n98.x")).isFalse();
+    assertThat(hosts.contains("10.0.1.12")).isFalse();
+  }
+
+  @Test
+  public void testExpandListsStepsAndExclusions() {
+    assertExpandsTo("n[1,3,7-9]", "n1", "n3", "n7", "n8", "n9");
+    assertExpandsTo("n{0..20..5}", "n0", "n5", "n10", "n15", "n20");
+    assertExpandsTo("n[01-10,!03-08]", "n01", "n02", "n09", "n10");
+    assertExpandsTo("n[0-20..5, !10]", "n0", "n5", "n15", "n20");
+  }
+
+  @Test
+  public void testToStringParsesBackToTheSameHosts() {
+    HostGroup group = HostGroups.parse("r{1..3}.n[005-100..5,!50-60,200]").getGroups().get(0);
+
+    assertThat(group.toString()).isEqualTo("r[1-3].n[005..45..5,65..100..5,200]");
+    assertThat(HostGroups.parse(group.toString())).isEqualTo(group);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRangesSeparatedByDigitsAreAmbiguous() {
+    HostGroups.parse("n[1-11]1[1-2]");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testOverlappingItemsAreNotAllowed() {
+    HostGroups.parse("n[1-5,3-7]");
+  }
+
+  @Test
+  public void testInterleavedStepsAreNotOverlapping() {
+    assertExpandsTo("n[1..9..2,2..10..2]",
+        "n1", "n3", "n5", "n7", "n9", "n2", "n4", "n6", "n8", "n10");
+    assertExpandsTo("n[0..30..6,3..30..4]",
+        "n0", "n6", "n12", "n18", "n24", "n30", "n3", "n7", "n11", "n15", "n19", "n23", "n27");
+    assertExpandsTo("n[2..9..4,4..20..6]", "n2", "n6", "n4", "n10", "n16");
+  }
+
+  @Test
+  public void testSteppedItemsSharingANumberAreNotAllowed() {
+    for (String expression : Arrays.asList("n[0..30..6,4..30..4]", "n[1..9..2,5-6]",
+        "n[3..30..3,10..30..5]")) {
+      try {
+        HostGroups.parse(expression);
+        throw new AssertionError("Expected overlapping items to be rejected: " + expression);
+      } catch (IllegalArgumentException e) {
+        assertThat(e).hasMessageContaining("Overlapping ranges");
+      }
+    }
+  }
+
+  @Test
+  public void testStrayBracketIsReportedUpFront() {
+    try {
+      HostGroups.parse("n[1-5, a, b, c");
+      throw new AssertionError("Expected unbalanced brackets to be rejected");
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessageContaining("Unbalanced brackets");
+    }
+  }
+
+  @Test
+  public void testRangeOfASingleNumber() {
+    assertExpandsTo("n[5-5], m{07..07}", "n5", "m07");
+  }
+
   @Test(expected = IllegalArgumentException.class)
-  public void testWithTwoRangesInTheSameGroupAreNotAllowed() {
-    HostGroups.expand("my-{1..2}-[5-6].example.com");
+  public void testNestedBrackets() {
+    HostGroups.parse("n[1-[2-3]]");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testReversedRange() {
+    HostGroups.parse("n[5-1]");
   }
 
   @Test
@@ -102,6 +221,48 @@ public class HostGroupsTest {
     HostGroups.expand("192.168.0.]1..3[");
   }
 
+  @Test
+  public void testParseGroupsWithAttributes() {
+    HostGroupList hosts = HostGroups.parse(
+        "a-{1..2}.x.com{rack=r1, cores=32}, b-[1-2].x.com {rack=r2}, c.x.com");
+
+    assertThat(hosts).containsExactly("a-1.x.com", "a-2.x.com", "b-1.x.com", "b-2.x.com", "c.x.com");
+    assertThat(hosts.getGroups().get(0).getAttributes())
+        .hasSize(2).containsEntry("rack", "r1").containsEntry("cores", "32");
+    assertThat(hosts.getGroups().get(1).getAttributes())
+        .hasSize(1).containsEntry("rack", "r2");
+    assertThat(hosts.getGroups().get(2).getAttributes()).isEmpty();
+    assertThat(hosts.getGroups().get(0).toString()).isEqualTo("a-[1-2].x.com{rack=r1,cores=32}");
+  }
+
+  @Test
+  public void testSplitIgnoresCommasWithinBrackets() {
+    assertThat(HostGroups.split(" a{rack=r1,cores=2}, ,b-[1-2] ,c"))
+        .containsExactly("a{rack=r1,cores=2}", "b-[1-2]", "c");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidAttribute() {
+    HostGroups.parse("a.x.com{rack=r1,cores}");
+  }
+
+  @Test
+  public void testAttributesWithoutHost() {
+    for (String expression : new String[]{"{rack=r1}", "a.x.com, {rack=r1}", " {rack=r1} "}) {
+      try {
+        HostGroups.parse(expression);
+        throw new AssertionError("Expected IllegalArgumentException for " + expression);
+      } catch (IllegalArgumentException e) {
+        assertThat(e).hasMessageContaining("Missing host before attributes");
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDuplicateAttribute() {
+    HostGroups.parse("a.x.com{rack=r1,rack=r2}");
+  }
+
   public void assertExpandsTo(String pattern, String... hosts) {
     assertThat(HostGroups.expand(pattern)).isEqualTo(hosts);
   }
@@ -19,6 +19,9 @@ package com.cloudera.director.byon.util;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.fail;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Test;
 
 public class StringsTests {
@@ -47,6 +50,58 @@ public class StringsTests {
         .containsExactly("a", "b", "c");
   }
 
+  @Test
+  public void testSplitTrimOmitEmpty_SeparatorIsLiteral() {
+    assertThat(Strings.splitTrimOmitEmpty("a.b . c", "."))
+        .containsExactly("a", "b", "c");
+    assertThat(Strings.splitTrimOmitEmpty("a, b,, c", ",,"))
+        .containsExactly("a, b", "c");
+  }
+
+  @Test
+  public void testForEachPart_PassesTrimmedBounds() {
+    final List<String> parts = new ArrayList<String>();
+    int count = Strings.forEachPart(" a, bb ,, \tc ,", ',', new Strings.PartConsumer() {
+      @Override
+      public void accept(CharSequence input, int start, int end) {
+        parts.add(input.subSequence(start, end).toString());
+      }
+    });
+
+    assertThat(count).isEqualTo(3);
+    assertThat(parts).containsExactly("a", "bb", "c");
+  }
+
+  @Test
+  public void testForEachPart_WithinBounds() {
+    final List<String> parts = new ArrayList<String>();
+    String input = "h-1{rack=r1, cores = 32 }";
+    int count = Strings.forEachPart(input, input.indexOf('{') + 1, input.length() - 1, ',',
+        new Strings.PartConsumer() {
+          @Override
+          public void accept(CharSequence text, int start, int end) {
+            parts.add(text.subSequence(start, end).toString());
+          }
+        });
+
+    assertThat(count).isEqualTo(2);
+    assertThat(parts).containsExactly("rack=r1", "cores = 32");
+    assertThat(Strings.trimmedSubstring(input, 12, 19)).isEqualTo("cores");
+  }
+
+  @Test
+  public void testBracketStats() {
+    Strings.BracketStats stats = Strings.bracketStats("a[1-2]{3..4}, b{rack=r1}");
+    assertThat(stats.getOpened()).isEqualTo(3);
+    assertThat(stats.getMaxDepth()).isEqualTo(1);
+    assertThat(stats.isBalanced()).isTrue();
+
+    assertThat(Strings.bracketStats("a[{1-2}]").getMaxDepth()).isEqualTo(2);
+    assertThat(Strings.bracketStats("a{1-2]").isBalanced()).isFalse();
+    assertThat(Strings.bracketStats("a]1-2[").isBalanced()).isFalse();
+    assertThat(Strings.bracketStats("").isBalanced()).isTrue();
+  }
+
   @Test
   public void testSplitTrimOmitEmpty_EmptyInput() {
     assertThat(Strings.splitTrimOmitEmpty("", ",")).isEmpty();